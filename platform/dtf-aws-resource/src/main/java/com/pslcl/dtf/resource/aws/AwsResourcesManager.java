@@ -38,6 +38,7 @@ import com.pslcl.dtf.core.util.StrH;
 import com.pslcl.dtf.resource.aws.AwsClientConfiguration.AwsClientConfig;
 import com.pslcl.dtf.resource.aws.AwsClientConfiguration.ClientType;
 import com.pslcl.dtf.resource.aws.ProgressiveDelay.ProgressiveDelayData;
+import com.pslcl.dtf.resource.aws.attr.InstanceNames;
 import com.pslcl.dtf.resource.aws.provider.SubnetManager;
 import com.pslcl.dtf.resource.aws.provider.machine.AwsMachineProvider;
 import com.pslcl.dtf.resource.aws.provider.network.AwsNetworkProvider;
@@ -56,6 +57,7 @@ public class AwsResourcesManager implements ResourcesManager
     public volatile SubnetManager subnetManager;
     public volatile AmazonEC2Client ec2Client;
     public volatile AwsClientConfig ec2cconfig;
+    public volatile InstanceStateWatcher instanceStateWatcher;
     public volatile AmazonSimpleEmailServiceClient sesClient;
     public volatile String systemId;
     
@@ -139,21 +141,40 @@ public class AwsResourcesManager implements ResourcesManager
     public static final String TagResourceIdKey = "resourceId";
     
     public void createNameTag(ProgressiveDelayData pdelayData, String name, String resourceId) throws FatalResourceException
+    {
+        List<Tag> tags = getNameTags(pdelayData, name);
+        tags.add(getResourceIdTag(pdelayData));
+        createTags(pdelayData, name, tags, resourceId);
+    }
+    
+    /**
+     * The tags createNameTag gives every resource of a template, that is all but the resourceId tag.
+     */
+    public List<Tag> getNameTags(ProgressiveDelayData pdelayData, String name)
+    {
+        List<Tag> tags = new ArrayList<Tag>();
+        tags.add(new Tag(TagNameKey, name));
+        tags.add(new Tag(SystemIdKey, systemId));
+        tags.add(new Tag(TagRunIdKey, Long.toString(pdelayData.coord.getRunId())));
+        tags.add(new Tag(TagTemplateIdKey, pdelayData.coord.templateIdToHexString()));
+        tags.add(new Tag(TagTemplateInstanceIdKey, "0x"+Long.toHexString(pdelayData.coord.templateInstanceId)));
+        return tags;
+    }
+    
+    public Tag getResourceIdTag(ProgressiveDelayData pdelayData)
+    {
+        return new Tag(TagResourceIdKey, "0x"+Long.toHexString(pdelayData.coord.resourceId));
+    }
+    
+    /**
+     * Give the same tags to one or more resources, in a single createTags call.
+     */
+    public void createTags(ProgressiveDelayData pdelayData, String name, List<Tag> tags, String ... resourceIds) throws FatalResourceException
     {
         pdelayData.maxDelay = maxDelay;
         pdelayData.maxRetries = maxRetries;
         ProgressiveDelay pdelay = new ProgressiveDelay(pdelayData);
-        //@formatter:off
-        CreateTagsRequest ctr = new 
-                        CreateTagsRequest().withTags(
-                                        new Tag(TagNameKey, name),
-                                        new Tag(SystemIdKey, systemId),
-                                        new Tag(TagRunIdKey, Long.toString(pdelayData.coord.getRunId())),
-                                        new Tag(TagTemplateIdKey, pdelayData.coord.templateIdToHexString()),
-                                        new Tag(TagTemplateInstanceIdKey, "0x"+Long.toHexString(pdelayData.coord.templateInstanceId)),
-                                        new Tag(TagResourceIdKey, "0x"+Long.toHexString(pdelayData.coord.resourceId)))
-                                        .withResources(resourceId);
-        //@formatter:on
+        CreateTagsRequest ctr = new CreateTagsRequest().withTags(tags).withResources(resourceIds);
         do
         {
             try
@@ -241,6 +262,10 @@ public class AwsResourcesManager implements ResourcesManager
         ec2Client = new AmazonEC2Client(ec2cconfig.clientConfig);
         ec2Client.setEndpoint(ec2cconfig.endpoint);
         config.initsb.ttl("obtained ec2Client");
+        value = config.properties.getProperty(InstanceNames.Ec2StatePollKey, InstanceNames.Ec2StatePollDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(InstanceNames.Ec2StatePollKey, " = ", value);
+        instanceStateWatcher = new InstanceStateWatcher(ec2Client, config.scheduledExecutor, Long.parseLong(value), Long.parseLong(InstanceNames.Ec2MaxDelayDefault));
         config.initsb.level.decrementAndGet();
         
         config.initsb.ttl("sesClient:");
@@ -272,6 +297,8 @@ public class AwsResourcesManager implements ResourcesManager
         try
         {
             StafSupport.destroy();
+            if(instanceStateWatcher != null)
+                instanceStateWatcher.destroy();
             int size = resourceProviders.size();
             for (int i = 0; i < size; i++)
                 resourceProviders.get(i).destroy();
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.resource.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.pslcl.dtf.core.runner.resource.exception.FatalException;
+import com.pslcl.dtf.core.runner.resource.exception.FatalResourceException;
+import com.pslcl.dtf.core.runner.resource.exception.FatalServerTimeoutException;
+import com.pslcl.dtf.core.util.StrH;
+import com.pslcl.dtf.resource.aws.ProgressiveDelay.ProgressiveDelayData;
+import com.pslcl.dtf.resource.aws.instance.machine.AwsMachineInstance.AwsInstanceState;
+
+/**
+ * Watches EC2 instances of one region until each reaches a wanted state.
+ * 
+ * Rather than each bind or release polling describeInstances for its own instance, every watched instance is described together, 
+ * in pages of up to MaxIdsPerRequest ids, once per poll period. When EC2 throttles the calls the period backs off, up to a limit, 
+ * and returns to normal after the next successful poll.  
+ */
+@SuppressWarnings("javadoc")
+public class InstanceStateWatcher implements Runnable
+{
+    public static final int MaxIdsPerRequest = 1000;
+    private static final String NotFoundCode = "InvalidInstanceID.NotFound";
+    private static final Pattern InstanceIdPattern = Pattern.compile("i-[0-9a-zA-Z]+");
+    private static final long WaitSliceMillis = 1000; // how often a waiting bind checks for its own cancellation
+
+    private final Logger log;
+    private final AmazonEC2Client ec2Client;
+    private final ScheduledExecutorService scheduler;
+    private final long pollMillis;
+    private final long maxPollMillis;
+    private final ConcurrentHashMap<String, Watch> watches;
+    private final AtomicBoolean scheduled;
+    private volatile long delayMillis;
+    private volatile boolean destroyed;
+
+    public InstanceStateWatcher(AmazonEC2Client ec2Client, ScheduledExecutorService scheduler, long pollMillis, long maxPollMillis)
+    {
+        log = LoggerFactory.getLogger(getClass());
+        this.ec2Client = ec2Client;
+        this.scheduler = scheduler;
+        this.pollMillis = pollMillis;
+        this.maxPollMillis = Math.max(pollMillis, maxPollMillis);
+        watches = new ConcurrentHashMap<String, Watch>();
+        scheduled = new AtomicBoolean(false);
+        delayMillis = pollMillis;
+    }
+
+    /**
+     * Start watching an instance.
+     * @param instanceId the instance to watch.  Must not be null.
+     * @param states the states being waited for.
+     * @return a future that completes with the described instance once it is in one of states. 
+     * Cancelling the future stops the watch. A later watch of the same instance replaces, and cancels, an earlier one.
+     */
+    public CompletableFuture<Instance> watch(String instanceId, AwsInstanceState... states)
+    {
+        Watch watch = new Watch(instanceId, states);
+        if (destroyed)
+        {
+            watch.cancel(false);
+            return watch;
+        }
+        Watch previous = watches.put(instanceId, watch);
+        if (previous != null)
+            previous.cancel(false);
+        schedule();
+        return watch;
+    }
+
+    /**
+     * Block until an instance reaches one of the given states.
+     * <p>The wait is limited to about what ProgressiveDelay would allow for pdelayData's max delay and max retries.
+     * @param instanceId the instance to wait on.  Must not be null.
+     * @param pdelay used to handle describe failures.  Must not be null.
+     * @param pdelayData the delay limits and coordinates for messages.  Must not be null.
+     * @param message the human readable name of the wait.
+     * @param canceled if not null, the wait throws CancellationException once this becomes true.
+     * @param states the states being waited for.
+     * @return the described instance, in one of states.
+     * @throws FatalResourceException if describe fails or the wait times out.
+     */
+    public Instance waitFor(String instanceId, ProgressiveDelay pdelay, ProgressiveDelayData pdelayData, String message, AtomicBoolean canceled, AwsInstanceState... states) throws FatalResourceException
+    {
+        long limit = (long) pdelayData.maxDelay * pdelayData.maxRetries;
+        long start = System.currentTimeMillis();
+        CompletableFuture<Instance> future = watch(instanceId, states);
+        try
+        {
+            do
+            {
+                if (canceled != null && canceled.get())
+                    throw new CancellationException();
+                long waited = System.currentTimeMillis() - start;
+                if (waited >= limit)
+                {
+                    FatalServerTimeoutException e = new FatalServerTimeoutException(pdelayData.coord, message + " timed out waiting for " + instanceId);
+                    e.setMaxDelay(pdelayData.maxDelay);
+                    e.setMaxRetries(pdelayData.maxRetries);
+                    e.setTotalWaitTime(StrH.scaleMilliSeconds(waited));
+                    log.warn(e.getMessage());
+                    throw e;
+                }
+                try
+                {
+                    return future.get(Math.min(WaitSliceMillis, limit - waited), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e)
+                {
+                    // check cancellation and the limit, then keep waiting
+                } catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    FatalResourceException fre = pdelay.handleException(message, cause);
+                    if (fre instanceof FatalException)
+                        throw fre;
+                    future = watch(instanceId, states);
+                } catch (CancellationException e)
+                {
+                    // the watcher was destroyed, or another wait on the same instance replaced this one
+                    throw pdelay.handleException(message, new InterruptedException("watch of " + instanceId + " cancelled"));
+                } catch (InterruptedException e)
+                {
+                    throw pdelay.handleException(message, e);
+                }
+            } while (true);
+        } finally
+        {
+            future.cancel(false);
+        }
+    }
+
+    public void destroy()
+    {
+        destroyed = true;
+        for (Watch watch : new ArrayList<Watch>(watches.values()))
+            watch.cancel(false);
+    }
+
+    private void schedule()
+    {
+        if (destroyed)
+            return;
+        if (scheduled.compareAndSet(false, true))
+            scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            poll();
+        } catch (Throwable t)
+        {
+            log.warn(getClass().getSimpleName() + " poll failed", t);
+        } finally
+        {
+            scheduled.set(false);
+            if (!watches.isEmpty())
+                schedule();
+        }
+    }
+
+    private void poll()
+    {
+        List<String> ids = new ArrayList<String>(watches.keySet());
+        boolean throttled = false;
+        for (int i = 0; i < ids.size() && !throttled; i += MaxIdsPerRequest)
+        {
+            List<String> page = ids.subList(i, Math.min(i + MaxIdsPerRequest, ids.size()));
+            try
+            {
+                describeVisible(page);
+            } catch (AmazonServiceException ase)
+            {
+                if (ase.getStatusCode() >= 500 || "RequestLimitExceeded".equals(ase.getErrorCode()) || "Throttling".equals(ase.getErrorCode()))
+                    throttled = true;
+                else
+                    fail(page, ase);
+            } catch (AmazonClientException ace)
+            {
+                if (ace.isRetryable())
+                    throttled = true;
+                else
+                    fail(page, ace);
+            }
+        }
+        if (throttled)
+        {
+            delayMillis = Math.min(delayMillis * 2, maxPollMillis);
+            log.debug(getClass().getSimpleName() + " describeInstances of " + ids.size() + " instances throttled, next poll in " + delayMillis + " ms");
+        } else
+            delayMillis = pollMillis;
+    }
+
+    /**
+     * Describe page, leaving out any instance EC2 does not know of yet. A just launched instance may not be visible for a 
+     * while, and one unknown id fails the whole call, so the unknown ids named by the error are dropped, or failing that 
+     * the page is split, and the rest described now. Those left out stay watched for the next poll.
+     */
+    private void describeVisible(List<String> page)
+    {
+        try
+        {
+            describe(page);
+        } catch (AmazonServiceException ase)
+        {
+            if (!NotFoundCode.equals(ase.getErrorCode()))
+                throw ase;
+            List<String> rest = new ArrayList<String>(page);
+            if (rest.removeAll(instanceIds(ase.getErrorMessage())))
+            {
+                if (!rest.isEmpty())
+                    describeVisible(rest);
+                return;
+            }
+            if (page.size() == 1)
+                return;
+            int half = page.size() / 2;
+            describeVisible(page.subList(0, half));
+            describeVisible(page.subList(half, page.size()));
+        }
+    }
+
+    private void describe(List<String> page)
+    {
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withInstanceIds(page);
+        do
+        {
+            DescribeInstancesResult result = ec2Client.describeInstances(request);
+            for (Reservation reservation : result.getReservations())
+            {
+                for (Instance instance : reservation.getInstances())
+                {
+                    Watch watch = watches.get(instance.getInstanceId());
+                    if (watch != null && watch.isWanted(instance))
+                    {
+                        watches.remove(instance.getInstanceId(), watch);
+                        watch.complete(instance);
+                    }
+                }
+            }
+            request.setNextToken(result.getNextToken());
+        } while (request.getNextToken() != null);
+    }
+
+    private void fail(List<String> page, Exception e)
+    {
+        for (String id : page)
+        {
+            Watch watch = watches.remove(id);
+            if (watch != null)
+                watch.completeExceptionally(e);
+        }
+    }
+
+    private static List<String> instanceIds(String message)
+    {
+        List<String> ids = new ArrayList<String>();
+        if (message == null)
+            return ids;
+        Matcher matcher = InstanceIdPattern.matcher(message);
+        while (matcher.find())
+            ids.add(matcher.group());
+        return ids;
+    }
+
+    private class Watch extends CompletableFuture<Instance>
+    {
+        private final String instanceId;
+        private final AwsInstanceState[] states;
+
+        private Watch(String instanceId, AwsInstanceState[] states)
+        {
+            this.instanceId = instanceId;
+            this.states = states;
+        }
+
+        private boolean isWanted(Instance instance)
+        {
+            AwsInstanceState state;
+            try
+            {
+                state = AwsInstanceState.getState(instance.getState().getName());
+            } catch (Exception e)
+            {
+                return false;
+            }
+            for (int i = 0; i < states.length; i++)
+            {
+                if (state == states[i])
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            watches.remove(instanceId, this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -108,10 +108,14 @@ public class InstanceNames
     public static final String Ec2IamNameKey = InstanceKeyBase + ".iam-name";
     public static final String Ec2KeyPairNameKey = InstanceKeyBase + ".keypair-name";
     public static final String Ec2StallReleaseKey = InstanceKeyBase + ".stall-release";     // in minutes
+    public static final String Ec2StatePollKey = InstanceKeyBase + ".state-poll";           // in milliseconds
+    public static final String Ec2LaunchWindowKey = InstanceKeyBase + ".launch-window";     // in milliseconds
     
     public static final String Ec2MaxDelayDefault = ProviderNames.LongMaxDelayDefault;
     public static final String Ec2MaxRetriesDefault = ProviderNames.LongMaxRetriesDefault;
     public static final String Ec2StallReleaseDefault = "60"; // in minutes
+    public static final String Ec2StatePollDefault = "2000";  // in milliseconds
+    public static final String Ec2LaunchWindowDefault = "250"; // in milliseconds, 0 launches each bind on its own
     
     public static List<String> getInstanceKeys()
     {
@@ -124,6 +128,8 @@ public class InstanceNames
        keys.add(Ec2IamNameKey);
        keys.add(Ec2KeyPairNameKey);
        keys.add(Ec2StallReleaseKey);
+       keys.add(Ec2StatePollKey);
+       keys.add(Ec2LaunchWindowKey);
        return keys;
     }
 }
\ No newline at end of file
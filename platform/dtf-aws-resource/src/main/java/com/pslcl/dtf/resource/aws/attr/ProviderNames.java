@@ -226,6 +226,17 @@ public class ProviderNames
     public static final String LocationMonthDefault = null;
     public static final String LocationDotDefault = null;
     
+    /* ****************************************************************************
+     * Image lookup cache, see ImageFinder    
+    ******************************************************************************/
+    public static final String ImageCacheKeyBase = ImageKeyBase + ".cache";
+    
+    public static final String ImageCacheTtlKey = ImageCacheKeyBase + ".ttl";                    // in seconds
+    public static final String ImageCacheRefreshHitsKey = ImageCacheKeyBase + ".refresh-hits";
+    
+    public static final String ImageCacheTtlDefault = "900";      // 15 minutes, 0 disables the cache
+    public static final String ImageCacheRefreshHitsDefault = "0"; // no background refresh
+    
     
     /* ****************************************************************************
      * SES Inspect    
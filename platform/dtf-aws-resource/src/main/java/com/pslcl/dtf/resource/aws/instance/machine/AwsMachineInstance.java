@@ -16,9 +16,12 @@
 package com.pslcl.dtf.resource.aws.instance.machine;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -30,8 +33,10 @@ import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
 import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
 import com.pslcl.dtf.core.runner.resource.instance.RunnableProgram;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.runner.resource.staf.DeployCache;
 import com.pslcl.dtf.core.runner.resource.staf.futures.ConfigureFuture;
 import com.pslcl.dtf.core.runner.resource.staf.futures.DeleteFuture;
+import com.pslcl.dtf.core.runner.resource.staf.futures.DeployArtifactsFuture;
 import com.pslcl.dtf.core.runner.resource.staf.futures.DeployFuture;
 import com.pslcl.dtf.core.runner.resource.staf.futures.RunFuture;
 import com.pslcl.dtf.core.util.TabToLevel;
@@ -46,9 +51,10 @@ public class AwsMachineInstance implements MachineInstance
     public final Instance ec2Instance;
     public volatile MachineConfigData mconfig;
     public final RunnerConfig rconfig;
-    public final AtomicBoolean sanitizing;
+    private volatile CompletableFuture<Void> sanitized; // completes when the sandbox cleanup of a released instance ends
     public final AtomicBoolean destroyed;
     public final AtomicBoolean taken;
+    public final DeployCache deployCache; // manifest of the artifacts cached on the instance, kept across reuse; null if not cached
     public final long instantiationTime;
     
     public AwsMachineInstance(MachineReservedResource reservedResource, MachineConfigData mconfig, RunnerConfig rconfig)
@@ -56,10 +62,11 @@ public class AwsMachineInstance implements MachineInstance
         this.reservedResource = reservedResource;
         this.mconfig = mconfig;
         this.rconfig = rconfig;
-        sanitizing = new AtomicBoolean(false);
+        sanitized = CompletableFuture.completedFuture(null);
         destroyed = new AtomicBoolean(false);
         taken = new AtomicBoolean(false);
         ec2Instance = reservedResource.ec2Instance;
+        deployCache = (mconfig.deployCacheSize > 0 ? new DeployCache(mconfig.deployCacheSize * 1024L * 1024L) : null);
         instantiationTime = System.currentTimeMillis();
     }
 
@@ -116,6 +123,25 @@ public class AwsMachineInstance implements MachineInstance
         //@formatter:on
         return reservedResource.provider.config.blockingExecutor.submit(deployFuture);
     }
+
+    @Override
+    public List<Future<Void>> deploy(List<Artifact> artifacts) throws Exception
+    {
+        String platform = ec2Instance.getPlatform();
+        boolean windows = false;
+        if (platform != null && platform.length() > 0)
+            windows = true;
+        List<CompletableFuture<Void>> futures = DeployArtifactsFuture.newFutures(artifacts.size());
+        //@formatter:off
+        DeployArtifactsFuture deployFuture = new DeployArtifactsFuture(
+                        ec2Instance.getPublicIpAddress(), 
+                        mconfig.linuxSandboxPath, mconfig.winSandboxPath, 
+                        artifacts, futures, deployCache, windows, reservedResource.resource.getCoordinates().getRunId());
+        //@formatter:on
+        if (!artifacts.isEmpty())
+            reservedResource.provider.config.blockingExecutor.submit(deployFuture);
+        return new ArrayList<Future<Void>>(futures);
+    }
     
     @Override
     public Future<CableInstance> connect(NetworkInstance network)// throws IncompatibleResourceException
@@ -207,6 +233,29 @@ public class AwsMachineInstance implements MachineInstance
         return rconfig.blockingExecutor.submit(future);
     }
     
+    /**
+     * Mark the start or end of the cleanup of a released instance.
+     * <p>A reuse that has claimed the instance waits on {@link #whenSanitized()} for the end.
+     * @param sanitizing true at the start of the cleanup, false when it ends, or is abandoned.
+     */
+    public synchronized void setSanitizing(boolean sanitizing)
+    {
+        if (!sanitizing)
+            sanitized.complete(null);
+        else if (sanitized.isDone())
+            sanitized = new CompletableFuture<Void>();
+    }
+
+    public boolean isSanitizing()
+    {
+        return !sanitized.isDone();
+    }
+
+    public CompletableFuture<Void> whenSanitized()
+    {
+        return sanitized;
+    }
+
     public String toString()
     {
         TabToLevel format = new TabToLevel();
@@ -218,7 +267,7 @@ public class AwsMachineInstance implements MachineInstance
     {
         format.ttl(getClass().getSimpleName());
         format.level.incrementAndGet();
-        format.ttl("sanitizing: ", sanitizing);
+        format.ttl("sanitizing: ", isSanitizing());
         format.ttl("destroyed: ", destroyed);
         format.ttl("taken: ", taken);
         SimpleDateFormat sdf = new SimpleDateFormat();
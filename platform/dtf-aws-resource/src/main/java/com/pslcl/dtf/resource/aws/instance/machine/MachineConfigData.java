@@ -41,6 +41,7 @@ public class MachineConfigData
     public volatile String winUserData;
     public volatile String linuxSandboxPath;
     public volatile String winSandboxPath;
+    public volatile int deployCacheSize; // in megabytes
     public volatile int stallReleaseMinutes;   
     public volatile double rootDiskSize; // in gig   
     
@@ -74,6 +75,7 @@ public class MachineConfigData
         data.winUserData = getAttribute(InstanceNames.Ec2WinUserDataKey, defaultData.winUserData, resource, format);
         data.linuxSandboxPath = getAttribute(ResourceNames.DeployLinuxSandboxKey, defaultData.linuxSandboxPath, resource, format);
         data.winSandboxPath = getAttribute(ResourceNames.DeployWinSandboxKey, defaultData.winSandboxPath, resource, format);
+        data.deployCacheSize = Integer.parseInt(getAttribute(ResourceNames.DeployCacheSizeKey, ""+defaultData.deployCacheSize, resource, format));
         data.rootDiskSize = Double.parseDouble(getAttribute(ResourceNames.MachineDiskKey, ""+defaultData.rootDiskSize, resource, format));
         format.level.decrementAndGet();
 
@@ -101,6 +103,7 @@ public class MachineConfigData
         data.winUserData = getAttribute(config, InstanceNames.Ec2WinUserDataKey, InstanceNames.Ec2WinUserDataDefault);
         data.linuxSandboxPath = getAttribute(config, ResourceNames.DeployLinuxSandboxKey, ResourceNames.DeployLinuxSandboxDefault);
         data.winSandboxPath = getAttribute(config, ResourceNames.DeployWinSandboxKey, ResourceNames.DeployWinSandboxDefault);
+        data.deployCacheSize = Integer.parseInt(getAttribute(config, ResourceNames.DeployCacheSizeKey, ResourceNames.DeployCacheSizeDefault));
         data.rootDiskSize = Double.parseDouble(getAttribute(config, ResourceNames.MachineDiskKey, ResourceNames.MachineDiskDefault));
         config.initsb.level.decrementAndGet();
 
@@ -16,9 +16,12 @@
 package com.pslcl.dtf.resource.aws.instance.machine;
 
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import org.slf4j.LoggerFactory;
@@ -29,8 +32,6 @@ import com.amazonaws.services.ec2.model.CreateKeyPairRequest;
 import com.amazonaws.services.ec2.model.CreateKeyPairResult;
 import com.amazonaws.services.ec2.model.DescribeImagesRequest;
 import com.amazonaws.services.ec2.model.DescribeImagesResult;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.DescribeKeyPairsRequest;
 import com.amazonaws.services.ec2.model.DescribeKeyPairsResult;
 import com.amazonaws.services.ec2.model.EbsBlockDevice;
@@ -41,7 +42,6 @@ import com.amazonaws.services.ec2.model.KeyPair;
 import com.amazonaws.services.ec2.model.KeyPairInfo;
 import com.amazonaws.services.ec2.model.Placement;
 import com.amazonaws.services.ec2.model.RunInstancesRequest;
-import com.amazonaws.services.ec2.model.RunInstancesResult;
 import com.pslcl.dtf.core.runner.config.status.StatusTracker;
 import com.pslcl.dtf.core.runner.resource.ResourceNames;
 import com.pslcl.dtf.core.runner.resource.exception.FatalClientException;
@@ -57,6 +57,7 @@ import com.pslcl.dtf.resource.aws.ProgressiveDelay.ProgressiveDelayData;
 import com.pslcl.dtf.resource.aws.instance.machine.AwsMachineInstance.AwsInstanceState;
 import com.pslcl.dtf.resource.aws.provider.AwsResourceProvider;
 import com.pslcl.dtf.resource.aws.provider.machine.AwsMachineProvider;
+import com.pslcl.dtf.resource.aws.provider.machine.InstanceLauncher;
 import com.pslcl.dtf.resource.aws.provider.machine.MachineReservedResource;
 
 @SuppressWarnings("javadoc")
@@ -88,7 +89,7 @@ public class MachineInstanceFuture implements Callable<MachineInstance>
             checkFutureCanceled();
             config = MachineConfigData.init(pdelayData, reservedResource.resource, reservedResource.format, pdelayData.provider.manager.machineProvider.defaultMachineConfigData);
             checkFutureCanceled();
-            AwsMachineInstance machineInstance = ((AwsMachineProvider) pdelayData.provider).checkForReuse(reservedResource);
+            AwsMachineInstance machineInstance = ((AwsMachineProvider) pdelayData.provider).checkForReuse(reservedResource, config);
             if (machineInstance == null)
             {
                 pdelayData.preFixMostName = config.resourcePrefixName;
@@ -177,89 +178,65 @@ public class MachineInstanceFuture implements Callable<MachineInstance>
             runInstancesRequest.setIamInstanceProfile(profile);
         }
 
-        RunInstancesResult runResult = null;
         pdelayData.maxDelay = config.ec2MaxDelay;
         pdelayData.maxRetries = config.ec2MaxRetries;
         pdelay.reset();
         String msg = pdelayData.getHumanName(Ec2MidStr, "runInstances");
+        String name = pdelayData.getHumanName(Ec2MidStr, null);
+        InstanceLauncher.Launch launch = null;
+        CompletableFuture<InstanceLauncher.Launch> launching = null;
         synchronized (reservedResource)
         {
             // possibility of template release being called before all bind requests for that template have completed.
-            // this synch is required to guarantee that all ec2Client.runInstances success calls are seen by the 
+            // this synch is required to guarantee that all successful launches are seen by the 
             // AwsMachineProvider.release code.
             checkFutureCanceled();
             do
             {
                 try
                 {
-                    runResult = ec2Client.runInstances(runInstancesRequest);
+                    // the launcher joins this with any identical launches of other binds into one runInstances call
+                    launching = pdelayData.provider.manager.machineProvider.getInstanceLauncher().launch(runInstancesRequest, pdelayData, name);
+                    launch = launching.get();
                     break;
-                } catch (Exception e)
+                } catch (ExecutionException e)
                 {
-                    FatalResourceException fre = pdelay.handleException(msg, e);
+                    FatalResourceException fre = pdelay.handleException(msg, e.getCause() == null ? e : e.getCause());
                     if (fre instanceof FatalException)
                         throw fre;
+                } catch (InterruptedException e)
+                {
+                    // the launcher terminates the instance of a cancelled launch; one already handed out is released with this bind
+                    if (launching != null && !launching.cancel(true) && !launching.isCompletedExceptionally())
+                        reservedResource.ec2Instance = launching.getNow(null).instance;
+                    throw pdelay.handleException(msg, e);
                 }
             } while (true);
 
-            if (runResult != null) // get rid of possible null warning
-                reservedResource.ec2Instance = runResult.getReservation().getInstances().get(0);
+            if (launch != null) // get rid of possible null warning
+                reservedResource.ec2Instance = launch.instance;
         }
         waitForState(pdelay, AwsInstanceState.Running);
-        pdelayData.provider.manager.createNameTag(pdelayData, pdelayData.getHumanName(Ec2MidStr, null), reservedResource.ec2Instance.getInstanceId());
+        if (launch.nameTagged)
+            pdelayData.provider.manager.createTags(pdelayData, name, Collections.singletonList(pdelayData.provider.manager.getResourceIdTag(pdelayData)), reservedResource.ec2Instance.getInstanceId());
+        else
+            pdelayData.provider.manager.createNameTag(pdelayData, name, reservedResource.ec2Instance.getInstanceId());
         reservedResource.resource.getAttributes().put(ResourceNames.DnsHostKey, reservedResource.ec2Instance.getPublicDnsName());
         waitForStaf(pdelay);
     }
 
     private void waitForState(ProgressiveDelay pdelay, AwsInstanceState... states) throws FatalResourceException
     {
-        DescribeInstancesRequest diRequest = new DescribeInstancesRequest().withInstanceIds(reservedResource.ec2Instance.getInstanceId());
         pdelayData.maxDelay = config.ec2MaxDelay;
         pdelayData.maxRetries = config.ec2MaxRetries;
         pdelay.reset();
         String msg = pdelayData.getHumanName(Ec2MidStr, "describeInstances");
-        int count = 0;
-        do
+        // the manager's watcher describes all instances being waited on in one call, rather than each bind polling its own
+        Instance inst = pdelayData.provider.manager.instanceStateWatcher.waitFor(reservedResource.ec2Instance.getInstanceId(), pdelay, pdelayData, msg, reservedResource.bindFutureCanceled, states);
+        synchronized (reservedResource)
         {
-            checkFutureCanceled();
-            try
-            {
-                DescribeInstancesResult diResult = ec2Client.describeInstances(diRequest);
-                Instance inst = diResult.getReservations().get(0).getInstances().get(0);
-                if (inst != null)
-                {
-                    boolean found = false;
-                    for (int i = 0; i < states.length; i++)
-                    {
-                        if (AwsInstanceState.getState(inst.getState().getName()) == states[i])
-                        {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (found)
-                    {
-                        synchronized (reservedResource)
-                        {
-                            reservedResource.ec2Instance = inst; // this picks up the running information i.e. public ip addresses
-                            break;
-                        }
-                    }
-                }
-                pdelay.retry(pdelayData.getHumanName(Ec2MidStr, "describeInstances"));
-            } catch (Exception e)
-            {
-                if(count++ < 3)
-                {
-                    pdelay.retry(pdelayData.getHumanName(Ec2MidStr, "describeInstances"));
-                }else
-                {
-                    FatalResourceException fre = pdelay.handleException(msg, e);
-                    if (fre instanceof FatalException)
-                        throw fre;
-                }
-            }
-        } while (true);
+            reservedResource.ec2Instance = inst; // this picks up the running information i.e. public ip addresses
+        }
     }
     
     private void waitForStaf(ProgressiveDelay pdelay) throws FatalResourceException
@@ -319,6 +296,8 @@ public class MachineInstanceFuture implements Callable<MachineInstance>
 
     private RootBlockDeviceInfo getImageDiskInfo(String amiId, ProgressiveDelay pdelay) throws FatalResourceException
     {
+        // the reserve already described this image when it looked it up
+        Image image = pdelayData.provider.manager.machineProvider.getImageFinder().getImage(amiId);
         DescribeImagesRequest diRequest = new DescribeImagesRequest().withImageIds(amiId);
         String msg = pdelayData.getHumanName(Ec2MidStr, "describeImage");
         do
@@ -326,8 +305,11 @@ public class MachineInstanceFuture implements Callable<MachineInstance>
             checkFutureCanceled();
             try
             {
-                DescribeImagesResult diResult = ec2Client.describeImages(diRequest);
-                Image image = diResult.getImages().get(0);
+                if (image == null || image.getBlockDeviceMappings().isEmpty())
+                {
+                    DescribeImagesResult diResult = ec2Client.describeImages(diRequest);
+                    image = diResult.getImages().get(0);
+                }
                 List<BlockDeviceMapping> blockDevices = image.getBlockDeviceMappings();
                 BlockDeviceMapping blockDevice = blockDevices.get(0);
                 String deviceName = blockDevice.getDeviceName();
@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -60,11 +62,13 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
 {
     private final HashMap<Long, AwsMachineInstance> boundInstances; // key is resourceId
     private final HashMap<Long, MachineReservedResource> reservedMachines; // key is resourceId
-    private final HashMap<Long, AwsMachineInstance> stalledRelease; // key is templateInstanceId
+    private final ConcurrentHashMap<Long, AwsMachineInstance> stalledRelease; // key is resourceId
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<AwsMachineInstance>> reusePool; // key is getReuseKey, values are also in stalledRelease
     private final List<Future<Void>> deleteInstanceFutures;
     private final HashMap<Long, List<Future<RunnableProgram>>> runnablePrograms; //TODO: double check this is not leaking memory, all calling deleteInstance
     private final InstanceFinder instanceFinder;
     private final ImageFinder imageFinder;
+    private final InstanceLauncher instanceLauncher;
     public volatile MachineConfigData defaultMachineConfigData;
 
     public AwsMachineProvider(AwsResourcesManager manager)
@@ -72,11 +76,13 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
         super(manager);
         reservedMachines = new HashMap<Long, MachineReservedResource>();
         boundInstances = new HashMap<Long, AwsMachineInstance>();
-        stalledRelease = new HashMap<Long, AwsMachineInstance>();
+        stalledRelease = new ConcurrentHashMap<Long, AwsMachineInstance>();
+        reusePool = new ConcurrentHashMap<String, ConcurrentLinkedQueue<AwsMachineInstance>>();
         deleteInstanceFutures = new ArrayList<Future<Void>>();
         runnablePrograms = new HashMap<Long, List<Future<RunnableProgram>>>();
         instanceFinder = new InstanceFinder();
         imageFinder = new ImageFinder();
+        instanceLauncher = new InstanceLauncher(this);
         totalReuseAttemps = new AtomicInteger(0);
         reuseHits = new AtomicInteger(0);
     }
@@ -100,6 +106,16 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
         return instanceFinder;
     }
 
+    public ImageFinder getImageFinder()
+    {
+        return imageFinder;
+    }
+
+    public InstanceLauncher getInstanceLauncher()
+    {
+        return instanceLauncher;
+    }
+
     HashMap<Long, AwsMachineInstance> getBoundInstances()
     {
         return boundInstances;
@@ -146,7 +162,15 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
     private final AtomicInteger totalReuseAttemps;
     private final AtomicInteger reuseHits;
     
-    public AwsMachineInstance checkForReuse(MachineReservedResource reservedResource)
+    /**
+     * Claim a released instance of the same instance type and image, in the same subnet, for the given bind.
+     * <p>Instances that have finished their cleanup are preferred. Otherwise the claimed instance's cleanup is
+     * waited on before it is handed out.
+     * @param reservedResource the bind's reservation.
+     * @param mconfig the bind's machine configuration.
+     * @return the instance to use, or null if a new one must be launched.
+     */
+    public AwsMachineInstance checkForReuse(MachineReservedResource reservedResource, MachineConfigData mconfig)
     {
         totalReuseAttemps.incrementAndGet();
         TabToLevel format = new TabToLevel();
@@ -154,90 +178,126 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
         format.level.incrementAndGet();
         reservedResource.toString(format, true);
         format.level.incrementAndGet();
-        HashMap<Long, AwsMachineInstance> stalledMap;
-        synchronized (stalledRelease)
+        ConcurrentLinkedQueue<AwsMachineInstance> pool = reusePool.get(getReuseKey(reservedResource, mconfig));
+        AwsMachineInstance stalledInstance = (pool == null ? null : claim(pool));
+        if (stalledInstance == null)
         {
-            stalledMap = new HashMap<Long, AwsMachineInstance>(stalledRelease);
+            format.ttl("no stalled instances to check right now");
+            addStats(format);
+            log.debug(format.toString());
+            return null;
         }
-
-        for (Entry<Long, AwsMachineInstance> entry : stalledMap.entrySet())
+        format.ttl("found a matching instanceType/imageId/subnet may have to wait on sanitization complete");
+        log.debug(format.toString());
+        try
         {
-            AwsMachineInstance stalledInstance = entry.getValue();
-            InstanceType instanceType = stalledInstance.reservedResource.instanceType;
-            if (instanceType != reservedResource.instanceType)
-                continue;
-            if (!stalledInstance.reservedResource.imageId.equals(reservedResource.imageId))
-                continue;
-            
-            synchronized (stalledRelease)
-            {
-                if (stalledInstance.taken.get())
-                    continue;
-                stalledInstance.taken.set(true);
-            }
-            format.ttl("found a matching instanceType/imageId may have to wait on sanitization complete");
+            stalledInstance.whenSanitized().get();
+        } catch (Exception e)
+        {
+            // only completes normally, an interrupt gives the instance back
+            unclaim(stalledInstance);
             log.debug(format.toString());
-            do
-            {
-                if (!stalledInstance.sanitizing.get())
-                    break;
-                try
-                {
-                    Thread.sleep(100);
-                } catch (InterruptedException e)
-                {
-                }
-            } while (true);
-            format.ttl("sanitization complete, returning object to use");
-            if (stalledInstance.destroyed.get())
-            {
-                format.ttl("instance cleanup destroyed the intended, returning null");
-                addStats(format);
-                log.debug(format.toString());
-                return null;
-            }
-            ProgressiveDelayData pdelayData = new ProgressiveDelayData(this, reservedResource.resource.getCoordinates());
-            try
-            {
-                stalledInstance.mconfig = MachineConfigData.init(pdelayData, reservedResource.resource, format, defaultMachineConfigData);
-            } catch (Exception e)
-            {
-                log.warn("failed to inject the new mconfig", e);
-                format.ttl("failed to inject the new mconfig");
-                log.debug(format.toString());
-                synchronized (stalledRelease)
-                {
-                    stalledInstance.taken.set(false);
-                }
-                return null;
-            }
-            pdelayData.preFixMostName = stalledInstance.mconfig.resourcePrefixName; 
-            try
-            {
-                manager.createNameTag(pdelayData, pdelayData.getHumanName(MachineInstanceFuture.Ec2MidStr, null), stalledInstance.ec2Instance.getInstanceId());
-            } catch (FatalResourceException e)
-            {
-                log.warn("createNameTag failed", e);
-                format.ttl("createIdleNameTag failed, continuing anyway");
-            }
-            
-            stalledInstance.reservedResource = reservedResource;
-            reuseHits.incrementAndGet();
-            format.ttl("instance match found");
+            return null;
+        }
+        format.ttl("sanitization complete, returning object to use");
+        if (stalledInstance.destroyed.get())
+        {
+            format.ttl("instance cleanup destroyed the intended, returning null");
             addStats(format);
             log.debug(format.toString());
-            synchronized (stalledRelease)
-            {
-                stalledRelease.remove(entry.getKey());
-            }
-            return stalledInstance;
+            return null;
         }
-        format.ttl("no stalled instances to check right now");
+        ProgressiveDelayData pdelayData = new ProgressiveDelayData(this, reservedResource.resource.getCoordinates());
+        try
+        {
+            stalledInstance.mconfig = MachineConfigData.init(pdelayData, reservedResource.resource, format, defaultMachineConfigData);
+        } catch (Exception e)
+        {
+            log.warn("failed to inject the new mconfig", e);
+            format.ttl("failed to inject the new mconfig");
+            log.debug(format.toString());
+            unclaim(stalledInstance);
+            return null;
+        }
+        pdelayData.preFixMostName = stalledInstance.mconfig.resourcePrefixName; 
+        try
+        {
+            manager.createNameTag(pdelayData, pdelayData.getHumanName(MachineInstanceFuture.Ec2MidStr, null), stalledInstance.ec2Instance.getInstanceId());
+        } catch (FatalResourceException e)
+        {
+            log.warn("createNameTag failed", e);
+            format.ttl("createIdleNameTag failed, continuing anyway");
+        }
+        
+        stalledRelease.remove(stalledInstance.getCoordinates().resourceId, stalledInstance);
+        stalledInstance.reservedResource = reservedResource;
+        reuseHits.incrementAndGet();
+        format.ttl("instance match found");
         addStats(format);
         log.debug(format.toString());
+        return stalledInstance;
+    }
+
+    /**
+     * Take an instance out of the pool, those already sanitized first.
+     * <p>The claim is the taken flag's compare and set, the StalledReleaseTask claims timed out instances the same way.
+     */
+    private AwsMachineInstance claim(ConcurrentLinkedQueue<AwsMachineInstance> pool)
+    {
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (AwsMachineInstance instance : pool)
+            {
+                if (instance.taken.get())
+                {
+                    pool.remove(instance); // claimed elsewhere
+                    continue;
+                }
+                if (pass == 0 && instance.isSanitizing())
+                    continue;
+                if (!instance.taken.compareAndSet(false, true))
+                    continue;
+                pool.remove(instance);
+                return instance;
+            }
+        }
         return null;
     }
 
+    private void unclaim(AwsMachineInstance instance)
+    {
+        instance.taken.set(false);
+        addToPool(instance);
+    }
+
+    private void addToPool(AwsMachineInstance instance)
+    {
+        String key = getReuseKey(instance.reservedResource, instance.mconfig);
+        ConcurrentLinkedQueue<AwsMachineInstance> pool = reusePool.get(key);
+        if (pool == null)
+        {
+            pool = new ConcurrentLinkedQueue<AwsMachineInstance>();
+            ConcurrentLinkedQueue<AwsMachineInstance> existing = reusePool.putIfAbsent(key, pool);
+            if (existing != null)
+                pool = existing;
+        }
+        pool.add(instance);
+    }
+
+    private void removeFromPool(AwsMachineInstance instance)
+    {
+        stalledRelease.remove(instance.getCoordinates().resourceId, instance);
+        ConcurrentLinkedQueue<AwsMachineInstance> pool = reusePool.get(getReuseKey(instance.reservedResource, instance.mconfig));
+        if (pool != null)
+            pool.remove(instance);
+    }
+
+    private static String getReuseKey(MachineReservedResource reservedResource, MachineConfigData mconfig)
+    {
+        String subnetName = (mconfig == null || mconfig.subnetConfigData == null ? null : mconfig.subnetConfigData.subnetName);
+        return reservedResource.instanceType + " " + reservedResource.imageId + " " + subnetName;
+    }
+
     private void addStats(TabToLevel format)
     {
         format.ttl("stats:");
@@ -369,7 +429,8 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                     continue;
             }
             instance.destroyed.set(true);
-            instance.sanitizing.set(false); // the checkReusable may be waiting on this, if so, drop it from its wait and let it error out on first use.
+            instance.setSanitizing(false); // the checkReusable may be waiting on this, if so, drop it from its wait and let it error out on first use.
+            removeFromPool(instance);
             ProgressiveDelayData pdelayData = new ProgressiveDelayData(this, instance.getCoordinates());
             ((AwsMachineProvider) instance.getResourceProvider()).instanceFinder.releaseInstance(instance.reservedResource.instanceType);
             synchronized (deleteInstanceFutures)
@@ -387,19 +448,17 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
         format.ttl("\nsanitizeInstance marking released instances available");
         format.level.incrementAndGet();
         List<AwsMachineInstance> deletedList = new ArrayList<AwsMachineInstance>();
-        synchronized (stalledRelease)
+        for (AwsMachineInstance instance : instancesInTemplate)
         {
-            for (AwsMachineInstance instance : instancesInTemplate)
-            {
-                // optimistic cleanup, give checkForReuse a chance to grab hold of these before totally clean.
-                // destroy them out from under checkForReuse on failure to clear
-                // they will be waiting on the following flag.
-                instance.destroyed.set(false);
-                instance.taken.set(false);
-                instance.sanitizing.set(true);
-                stalledRelease.put(instance.getCoordinates().resourceId, instance);
-                instance.toString(format, true);
-            }
+            // optimistic cleanup, give checkForReuse a chance to grab hold of these before totally clean.
+            // destroy them out from under checkForReuse on failure to clear
+            // they will be waiting on the following future.
+            instance.destroyed.set(false);
+            instance.setSanitizing(true);
+            instance.taken.set(false);
+            stalledRelease.put(instance.getCoordinates().resourceId, instance);
+            addToPool(instance);
+            instance.toString(format, true);
         }
         log.debug(format.toString());
         format.clear();
@@ -415,7 +474,7 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                 format.ttl("delete sandbox failed, nuking this instance");
                 instance.destroyed.set(true);
                 instance.taken.set(true);
-                instance.sanitizing.set(false);
+                instance.setSanitizing(false);
                 deletedList.add(instance);
                 deleteInstances(templateInstanceId, instancesInTemplate, instance.getCoordinates());
             }
@@ -448,13 +507,13 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                             format.ttl("cleanup of running application failed, nuking instance");
                             machineInstance.destroyed.set(true);
                             machineInstance.taken.set(true);
-                            machineInstance.sanitizing.set(false);
+                            machineInstance.setSanitizing(false);
                             deletedList.add(machineInstance);
                             deleteInstances(templateInstanceId, instancesInTemplate, coord);
                         }
                     }
                     log.debug(format.toString());
-                    machineInstance.sanitizing.set(false);
+                    machineInstance.setSanitizing(false);
                 } catch (Exception e)
                 {
                     format.ttl("cleanup of running application threw exception, manual cleanup may be required");
@@ -463,7 +522,7 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                     {
                         instance.destroyed.set(true);
                         instance.taken.set(true);
-                        instance.sanitizing.set(false);
+                        instance.setSanitizing(false);
                     }
 
                     deleteInstances(templateInstanceId, instancesInTemplate, null);
@@ -503,7 +562,7 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                 format.ttl("createIdleNameTag failed, continuing anyway");
             }
 //                stalledRelease.put(instance.getCoordinates().resourceId, instance);
-            instance.sanitizing.set(false);
+            instance.setSanitizing(false);
         }
     }
 
@@ -625,6 +684,7 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
         super.init(config);
         instanceFinder.init(config);
         imageFinder.init(config);
+        instanceLauncher.init(config);
         config.initsb.indentedOk();
         defaultMachineConfigData = MachineConfigData.init(config);
         config.initsb.level.decrementAndGet();
@@ -635,6 +695,7 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
     public void destroy()
     {
         super.destroy();
+        instanceLauncher.destroy();
     }
 
     @Override
@@ -718,16 +779,10 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
             format.ttl("\n", getClass().getSimpleName(), "StaledRelease timout check");
             format.level.incrementAndGet();
             long t1 = System.currentTimeMillis();
-            HashMap<Long, AwsMachineInstance> stalledMap = null;
-            synchronized (stalledRelease)
-            {
-                stalledMap = new HashMap<Long, AwsMachineInstance>(stalledRelease);
-            }
-            format.ttl("stalledMap entries:");
+            format.ttl("stalledRelease entries:");
             format.level.incrementAndGet();
-            for (Entry<Long, AwsMachineInstance> entry : stalledMap.entrySet())
+            for (AwsMachineInstance machineInstance : stalledRelease.values())
             {
-                AwsMachineInstance machineInstance = entry.getValue();
                 int configuredTimeout = machineInstance.mconfig.stallReleaseMinutes; 
                 long delta = t1 - machineInstance.instantiationTime;
                 delta = TimeUnit.MINUTES.convert(delta, TimeUnit.MILLISECONDS);
@@ -748,24 +803,16 @@ public class AwsMachineProvider extends AwsResourceProvider implements MachinePr
                     format.ttl("instance has timed out, deleting");
                     machineInstance.toString(format, true);
                     List<AwsMachineInstance> instancesInTemplate = new ArrayList<AwsMachineInstance>();
-                    synchronized (stalledRelease)
+                    if (machineInstance.taken.compareAndSet(false, true))
                     {
-                        if (!machineInstance.taken.get())
-                        {
-                            format.ttl("checkReusable race we won, break any checkreuseable out of its wait loop");
-                            machineInstance.toString(format, true);
-                            machineInstance.sanitizing.set(false);
-                            machineInstance.destroyed.set(true);
-                            machineInstance.taken.set(true);
-                            instancesInTemplate.add(machineInstance);
-                        }
+                        format.ttl("checkReusable race we won, it can no longer claim this one");
+                        machineInstance.toString(format, true);
+                        machineInstance.destroyed.set(true);
+                        instancesInTemplate.add(machineInstance);
                     }
                     if(instancesInTemplate.size() > 0)
                     {
-                        synchronized (stalledRelease)
-                        {
-                            stalledRelease.remove(entry.getKey());
-                        }
+                        removeFromPool(machineInstance);
                         ResourceCoordinates coord = machineInstance.reservedResource.resource.getCoordinates();
                         deleteInstances(coord.templateInstanceId, instancesInTemplate, null);
                     }
@@ -16,11 +16,17 @@
 package com.pslcl.dtf.resource.aws.provider.machine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,12 +61,19 @@ public class ImageFinder
     private volatile String defaultPlatform;
     private volatile RunnerConfig config;
     private volatile List<GlobalImageAttrMapData> globalImageAttrMapData;
+    private final ConcurrentHashMap<String, CompletableFuture<ResolvedImage>> resolved; // key is ImageFilterData.getKey()
+    private final ConcurrentHashMap<String, Image> imagesById;
+    private volatile long cacheTtl;   // milliseconds, 0 for no caching
+    private volatile int refreshHits; // hits within a ttl that earn a background refresh, 0 for none
+    private volatile AmazonEC2Client ec2Client;
 
     public ImageFinder()
     {
         log = LoggerFactory.getLogger(getClass());
         defaultImageFilters = new Properties();
         defaultLocationFilters = new ArrayList<String>();
+        resolved = new ConcurrentHashMap<String, CompletableFuture<ResolvedImage>>();
+        imagesById = new ConcurrentHashMap<String, Image>();
     }
 
     public void init(RunnerConfig config) throws Exception
@@ -136,6 +149,23 @@ public class ImageFinder
 
         addLocationFilters();
         config.initsb.level.decrementAndGet();
+
+        config.initsb.ttl("AWS Image Cache:");
+        config.initsb.level.incrementAndGet();
+        String value = config.properties.getProperty(ProviderNames.ImageCacheTtlKey, ProviderNames.ImageCacheTtlDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(ProviderNames.ImageCacheTtlKey, " = ", value);
+        cacheTtl = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        value = config.properties.getProperty(ProviderNames.ImageCacheRefreshHitsKey, ProviderNames.ImageCacheRefreshHitsDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(ProviderNames.ImageCacheRefreshHitsKey, " = ", value);
+        refreshHits = Integer.parseInt(value);
+        if (cacheTtl > 0)
+        {
+            long period = Math.max(1000, cacheTtl / 4);
+            config.scheduledExecutor.scheduleWithFixedDelay(new CacheTask(), period, period, TimeUnit.MILLISECONDS);
+        }
+        config.initsb.level.decrementAndGet();
     }
 
     private void addImageFilter(String key, String defaultValue)
@@ -216,6 +246,7 @@ public class ImageFinder
 
     /**
      * Return an Image ID.
+     * <p>Lookups with the same filters share one describeImages call, and its answer is reused until the cache ttl passes.
      * @param ec2Client the amazon client to use.
      * @param resource the resource being requested.
      * @return an image ID meeting all the filtering criteria. 
@@ -223,13 +254,83 @@ public class ImageFinder
      */
     public String findImage(AmazonEC2Client ec2Client, ResourceDescription resource) throws ResourceNotFoundException
     {
+        this.ec2Client = ec2Client;
         TabToLevel format = new TabToLevel();
         format.ttl("\n", getClass().getSimpleName(), "findImage:");
         String imageId = checkTestscriptDeclared(resource, format);
+        // imageId from checkTestscriptDeclared takes priority over aws specific filters
+        ImageFilterData imageFilterData = getFilters(resource, imageId);
+        if (cacheTtl <= 0)
+            return resolveImage(ec2Client, imageFilterData).getImageId();
+
+        String key = imageFilterData.getKey();
+        do
+        {
+            CompletableFuture<ResolvedImage> future = resolved.get(key);
+            if (future != null && !isExpired(future))
+            {
+                try
+                {
+                    ResolvedImage resolvedImage = future.get();
+                    resolvedImage.hits.incrementAndGet();
+                    return resolvedImage.image.getImageId();
+                } catch (ExecutionException e)
+                {
+                    // the shared lookup failed, its loader has already dropped it from the cache 
+                    if (e.getCause() instanceof ResourceNotFoundException)
+                        throw (ResourceNotFoundException) e.getCause();
+                    throw new ResourceNotFoundException("ec2 client exception", e.getCause());
+                } catch (InterruptedException e)
+                {
+                    throw new ResourceNotFoundException("interrupted waiting on image lookup", e);
+                }
+            }
+            // single flight: of the lookups that find no fresh entry, only the one that installs its future calls describeImages
+            CompletableFuture<ResolvedImage> loading = new CompletableFuture<ResolvedImage>();
+            boolean installed = (future == null) ? resolved.putIfAbsent(key, loading) == null : resolved.replace(key, future, loading);
+            if (!installed)
+                continue;
+            try
+            {
+                ResolvedImage resolvedImage = new ResolvedImage(imageFilterData, resolveImage(ec2Client, imageFilterData));
+                resolvedImage.hits.incrementAndGet();
+                loading.complete(resolvedImage);
+                return resolvedImage.image.getImageId();
+            } catch (ResourceNotFoundException e)
+            {
+                resolved.remove(key, loading);
+                loading.completeExceptionally(e);
+                throw e;
+            } catch (RuntimeException e)
+            {
+                resolved.remove(key, loading);
+                loading.completeExceptionally(e);
+                throw e;
+            }
+        } while (true);
+    }
+
+    /**
+     * Return an image already described by findImage.
+     * @param imageId the image wanted.
+     * @return the image, with its block device mappings, or null if findImage has not described it. 
+     */
+    public Image getImage(String imageId)
+    {
+        return imagesById.get(imageId);
+    }
+
+    private boolean isExpired(CompletableFuture<ResolvedImage> future)
+    {
+        if (!future.isDone() || future.isCompletedExceptionally())
+            return false; // in flight, or failed and about to be removed
+        return System.currentTimeMillis() - future.getNow(null).resolvedAt >= cacheTtl;
+    }
+
+    private Image resolveImage(AmazonEC2Client ec2Client, ImageFilterData imageFilterData) throws ResourceNotFoundException
+    {
         try
         {
-            // imageId from checkTestscriptDeclared takes priority over aws specific filters
-            ImageFilterData imageFilterData = getFilters(resource, imageId);
             DescribeImagesRequest request = new DescribeImagesRequest();
             request.setFilters(imageFilterData.imageFilters);
             DescribeImagesResult result = ec2Client.describeImages(request);
@@ -326,7 +427,8 @@ public class ImageFinder
             //                latestImage = image;
             //                return locations.get(0).getImageId();
             log.debug(getClass().getSimpleName() + ".findImage: " + latestImage.toString());
-            return latestImage.getImageId();
+            imagesById.put(latestImage.getImageId(), latestImage);
+            return latestImage;
         } catch (ResourceNotFoundException rnfe)
         {
             log.warn(getClass().getSimpleName() + ".findImage: no images found for given filters", rnfe);
@@ -421,6 +523,92 @@ public class ImageFinder
             this.locationMonth = locationMonth;
             this.locationDot = locationDot;
         }
+
+        /**
+         * @return the filters in a canonical form, so that lookups for the same images share a cache entry
+         */
+        private String getKey()
+        {
+            List<String> parts = new ArrayList<String>();
+            for (Filter filter : imageFilters)
+            {
+                List<String> values = new ArrayList<String>(filter.getValues());
+                Collections.sort(values);
+                parts.add(filter.getName() + "=" + values);
+            }
+            Collections.sort(parts);
+            List<String> features = new ArrayList<String>(locationFilters);
+            Collections.sort(features);
+            return parts + " location=" + locationYear + "." + locationMonth + "." + locationDot + " " + features;
+        }
+    }
+
+    private class ResolvedImage
+    {
+        private final ImageFilterData imageFilterData;
+        private final Image image;
+        private final long resolvedAt;
+        private final AtomicInteger hits;
+
+        private ResolvedImage(ImageFilterData imageFilterData, Image image)
+        {
+            this.imageFilterData = imageFilterData;
+            this.image = image;
+            resolvedAt = System.currentTimeMillis();
+            hits = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Drop expired lookups, and refresh often used ones in the background before they expire.
+     */
+    private class CacheTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            long now = System.currentTimeMillis();
+            for (Entry<String, CompletableFuture<ResolvedImage>> entry : resolved.entrySet())
+            {
+                CompletableFuture<ResolvedImage> future = entry.getValue();
+                if (!future.isDone() || future.isCompletedExceptionally())
+                    continue;
+                ResolvedImage resolvedImage = future.getNow(null);
+                long age = now - resolvedImage.resolvedAt;
+                if (refreshHits > 0 && resolvedImage.hits.get() >= refreshHits && age >= cacheTtl / 2)
+                    config.blockingExecutor.submit(new Refresh(entry.getKey(), future));
+                else if (age >= cacheTtl)
+                    resolved.remove(entry.getKey(), future);
+            }
+        }
+    }
+
+    private class Refresh implements Runnable
+    {
+        private final String key;
+        private final CompletableFuture<ResolvedImage> current;
+
+        private Refresh(String key, CompletableFuture<ResolvedImage> current)
+        {
+            this.key = key;
+            this.current = current;
+        }
+
+        @Override
+        public void run()
+        {
+            ImageFilterData imageFilterData = current.getNow(null).imageFilterData;
+            try
+            {
+                ResolvedImage refreshed = new ResolvedImage(imageFilterData, resolveImage(ec2Client, imageFilterData));
+                if (resolved.replace(key, current, CompletableFuture.completedFuture(refreshed)))
+                    log.debug(ImageFinder.class.getSimpleName() + " refreshed " + key + " to " + refreshed.image.getImageId());
+            } catch (Exception e)
+            {
+                // keep the current answer until it expires, a bind will then look it up itself 
+                log.debug(ImageFinder.class.getSimpleName() + " refresh of " + key + " failed: " + e);
+            }
+        }
     }
 
     class GlobalImageAttrMapData
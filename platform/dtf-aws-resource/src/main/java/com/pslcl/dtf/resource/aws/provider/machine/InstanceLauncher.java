@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.resource.aws.provider.machine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.exception.FatalResourceException;
+import com.pslcl.dtf.core.util.StrH;
+import com.pslcl.dtf.resource.aws.AwsResourcesManager;
+import com.pslcl.dtf.resource.aws.ProgressiveDelay.ProgressiveDelayData;
+import com.pslcl.dtf.resource.aws.attr.InstanceNames;
+
+/**
+ * Launch EC2 instances for concurrent binds together.
+ * 
+ * Launch requests that are identical but for their counts, that is the same image, instance type, subnet, security group, 
+ * key, user data and disk, and that arrive within the launch window of the first, are sent as one runInstances call with 
+ * MaxCount set to the number of requests. The instances are then handed out to the waiting binds in arrival order. 
+ * MinCount is 1, so a partial launch serves as many binds as it can; the rest fail with a retryable exception and 
+ * gather into a smaller launch when they retry. 
+ * The tags shared by the instances of one template are set with one createTags call for the launch. 
+ * Grouped launches run on the launcher's own threads, never on the blocking executor, whose threads may all be 
+ * binds waiting on those launches. 
+ * A bind that stops waiting cancels its launch. A cancelled launch is left out of runInstances if it has not been 
+ * sent yet, and otherwise its instance is terminated, since no bind will release it. 
+ */
+@SuppressWarnings("javadoc")
+public class InstanceLauncher
+{
+    private final Logger log;
+    private final AwsMachineProvider provider;
+    private final HashMap<RunInstancesRequest, List<Launch>> pending; // key is the request without counts
+    private final ExecutorService launchExecutor;
+    private volatile RunnerConfig config;
+    private volatile int windowMillis;
+
+    InstanceLauncher(AwsMachineProvider provider)
+    {
+        log = LoggerFactory.getLogger(getClass());
+        this.provider = provider;
+        pending = new HashMap<RunInstancesRequest, List<Launch>>();
+        launchExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "InstanceLauncher-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    void init(RunnerConfig config)
+    {
+        this.config = config;
+        String value = config.properties.getProperty(InstanceNames.Ec2LaunchWindowKey, InstanceNames.Ec2LaunchWindowDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(InstanceNames.Ec2LaunchWindowKey, " = ", value);
+        windowMillis = Integer.parseInt(value);
+    }
+
+    void destroy()
+    {
+        launchExecutor.shutdownNow();
+        List<Launch> abandoned = new ArrayList<Launch>();
+        synchronized (pending)
+        {
+            for (List<Launch> group : pending.values())
+                abandoned.addAll(group);
+            pending.clear();
+        }
+        for (Launch launch : abandoned)
+            launch.completeExceptionally(new AmazonClientException("instance launcher destroyed before the launch was sent"));
+    }
+
+    /**
+     * Launch one instance.
+     * @param request the launch wanted, with any counts. Must not be null.
+     * @param pdelayData the bind's delay data, used for its tags. Must not be null. 
+     * @param name the Name tag for the instance.
+     * @return a future that completes once the instance is launched, or exceptionally with the runInstances failure.
+     */
+    public CompletableFuture<Launch> launch(RunInstancesRequest request, ProgressiveDelayData pdelayData, String name)
+    {
+        RunInstancesRequest key = request.clone().withMinCount(null).withMaxCount(null);
+        Launch launch = new Launch(pdelayData, name);
+        if (windowMillis <= 0)
+        {
+            List<Launch> group = new ArrayList<Launch>();
+            group.add(launch);
+            run(key, group);
+            return launch;
+        }
+        synchronized (pending)
+        {
+            List<Launch> group = pending.get(key);
+            if (group == null)
+            {
+                group = new ArrayList<Launch>();
+                try
+                {
+                    config.scheduledExecutor.schedule(new WindowClosed(key), windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e)
+                {
+                    launch.completeExceptionally(e);
+                    return launch;
+                }
+                pending.put(key, group);
+            }
+            group.add(launch);
+        }
+        return launch;
+    }
+
+    private void run(RunInstancesRequest key, List<Launch> group)
+    {
+        List<Launch> wanted = new ArrayList<Launch>();
+        for (Launch launch : group)
+        {
+            if (!launch.isCancelled())
+                wanted.add(launch);
+        }
+        if (wanted.isEmpty())
+            return;
+        group = wanted;
+
+        AwsResourcesManager manager = provider.manager;
+        RunInstancesRequest request = key.clone().withMinCount(1).withMaxCount(group.size());
+        List<Instance> instances;
+        try
+        {
+            instances = manager.ec2Client.runInstances(request).getReservation().getInstances();
+        } catch (Exception e)
+        {
+            for (Launch launch : group)
+                launch.completeExceptionally(e);
+            return;
+        }
+        if (group.size() > 1)
+            log.debug(getClass().getSimpleName() + " launched " + instances.size() + " of " + group.size() + " " + key.getInstanceType() + " instances of " + key.getImageId() + " in one runInstances");
+        for (int i = 0; i < group.size() && i < instances.size(); i++)
+            group.get(i).instance = instances.get(i);
+
+        try
+        {
+            tag(manager, group, instances);
+        } catch (Exception e)
+        {
+            log.warn(getClass().getSimpleName() + " tagging " + instances.size() + " instances failed, each bind will tag its own", e);
+        }
+
+        List<String> orphaned = new ArrayList<String>();
+        for (int i = 0; i < group.size(); i++)
+        {
+            Launch launch = group.get(i);
+            if (i < instances.size())
+            {
+                // fails if the bind cancelled its launch while runInstances was under way
+                if (!launch.complete(launch))
+                    orphaned.add(launch.instance.getInstanceId());
+            } else
+                launch.completeExceptionally(new AmazonClientException("runInstances launched " + instances.size() + " of " + group.size() + " instances"));
+        }
+        if (!orphaned.isEmpty())
+            terminate(manager, orphaned);
+    }
+
+    private void terminate(AwsResourcesManager manager, List<String> instanceIds)
+    {
+        try
+        {
+            manager.ec2Client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceIds));
+            log.debug(getClass().getSimpleName() + " terminated " + instanceIds + ", whose launches were cancelled");
+        } catch (Exception e)
+        {
+            log.warn(getClass().getSimpleName() + " terminating " + instanceIds + ", whose launches were cancelled, failed", e);
+        }
+    }
+
+    private void tag(AwsResourcesManager manager, List<Launch> group, List<Instance> instances)
+    {
+        LinkedHashMap<List<Tag>, List<Launch>> byTags = new LinkedHashMap<List<Tag>, List<Launch>>();
+        for (int i = 0; i < group.size() && i < instances.size(); i++)
+        {
+            Launch launch = group.get(i);
+            List<Tag> tags = manager.getNameTags(launch.pdelayData, launch.name);
+            List<Launch> tagged = byTags.get(tags);
+            if (tagged == null)
+            {
+                tagged = new ArrayList<Launch>();
+                byTags.put(tags, tagged);
+            }
+            tagged.add(launch);
+        }
+        for (Entry<List<Tag>, List<Launch>> entry : byTags.entrySet())
+        {
+            List<Launch> tagged = entry.getValue();
+            String[] ids = new String[tagged.size()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = tagged.get(i).instance.getInstanceId();
+            Launch first = tagged.get(0);
+            ProgressiveDelayData pdelayData = new ProgressiveDelayData(first.pdelayData.provider, first.pdelayData.coord);
+            pdelayData.preFixMostName = first.pdelayData.preFixMostName;
+            try
+            {
+                manager.createTags(pdelayData, first.name, entry.getKey(), ids);
+                for (Launch launch : tagged)
+                    launch.nameTagged = true;
+            } catch (FatalResourceException e)
+            {
+                log.warn(getClass().getSimpleName() + " createTags for " + ids.length + " instances failed, each bind will tag its own", e);
+            }
+        }
+    }
+
+    /**
+     * One bind's share of a launch.
+     */
+    public static class Launch extends CompletableFuture<Launch>
+    {
+        private final ProgressiveDelayData pdelayData;
+        private final String name;
+        public volatile Instance instance;
+        public volatile boolean nameTagged; // whether all tags but the resourceId tag are already set 
+
+        private Launch(ProgressiveDelayData pdelayData, String name)
+        {
+            this.pdelayData = pdelayData;
+            this.name = name;
+        }
+    }
+
+    private class WindowClosed implements Runnable
+    {
+        private final RunInstancesRequest key;
+
+        private WindowClosed(RunInstancesRequest key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            final List<Launch> group;
+            synchronized (pending)
+            {
+                group = pending.remove(key);
+            }
+            if (group == null)
+                return;
+            // runInstances and createTags may retry with delays, so keep them off the scheduler's few threads.
+            // Not the blocking executor either: the binds of the group wait on this launch while holding its threads,
+            // so with all of them taken the launch would never run.
+            try
+            {
+                launchExecutor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            InstanceLauncher.this.run(key, group);
+                        } catch (Throwable t)
+                        {
+                            log.error(InstanceLauncher.class.getSimpleName() + " launch failed", t);
+                            for (Launch launch : group)
+                                launch.completeExceptionally(t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e)
+            {
+                // the launcher was destroyed, so the group is never launched
+                for (Launch launch : group)
+                    launch.completeExceptionally(e);
+            }
+        }
+    }
+}
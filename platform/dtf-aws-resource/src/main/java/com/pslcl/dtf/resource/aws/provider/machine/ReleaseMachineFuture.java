@@ -21,8 +21,6 @@ import org.slf4j.LoggerFactory;
 
 import com.amazonaws.services.ec2.model.DeleteSubnetRequest;
 import com.amazonaws.services.ec2.model.DeleteVpcRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
 import com.pslcl.dtf.core.runner.config.status.StatusTracker;
@@ -89,25 +87,9 @@ public class ReleaseMachineFuture implements Callable<Void>
                     throw fre;
             }
         }while(true);
-        DescribeInstancesRequest diRequest = new DescribeInstancesRequest().withInstanceIds(instance.getInstanceId());
         pdelay.reset();
         msg = pdelayData.getHumanName(MachineInstanceFuture.Ec2MidStr, "describeInstances: " + instanceId);
-        do
-        {
-            try
-            {
-                DescribeInstancesResult diResult = provider.manager.ec2Client.describeInstances(diRequest);
-                Instance inst = diResult.getReservations().get(0).getInstances().get(0);
-                if (AwsInstanceState.getState(inst.getState().getName()) == AwsInstanceState.Terminated)
-                    break;
-                pdelay.retry(pdelayData.getHumanName(MachineInstanceFuture.Ec2MidStr, "describeInstances: " + instanceId));
-            } catch (Exception e)
-            {
-                FatalResourceException fre = pdelay.handleException(msg, e);
-                if(fre instanceof FatalException)
-                    throw fre;
-            }
-        }while(true);
+        provider.manager.instanceStateWatcher.waitFor(instanceId, pdelay, pdelayData, msg, null, AwsInstanceState.Terminated);
     }
     
     private void deleteVpc() throws FatalResourceException
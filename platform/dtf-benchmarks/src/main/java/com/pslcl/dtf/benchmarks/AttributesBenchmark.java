@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pslcl.dtf.core.generator.resource.Attributes;
+
+/**
+ * Benchmark of encoding and parsing resource attributes, as done for every bind step that a
+ * generator writes and that the runner reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributesBenchmark
+{
+    /**
+     * The number of attributes.
+     */
+    @Param({ "4", "32" })
+    public int count;
+
+    private Map<String, String> map;
+    private String encoded;
+
+    @Setup
+    public void setup()
+    {
+        map = SyntheticData.attributeMap(count, new Random(1));
+        encoded = new Attributes(map).toString();
+    }
+
+    @Benchmark
+    public Attributes parse()
+    {
+        return new Attributes(encoded);
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return new Attributes(map).toString();
+    }
+
+    @Benchmark
+    public String put()
+    {
+        // as a generator builds attributes, one at a time
+        Attributes attributes = new Attributes();
+        for (Map.Entry<String, String> entry : map.entrySet())
+            attributes.put(entry.getKey(), entry.getValue());
+        return attributes.toString();
+    }
+}
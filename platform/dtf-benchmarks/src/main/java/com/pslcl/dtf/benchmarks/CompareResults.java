@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare benchmark results with a baseline, both in the CSV form written by JMH, and fail if any
+ * benchmark has regressed by more than a tolerance. A change counts as a regression only when the
+ * confidence intervals JMH reports for the two scores do not overlap, so that noise within the error
+ * of either run does not fail the comparison. Benchmarks in only one of the files are listed but do
+ * not fail the comparison.
+ * <p>
+ * Usage: CompareResults &lt;baseline.csv&gt; &lt;results.csv&gt; [tolerance], where tolerance is the
+ * allowed fractional regression, 0.25 by default.
+ */
+public class CompareResults
+{
+    private static class Result
+    {
+        private final String mode;
+        private final double score;
+        private final double error;
+        private final String unit;
+
+        private Result(String mode, double score, double error, String unit)
+        {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    private static List<String> split(String line)
+    {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == ',' && !quoted)
+            {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else
+                field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * @param path a JMH CSV results file.
+     * @return the results, keyed by benchmark name and parameters.
+     * @throws Exception if the file cannot be read or is not JMH CSV.
+     */
+    static Map<String, Result> read(String path) throws Exception
+    {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
+        try
+        {
+            List<String> header = split(reader.readLine());
+            int mode = header.indexOf("Mode");
+            int score = header.indexOf("Score");
+            int error = -1;
+            int unit = header.indexOf("Unit");
+            for (int i = 0; i < header.size(); i++)
+            {
+                if (header.get(i).startsWith("Score Error"))
+                    error = i;
+            }
+            if (header.indexOf("Benchmark") != 0 || mode < 0 || score < 0 || unit < 0)
+                throw new Exception(path + " is not a JMH CSV results file");
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                    continue;
+                List<String> fields = split(line);
+                StringBuilder key = new StringBuilder(fields.get(0));
+                for (int i = unit + 1; i < fields.size() && i < header.size(); i++)
+                {
+                    if (!fields.get(i).isEmpty())
+                        key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+                }
+                // the error is NaN when there were too few samples to compute it
+                double e = (error < 0 || fields.get(error).isEmpty() ? Double.NaN : Double.parseDouble(fields.get(error)));
+                results.put(key.toString(), new Result(fields.get(mode), Double.parseDouble(fields.get(score)), e, fields.get(unit)));
+            }
+        } finally
+        {
+            reader.close();
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("ERROR: usage: CompareResults <baseline.csv> <results.csv> [tolerance]");
+            System.exit(2);
+        }
+        double tolerance = (args.length > 2 ? Double.parseDouble(args[2]) : 0.25);
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : current.entrySet())
+        {
+            Result now = entry.getValue();
+            Result base = baseline.get(entry.getKey());
+            if (base == null || !base.mode.equals(now.mode) || !base.unit.equals(now.unit))
+            {
+                System.out.println(String.format("  new       %s: %.3f %s", entry.getKey(), now.score, now.unit));
+                continue;
+            }
+            // throughput regresses as it falls; times regress as they rise
+            boolean throughput = now.mode.equals("thrpt");
+            double change = (throughput ? base.score / now.score : now.score / base.score) - 1.0;
+            // without an error for either score, the intervals are taken to be apart
+            double baseError = (Double.isNaN(base.error) ? 0.0 : base.error);
+            double nowError = (Double.isNaN(now.error) ? 0.0 : now.error);
+            boolean apart = (throughput ? now.score + nowError < base.score - baseError : now.score - nowError > base.score + baseError);
+            boolean regressed = change > tolerance && apart;
+            if (regressed)
+                ++regressions;
+            System.out.println(String.format("%s %+6.1f%% %s: %.3f +/- %.3f -> %.3f +/- %.3f %s%s", (regressed ? "! " : "  "), change * 100.0, entry.getKey(),
+                            base.score, baseError, now.score, nowError, now.unit, (change > tolerance && !apart ? " (within error)" : "")));
+        }
+        for (String key : baseline.keySet())
+        {
+            if (!current.containsKey(key))
+                System.out.println("  missing   " + key);
+        }
+        if (regressions > 0)
+        {
+            System.err.println("ERROR: " + regressions + " benchmark(s) regressed by more than " + Math.round(tolerance * 100.0) + "%, beyond their error");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pslcl.dtf.core.Hash;
+import com.pslcl.dtf.core.generator.template.DescribedTemplate;
+
+/**
+ * Benchmarks of the Hash operations used by template generation and synchronization: map lookups
+ * keyed by hashes and described template keys, conversion to bytes for JDBC binds, and sorting.
+ * Lookups use hashes that are equal to, but not the same object as, the map keys, as happens when
+ * keys are rebuilt from database rows or from generated templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark
+{
+    @Param({ "10000" })
+    public int count;
+
+    private List<Hash> hashes;
+    private List<Hash> copies;
+    private Map<Hash, Integer> byHash;
+    private Map<DescribedTemplate.Key, Integer> byKey;
+    private List<DescribedTemplate.Key> keys;
+    private String templateText;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(1);
+        hashes = new ArrayList<Hash>(count);
+        copies = new ArrayList<Hash>(count);
+        byHash = new HashMap<Hash, Integer>();
+        byKey = new HashMap<DescribedTemplate.Key, Integer>();
+        keys = new ArrayList<DescribedTemplate.Key>(count);
+
+        Hash modules = Hash.fromContent("modules");
+        for (int i = 0; i < count; i++)
+        {
+            byte[] bytes = new byte[32];
+            random.nextBytes(bytes);
+            Hash hash = new Hash(bytes);
+            hashes.add(hash);
+            copies.add(new Hash(bytes));
+            byHash.put(hash, i);
+            byKey.put(new DescribedTemplate.Key(hash, modules), i);
+            keys.add(new DescribedTemplate.Key(new Hash(bytes), modules));
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            text.append("bind 0 ").append(hashes.get(i).toString()).append(" attribute=value\n");
+        templateText = text.toString();
+    }
+
+    @Benchmark
+    public int lookupHash()
+    {
+        int found = 0;
+        for (Hash h : copies)
+            found += byHash.get(h);
+        return found;
+    }
+
+    @Benchmark
+    public int lookupDescribedTemplateKey()
+    {
+        int found = 0;
+        for (DescribedTemplate.Key key : keys)
+            found += byKey.get(key);
+        return found;
+    }
+
+    @Benchmark
+    public void toBytes(Blackhole bh)
+    {
+        for (Hash h : hashes)
+            bh.consume(h.toBytes());
+    }
+
+    @Benchmark
+    public void renderHex(Blackhole bh)
+    {
+        for (Hash h : copies)
+            bh.consume(new Hash(h.toBytes()).toString());
+    }
+
+    @Benchmark
+    public List<Hash> sort()
+    {
+        List<Hash> sorted = new ArrayList<Hash>(copies);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public Hash hashTemplate()
+    {
+        return Hash.fromContent(templateText);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pslcl.dtf.core.Hash;
+
+/**
+ * Benchmark of hashing artifact content, as done when artifacts are indexed and when deployed
+ * content is verified. The file is read from the page cache after the first iteration, so this
+ * measures hashing rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashContentBenchmark
+{
+    /**
+     * The size of the content in bytes.
+     */
+    @Param({ "65536", "16777216" })
+    public long size;
+
+    private File file;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        file = File.createTempFile("dtf-hash-", ".bin");
+        SyntheticData.contentFile(file, size, new Random(1));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        SyntheticData.delete(file);
+    }
+
+    @Benchmark
+    public Hash fromFile()
+    {
+        return Hash.fromContent(file);
+    }
+
+    @Benchmark
+    public Hash fromStream() throws Exception
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return Hash.fromContent(in);
+        } finally
+        {
+            in.close();
+        }
+    }
+}
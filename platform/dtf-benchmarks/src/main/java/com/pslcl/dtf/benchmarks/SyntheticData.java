@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.pslcl.dtf.core.generator.resource.Attributes;
+
+/**
+ * Generators of synthetic templates, attributes and artifacts for the benchmarks. Each is driven by
+ * the given Random so that a benchmark seeded the same way measures the same data on every run.
+ */
+public final class SyntheticData
+{
+    private SyntheticData()
+    {
+    }
+
+    /**
+     * @param random the source of the hash.
+     * @return an upper case hex hash, as rendered by Hash.
+     */
+    public static String hashHex(Random random)
+    {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : bytes)
+            sb.append(String.format("%02X", b & 0xFF));
+        return sb.toString();
+    }
+
+    /**
+     * @param count the number of attributes.
+     * @param random the source of the values.
+     * @return attributes named attribute0 and up, with values that need URL encoding.
+     */
+    public static Map<String, String> attributeMap(int count, Random random)
+    {
+        Map<String, String> map = new TreeMap<String, String>();
+        for (int i = 0; i < count; i++)
+            map.put("attribute" + i, "value " + random.nextInt(1000) + "/" + random.nextInt(1000));
+        return map;
+    }
+
+    /**
+     * @param count the number of attributes.
+     * @param random the source of the values.
+     * @return the encoded form of attributeMap(count, random).
+     */
+    public static String attributes(int count, Random random)
+    {
+        return new Attributes(attributeMap(count, random)).toString();
+    }
+
+    /**
+     * Generate the steps of a template in the form stored in the template table. Machines 0 through
+     * machines-1 are bound with a network, each machine has artifacts deployed and is connected, and
+     * each then runs a client whose parameters refer to the address and attributes of another machine.
+     * @param machines the number of machines.
+     * @param deploys the number of artifacts deployed to each machine.
+     * @param random the source of names and hashes.
+     * @return the steps, each terminated by a newline.
+     */
+    public static String templateSteps(int machines, int deploys, Random random)
+    {
+        int network = machines;
+        StringBuilder sb = new StringBuilder();
+        for (int m = 0; m < machines; m++)
+            sb.append("0 bind machine ").append(attributes(4, random)).append('\n');
+        sb.append("0 bind network\n");
+        for (int m = 0; m < machines; m++)
+        {
+            for (int d = 0; d < deploys; d++)
+                sb.append("1 deploy ").append(m).append(" lib/artifact").append(random.nextInt(1000)).append(".jar ").append(hashHex(random)).append('\n');
+        }
+        for (int m = 0; m < machines; m++)
+            sb.append("2 connect ").append(m).append(' ').append(network).append('\n');
+        for (int m = 0; m < machines; m++)
+            sb.append("3 run ").append(m).append(' ').append(programParameters(m, (m + 1) % machines, network)).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @param machine the machine running the program.
+     * @param peer the machine that the program connects to.
+     * @param network the network of both machines.
+     * @return program parameters that refer to the address and attributes of the peer.
+     */
+    public static String programParameters(int machine, int peer, int network)
+    {
+        return "bin/client --id " + machine + " --server $(ip " + peer + " " + network + ") --name $(attribute " + peer + " attribute0) --port 5000";
+    }
+
+    /**
+     * Write a file of random content.
+     * @param file the file to write.
+     * @param size the size of the file in bytes.
+     * @param random the source of the content.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void contentFile(File file, long size, Random random) throws IOException
+    {
+        byte[] buffer = new byte[64 * 1024];
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            for (long left = size; left > 0; left -= buffer.length)
+            {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(left, buffer.length));
+            }
+        } finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a set of artifacts, spread over bin, lib and doc subdirectories.
+     * @param dir the directory to hold the artifacts, which is created.
+     * @param files the number of artifacts.
+     * @param size the size of each artifact in bytes.
+     * @param random the source of the content.
+     * @throws IOException if the artifacts cannot be written.
+     */
+    public static void artifactDirectory(File dir, int files, long size, Random random) throws IOException
+    {
+        String[] subdirs = { "bin", "lib", "doc" };
+        for (String subdir : subdirs)
+        {
+            File sub = new File(dir, subdir);
+            if (!sub.isDirectory() && !sub.mkdirs())
+                throw new IOException("unable to create " + sub.getPath());
+        }
+        for (int i = 0; i < files; i++)
+            contentFile(new File(dir, subdirs[i % subdirs.length] + File.separator + "artifact" + i), size, random);
+    }
+
+    /**
+     * Delete a file or a directory and its contents.
+     * @param file the file or directory.
+     */
+    public static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
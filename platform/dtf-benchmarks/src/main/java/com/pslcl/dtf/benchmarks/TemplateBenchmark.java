@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pslcl.dtf.core.generator.resource.Machine;
+import com.pslcl.dtf.core.generator.resource.Resource;
+import com.pslcl.dtf.core.generator.template.DescribedTemplate;
+import com.pslcl.dtf.core.generator.template.Template;
+import com.pslcl.dtf.core.generator.template.TestInstance;
+
+/**
+ * Benchmark of building the standard string and hash of large templates. Each template binds a set
+ * of machines, deploys artifacts to them and then runs programs on them, in the shape produced by
+ * the machine resource. The actions are synthetic so that no generator or database is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark
+{
+    /**
+     * An action that may bind a machine, and whose command refers to other machines.
+     */
+    private static class SyntheticAction extends TestInstance.Action
+    {
+        private String name;
+        private Resource bound;
+        private Resource[] uses;
+
+        SyntheticAction(int setID, String name, Resource bound, Resource... uses)
+        {
+            this.name = name;
+            this.bound = bound;
+            this.uses = uses;
+            assignSetID(setID);
+        }
+
+        @Override
+        public String getCommand(Template t) throws Exception
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(getSetID()).append(' ').append(name);
+            for (Resource r : uses)
+                sb.append(' ').append(t.getReference(r));
+            if (bound != null)
+                sb.append(' ').append(bound.codename);
+            return sb.toString();
+        }
+
+        @Override
+        public String getDescription() throws Exception
+        {
+            return name;
+        }
+
+        @Override
+        public ArtifactUses getArtifactUses() throws Exception
+        {
+            return null;
+        }
+
+        @Override
+        public Resource getBoundResource() throws Exception
+        {
+            return bound;
+        }
+
+        @Override
+        public DescribedTemplate getIncludedTemplate() throws Exception
+        {
+            return null;
+        }
+    }
+
+    /**
+     * The number of machines, each of which has five deploy and two run actions.
+     */
+    @Param({ "10", "100" })
+    public int machines;
+
+    private List<TestInstance.Action> actions;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(1);
+        actions = new ArrayList<TestInstance.Action>();
+        for (int m = 0; m < machines; m++)
+        {
+            Machine machine = new Machine(null, "machine" + m);
+            actions.add(new SyntheticAction(0, "bind", machine));
+            for (int d = 0; d < 5; d++)
+                actions.add(new SyntheticAction(1, "deploy lib/artifact" + random.nextInt(1000) + ".jar", null, machine));
+            actions.add(new SyntheticAction(2, "start bin/server" + random.nextInt(10), null, machine));
+            actions.add(new SyntheticAction(3, "run bin/client" + random.nextInt(10), null, machine));
+        }
+
+        Collections.shuffle(actions, random);
+    }
+
+    @Benchmark
+    public Template buildStrings() throws Exception
+    {
+        // The template sorts the list it is given.
+        return new Template(null, new ArrayList<TestInstance.Action>(actions), null);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.messageQueue.MessageQueueBase;
+import com.pslcl.dtf.core.util.StrH;
+import com.pslcl.dtf.runner.RunnerService;
+
+/**
+ * A message queue held in memory, standing in for SQS under load. As with SQS, a delivered message
+ * that is not acknowledged is delivered again once its visibility timeout has passed; this is how a
+ * run postponed by the runner's test instance limit comes back.
+ * <p>
+ * The queue is created by the runner from configuration; the load harness finds it with get()
+ * and queues run entry numbers with setQueueStoreEntry().
+ */
+public class InMemoryMessageQueue extends MessageQueueBase
+{
+    public static final String VisibilityTimeoutKey = LoadHarness.LoadKeyBase + ".visibility-timeout";
+    public static final String VisibilityTimeoutDefault = "5"; // seconds
+
+    private static volatile InMemoryMessageQueue queue;
+
+    private final Logger log;
+    private final DelayQueue<Delivery> deliveries;
+    private final ConcurrentHashMap<Long, Entry> entries;
+    private final AtomicInteger acked;
+    private volatile RunnerService runnerService;
+    private volatile long visibilityNanos;
+    private volatile Thread deliveryThread;
+
+    private static class Delivery implements Delayed
+    {
+        private final Entry entry;
+        private final long dueNanos;
+
+        private Delivery(Entry entry, long dueNanos)
+        {
+            this.entry = entry;
+            this.dueNanos = dueNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            return Long.compare(dueNanos, ((Delivery) other).dueNanos);
+        }
+    }
+
+    private class Entry implements InvocationHandler
+    {
+        private final long reNum;
+        private final long queuedNanos;
+        private final Message message;
+        private volatile long deliveredNanos;
+        private volatile long startedNanos;     // the delivery the runner started the run for
+        private volatile boolean isAcked;
+
+        private Entry(long reNum)
+        {
+            this.reNum = reNum;
+            this.queuedNanos = System.nanoTime();
+            this.message = (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[] { Message.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "acknowledge":
+                    ack(this);
+                    return null;
+                case "getJMSMessageID":
+                    return "load-" + reNum;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "load-" + reNum;
+                default:
+                    throw new JMSException(method.getName() + " is not supported by " + InMemoryMessageQueue.class.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * @return the queue created by the runner, or null if it has not been initialized.
+     */
+    public static InMemoryMessageQueue get()
+    {
+        return queue;
+    }
+
+    public InMemoryMessageQueue()
+    {
+        log = LoggerFactory.getLogger(getClass());
+        deliveries = new DelayQueue<Delivery>();
+        entries = new ConcurrentHashMap<Long, Entry>();
+        acked = new AtomicInteger(0);
+    }
+
+    /**
+     * @return the number of run entries acknowledged so far.
+     */
+    public int getAckedCount()
+    {
+        return acked.get();
+    }
+
+    private void ack(Entry entry)
+    {
+        synchronized (entry)
+        {
+            if (entry.isAcked)
+                return;
+            entry.isAcked = true;
+        }
+        long now = System.nanoTime();
+        long started = (entry.startedNanos != 0 ? entry.startedNanos : entry.deliveredNanos);
+        LoadStatistics statistics = LoadStatistics.get();
+        statistics.record("waiting", entry.queuedNanos, started);
+        statistics.record("running", started, now);
+        statistics.record("total", entry.queuedNanos, now);
+        acked.incrementAndGet();
+        synchronized (acked)
+        {
+            acked.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for run entries to be acknowledged.
+     * @param count the number of acknowledged run entries to wait for.
+     * @param timeoutMillis the longest time to wait.
+     * @return true if count run entries have been acknowledged.
+     * @throws InterruptedException if interrupted.
+     */
+    public boolean awaitAcked(int count, long timeoutMillis) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (acked)
+        {
+            long left;
+            while (acked.get() < count && (left = end - System.currentTimeMillis()) > 0)
+                acked.wait(left);
+        }
+        return acked.get() >= count;
+    }
+
+    @Override
+    public void init(RunnerConfig config) throws Exception
+    {
+        super.init(config);
+        String value = StrH.trim(config.properties.getProperty(VisibilityTimeoutKey, VisibilityTimeoutDefault));
+        config.initsb.ttl(VisibilityTimeoutKey, " = ", value);
+        visibilityNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+        runnerService = (RunnerService) config.runnerService;
+        queue = this;
+    }
+
+    @Override
+    public void destroy()
+    {
+        cleanupQueueStoreAccess();
+        queue = null;
+    }
+
+    @Override
+    public boolean queueStoreExists()
+    {
+        return true;
+    }
+
+    @Override
+    public void initQueueStoreSet()
+    {
+    }
+
+    @Override
+    public void setQueueStoreEntry(long queueStoreEntryNumber)
+    {
+        Entry entry = new Entry(queueStoreEntryNumber);
+        if (entries.putIfAbsent(queueStoreEntryNumber, entry) == null)
+            deliveries.add(new Delivery(entry, entry.queuedNanos));
+    }
+
+    @Override
+    public void initQueueStoreGet()
+    {
+        deliveryThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliver();
+            }
+        }, "InMemoryMessageQueue");
+        deliveryThread.setDaemon(true);
+        deliveryThread.start();
+    }
+
+    private void deliver()
+    {
+        LoadStatistics statistics = LoadStatistics.get();
+        while (!Thread.currentThread().isInterrupted())
+        {
+            Delivery delivery;
+            try
+            {
+                delivery = deliveries.take();
+            } catch (InterruptedException e)
+            {
+                break;
+            }
+            Entry entry = delivery.entry;
+            if (entry.isAcked)
+                continue;
+            statistics.count(entry.deliveredNanos == 0 ? "deliveries" : "redeliveries");
+            long deliveredNanos = System.nanoTime();
+            entry.deliveredNanos = deliveredNanos;
+            // not visible again until the timeout passes, whether or not the runner accepts it now
+            deliveries.add(new Delivery(entry, deliveredNanos + visibilityNanos));
+            try
+            {
+                submitQueueStoreNumber(Long.toString(entry.reNum), entry.message);
+                // a run postponed at the test instance limit is not running
+                if (entry.startedNanos == 0 && (entry.isAcked || runnerService.processTracker.isRunning(entry.reNum)))
+                    entry.startedNanos = deliveredNanos;
+            } catch (Throwable t)
+            {
+                statistics.count("submit failures");
+                log.debug(getClass().getSimpleName() + " submit of reNum " + entry.reNum + " failed: " + t);
+            }
+        }
+    }
+
+    @Override
+    public void ackQueueStoreEntry(String jmsMessageID) throws JMSException
+    {
+        Entry entry = entries.get(Long.parseLong(jmsMessageID.substring("load-".length())));
+        if (entry == null)
+            throw new JMSException("unknown message " + jmsMessageID);
+        ack(entry);
+    }
+
+    @Override
+    public void cleanupQueueStoreAccess()
+    {
+        Thread thread = deliveryThread;
+        deliveryThread = null;
+        if (thread != null)
+            thread.interrupt();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.util.Random;
+
+/**
+ * A distribution of simulated latencies, in milliseconds, given in configuration as one of:
+ * <ul>
+ * <li>fixed:&lt;ms&gt;</li>
+ * <li>uniform:&lt;min ms&gt;,&lt;max ms&gt;</li>
+ * <li>normal:&lt;mean ms&gt;,&lt;standard deviation ms&gt;</li>
+ * <li>exponential:&lt;mean ms&gt;</li>
+ * <li>lognormal:&lt;median ms&gt;,&lt;sigma&gt;, the long tailed shape of cloud provisioning</li>
+ * </ul>
+ * Samples are never negative.
+ */
+public class Latency
+{
+    private final String spec;
+    private final String shape;
+    private final double a;
+    private final double b;
+
+    /**
+     * @param spec the distribution, as described above.
+     * @throws IllegalArgumentException if spec is not a known distribution.
+     */
+    public Latency(String spec)
+    {
+        this.spec = spec.trim();
+        int colon = this.spec.indexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("latency has no distribution: " + spec);
+        shape = this.spec.substring(0, colon).trim().toLowerCase();
+        String[] args = this.spec.substring(colon + 1).split(",");
+        try
+        {
+            a = Double.parseDouble(args[0].trim());
+            b = (args.length > 1 ? Double.parseDouble(args[1].trim()) : 0.0);
+        } catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("latency has a non-numeric parameter: " + spec);
+        }
+        boolean twoArgs = shape.equals("uniform") || shape.equals("normal") || shape.equals("lognormal");
+        boolean oneArg = shape.equals("fixed") || shape.equals("exponential");
+        if (!(twoArgs && args.length == 2) && !(oneArg && args.length == 1))
+            throw new IllegalArgumentException("unknown latency distribution: " + spec);
+    }
+
+    /**
+     * @param random the source of the sample.
+     * @return a latency in milliseconds.
+     */
+    public long sample(Random random)
+    {
+        double ms;
+        switch (shape)
+        {
+            case "fixed":
+                ms = a;
+                break;
+            case "uniform":
+                ms = a + random.nextDouble() * (b - a);
+                break;
+            case "normal":
+                ms = a + random.nextGaussian() * b;
+                break;
+            case "exponential":
+                ms = -a * Math.log(1.0 - random.nextDouble());
+                break;
+            default: // lognormal
+                ms = a * Math.exp(random.nextGaussian() * b);
+                break;
+        }
+        return Math.max(0L, Math.round(ms));
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.pslcl.dtf.benchmarks.SyntheticData;
+
+/**
+ * An embedded H2 database, in MySQL mode, holding the template and run tables of qa_portal as
+ * dtf-runner uses them. H2 query statistics count the statements the runner executes.
+ */
+public class LoadDatabase
+{
+    public static final String Url = "jdbc:h2:mem:qa_portal;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    public static final String User = "sa";
+
+    private static final String[] Schema = {
+        "CREATE TABLE template (" +
+        "  pk_template INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  hash BINARY(32) NOT NULL UNIQUE," +
+        "  steps MEDIUMTEXT NOT NULL," +
+        "  enabled TINYINT(1) NULL)",
+        "CREATE TABLE run (" +
+        "  pk_run INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_template INT NOT NULL REFERENCES template (pk_template) ON DELETE CASCADE," +
+        "  artifacts LONGBLOB NULL DEFAULT NULL," +
+        "  start_time DATETIME NOT NULL," +
+        "  ready_time DATETIME NULL DEFAULT NULL," +
+        "  end_time DATETIME NULL DEFAULT NULL," +
+        "  result TINYINT(1) NULL DEFAULT NULL," +
+        "  owner VARCHAR(128) NULL DEFAULT NULL)"
+    };
+
+    private final Connection connection;   // also keeps the in-memory database open
+
+    /**
+     * Create the database and its tables.
+     * @throws SQLException on any error.
+     */
+    public LoadDatabase() throws SQLException
+    {
+        connection = DriverManager.getConnection(Url, User, "");
+        try (Statement statement = connection.createStatement())
+        {
+            for (String table : Schema)
+                statement.execute(table);
+        }
+    }
+
+    private static byte[] fromHex(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    /**
+     * Add enabled templates, generated by SyntheticData.templateSteps, and runs of them.
+     * @param templates the number of templates.
+     * @param machines the number of machines bound by each template.
+     * @param deploys the number of artifacts deployed to each machine.
+     * @param runs the number of runs, spread evenly over the templates.
+     * @param random the source of the templates.
+     * @return the run entry numbers.
+     * @throws SQLException on any error.
+     */
+    public List<Long> seed(int templates, int machines, int deploys, int runs, Random random) throws SQLException
+    {
+        List<Long> pkTemplates = new ArrayList<Long>();
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO template (hash, steps, enabled) VALUES (?, ?, 1)", Statement.RETURN_GENERATED_KEYS))
+        {
+            for (int i = 0; i < templates; i++)
+            {
+                statement.setBytes(1, fromHex(SyntheticData.hashHex(random)));
+                statement.setString(2, SyntheticData.templateSteps(machines, deploys, random));
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys())
+                {
+                    keys.next();
+                    pkTemplates.add(keys.getLong(1));
+                }
+            }
+        }
+        List<Long> reNums = new ArrayList<Long>();
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO run (fk_template, start_time) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS))
+        {
+            for (int i = 0; i < runs; i++)
+            {
+                statement.setLong(1, pkTemplates.get(i % templates));
+                statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys())
+                {
+                    keys.next();
+                    reNums.add(keys.getLong(1));
+                }
+            }
+        }
+        return reNums;
+    }
+
+    /**
+     * Start counting statements, from zero.
+     * @throws SQLException on any error.
+     */
+    public void startQueryStatistics() throws SQLException
+    {
+        try (Statement statement = connection.createStatement())
+        {
+            statement.execute("SET QUERY_STATISTICS_MAX_ENTRIES 100000");
+            statement.execute("SET QUERY_STATISTICS FALSE");
+            statement.execute("SET QUERY_STATISTICS TRUE");
+        }
+    }
+
+    /**
+     * @return the number of executions of each statement since startQueryStatistics(), with the
+     * variable length IN lists of the cancel watcher folded together.
+     * @throws SQLException on any error.
+     */
+    public Map<String, Long> getQueryCounts() throws SQLException
+    {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT SQL_STATEMENT, EXECUTION_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS"))
+        {
+            while (resultSet.next())
+            {
+                String sql = resultSet.getString(1).replaceAll("IN \\(\\?(, ?\\?)*\\)", "IN (?...)");
+                if (sql.contains("INFORMATION_SCHEMA"))
+                    continue;
+                Long count = counts.get(sql);
+                counts.put(sql, (count == null ? 0L : count) + resultSet.getLong(2));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of runs with a passing, a failing and no stored result, in that order.
+     * @throws SQLException on any error.
+     */
+    public long[] getResultCounts() throws SQLException
+    {
+        long[] counts = new long[3];
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT result, COUNT(*) FROM run GROUP BY result"))
+        {
+            while (resultSet.next())
+            {
+                Object result = resultSet.getObject(1);
+                counts[result == null ? 2 : (resultSet.getBoolean(1) ? 0 : 1)] += resultSet.getLong(2);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Close the database.
+     */
+    public void close()
+    {
+        try (Statement statement = connection.createStatement())
+        {
+            statement.execute("SHUTDOWN");
+        } catch (SQLException e)
+        {
+            // already closed
+        }
+        try
+        {
+            connection.close();
+        } catch (SQLException e)
+        {
+            // already closed
+        }
+    }
+}
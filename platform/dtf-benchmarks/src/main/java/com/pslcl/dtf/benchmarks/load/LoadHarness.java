@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.daemon.support.DaemonLoader;
+
+import com.pslcl.dtf.core.runner.resource.ResourceNames;
+import com.pslcl.dtf.runner.RunnerService;
+
+/**
+ * Drive synthetic test runs through a complete RunnerService, without SQS, MySQL or EC2.
+ * <p>
+ * The runner is configured with an InMemoryMessageQueue, a LoadDatabase seeded with generated
+ * templates and runs, and a SimulatedResourcesManager whose latencies follow configured
+ * distributions. Every run is queued, at a configured arrival rate, and the harness waits for all
+ * of them to be acknowledged. It then reports throughput, latency percentiles by phase, peak
+ * thread counts by thread name and the number of database statements executed.
+ * <p>
+ * Usage: LoadHarness [load.properties]. The properties file holds the pslcl.dtf.load keys
+ * documented in dtf-benchmarks/load.properties, and may also hold any runner configuration, such as
+ * the test instance limit or executor sizes. The message queue, resources manager and database
+ * are always those of the harness.
+ */
+public class LoadHarness
+{
+    public static final String LoadKeyBase = "pslcl.dtf.load";
+    public static final String RunsKey = LoadKeyBase + ".runs";
+    public static final String TemplatesKey = LoadKeyBase + ".templates";
+    public static final String MachinesKey = LoadKeyBase + ".machines";
+    public static final String DeploysKey = LoadKeyBase + ".deploys";
+    public static final String ArrivalRateKey = LoadKeyBase + ".arrival-rate";
+    public static final String TimeoutKey = LoadKeyBase + ".timeout";
+    public static final String SeedKey = LoadKeyBase + ".seed";
+
+    public static final String RunsDefault = "200";
+    public static final String TemplatesDefault = "10";
+    public static final String MachinesDefault = "3";
+    public static final String DeploysDefault = "2";
+    public static final String ArrivalRateDefault = "0";     // runs per second; 0 queues all at once
+    public static final String TimeoutDefault = "600";       // seconds
+    public static final String SeedDefault = "1";
+    public static final String TestInstanceLimitDefault = "50";
+
+    private static int getInt(Properties properties, String key, String defaultValue)
+    {
+        return Integer.parseInt(properties.getProperty(key, defaultValue).trim());
+    }
+
+    private static Properties configure(String[] args) throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(ResourceNames.DtfRunnerTestInstanceLimitKey, TestInstanceLimitDefault);
+        properties.setProperty(ResourceNames.PortalHostKey, "http://127.0.0.1:9"); // never contacted; deploys are simulated
+        if (args.length > 0)
+        {
+            InputStream in = new FileInputStream(args[0]);
+            try
+            {
+                properties.load(in);
+            } finally
+            {
+                in.close();
+            }
+        }
+        properties.setProperty(ResourceNames.MsgQueClassKey, InMemoryMessageQueue.class.getName());
+        properties.setProperty(ResourceNames.ResourceManagerClassKey, SimulatedResourcesManager.class.getName());
+        properties.setProperty(ResourceNames.DbHostKey, LoadDatabase.Url);
+        properties.setProperty(ResourceNames.DbUserKey, LoadDatabase.User);
+        properties.setProperty(ResourceNames.DbPassKey, "");
+        return properties;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Properties properties = configure(args);
+        int runs = getInt(properties, RunsKey, RunsDefault);
+        int templates = getInt(properties, TemplatesKey, TemplatesDefault);
+        int machines = getInt(properties, MachinesKey, MachinesDefault);
+        int deploys = getInt(properties, DeploysKey, DeploysDefault);
+        double arrivalRate = Double.parseDouble(properties.getProperty(ArrivalRateKey, ArrivalRateDefault).trim());
+        int timeout = getInt(properties, TimeoutKey, TimeoutDefault);
+        int seed = getInt(properties, SeedKey, SeedDefault);
+
+        LoadDatabase database = new LoadDatabase();
+        List<Long> reNums = database.seed(templates, machines, deploys, runs, new Random(seed));
+
+        // the runner reads its configuration from a file
+        File configFile = File.createTempFile("dtf-load", ".properties");
+        configFile.deleteOnExit();
+        OutputStream out = new FileOutputStream(configFile);
+        try
+        {
+            properties.store(out, "generated by " + LoadHarness.class.getSimpleName());
+        } finally
+        {
+            out.close();
+        }
+        DaemonLoader.Context context = new DaemonLoader.Context();
+        context.setArguments(new String[] { "-c", configFile.getAbsolutePath() });
+
+        RunnerService service = new RunnerService();
+        service.init(context);
+        service.start();
+        InMemoryMessageQueue queue = InMemoryMessageQueue.get();
+
+        final LoadStatistics statistics = LoadStatistics.get();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "LoadSampler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                statistics.sampleThreads();
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+
+        System.out.println("Load: " + runs + " runs of " + templates + " templates, each of " + machines + " machines with " + deploys + " deploys, test instance limit " +
+                        properties.getProperty(ResourceNames.DtfRunnerTestInstanceLimitKey).trim() + ", " + Runtime.getRuntime().availableProcessors() + " processors, Java " + System.getProperty("java.version"));
+        database.startQueryStatistics();
+        long start = System.nanoTime();
+        for (int i = 0; i < reNums.size(); i++)
+        {
+            if (arrivalRate > 0)
+            {
+                long due = start + (long) (i * 1000000000L / arrivalRate);
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            queue.setQueueStoreEntry(reNums.get(i));
+        }
+        boolean complete = queue.awaitAcked(runs, TimeUnit.SECONDS.toMillis(timeout));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.shutdown();
+
+        Map<String, Long> queryCounts = database.getQueryCounts();
+        long[] results = database.getResultCounts();
+        int acked = queue.getAckedCount();
+        System.out.println(String.format("%d of %d runs completed in %.1f s%s: %.2f runs/s; results %d passed, %d failed, %d not stored",
+                        acked, runs, seconds, (complete ? "" : " (timed out)"), acked / seconds, results[0], results[1], results[2]));
+        statistics.report(System.out);
+        long queries = 0;
+        for (Long count : queryCounts.values())
+            queries += count;
+        System.out.println(String.format("db statements: %d, %.1f per completed run", queries, (acked == 0 ? 0.0 : (double) queries / acked)));
+        for (Map.Entry<String, Long> entry : queryCounts.entrySet())
+            System.out.println(String.format("  %7d %s", entry.getValue(), entry.getKey()));
+
+        service.stop();
+        service.destroy();
+        database.close();
+        System.exit(complete ? 0 : 1);
+    }
+}
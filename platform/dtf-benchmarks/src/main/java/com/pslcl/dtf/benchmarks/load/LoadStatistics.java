@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies by phase, counters and thread counts gathered during a load run. The simulated
+ * resources and the in-memory message queue are created by the runner from configuration, so
+ * they all record to the one shared instance.
+ */
+public class LoadStatistics
+{
+    private static final LoadStatistics statistics = new LoadStatistics();
+
+    private final Map<String, Samples> latencies;     // access is synchronized on the map
+    private final Map<String, Long> counters;
+    private final Map<String, Integer> peakThreads;   // thread name, less any trailing number, to peak count
+    private int peakLiveThreads;
+
+    private static class Samples
+    {
+        private long[] micros = new long[1024];
+        private int count = 0;
+
+        private void add(long sample)
+        {
+            if (count == micros.length)
+                micros = Arrays.copyOf(micros, count * 2);
+            micros[count++] = sample;
+        }
+    }
+
+    /**
+     * @return the shared statistics.
+     */
+    public static LoadStatistics get()
+    {
+        return statistics;
+    }
+
+    private LoadStatistics()
+    {
+        latencies = new LinkedHashMap<String, Samples>();
+        counters = new LinkedHashMap<String, Long>();
+        peakThreads = new TreeMap<String, Integer>();
+    }
+
+    /**
+     * @param phase the phase.
+     * @param startNanos the System.nanoTime() when the phase started; it ends now.
+     */
+    public void record(String phase, long startNanos)
+    {
+        record(phase, startNanos, System.nanoTime());
+    }
+
+    /**
+     * @param phase the phase.
+     * @param startNanos the System.nanoTime() when the phase started.
+     * @param endNanos the System.nanoTime() when the phase ended.
+     */
+    public void record(String phase, long startNanos, long endNanos)
+    {
+        long micros = (endNanos - startNanos) / 1000L;
+        synchronized (latencies)
+        {
+            Samples samples = latencies.get(phase);
+            if (samples == null)
+            {
+                samples = new Samples();
+                latencies.put(phase, samples);
+            }
+            samples.add(micros);
+        }
+    }
+
+    /**
+     * @param counter the counter to increment.
+     */
+    public void count(String counter)
+    {
+        synchronized (counters)
+        {
+            Long value = counters.get(counter);
+            counters.put(counter, (value == null ? 1L : value + 1L));
+        }
+    }
+
+    /**
+     * @param counter the counter.
+     * @return its value.
+     */
+    public long getCount(String counter)
+    {
+        synchronized (counters)
+        {
+            Long value = counters.get(counter);
+            return (value == null ? 0L : value);
+        }
+    }
+
+    /**
+     * Note the current platform threads, by name.
+     */
+    public void sampleThreads()
+    {
+        Map<String, Integer> now = new TreeMap<String, Integer>();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            String name = thread.getName().replaceAll("[-_ #]*\\d+$", "");
+            if (name.isEmpty())
+                name = "(unnamed)";
+            Integer count = now.get(name);
+            now.put(name, (count == null ? 1 : count + 1));
+        }
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        synchronized (peakThreads)
+        {
+            peakLiveThreads = Math.max(peakLiveThreads, threadBean.getThreadCount());
+            for (Map.Entry<String, Integer> entry : now.entrySet())
+            {
+                Integer peak = peakThreads.get(entry.getKey());
+                if (peak == null || peak < entry.getValue())
+                    peakThreads.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String millis(long[] sorted, int count, double fraction)
+    {
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return String.format("%9.1f", sorted[Math.max(0, Math.min(count - 1, index))] / 1000.0);
+    }
+
+    /**
+     * Print the latency percentiles by phase, the counters and the peak thread counts.
+     * @param out where to print.
+     */
+    public void report(PrintStream out)
+    {
+        out.println(String.format("%-12s %8s %9s %9s %9s %9s %9s", "phase (ms)", "count", "mean", "p50", "p90", "p99", "max"));
+        synchronized (latencies)
+        {
+            for (Map.Entry<String, Samples> entry : latencies.entrySet())
+            {
+                int count = entry.getValue().count;
+                long[] sorted = Arrays.copyOf(entry.getValue().micros, count);
+                Arrays.sort(sorted);
+                long sum = 0;
+                for (long sample : sorted)
+                    sum += sample;
+                out.println(String.format("%-12s %8d %9.1f %s %s %s %s", entry.getKey(), count, sum / 1000.0 / count,
+                                millis(sorted, count, 0.50), millis(sorted, count, 0.90), millis(sorted, count, 0.99), millis(sorted, count, 1.0)));
+            }
+        }
+        synchronized (counters)
+        {
+            for (Map.Entry<String, Long> entry : counters.entrySet())
+                out.println(String.format("%-21s %d", entry.getKey(), entry.getValue()));
+        }
+        synchronized (peakThreads)
+        {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            out.println("threads: peak live " + Math.max(peakLiveThreads, threadBean.getPeakThreadCount()) + ", started " + threadBean.getTotalStartedThreadCount());
+            for (Map.Entry<String, Integer> entry : peakThreads.entrySet())
+                out.println(String.format("  %5d %s", entry.getValue(), entry.getKey()));
+        }
+    }
+}
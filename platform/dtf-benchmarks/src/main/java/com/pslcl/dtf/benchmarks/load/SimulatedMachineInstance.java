@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.instance.CableInstance;
+import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
+import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
+import com.pslcl.dtf.core.runner.resource.instance.RunnableProgram;
+import com.pslcl.dtf.core.runner.resource.local.LocalCableInstance;
+import com.pslcl.dtf.core.runner.resource.local.LocalResourceInstance;
+
+/**
+ * A machine of the SimulatedResourcesManager. Deploys, connects and programs complete after their
+ * simulated latencies; a batch of artifacts is deployed in one, as the STAF machines do. Started
+ * programs run until killed.
+ */
+public class SimulatedMachineInstance extends LocalResourceInstance implements MachineInstance
+{
+    private final SimulatedResourcesManager manager;
+
+    SimulatedMachineInstance(SimulatedResourcesManager manager, ReservedResource resource)
+    {
+        super(resource);
+        this.manager = manager;
+    }
+
+    @Override
+    public Future<Void> deploy(String partialDestPath, String url)
+    {
+        return manager.simulate("deploy", manager.deployLatency, new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<Future<Void>> deploy(List<Artifact> artifacts)
+    {
+        Future<Void> future = deploy(null, null);
+        List<Future<Void>> list = new ArrayList<Future<Void>>();
+        for (int i = 0; i < artifacts.size(); i++)
+            list.add(future);
+        return list;
+    }
+
+    @Override
+    public Future<Void> delete(String partialDestPath)
+    {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Future<CableInstance> connect(final NetworkInstance network)
+    {
+        return manager.simulate("connect", manager.connectLatency, new Callable<CableInstance>()
+        {
+            @Override
+            public CableInstance call()
+            {
+                return new LocalCableInstance(SimulatedMachineInstance.this, network, manager.nextAddress());
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> disconnect(NetworkInstance network)
+    {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private Future<RunnableProgram> complete(String phase)
+    {
+        return manager.simulate(phase, manager.runLatency, new Callable<RunnableProgram>()
+        {
+            @Override
+            public RunnableProgram call()
+            {
+                return new SimulatedProgram(manager.isFailure() ? 1 : 0);
+            }
+        });
+    }
+
+    @Override
+    public Future<RunnableProgram> run(String command)
+    {
+        return complete("run");
+    }
+
+    @Override
+    public Future<RunnableProgram> configure(String command)
+    {
+        return complete("configure");
+    }
+
+    @Override
+    public Future<RunnableProgram> start(String command)
+    {
+        return CompletableFuture.<RunnableProgram>completedFuture(new SimulatedProgram(null));
+    }
+
+    /**
+     * A program that has completed with a result, or, with a null result, is running until killed.
+     */
+    static class SimulatedProgram implements RunnableProgram
+    {
+        private volatile Integer result;
+
+        SimulatedProgram(Integer result)
+        {
+            this.result = result;
+        }
+
+        @Override
+        public Future<Integer> kill()
+        {
+            if (result == null)
+                result = 143;
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        public boolean isRunning()
+        {
+            return result == null;
+        }
+
+        @Override
+        public Integer getRunResult()
+        {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.benchmarks.load;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.ResourceCoordinates;
+import com.pslcl.dtf.core.runner.resource.ResourceDescription;
+import com.pslcl.dtf.core.runner.resource.ResourceReserveDisposition;
+import com.pslcl.dtf.core.runner.resource.ResourcesManager;
+import com.pslcl.dtf.core.runner.resource.exception.ResourceNotReservedException;
+import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
+import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
+import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
+import com.pslcl.dtf.core.runner.resource.local.LocalResourceInstance;
+import com.pslcl.dtf.core.runner.resource.provider.MachineProvider;
+import com.pslcl.dtf.core.runner.resource.provider.NetworkProvider;
+import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.StrH;
+
+/**
+ * A ResourcesManager whose machines and networks do nothing but take time. Each reserve, bind,
+ * deploy, connect and run completes after a latency drawn from its configured distribution, see
+ * Latency, and the time from each call to its completion is recorded by phase in LoadStatistics.
+ * Every resource asked for is available.
+ */
+public class SimulatedResourcesManager implements ResourcesManager
+{
+    public static final String ReserveLatencyKey = LoadHarness.LoadKeyBase + ".reserve-latency";
+    public static final String BindLatencyKey = LoadHarness.LoadKeyBase + ".bind-latency";
+    public static final String DeployLatencyKey = LoadHarness.LoadKeyBase + ".deploy-latency";
+    public static final String ConnectLatencyKey = LoadHarness.LoadKeyBase + ".connect-latency";
+    public static final String RunLatencyKey = LoadHarness.LoadKeyBase + ".run-latency";
+    public static final String FailureRateKey = LoadHarness.LoadKeyBase + ".failure-rate";
+    public static final String SimulatorThreadsKey = LoadHarness.LoadKeyBase + ".simulator-threads";
+
+    public static final String ReserveLatencyDefault = "uniform:20,200";
+    public static final String BindLatencyDefault = "lognormal:2000,0.5";
+    public static final String DeployLatencyDefault = "lognormal:300,0.5";
+    public static final String ConnectLatencyDefault = "uniform:50,150";
+    public static final String RunLatencyDefault = "lognormal:1000,0.5";
+    public static final String FailureRateDefault = "0.0";   // fraction of programs that exit non-zero
+    public static final String SimulatorThreadsDefault = "4";
+
+    private final List<ResourceProvider> resourceProviders;
+    public final SimulatedMachineProvider machineProvider;
+    public final SimulatedNetworkProvider networkProvider;
+    private final Random random;
+    private final AtomicInteger addresses;
+    private volatile ScheduledThreadPoolExecutor simulator;
+    volatile Latency reserveLatency;
+    volatile Latency bindLatency;
+    volatile Latency deployLatency;
+    volatile Latency connectLatency;
+    volatile Latency runLatency;
+    volatile double failureRate;
+
+    public SimulatedResourcesManager()
+    {
+        resourceProviders = new ArrayList<ResourceProvider>();
+        machineProvider = new SimulatedMachineProvider();
+        networkProvider = new SimulatedNetworkProvider();
+        resourceProviders.add(machineProvider);
+        resourceProviders.add(networkProvider);
+        random = new Random(1);
+        addresses = new AtomicInteger(0);
+    }
+
+    private static String getProperty(RunnerConfig config, String key, String defaultValue)
+    {
+        String value = StrH.trim(config.properties.getProperty(key, defaultValue));
+        config.initsb.ttl(key, " = ", value);
+        return value;
+    }
+
+    @Override
+    public void init(RunnerConfig config) throws Exception
+    {
+        config.initsb.ttl(getClass().getSimpleName(), " Initialization");
+        config.initsb.level.incrementAndGet();
+        reserveLatency = new Latency(getProperty(config, ReserveLatencyKey, ReserveLatencyDefault));
+        bindLatency = new Latency(getProperty(config, BindLatencyKey, BindLatencyDefault));
+        deployLatency = new Latency(getProperty(config, DeployLatencyKey, DeployLatencyDefault));
+        connectLatency = new Latency(getProperty(config, ConnectLatencyKey, ConnectLatencyDefault));
+        runLatency = new Latency(getProperty(config, RunLatencyKey, RunLatencyDefault));
+        failureRate = Double.parseDouble(getProperty(config, FailureRateKey, FailureRateDefault));
+        int threads = Integer.parseInt(getProperty(config, SimulatorThreadsKey, SimulatorThreadsDefault));
+        simulator = new ScheduledThreadPoolExecutor(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "SimulatedResources-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        config.initsb.level.decrementAndGet();
+    }
+
+    @Override
+    public void destroy()
+    {
+        forceCleanup();
+        if (simulator != null)
+            simulator.shutdownNow();
+    }
+
+    @Override
+    public List<ResourceProvider> getResourceProviders()
+    {
+        return new ArrayList<ResourceProvider>(resourceProviders);
+    }
+
+    /**
+     * Complete a future after a simulated latency.
+     * @param phase the phase to record the latency of.
+     * @param latency the latency distribution.
+     * @param result computes the value of the future once the latency has passed.
+     * @return the future.
+     */
+    <V> CompletableFuture<V> simulate(final String phase, Latency latency, final Callable<V> result)
+    {
+        final long start = System.nanoTime();
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        long delay;
+        synchronized (random)
+        {
+            delay = latency.sample(random);
+        }
+        simulator.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    V value = result.call();
+                    LoadStatistics.get().record(phase, start);
+                    future.complete(value);
+                } catch (Exception e)
+                {
+                    future.completeExceptionally(e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * @return true if a simulated program should fail.
+     */
+    boolean isFailure()
+    {
+        synchronized (random)
+        {
+            return random.nextDouble() < failureRate;
+        }
+    }
+
+    /**
+     * @return a distinct simulated address.
+     */
+    String nextAddress()
+    {
+        int n = addresses.incrementAndGet();
+        return "10." + ((n >> 16) & 0xff) + "." + ((n >> 8) & 0xff) + "." + (n & 0xff);
+    }
+
+    @Override
+    public void setRunId(long templateInstanceId, long runId)
+    {
+        machineProvider.setRunId(templateInstanceId, runId);
+        networkProvider.setRunId(templateInstanceId, runId);
+    }
+
+    @Override
+    public void release(long templateInstanceId, boolean isReusable)
+    {
+        machineProvider.release(templateInstanceId, null);
+        networkProvider.release(templateInstanceId, null);
+    }
+
+    @Override
+    public void release(long templateInstanceId, long resourceId, boolean isReusable)
+    {
+        machineProvider.release(templateInstanceId, resourceId);
+        networkProvider.release(templateInstanceId, resourceId);
+    }
+
+    @Override
+    public void forceCleanup()
+    {
+        machineProvider.release(null, null);
+        networkProvider.release(null, null);
+    }
+
+    /**
+     * Reserve and bind bookkeeping shared by the simulated providers.
+     * @param <T> the type of instance bound by the provider.
+     */
+    abstract class SimulatedProvider<T extends ResourceInstance> implements ResourceProvider
+    {
+        private final Map<Long, ReservedResource> reserved;     // key is resourceId
+        private final Map<Long, T> bound;                       // key is resourceId
+
+        SimulatedProvider()
+        {
+            reserved = new ConcurrentHashMap<Long, ReservedResource>();
+            bound = new ConcurrentHashMap<Long, T>();
+        }
+
+        protected abstract T createInstance(ReservedResource resource);
+
+        @Override
+        public void init(RunnerConfig config) throws Exception
+        {
+        }
+
+        @Override
+        public void destroy()
+        {
+            release(null, null);
+        }
+
+        @Override
+        public String getName()
+        {
+            return ResourceProvider.getTypeName(this);
+        }
+
+        @Override
+        public List<String> getAttributes()
+        {
+            return new ArrayList<String>();
+        }
+
+        @Override
+        public Future<List<ResourceReserveDisposition>> reserve(final List<ResourceDescription> resources, final int timeoutSeconds)
+        {
+            return simulate("reserve", reserveLatency, new Callable<List<ResourceReserveDisposition>>()
+            {
+                @Override
+                public List<ResourceReserveDisposition> call()
+                {
+                    List<ResourceReserveDisposition> list = new ArrayList<ResourceReserveDisposition>();
+                    for (ResourceDescription resource : resources)
+                    {
+                        if (!getName().equals(resource.getName()))
+                        {
+                            list.add(new ResourceReserveDisposition(resource));
+                            continue;
+                        }
+                        resource.getCoordinates().setManager(SimulatedResourcesManager.this);
+                        resource.getCoordinates().setProvider(SimulatedProvider.this);
+                        ReservedResource reservedResource = new ReservedResource(resource.getCoordinates(), resource.getAttributes(), timeoutSeconds);
+                        reserved.put(resource.getCoordinates().resourceId, reservedResource);
+                        list.add(new ResourceReserveDisposition(resource, reservedResource));
+                    }
+                    return list;
+                }
+            });
+        }
+
+        @Override
+        public Future<T> bind(ReservedResource resource) throws ResourceNotReservedException
+        {
+            final ReservedResource reservedResource = reserved.remove(resource.getCoordinates().resourceId);
+            if (reservedResource == null)
+                throw new ResourceNotReservedException(resource.getName() + "(" + resource.getCoordinates().resourceId + ") is not reserved");
+            return simulate("bind", bindLatency, new Callable<T>()
+            {
+                @Override
+                public T call()
+                {
+                    T instance = createInstance(reservedResource);
+                    bound.put(reservedResource.getCoordinates().resourceId, instance);
+                    return instance;
+                }
+            });
+        }
+
+        public List<Future<T>> bind(List<ReservedResource> resources) throws ResourceNotReservedException
+        {
+            List<Future<T>> list = new ArrayList<Future<T>>();
+            for (ReservedResource resource : resources)
+                list.add(bind(resource));
+            return list;
+        }
+
+        void setRunId(long templateInstanceId, long runId)
+        {
+            for (ReservedResource resource : reserved.values())
+            {
+                if (resource.getCoordinates().templateInstanceId == templateInstanceId)
+                    resource.getCoordinates().setRunId(runId);
+            }
+            for (T instance : bound.values())
+            {
+                if (instance.getCoordinates().templateInstanceId == templateInstanceId)
+                    instance.getCoordinates().setRunId(runId);
+            }
+        }
+
+        void release(Long templateInstanceId, Long resourceId)
+        {
+            for (Iterator<ReservedResource> iter = reserved.values().iterator(); iter.hasNext();)
+            {
+                if (isMatch(iter.next().getCoordinates(), templateInstanceId, resourceId))
+                    iter.remove();
+            }
+            for (Iterator<T> iter = bound.values().iterator(); iter.hasNext();)
+            {
+                if (isMatch(iter.next().getCoordinates(), templateInstanceId, resourceId))
+                    iter.remove();
+            }
+        }
+
+        private boolean isMatch(ResourceCoordinates coord, Long templateInstanceId, Long resourceId)
+        {
+            if (templateInstanceId != null && coord.templateInstanceId != templateInstanceId.longValue())
+                return false;
+            return resourceId == null || coord.resourceId == resourceId.longValue();
+        }
+    }
+
+    public class SimulatedMachineProvider extends SimulatedProvider<MachineInstance> implements MachineProvider
+    {
+        @Override
+        protected MachineInstance createInstance(ReservedResource resource)
+        {
+            return new SimulatedMachineInstance(SimulatedResourcesManager.this, resource);
+        }
+    }
+
+    public class SimulatedNetworkProvider extends SimulatedProvider<NetworkInstance> implements NetworkProvider
+    {
+        @Override
+        protected NetworkInstance createInstance(ReservedResource resource)
+        {
+            return new SimulatedNetworkInstance(resource);
+        }
+    }
+
+    static class SimulatedNetworkInstance extends LocalResourceInstance implements NetworkInstance
+    {
+        SimulatedNetworkInstance(ReservedResource resource)
+        {
+            super(resource);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.template;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pslcl.dtf.benchmarks.SyntheticData;
+
+/**
+ * Benchmark of splitting template steps into step sets, in the order that InstancedTemplate
+ * runs them. It is in the runner's package because StepsParser is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepsParserBenchmark
+{
+    /**
+     * The number of machines, each of which has five deploy, one connect and one run step.
+     */
+    @Param({ "10", "100" })
+    public int machines;
+
+    private String steps;
+
+    @Setup
+    public void setup()
+    {
+        steps = SyntheticData.templateSteps(machines, 5, new Random(1));
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws Exception
+    {
+        StepsParser parser = new StepsParser(steps);
+        bh.consume(parser.getNextSteps("include "));
+        for (int setID = 0;; setID++)
+        {
+            List<String> set = parser.getNextSteps(Integer.toString(setID) + ' ');
+            if (set.isEmpty())
+                break;
+            bh.consume(set);
+        }
+    }
+}
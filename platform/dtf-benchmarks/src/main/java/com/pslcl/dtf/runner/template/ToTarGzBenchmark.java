@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.template;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pslcl.dtf.benchmarks.SyntheticData;
+
+/**
+ * Benchmark of archiving the artifacts attached to an inspect request. The artifacts are random,
+ * and so do not compress, as is typical of the jars and binaries that are attached. It is in the
+ * runner's package because ToTarGz is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToTarGzBenchmark
+{
+    /**
+     * The number of artifacts, each of 64 KB.
+     */
+    @Param({ "10", "200" })
+    public int files;
+
+    private File dir;
+    private File source;
+    private File archive;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        dir = Files.createTempDirectory("dtf-tar-").toFile();
+        source = new File(dir, InspectHandler.archiveTopDirectory);
+        SyntheticData.artifactDirectory(source, files, 64 * 1024, new Random(1));
+        archive = new File(dir, InspectHandler.archiveFilename);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public File createTarGz() throws Exception
+    {
+        return new ToTarGz(archive.getPath(), source.getPath()).CreateTarGz();
+    }
+}
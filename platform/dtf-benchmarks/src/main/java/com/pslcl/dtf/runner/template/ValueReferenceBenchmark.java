@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.template;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pslcl.dtf.benchmarks.SyntheticData;
+import com.pslcl.dtf.core.runner.resource.instance.CableInstance;
+import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
+import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
+import com.pslcl.dtf.core.runner.resource.local.LocalCableInstance;
+
+/**
+ * Benchmark of resolving the $(ip ...) and $(attribute ...) value references in program parameters,
+ * as done for each program step. The template holds one machine per program, all connected to one
+ * network; each program refers to the address and an attribute of another machine. The machines
+ * and network are proxies that only answer for their attributes and identity. It is in the runner's
+ * package because InstancedTemplate.resolveValueReferences is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueReferenceBenchmark
+{
+    /**
+     * The number of machines, and so of programs and cables.
+     */
+    @Param({ "10", "100" })
+    public int machines;
+
+    private InstancedTemplate template;
+    private List<String> parameters;
+
+    private static <T> T instance(Class<T> type, final Map<String, String> attributes)
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (method.getName().equals("getAttributes"))
+                    return attributes;
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                throw new UnsupportedOperationException(method.getName());
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(1);
+        template = new InstancedTemplate();
+        int network = machines;
+        NetworkInstance networkInstance = instance(NetworkInstance.class, null);
+        template.markResourceInstance(network, networkInstance);
+        List<CableInstance> cables = new ArrayList<CableInstance>();
+        for (int m = 0; m < machines; m++)
+        {
+            MachineInstance machineInstance = instance(MachineInstance.class, SyntheticData.attributeMap(4, random));
+            template.markResourceInstance(m, machineInstance);
+            cables.add(new LocalCableInstance(machineInstance, networkInstance, "10.0." + (m / 250) + "." + (m % 250 + 1)));
+        }
+        template.markCableInstances(cables);
+        parameters = new ArrayList<String>();
+        for (int m = 0; m < machines; m++)
+            parameters.add(SyntheticData.programParameters(m, (m + 1) % machines, network));
+    }
+
+    @Benchmark
+    public void resolve(Blackhole bh) throws Exception
+    {
+        for (String parameter : parameters)
+            bh.consume(template.resolveValueReferences(parameter));
+    }
+}
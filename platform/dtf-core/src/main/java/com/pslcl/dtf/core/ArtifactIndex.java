@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.pslcl.dtf.core.generator.resource.Attributes;
+
+/**
+ * This class is a snapshot of the artifact and module tables, used to answer artifact name searches
+ * without a REGEXP query per search. Artifacts are held in the order given by the database for
+ * ORDER BY organization, name, attributes, version, configuration, sequence DESC, so results are
+ * returned in the same order as the queries they replace.
+ * <p>
+ * Artifact names repeat across module versions, so patterns are matched against each distinct name
+ * once. Distinct names are sorted without regard to case, and a pattern anchored with a literal
+ * prefix is only matched against the names that share that prefix. Results are cached by pattern.
+ * <p>
+ * Patterns are MySQL REGEXP patterns embedded in string literals, matched without regard to case as
+ * the latin1 columns are. Patterns that cannot be translated to Java regular expressions are
+ * reported by {@link #compile(String)} returning null, and callers should fall back to the database.
+ * <p>
+ * The index may be shared by cores on different threads. Entries are not modified after loading, and
+ * the pattern caches are synchronized.
+ */
+class ArtifactIndex
+{
+    /**
+     * A module, with its attributes parsed once.
+     */
+    static class ModuleEntry
+    {
+        long pk;
+        String organization;
+        String name;
+        String attributeString;
+        Attributes attributes; // null if the string is not properly encoded
+        String version;
+        String status;
+        String sequence;
+    }
+
+    /**
+     * An artifact.
+     */
+    static class ArtifactEntry
+    {
+        ModuleEntry module;
+        long pk;
+        String configuration;
+        String name;
+        int mode;
+        Hash content;
+        boolean mergeSource;
+        long mergedFromModule;
+    }
+
+    private static final int MAX_CACHED_PATTERNS = 4096;
+    private static final Pattern UNSUPPORTED = Pattern.compile("");
+
+    private final ArtifactEntry[] artifacts;
+    private final Map<Long, ArtifactEntry[]> byModule = new HashMap<Long, ArtifactEntry[]>();
+
+    /**
+     * Distinct names sorted without regard to case, and for each the ordinals of its artifacts in increasing order.
+     */
+    private final String[] names;
+    private final int[][] nameArtifacts;
+
+    private final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+    private final Map<String, int[]> matches = new HashMap<String, int[]>();
+
+    private ArtifactIndex(List<ArtifactEntry> list)
+    {
+        artifacts = list.toArray(new ArtifactEntry[list.size()]);
+
+        Map<Long, List<ArtifactEntry>> modules = new HashMap<Long, List<ArtifactEntry>>();
+        Map<String, List<Integer>> exact = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < artifacts.length; i++)
+        {
+            ArtifactEntry a = artifacts[i];
+            List<ArtifactEntry> inModule = modules.get(a.module.pk);
+            if (inModule == null)
+            {
+                inModule = new ArrayList<ArtifactEntry>();
+                modules.put(a.module.pk, inModule);
+            }
+            inModule.add(a);
+
+            List<Integer> ordinals = exact.get(a.name);
+            if (ordinals == null)
+            {
+                ordinals = new ArrayList<Integer>();
+                exact.put(a.name, ordinals);
+            }
+            ordinals.add(i);
+        }
+
+        for (Map.Entry<Long, List<ArtifactEntry>> entry : modules.entrySet())
+            byModule.put(entry.getKey(), entry.getValue().toArray(new ArtifactEntry[entry.getValue().size()]));
+
+        List<String> sorted = new ArrayList<String>(exact.keySet());
+        Collections.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+        names = sorted.toArray(new String[sorted.size()]);
+        nameArtifacts = new int[names.length][];
+        for (int id = 0; id < names.length; id++)
+        {
+            List<Integer> ordinals = exact.get(names[id]);
+            int[] array = new int[ordinals.size()];
+            for (int j = 0; j < array.length; j++)
+                array[j] = ordinals.get(j);
+            nameArtifacts[id] = array;
+        }
+    }
+
+    /**
+     * Load the index from the database.
+     * @param connect The database connection.
+     * @return The index.
+     * @throws Exception The tables could not be read.
+     */
+    static ArtifactIndex load(Connection connect) throws Exception
+    {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try
+        {
+            List<ArtifactEntry> list = new ArrayList<ArtifactEntry>();
+            Map<Long, ModuleEntry> modules = new HashMap<Long, ModuleEntry>();
+            Map<String, String> strings = new HashMap<String, String>();
+
+            statement = connect.createStatement();
+            resultSet = statement.executeQuery("SELECT module.pk_module, module.organization, module.name, module.attributes, module.version, module.status, module.sequence, artifact.pk_artifact, artifact.configuration, artifact.name, artifact.mode, artifact.fk_content, artifact.merge_source, artifact.merged_from_module" + " FROM artifact" + " JOIN module ON module.pk_module = artifact.fk_module"
+                            + " ORDER BY module.organization, module.name, module.attributes, module.version, artifact.configuration, module.sequence DESC, artifact.pk_artifact");
+            while (resultSet.next())
+            {
+                long pk_module = resultSet.getLong(1);
+                ModuleEntry module = modules.get(pk_module);
+                if (module == null)
+                {
+                    module = new ModuleEntry();
+                    module.pk = pk_module;
+                    module.organization = intern(strings, resultSet.getString(2));
+                    module.name = intern(strings, resultSet.getString(3));
+                    module.attributeString = intern(strings, resultSet.getString(4));
+                    try
+                    {
+                        module.attributes = new Attributes(module.attributeString);
+                    } catch (IllegalArgumentException e)
+                    {
+                        module.attributes = null;
+                    }
+                    module.version = resultSet.getString(5);
+                    module.status = intern(strings, resultSet.getString(6));
+                    module.sequence = resultSet.getString(7);
+                    modules.put(pk_module, module);
+                }
+
+                ArtifactEntry artifact = new ArtifactEntry();
+                artifact.module = module;
+                artifact.pk = resultSet.getLong(8);
+                artifact.configuration = intern(strings, resultSet.getString(9));
+                artifact.name = intern(strings, resultSet.getString(10));
+                artifact.mode = resultSet.getInt(11);
+                artifact.content = new Hash(resultSet.getBytes(12));
+                artifact.mergeSource = resultSet.getBoolean(13);
+                artifact.mergedFromModule = resultSet.getLong(14);
+                list.add(artifact);
+            }
+
+            return new ArtifactIndex(list);
+        } finally
+        {
+            if (resultSet != null)
+                resultSet.close();
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    private static String intern(Map<String, String> strings, String s)
+    {
+        if (s == null)
+            return null;
+
+        String existing = strings.get(s);
+        if (existing != null)
+            return existing;
+
+        strings.put(s, s);
+        return s;
+    }
+
+    /**
+     * Return the artifact with the given ordinal.
+     * @param ordinal The ordinal, from {@link #match(String)}.
+     * @return The artifact.
+     */
+    ArtifactEntry get(int ordinal)
+    {
+        return artifacts[ordinal];
+    }
+
+    /**
+     * Return the artifacts of a module, in database order.
+     * @param pk_module The primary key of the module.
+     * @return The artifacts, possibly empty.
+     */
+    ArtifactEntry[] getModuleArtifacts(long pk_module)
+    {
+        ArtifactEntry[] result = byModule.get(pk_module);
+        return result != null ? result : new ArtifactEntry[0];
+    }
+
+    /**
+     * Compile a MySQL REGEXP pattern.
+     * @param mysqlPattern The pattern as it would appear in a MySQL string literal.
+     * @return The pattern, or null if it cannot be matched by this index.
+     */
+    synchronized Pattern compile(String mysqlPattern)
+    {
+        Pattern pattern = patterns.get(mysqlPattern);
+        if (pattern == null)
+        {
+            if (patterns.size() >= MAX_CACHED_PATTERNS)
+                patterns.clear();
+
+            String regex = translate(unescape(mysqlPattern));
+            try
+            {
+                pattern = regex != null ? Pattern.compile(regex, Pattern.CASE_INSENSITIVE) : UNSUPPORTED;
+            } catch (PatternSyntaxException e)
+            {
+                pattern = UNSUPPORTED;
+            }
+
+            patterns.put(mysqlPattern, pattern);
+        }
+
+        return pattern != UNSUPPORTED ? pattern : null;
+    }
+
+    /**
+     * Find all artifacts with names that match a MySQL REGEXP pattern.
+     * @param mysqlPattern The pattern as it would appear in a MySQL string literal.
+     * @return The ordinals of the matching artifacts in database order, or null if the pattern cannot be matched by this index.
+     */
+    synchronized int[] match(String mysqlPattern)
+    {
+        int[] result = matches.get(mysqlPattern);
+        if (result != null)
+            return result;
+
+        Pattern pattern = compile(mysqlPattern);
+        if (pattern == null)
+            return null;
+
+        int first = 0;
+        int last = names.length;
+        String prefix = literalPrefix(pattern.pattern());
+        if (prefix.length() > 0)
+        {
+            first = lowerBound(prefix);
+            last = first;
+            while (last < names.length && names[last].regionMatches(true, 0, prefix, 0, prefix.length()))
+                last += 1;
+        }
+
+        int count = 0;
+        List<int[]> found = new ArrayList<int[]>();
+        for (int id = first; id < last; id++)
+        {
+            if (pattern.matcher(names[id]).find())
+            {
+                found.add(nameArtifacts[id]);
+                count += nameArtifacts[id].length;
+            }
+        }
+
+        result = new int[count];
+        int offset = 0;
+        for (int[] ordinals : found)
+        {
+            System.arraycopy(ordinals, 0, result, offset, ordinals.length);
+            offset += ordinals.length;
+        }
+        Arrays.sort(result);
+
+        if (matches.size() >= MAX_CACHED_PATTERNS)
+            matches.clear();
+        matches.put(mysqlPattern, result);
+        return result;
+    }
+
+    private int lowerBound(String prefix)
+    {
+        int low = 0;
+        int high = names.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(names[mid], prefix) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Return the literal text that every match of an anchored Java regular expression must start with.
+     * @param regex The regular expression.
+     * @return The prefix, or an empty string if there is none.
+     */
+    static String literalPrefix(String regex)
+    {
+        if (!regex.startsWith("^") || regex.indexOf('|') >= 0)
+            return "";
+
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < regex.length(); i++)
+        {
+            char c = regex.charAt(i);
+            if ("\\.[]{}()*+?^$".indexOf(c) >= 0)
+            {
+                // A quantifier applies to the last literal character, so it is not required.
+                if ((c == '*' || c == '?' || c == '{') && prefix.length() > 0)
+                    prefix.setLength(prefix.length() - 1);
+                break;
+            }
+
+            prefix.append(c);
+        }
+
+        return prefix.toString();
+    }
+
+    /**
+     * Apply the escapes of a MySQL string literal, as the query text would have.
+     * @param literal The contents of the literal.
+     * @return The string value.
+     */
+    static String unescape(String literal)
+    {
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++)
+        {
+            char c = literal.charAt(i);
+            if (c != '\\' || i + 1 == literal.length())
+            {
+                sb.append(c);
+                continue;
+            }
+
+            char n = literal.charAt(++i);
+            switch (n)
+            {
+            case '0':
+                sb.append('\0');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'Z':
+                sb.append('\032');
+                break;
+            case '%':
+            case '_':
+                sb.append('\\').append(n);
+                break;
+            default:
+                sb.append(n);
+                break;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Translate a POSIX extended regular expression, as used by MySQL, to a Java regular expression.
+     * @param posix The POSIX expression.
+     * @return The Java expression, or null if the expression uses features that are not translated.
+     */
+    static String translate(String posix)
+    {
+        StringBuilder sb = new StringBuilder(posix.length() + 16);
+        int i = 0;
+        while (i < posix.length())
+        {
+            char c = posix.charAt(i);
+            if (posix.startsWith("[[:<:]]", i))
+            {
+                sb.append("\\b(?=\\w)");
+                i += 7;
+            } else if (posix.startsWith("[[:>:]]", i))
+            {
+                sb.append("\\b(?<=\\w)");
+                i += 7;
+            } else if (c == '\\')
+            {
+                if (i + 1 == posix.length())
+                    return null;
+                char n = posix.charAt(i + 1);
+                if (Character.isLetterOrDigit(n))
+                    return null; // Java gives these meaning, POSIX does not.
+                sb.append(c).append(n);
+                i += 2;
+            } else if (c == '[')
+            {
+                int end = translateBracket(posix, i, sb);
+                if (end < 0)
+                    return null;
+                i = end;
+            } else
+            {
+                sb.append(c);
+                i += 1;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static final String[][] CLASSES = { { "alpha", "Alpha" }, { "digit", "Digit" }, { "alnum", "Alnum" }, { "upper", "Upper" }, { "lower", "Lower" }, { "space", "Space" }, { "punct", "Punct" }, { "print", "Print" }, { "graph", "Graph" }, { "cntrl", "Cntrl" }, { "xdigit", "XDigit" }, { "blank", "Blank" } };
+
+    /**
+     * Translate a bracket expression.
+     * @return The index following the expression, or -1 if it cannot be translated.
+     */
+    private static int translateBracket(String posix, int start, StringBuilder sb)
+    {
+        int i = start + 1;
+        sb.append('[');
+        if (i < posix.length() && posix.charAt(i) == '^')
+        {
+            sb.append('^');
+            i += 1;
+        }
+
+        // A leading ']' is a literal.
+        if (i < posix.length() && posix.charAt(i) == ']')
+        {
+            sb.append("\\]");
+            i += 1;
+        }
+
+        while (i < posix.length())
+        {
+            char c = posix.charAt(i);
+            if (c == ']')
+            {
+                sb.append(']');
+                return i + 1;
+            }
+
+            if (c == '[' && i + 1 < posix.length() && posix.charAt(i + 1) == ':')
+            {
+                int end = posix.indexOf(":]", i + 2);
+                if (end < 0)
+                    return -1;
+                String name = posix.substring(i + 2, end);
+                String java = null;
+                for (String[] entry : CLASSES)
+                    if (entry[0].equals(name))
+                        java = entry[1];
+                if (java == null)
+                    return -1;
+                sb.append("\\p{").append(java).append('}');
+                i = end + 2;
+                continue;
+            }
+
+            if (c == '[' && i + 1 < posix.length() && (posix.charAt(i + 1) == '.' || posix.charAt(i + 1) == '='))
+                return -1; // Collating elements and equivalence classes.
+
+            // Characters that are literal in POSIX brackets but special in Java.
+            if (c == '\\' || c == '[' || c == '&')
+                sb.append('\\');
+            sb.append(c);
+            i += 1;
+        }
+
+        return -1;
+    }
+}
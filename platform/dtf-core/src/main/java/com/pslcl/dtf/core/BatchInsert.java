@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class accumulates rows for a single INSERT statement and writes them to the database as JDBC
+ * batches. The MySQL connection is opened with batch rewriting enabled, so each batch is sent as
+ * multi-row INSERT statements rather than one round trip per row.
+ * <p>
+ * Batches are not committed here. The caller owns the transaction, and is expected to call
+ * {@link #finish()} before committing.
+ */
+class BatchInsert
+{
+    /**
+     * The number of rows sent to the database in a single batch.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private PreparedStatement statement;
+    private final boolean returnKeys;
+    private int pending = 0;
+    private long[] keys = new long[0];
+    private int keyCount = 0;
+    private long rows = 0;
+    private long nanos = 0;
+
+    /**
+     * Prepare a batched INSERT.
+     * @param connect The database connection, which should not be in auto-commit mode.
+     * @param sql The INSERT statement, with one parameter for each column.
+     * @param returnKeys True if the generated keys for each row should be collected.
+     * @throws SQLException The statement could not be prepared.
+     */
+    BatchInsert(Connection connect, String sql, boolean returnKeys) throws SQLException
+    {
+        this.returnKeys = returnKeys;
+        if (returnKeys)
+            statement = connect.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        else
+            statement = connect.prepareStatement(sql);
+    }
+
+    /**
+     * Add a row to the batch. Values are bound in order, and may be Long, Integer, Boolean, String,
+     * byte[] or null. The batch is sent to the database when it reaches {@link #MAX_BATCH_SIZE} rows.
+     * @param values The column values for the row.
+     * @return The index of the row, which is also the index of its key in the array returned by {@link #finish()}.
+     * @throws SQLException The row could not be added or the batch could not be sent.
+     */
+    int add(Object... values) throws SQLException
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            Object value = values[i];
+            if (value == null)
+                statement.setNull(i + 1, Types.NULL);
+            else if (value instanceof Long)
+                statement.setLong(i + 1, (Long) value);
+            else if (value instanceof Integer)
+                statement.setInt(i + 1, (Integer) value);
+            else if (value instanceof Boolean)
+                statement.setBoolean(i + 1, (Boolean) value);
+            else if (value instanceof byte[])
+                statement.setBytes(i + 1, (byte[]) value);
+            else
+                statement.setString(i + 1, value.toString());
+        }
+
+        statement.addBatch();
+        int index = keyCount + pending;
+        pending += 1;
+        if (pending >= MAX_BATCH_SIZE)
+            flush();
+
+        return index;
+    }
+
+    /**
+     * Return the number of rows added since the last call to {@link #finish()}.
+     * @return The number of rows.
+     */
+    int size()
+    {
+        return keyCount + pending;
+    }
+
+    private void flush() throws SQLException
+    {
+        if (pending == 0)
+            return;
+
+        long begin = System.nanoTime();
+        statement.executeBatch();
+
+        if (returnKeys)
+        {
+            if (keys.length < keyCount + pending)
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyCount + pending));
+
+            ResultSet generated = statement.getGeneratedKeys();
+            try
+            {
+                int found = 0;
+                while (generated.next() && found < pending)
+                {
+                    keys[keyCount + found] = generated.getLong(1);
+                    found += 1;
+                }
+
+                if (found != pending)
+                    throw new SQLException("Batch insert returned " + found + " keys for " + pending + " rows.");
+            } finally
+            {
+                generated.close();
+            }
+        }
+
+        nanos += System.nanoTime() - begin;
+        rows += pending;
+        keyCount += pending;
+        pending = 0;
+    }
+
+    /**
+     * Send any remaining rows to the database.
+     * @return The generated keys of all rows added since the last call, in the order they were added. Empty if
+     * keys were not requested.
+     * @throws SQLException The batch could not be sent.
+     */
+    long[] finish() throws SQLException
+    {
+        flush();
+        long[] result = returnKeys ? Arrays.copyOf(keys, keyCount) : new long[0];
+        keyCount = 0;
+        return result;
+    }
+
+    /**
+     * Return the total number of rows written by this batch.
+     * @return The number of rows.
+     */
+    long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Return the total time spent writing rows, in nanoseconds.
+     * @return The time spent in the database.
+     */
+    long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * Release the prepared statement. Unsent rows are discarded.
+     */
+    void close()
+    {
+        try
+        {
+            if (statement != null)
+                statement.close();
+        } catch (Exception e)
+        {
+            // Ignore
+        } finally
+        {
+            statement = null;
+        }
+    }
+}
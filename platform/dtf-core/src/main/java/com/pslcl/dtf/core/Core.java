@@ -15,14 +15,18 @@
  */
 package com.pslcl.dtf.core;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -32,6 +36,7 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +45,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
 
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
@@ -66,10 +73,9 @@ public class Core
     private static class DBDescribedTemplate
     {
         long pk;
-        @SuppressWarnings("unused")
-        long fk_template;
         DescribedTemplate.Key key;
         Hash description;
+        int record; // in the DescribedTemplateIndex
     }
 
     private static class DBTestInstance
@@ -106,12 +112,40 @@ public class Core
     private File artifacts;
     private Map<Long, DBTestInstance> pktiToTI = new HashMap<Long, DBTestInstance>();
     private Map<Long, List<DBTestInstance>> pktToTI = new HashMap<Long, List<DBTestInstance>>();
-    private Map<Long, DBDescribedTemplate> pkToDT = new HashMap<Long, DBDescribedTemplate>();
-    private Map<DescribedTemplate.Key, DBDescribedTemplate> keyToDT = new HashMap<DescribedTemplate.Key, DBDescribedTemplate>();
+    private DescribedTemplateIndex describedTemplates = null;
     private Map<Long, Long> dtToTI = new HashMap<Long, Long>();
+    private boolean indexArtifacts = false;
+    private ArtifactIndex artifactIndex = null;
+    private Map<Long, DBModule> indexedModules = new HashMap<Long, DBModule>();
+    private boolean artifactsChanged = false;
+
+    /**
+     * State shared by all cores in a process that runs generators in-process, see GeneratorDaemon.
+     * The indexes are read-only snapshots taken before the generators start. The configuration is
+     * read once for the process. Connections closed by a core are kept for the next core to open,
+     * up to a bound, instead of being closed.
+     */
+    private static volatile File sharedDescribedTemplateIndex = null;
+    private static volatile ArtifactIndex sharedArtifactIndex = null;
+    private static volatile Config sharedConfig = null;
+    private static final List<Connection> idleConnections = new ArrayList<Connection>();
+    private static int maxIdleConnections = 0; // guarded by idleConnections, 0 when not sharing
 
+    /**
+     * The environment variable that names a described template index saved by {@link #saveDescribedTemplateIndex(File)}.
+     * Generators started by a synchronize run map this file instead of each reading all described templates.
+     */
+    public static final String DESCRIBED_TEMPLATE_INDEX_ENV = "DTF_DESCRIBED_TEMPLATE_INDEX";
+
+    /**
+     * Load the described template index and the test instances of the target test, if not already loaded.
+     * This is only needed to synchronize described templates, so it is not done until first use.
+     */
     private void loadHashes()
     {
+        if (describedTemplates != null)
+            return;
+
         if (connect == null)
         {
             System.out.println("<internal> Core.loadHashes() finds no database connection and exits");
@@ -123,33 +157,22 @@ public class Core
 
         try
         {
-            statement = connect.createStatement();
-            resultSet = statement.executeQuery("SELECT pk_described_template, fk_module_set, fk_template, hash, description_hash FROM described_template JOIN template ON fk_template = pk_template");
-            while (resultSet.next())
+            String shared = System.getenv(DESCRIBED_TEMPLATE_INDEX_ENV);
+            if (shared == null && sharedDescribedTemplateIndex != null)
+                shared = sharedDescribedTemplateIndex.getPath();
+            if (shared != null && new File(shared).isFile())
             {
-                DBDescribedTemplate dbTemplate = new DBDescribedTemplate();
-                dbTemplate.pk = resultSet.getLong("pk_described_template");
-                dbTemplate.fk_template = resultSet.getLong("fk_template");
-                dbTemplate.key = new DescribedTemplate.Key(new Hash(resultSet.getBytes("hash")), new Hash(resultSet.getBytes("fk_module_set")));
-                dbTemplate.description = new Hash(resultSet.getBytes("description_hash"));
-
-                pkToDT.put(dbTemplate.pk, dbTemplate);
-
-                if (keyToDT.containsKey(dbTemplate.key))
+                try
                 {
-                    safeClose(resultSet);
-                    resultSet = null;
-                    safeClose(statement);
-                    statement = null;
-                    throw new Exception("Duplicate DescribedTemplate.Key " + dbTemplate.pk + " " + dbTemplate.key.getTemplateHash().toString() + ":" + dbTemplate.key.getModuleHash().toString());
+                    describedTemplates = DescribedTemplateIndex.map(new File(shared));
+                } catch (Exception e)
+                {
+                    System.err.println("WARNING: Could not map described template index " + shared + ", " + e.getMessage());
                 }
-                keyToDT.put(dbTemplate.key, dbTemplate);
             }
 
-            safeClose(resultSet);
-            resultSet = null;
-            safeClose(statement);
-            statement = null;
+            if (describedTemplates == null)
+                describedTemplates = DescribedTemplateIndex.load(connect);
 
             statement = connect.createStatement();
             resultSet = statement.executeQuery("SELECT pk_test_instance, fk_described_template FROM test_instance WHERE fk_test=" + Long.toString(pk_target_test));
@@ -171,6 +194,30 @@ public class Core
         }
     }
 
+    /**
+     * Save the described template index so that it can be shared by generator processes. Each
+     * generator maps the file named by {@link #DESCRIBED_TEMPLATE_INDEX_ENV} rather than reading
+     * every described template from the database.
+     * @param file The file to write.
+     * @return True if the index was saved.
+     */
+    public boolean saveDescribedTemplateIndex(File file)
+    {
+        loadHashes();
+        if (describedTemplates == null)
+            return false;
+
+        try
+        {
+            describedTemplates.save(file);
+            return true;
+        } catch (Exception e)
+        {
+            System.err.println("ERROR: Could not save described template index, " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * The private key of the test that is being generated.
      */
@@ -281,13 +328,34 @@ public class Core
         }
     }
 
-    Config config = new Config();
+    /**
+     * Return the configuration, which is shared by all cores when generators run in-process.
+     * @return The configuration.
+     */
+    private static Config loadConfig()
+    {
+        Config shared = sharedConfig;
+        return (shared != null) ? shared : new Config();
+    }
+
+    Config config = loadConfig();
 
     public Config getConfig()
     {
         return config;
     }
 
+    /**
+     * Construct a core over an open database connection, without reading the configuration's database settings.
+     * @param pk_test The test that test instances are synchronized for.
+     * @param connect The connection, which the core closes.
+     */
+    Core(long pk_test, Connection connect)
+    {
+        this.pk_target_test = pk_test;
+        this.connect = connect;
+    }
+
     public Core(long pk_test)
     {
         this.pk_target_test = pk_test;
@@ -307,9 +375,7 @@ public class Core
             System.err.println("Core constructor fails without database connection");
         } else
         {
-            /* Load the description and template hashes */
-            loadHashes();
-
+            /* The description and template hashes are loaded on first use. */
             //            loadTestInstances();
         }
     }
@@ -354,8 +420,21 @@ public class Core
                 read_only = true;
             }
 
+            Connection idle;
+            while ((idle = takeIdleConnection()) != null)
+            {
+                if (idle.isValid(2))
+                {
+                    connect = idle;
+                    return;
+                }
+
+                safeClose(idle);
+            }
+
             Class.forName("com.mysql.jdbc.Driver"); // required at run time only for .getConnection(): mysql-connector-java-5.1.35.jar
-            String connectstring = String.format("jdbc:mysql://%s:%d/%s?user=%s&password=%s", config.dbHost(), config.dbPort(), config.dbSchema(), user, password);
+            // rewriteBatchedStatements sends JDBC batches as multi-row INSERTs, see BatchInsert.
+            String connectstring = String.format("jdbc:mysql://%s:%d/%s?user=%s&password=%s&rewriteBatchedStatements=true", config.dbHost(), config.dbPort(), config.dbSchema(), user, password);
             connect = DriverManager.getConnection(connectstring);
         } catch (Exception e)
         {
@@ -373,6 +452,9 @@ public class Core
         {
             if (connect != null)
             {
+                if (connect.getAutoCommit() && keepIdleConnection(connect))
+                    return;
+
                 connect.close();
             }
         } catch (Exception e)
@@ -384,6 +466,85 @@ public class Core
         }
     }
 
+    private static void safeClose(Connection c)
+    {
+        try
+        {
+            if (c != null)
+                c.close();
+        } catch (Exception e)
+        {
+            // Ignore
+        }
+    }
+
+    /**
+     * Return an idle connection kept by {@link #keepIdleConnection(Connection)}.
+     * @return The connection, or null if there is none.
+     */
+    private static Connection takeIdleConnection()
+    {
+        synchronized (idleConnections)
+        {
+            if (idleConnections.isEmpty())
+                return null;
+            return idleConnections.remove(idleConnections.size() - 1);
+        }
+    }
+
+    /**
+     * Keep a connection for reuse, if cores are sharing state and the bound is not reached.
+     * @param c The connection, which must be in auto-commit mode.
+     * @return True if the connection is kept, false if it must be closed.
+     */
+    private static boolean keepIdleConnection(Connection c)
+    {
+        synchronized (idleConnections)
+        {
+            if (idleConnections.size() >= maxIdleConnections)
+                return false;
+            idleConnections.add(c);
+            return true;
+        }
+    }
+
+    /**
+     * Share state between all cores created in this process, for use when generators run in-process.
+     * New cores use the given indexes instead of loading their own and the given configuration instead
+     * of reading it, and closed connections are kept for reuse.
+     * @param describedTemplates A described template index saved by {@link #saveDescribedTemplateIndex(File)}, or null.
+     * @param artifacts An artifact index, or null.
+     * @param config The configuration.
+     * @param maxIdle The most connections kept for reuse, normally the number of generators run in parallel.
+     */
+    static void beginSharing(File describedTemplates, ArtifactIndex artifacts, Config config, int maxIdle)
+    {
+        sharedDescribedTemplateIndex = describedTemplates;
+        sharedArtifactIndex = artifacts;
+        sharedConfig = config;
+        synchronized (idleConnections)
+        {
+            maxIdleConnections = maxIdle;
+        }
+    }
+
+    /**
+     * Stop sharing state between cores, closing the idle connections.
+     */
+    static void endSharing()
+    {
+        sharedDescribedTemplateIndex = null;
+        sharedArtifactIndex = null;
+        sharedConfig = null;
+        synchronized (idleConnections)
+        {
+            maxIdleConnections = 0;
+            for (Connection idle : idleConnections)
+                safeClose(idle);
+            idleConnections.clear();
+        }
+    }
+
     private void safeClose(ResultSet r)
     {
         try
@@ -738,6 +899,7 @@ public class Core
             return pk;
 
         String attributes = new Attributes(module.getAttributes()).toString();
+        invalidateArtifactIndex();
         //TODO: Release date, actual release date, order all need to be added.
         try
         {
@@ -776,6 +938,7 @@ public class Core
         if (read_only)
             return;
 
+        invalidateArtifactIndex();
         try
         {
             statement = connect.prepareStatement("DELETE FROM module WHERE pk_module=?");
@@ -810,27 +973,44 @@ public class Core
     }
 
     /**
-     * Add content given an inputstream. If the content exist then the file is assumed to be correct
-     * and the database is still updated.
-     * @param is An input stream for the content.
-     * @param length The length of the stream, or -1 if the entire stream is to be added.
-     * @return Hash of the added content 
+     * The size of the buffer used to copy content into the artifact cache.
      */
-    public Hash addContent(InputStream is, long length)
+    private static final int CONTENT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Buffers used to copy content. A copy takes one, or allocates one if none is free, and returns it when done,
+     * so concurrent copies do not wait on each other.
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> contentBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Copy a stream to a file, computing the hash of the content as it is copied.
+     * @param is The stream to copy.
+     * @param length The length of the stream, or -1 if the entire stream is to be copied.
+     * @param file The file to copy to.
+     * @return The hash of the content, or null if the stream ended before length bytes were read.
+     * @throws Exception Any error reading the stream or writing the file.
+     */
+    private Hash copyContent(InputStream is, long length, File file) throws Exception
     {
-        File tmp;
-        FileOutputStream os = null;
+        ByteBuffer buffer = contentBuffers.poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(CONTENT_BUFFER_SIZE);
 
+        MessageDigest digest = Hash.createDigest();
+        ReadableByteChannel in = (is instanceof FileInputStream) ? ((FileInputStream) is).getChannel() : Channels.newChannel(is);
+        FileOutputStream os = new FileOutputStream(file);
+        FileChannel out = os.getChannel();
         try
         {
-            tmp = File.createTempFile("artifact", "hash");
-            os = new FileOutputStream(tmp);
-
-            byte[] content = new byte[1024];
-            long remaining = length > 0 ? length : 1;
-            while (remaining > 0)
+            long remaining = length;
+            while (length < 0 || remaining > 0)
             {
-                int consumed = is.read(content, 0, content.length);
+                buffer.clear();
+                if (length > 0 && remaining < buffer.capacity())
+                    buffer.limit((int) remaining);
+
+                int consumed = in.read(buffer);
                 if (consumed < 0)
                 {
                     // If we couldn't read the length this is an error, otherwise it is normal.
@@ -845,35 +1025,129 @@ public class Core
 
                 if (length > 0)
                     remaining -= consumed;
-                os.write(content, 0, consumed);
+
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining())
+                    out.write(buffer);
             }
-        } catch (Exception e)
+        } finally
+        {
+            contentBuffers.offer(buffer);
+            try
+            {
+                os.close();
+            } catch (Exception e)
+            {
+                // Ignore
+            }
+        }
+
+        return new Hash(digest.digest());
+    }
+
+    /**
+     * Add content given an inputstream. If the content exist then the file is assumed to be correct
+     * and the database is still updated.
+     * @param is An input stream for the content.
+     * @param length The length of the stream, or -1 if the entire stream is to be added.
+     * @return Hash of the added content
+     */
+    public Hash addContent(InputStream is, long length)
+    {
+        return addContent(is, length, null);
+    }
+
+    /**
+     * Add content from a provider. The provider's hash is used to find content that is already in the
+     * cache, which is then not copied again. Note that obtaining the hash may itself read the content,
+     * for example Ivy content is hashed when it is downloaded.
+     * @param content The content to add.
+     * @return Hash of the added content, or null on error.
+     */
+    public Hash addContent(Content content)
+    {
+        Hash known = content.getHash();
+        if (known != null && getContentFile(known) != null)
+            return addContent(null, -1, known);
+
+        InputStream is = content.asStream();
+        if (is == null)
         {
-            // Cannot even determine the hash, so we don't know if it has already been added or not.
-            System.err.println("ERROR: Could not add content, " + e.getMessage());
+            System.err.println("ERROR: Could not add content, no stream for " + known);
             return null;
+        }
+
+        try
+        {
+            return addContent(is, -1, known);
         } finally
         {
-            if (os != null)
+            try
             {
-                try
-                {
-                    os.close();
-                } catch (Exception e)
-                {
-                    // Ignore
-                }
+                is.close();
+            } catch (Exception e)
+            {
+                // Ignore
             }
         }
+    }
 
-        Hash h = Hash.fromContent(tmp);
-        File target = new File(this.artifacts, h.toString());
+    /**
+     * Add content given an inputstream. The content is hashed while it is copied into a temporary file, and
+     * then moved into the cache. If the content exist then the file is assumed to be correct
+     * and the database is still updated.
+     * @param is An input stream for the content. May be null only if known is given and already cached.
+     * @param length The length of the stream, or -1 if the entire stream is to be added.
+     * @param known The hash of the content if known by the caller, otherwise null. If the content
+     * is already cached under this hash then the stream is not read.
+     * @return Hash of the added content
+     */
+    public Hash addContent(InputStream is, long length, Hash known)
+    {
+        Hash h;
+        File tmp = null;
+        File target;
         boolean ignore_insert_failure = false;
 
-        if (target.exists())
+        if (known != null && getContentFile(known) != null)
         {
-            FileUtils.deleteQuietly(tmp);
+            h = known;
+            target = new File(this.artifacts, h.toString());
             ignore_insert_failure = true;
+        } else
+        {
+            try
+            {
+                tmp = File.createTempFile("artifact", "hash");
+                h = copyContent(is, length, tmp);
+                if (h == null)
+                {
+                    FileUtils.deleteQuietly(tmp);
+                    return null;
+                }
+            } catch (Exception e)
+            {
+                // Cannot even determine the hash, so we don't know if it has already been added or not.
+                System.err.println("ERROR: Could not add content, " + e.getMessage());
+                FileUtils.deleteQuietly(tmp);
+                return null;
+            }
+
+            if (known != null && !known.equals(h))
+            {
+                System.err.println("ERROR: Could not add content, expected hash " + known + " but content has hash " + h);
+                FileUtils.deleteQuietly(tmp);
+                return null;
+            }
+
+            target = new File(this.artifacts, h.toString());
+            if (target.exists())
+            {
+                FileUtils.deleteQuietly(tmp);
+                tmp = null;
+                ignore_insert_failure = true;
+            }
         }
 
         // If read-only and it doesn't exist, then it cannot be added. If it was already cached, assume exists.
@@ -881,6 +1155,7 @@ public class Core
         {
             //TODO: Really need to check the DB and remove the file if it isn't present, otherwise the
             // cache and DB are out of sync.
+            FileUtils.deleteQuietly(tmp);
             return ignore_insert_failure ? h : null;
         }
 
@@ -888,10 +1163,11 @@ public class Core
         try
         {
             // Move the file to the cache
-            FileUtils.moveFile(tmp, target);
+            if (tmp != null)
+                FileUtils.moveFile(tmp, target);
 
             statement = connect.prepareStatement("INSERT INTO content (pk_content, is_generated) VALUES (?,1)");
-            statement.setBinaryStream(1, new ByteArrayInputStream(h.toBytes()));
+            statement.setBytes(1, h.bytes());
             statement.executeUpdate();
         } catch (Exception e)
         {
@@ -944,6 +1220,7 @@ public class Core
         if (read_only)
             return pk;
 
+        invalidateArtifactIndex();
         try
         {
             if (merged_from_module != 0)
@@ -952,7 +1229,7 @@ public class Core
                 statement = connect.prepareStatement("INSERT INTO artifact (fk_module, fk_content, configuration, name, mode, merge_source, derived_from_artifact) VALUES (?,?,?,?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
 
             statement.setLong(1, pk_module);
-            statement.setBinaryStream(2, new ByteArrayInputStream(content.toBytes()));
+            statement.setBytes(2, content.bytes());
             statement.setString(3, configuration);
             statement.setString(4, name);
             statement.setInt(5, mode);
@@ -1027,52 +1304,154 @@ public class Core
         }
     }
 
+    /**
+     * Remove described templates that are not used by a test instance, either directly or through includes,
+     * and then remove the templates that are no longer used by any described template. Removing a template
+     * also removes its runs. The include graph is read once, and the deletes are made in a single transaction.
+     * Nothing is removed while any line records its include as described template 0, as earlier versions
+     * wrote, since the included described templates cannot be told from unused ones.
+     */
     public void pruneTemplates()
     {
-        // Find all top-level templates.
-        PreparedStatement findTemplates = null;
-        ResultSet foundTemplates = null;
-        PreparedStatement deleteTemplate = null;
+        PreparedStatement deleteTemplates = null;
 
         if (read_only)
             return;
 
-        // Determine the set of all referenced templates.
-        Set<Long> used = new HashSet<Long>();
         try
         {
-            findTemplates = connect.prepareStatement("select distinct fk_template from test_instance");
-            foundTemplates = findTemplates.executeQuery();
-            while (foundTemplates.next())
+            long unresolved = countRows("SELECT COUNT(*) FROM dt_line WHERE fk_child_dt = 0");
+            if (unresolved > 0)
             {
-                long pk = foundTemplates.getLong("fk_template");
-                getRequiredTemplates(pk, used);
+                System.err.println("ERROR: Couldn't prune templates, " + unresolved + " described template lines were written before includes were recorded. Remove their described templates and synchronize again.");
+                return;
             }
 
-            safeClose(findTemplates);
-            findTemplates = null;
-            safeClose(foundTemplates);
-            foundTemplates = null;
+            // Determine the set of all referenced described templates.
+            DescribedTemplateGraph graph = DescribedTemplateGraph.load(connect, false);
+            Set<Long> used = graph.reachable(readKeys("SELECT DISTINCT fk_described_template FROM test_instance"));
 
-            deleteTemplate = connect.prepareStatement("DELETE FROM template WHERE pk_template=?");
-            findTemplates = connect.prepareStatement("select pk_template from template");
-            foundTemplates = findTemplates.executeQuery();
-            while (foundTemplates.next())
+            List<Long> unused = new ArrayList<Long>();
+            for (Long pk : readKeys("SELECT pk_described_template FROM described_template"))
             {
-                long pk = foundTemplates.getLong("pk_template");
                 if (!used.contains(pk))
+                    unused.add(pk);
+            }
+
+            connect.setAutoCommit(false);
+
+            // Delete the described templates. This will delete all the related tables.
+            deleteKeys("described_template", "pk_described_template", unused);
+
+            deleteTemplates = connect.prepareStatement("DELETE FROM template WHERE NOT EXISTS (SELECT 1 FROM described_template WHERE described_template.fk_template = template.pk_template)");
+            deleteTemplates.executeUpdate();
+
+            connect.commit();
+            connect.setAutoCommit(true);
+
+            // The cached described templates may include deleted ones, read them again when needed.
+            if (!unused.isEmpty())
+                describedTemplates = null;
+        } catch (Exception e)
+        {
+            System.err.println("ERROR: Couldn't prune templates, " + e.getMessage());
+            try
+            {
+                connect.rollback();
+                connect.setAutoCommit(true);
+            } catch (Exception ex)
+            {
+                // TODO: This is really bad - failure to restore state.
+            }
+        } finally
+        {
+            safeClose(deleteTemplates);
+            deleteTemplates = null;
+        }
+    }
+
+    /**
+     * Read a set of keys.
+     * @param sql A query that returns the keys in its first column.
+     * @return The keys.
+     * @throws SQLException The query failed.
+     */
+    private Set<Long> readKeys(String sql) throws SQLException
+    {
+        Set<Long> result = new HashSet<Long>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try
+        {
+            statement = connect.createStatement();
+            resultSet = statement.executeQuery(sql);
+            while (resultSet.next())
+                result.add(resultSet.getLong(1));
+        } finally
+        {
+            safeClose(resultSet);
+            safeClose(statement);
+        }
+
+        return result;
+    }
+
+    /**
+     * Read a count.
+     * @param sql A query that returns the count in the first column of a single row.
+     * @return The count.
+     * @throws SQLException The query failed.
+     */
+    private long countRows(String sql) throws SQLException
+    {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try
+        {
+            statement = connect.createStatement();
+            resultSet = statement.executeQuery(sql);
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally
+        {
+            safeClose(resultSet);
+            safeClose(statement);
+        }
+    }
+
+    /**
+     * Delete rows by primary key, deleting up to {@link BatchInsert#MAX_BATCH_SIZE} rows with each statement.
+     * @param table The table.
+     * @param column The primary key column.
+     * @param keys The keys of the rows to delete.
+     * @throws SQLException A delete failed.
+     */
+    private void deleteKeys(String table, String column, List<Long> keys) throws SQLException
+    {
+        PreparedStatement statement = null;
+        int prepared = 0;
+        try
+        {
+            for (int start = 0; start < keys.size(); start += BatchInsert.MAX_BATCH_SIZE)
+            {
+                int count = Math.min(BatchInsert.MAX_BATCH_SIZE, keys.size() - start);
+                if (count != prepared)
                 {
-                    // Delete the template. This will delete all the related tables.
-                    deleteTemplate.setLong(1, pk);
-                    deleteTemplate.executeUpdate();
+                    safeClose(statement);
+                    StringBuilder sql = new StringBuilder("DELETE FROM " + table + " WHERE " + column + " IN (?");
+                    for (int i = 1; i < count; i++)
+                        sql.append(",?");
+                    sql.append(")");
+                    statement = connect.prepareStatement(sql.toString());
+                    prepared = count;
                 }
+
+                for (int i = 0; i < count; i++)
+                    statement.setLong(i + 1, keys.get(start + i));
+                statement.executeUpdate();
             }
-        } catch (Exception e)
+        } finally
         {
-            safeClose(foundTemplates);
-            foundTemplates = null;
-            safeClose(deleteTemplate);
-            deleteTemplate = null;
+            safeClose(statement);
         }
     }
 
@@ -1092,12 +1471,17 @@ public class Core
         private String sequence;
 
         DBModule(Core core, long pk, String organization, String name, String attribute_string, String version, String status, String sequence)
+        {
+            this(core, pk, organization, name, new Attributes(attribute_string), version, status, sequence);
+        }
+
+        DBModule(Core core, long pk, String organization, String name, Attributes attributes, String version, String status, String sequence)
         {
             this.core = core;
             this.pk = pk;
             this.organization = organization;
             this.name = name;
-            this.attributes = new Attributes(attribute_string);
+            this.attributes = attributes;
             this.version = version;
             this.status = status;
             this.sequence = sequence;
@@ -1332,7 +1716,68 @@ public class Core
     }
 
     /**
-     * Return a set of all modules known to the database.
+     * Serve artifact searches from a snapshot of the artifact and module tables rather than
+     * querying the database for each search. The snapshot is loaded on first use, and is only
+     * correct if other processes do not change the tables for the life of the core, which is the
+     * case while a generator runs. Changes made through this core discard the snapshot.
+     */
+    public void enableArtifactIndex()
+    {
+        indexArtifacts = true;
+    }
+
+    /**
+     * Discard the artifact index after modules or artifacts change. A shared index is no longer
+     * used by this core, since it does not include the change.
+     */
+    private void invalidateArtifactIndex()
+    {
+        artifactIndex = null;
+        artifactsChanged = true;
+        indexedModules.clear();
+    }
+
+    ArtifactIndex getArtifactIndex()
+    {
+        if (!indexArtifacts || connect == null)
+            return null;
+
+        if (artifactIndex == null && !artifactsChanged)
+            artifactIndex = sharedArtifactIndex;
+
+        if (artifactIndex == null)
+        {
+            try
+            {
+                artifactIndex = ArtifactIndex.load(connect);
+            } catch (Exception e)
+            {
+                System.err.println("ERROR: Could not load artifact index, " + e.getMessage());
+                indexArtifacts = false;
+            }
+        }
+
+        return artifactIndex;
+    }
+
+    private DBModule getIndexedModule(ArtifactIndex.ModuleEntry entry)
+    {
+        // Attributes that could not be parsed throw here, as they would have when read from the database.
+        if (entry.attributes == null)
+            return new DBModule(this, entry.pk, entry.organization, entry.name, entry.attributeString, entry.version, entry.status, entry.sequence);
+
+        // The index may be shared, but modules refer to this core.
+        DBModule module = indexedModules.get(entry.pk);
+        if (module == null)
+        {
+            module = new DBModule(this, entry.pk, entry.organization, entry.name, entry.attributes, entry.version, entry.status, entry.sequence);
+            indexedModules.put(entry.pk, module);
+        }
+        return module;
+    }
+
+    /**
+     * Return a set of all modules known to the database.
      * @return The set of modules
      */
     public Iterable<Module> createModuleSet()
@@ -1430,30 +1875,62 @@ public class Core
         if (pk == 0)
             return set; // This should not happen
         LineIterator iterator = null;
+        ArtifactIndex index = getArtifactIndex();
         try
         {
             // We are willing to find any artifact from any merged module
-            statement = connect.createStatement();
-            String query = String.format("SELECT artifact.fk_content" + " FROM artifact" + " WHERE artifact.fk_module = %d AND artifact.name = '%s.dep'", pk, artifact.getName());
-            resultSet = statement.executeQuery(query);
-            if (resultSet.next())
+            Hash hash = null;
+            if (index != null)
             {
-                // We only care about the first match that we find.
-                Hash hash = new Hash(resultSet.getBytes(1));
-                File f = new File(this.artifacts, hash.toString());
-                iterator = new LineIterator(new FileReader(f));
+                for (ArtifactIndex.ArtifactEntry entry : index.getModuleArtifacts(pk))
+                {
+                    if (entry.name.equalsIgnoreCase(artifact.getName() + ".dep"))
+                    {
+                        hash = entry.content;
+                        break;
+                    }
+                }
+            } else
+            {
+                statement = connect.createStatement();
+                String query = String.format("SELECT artifact.fk_content" + " FROM artifact" + " WHERE artifact.fk_module = %d AND artifact.name = '%s.dep'", pk, artifact.getName());
+                resultSet = statement.executeQuery(query);
+                if (resultSet.next())
+                    hash = new Hash(resultSet.getBytes(1));
 
                 safeClose(resultSet);
                 resultSet = null;
                 safeClose(statement);
                 statement = null;
+            }
+
+            if (hash != null)
+            {
+                // We only care about the first match that we find.
+                File f = new File(this.artifacts, hash.toString());
+                iterator = new LineIterator(new FileReader(f));
 
                 // Each line is a dependency. The first field is a name regex, the second (optional) is a version.
                 while (iterator.hasNext())
                 {
                     String line = iterator.next();
                     String[] fields = line.split(",");
-                    if (fields.length == 1 || fields.length == 2)
+                    String query;
+                    Pattern pattern = (index != null && (fields.length == 1 || fields.length == 2)) ? index.compile(fields[0]) : null;
+                    int[] matches = (index != null && (fields.length == 3 || fields.length == 4)) ? index.match(fields[2]) : null;
+                    if (pattern != null)
+                    {
+                        for (ArtifactIndex.ArtifactEntry entry : index.getModuleArtifacts(pk))
+                        {
+                            if (!pattern.matcher(entry.name).find())
+                                continue;
+
+                            String targetName = entry.name;
+                            if (fields.length == 2)
+                                targetName = getTargetName(entry.name, fields[1]);
+                            set.add(new DBArtifact(this, entry.pk, artifact.getModule(), entry.configuration, entry.name, entry.mode, entry.content, targetName));
+                        }
+                    } else if (fields.length == 1 || fields.length == 2)
                     {
                         statement = connect.createStatement();
                         query = String.format("SELECT artifact.pk_artifact, artifact.configuration, artifact.name, artifact.mode, artifact.fk_content" + " FROM artifact" + " WHERE artifact.fk_module = %d AND artifact.name REGEXP '%s" + "'", pk, fields[0]);
@@ -1476,8 +1953,6 @@ public class Core
                         
                     } else if (fields.length == 3 || fields.length == 4)
                     {
-                        statement = connect.createStatement();
-
                         String[] mod_fields = fields[0].split("#");
                         String[] ver_fields = fields[1].split("/");
 
@@ -1494,6 +1969,36 @@ public class Core
                         version = version.replace("$", artifact.getModule().getVersion());
                         configuration = configuration.replace("$", artifact.getConfiguration());
 
+                        if (matches != null)
+                        {
+                            Set<String> found = new HashSet<String>();
+                            for (int ordinal : matches)
+                            {
+                                ArtifactIndex.ArtifactEntry entry = index.get(ordinal);
+                                if (entry.mergeSource || found.contains(entry.name))
+                                    continue;
+                                if (organization.length() > 0 && !organization.equalsIgnoreCase(entry.module.organization))
+                                    continue;
+                                if (module.length() > 0 && !module.equalsIgnoreCase(entry.module.name))
+                                    continue;
+                                if (attributes.length() > 0 && !attributes.equalsIgnoreCase(entry.module.attributeString))
+                                    continue;
+                                if (version.length() > 0 && !version.equalsIgnoreCase(entry.module.version))
+                                    continue;
+                                if (configuration.length() > 0 && !configuration.equalsIgnoreCase(entry.configuration))
+                                    continue;
+
+                                String targetName = entry.name;
+                                if (fields.length == 4)
+                                    targetName = getTargetName(entry.name, fields[3]);
+                                set.add(new DBArtifact(this, entry.pk, getIndexedModule(entry.module), entry.configuration, entry.name, entry.mode, entry.content, targetName));
+                                found.add(entry.name);
+                            }
+
+                            continue;
+                        }
+
+                        statement = connect.createStatement();
                         String organization_where = organization.length() > 0 ? " AND module.organization='" + organization + "'" : "";
                         String module_where = module.length() > 0 ? " AND module.name='" + module + "'" : "";
                         String attributes_where = attributes.length() > 0 ? " AND module.attributes='" + attributes + "'" : "";
@@ -1578,6 +2083,14 @@ public class Core
      */
     public Iterable<Artifact[]> createArtifactSet(Attributes required, String configuration, String... name)
     {
+        ArtifactIndex index = getArtifactIndex();
+        if (index != null)
+        {
+            Iterable<Artifact[]> result = createArtifactSet(index, required, configuration, name);
+            if (result != null)
+                return result;
+        }
+
         Statement statement = null;
         ResultSet resultSet = null;
         List<Artifact[]> set = new ArrayList<Artifact[]>();
@@ -1601,21 +2114,8 @@ public class Core
                 {
                     // Verify that if requested, the module/version has all required attributes.
                     Attributes possesses = new Attributes(resultSet.getString(4));
-                    if (required != null)
-                    {
-                        boolean mismatch = false;
-                        for (Map.Entry<String, String> entry : required.getAttributes().entrySet())
-                        {
-                            if (possesses.get(entry.getKey()) != entry.getValue())
-                            {
-                                mismatch = true;
-                                break;
-                            }
-                        }
-
-                        if (mismatch)
-                            continue; // Move to the next result
-                    }
+                    if (!hasAttributes(possesses, required))
+                        continue; // Move to the next result
 
                     long pk_found = resultSet.getLong(1);
                     Artifact[] artifacts;
@@ -1670,6 +2170,89 @@ public class Core
         return set;
     }
 
+    /**
+     * Serve {@link #createArtifactSet(Attributes, String, String...)} from the artifact index.
+     * @return The set of artifacts, or null if any name cannot be matched by the index.
+     */
+    private Iterable<Artifact[]> createArtifactSet(ArtifactIndex index, Attributes required, String configuration, String... name)
+    {
+        int[][] matches = new int[name.length][];
+        for (int name_index = 0; name_index < name.length; name_index++)
+        {
+            matches[name_index] = index.match(name[name_index]);
+            if (matches[name_index] == null)
+                return null;
+        }
+
+        List<Artifact[]> set = new ArrayList<Artifact[]>();
+        Map<Long, Artifact[]> artifactMap = new HashMap<Long, Artifact[]>();
+        for (int name_index = 0; name_index < name.length; name_index++)
+        {
+            try
+            {
+                for (int ordinal : matches[name_index])
+                {
+                    ArtifactIndex.ArtifactEntry entry = index.get(ordinal);
+                    if (entry.mergeSource)
+                        continue;
+                    if (configuration != null && !configuration.equalsIgnoreCase(entry.configuration))
+                        continue;
+
+                    DBModule module = getIndexedModule(entry.module);
+                    if (!hasAttributes(module.attributes, required))
+                        continue;
+
+                    Artifact[] artifacts = artifactMap.get(entry.module.pk);
+                    if (artifacts == null)
+                    {
+                        artifacts = new Artifact[name.length];
+                        artifactMap.put(entry.module.pk, artifacts);
+                    }
+
+                    if (artifacts[name_index] == null)
+                        artifacts[name_index] = new DBArtifact(this, entry.pk, module, entry.configuration, entry.name, entry.mode, entry.content);
+                }
+            } catch (Exception e)
+            {
+                System.err.println("ERROR: createArtifactSet() exception " + e.getMessage());
+                e.printStackTrace(System.err);
+            }
+        }
+
+        for (Artifact[] list : artifactMap.values())
+        {
+            int found = 0;
+            for (int i = 0; i < list.length; i++)
+                if (list[i] != null)
+                    found += 1;
+
+            if (found == name.length)
+                set.add(list);
+        }
+
+        return set;
+    }
+
+    /**
+     * Determine whether a module has at least the required attributes.
+     * @param possesses The attributes of the module.
+     * @param required The required attributes, or null.
+     * @return True if every required attribute is present with the same value.
+     */
+    private static boolean hasAttributes(Attributes possesses, Attributes required)
+    {
+        if (required == null)
+            return true;
+
+        for (Map.Entry<String, String> entry : required.getAttributes().entrySet())
+        {
+            if (!entry.getValue().equals(possesses.get(entry.getKey())))
+                return false;
+        }
+
+        return true;
+    }
+
     /**
      * Get the list of generators configured for all the tests.
      * @return A map where the keys are the primary keys of the tests and the values are the string to run the generator.
@@ -1765,6 +2348,34 @@ public class Core
         if (name != null || configuration != null)
             intro = " AND ";
 
+        ArtifactIndex index = getArtifactIndex();
+        Pattern pattern = (index != null && name != null) ? index.compile(name) : null;
+        if (index != null && (name == null || pattern != null))
+        {
+            try
+            {
+                for (ArtifactIndex.ArtifactEntry entry : index.getModuleArtifacts(pk_module))
+                {
+                    if (pattern != null && !pattern.matcher(entry.name).find())
+                        continue;
+                    if (configuration != null && !configuration.equalsIgnoreCase(entry.configuration))
+                        continue;
+
+                    // Ignore dtf_test_generator artifacts that are merged from other modules
+                    if (entry.mergedFromModule > 0 && "dtf_test_generator".equals(configuration))
+                        continue;
+
+                    set.add(new DBArtifact(this, entry.pk, getIndexedModule(entry.module), entry.configuration, entry.name, entry.mode, entry.content));
+                }
+            } catch (Exception e)
+            {
+                System.err.println("ERROR: getArtifacts() exception " + e.getMessage());
+                e.printStackTrace(System.err);
+            }
+
+            return set;
+        }
+
         try
         {
             Map<Long, DBModule> modules = new HashMap<Long, DBModule>();
@@ -2037,19 +2648,19 @@ public class Core
                 }
 
 
-                find_content.setBinaryStream(1, new ByteArrayInputStream(sync.getHash().toBytes()));
+                find_content.setBytes(1, sync.getHash().bytes());
                 resultSet = find_content.executeQuery();
                 if ( ! resultSet.isBeforeFirst() ) {
                     // There is no content. Need to add.
                     safeClose( resultSet ); resultSet = null;
 
-                    create_content.setBinaryStream( 1, new ByteArrayInputStream( sync.getHash().toBytes() ) );
+                    create_content.setBytes(1, sync.getHash().bytes());
                     create_content.executeUpdate();
                 }
                 else {
                     safeClose( resultSet ); resultSet = null;
 
-                    mark_synchronized.setBinaryStream(1, new ByteArrayInputStream(sync.getHash().toBytes()));
+                    mark_synchronized.setBytes(1, sync.getHash().bytes());
                     mark_synchronized.executeUpdate();
                 }
             }
@@ -2064,6 +2675,93 @@ public class Core
             }
         }
     */
+    /**
+     * This class holds the batched writes for a single call to {@link #syncDescribedTemplates(List)}, which
+     * are committed as a single transaction. Rows that need a generated key from another table are held
+     * until that key is known. The cache changes made during the transaction are recorded so that they can
+     * be undone if the transaction is rolled back.
+     */
+    private static class SyncBatch
+    {
+        private static class PendingLine
+        {
+            long fk_described_template;
+            int row;
+            List<Long> artifacts = new ArrayList<Long>();
+            boolean primary;
+            String reason;
+        }
+
+        private static class PendingTestInstance
+        {
+            int row;
+            long fk_described_template;
+            Set<Long> modules = new HashSet<Long>();
+            List<TestInstance> instances = new ArrayList<TestInstance>();
+        }
+
+        BatchInsert dtLine;
+        BatchInsert dtToDt;
+        BatchInsert artifactToDtLine;
+        BatchInsert testInstance;
+        BatchInsert moduleToTestInstance;
+
+        List<PendingLine> lines = new ArrayList<PendingLine>();
+        Map<Long, PendingTestInstance> testInstances = new HashMap<Long, PendingTestInstance>();
+
+        List<DescribedTemplate.Key> added = new ArrayList<DescribedTemplate.Key>();
+        Map<DescribedTemplate.Key, Hash> described = new HashMap<DescribedTemplate.Key, Hash>();
+
+        SyncBatch(Connection connect) throws SQLException
+        {
+            dtLine = new BatchInsert(connect, "INSERT INTO dt_line (fk_described_template,line,fk_child_dt,description) VALUES (?,?,?,?)", true);
+            dtToDt = new BatchInsert(connect, "INSERT INTO dt_to_dt (fk_parent,fk_child) VALUES (?,?)", false);
+            artifactToDtLine = new BatchInsert(connect, "INSERT INTO artifact_to_dt_line (fk_artifact, fk_dt_line, is_primary, reason) VALUES (?,?,?,?)", false);
+            testInstance = new BatchInsert(connect, "INSERT INTO test_instance (fk_test, fk_described_template, phase, synchronized) VALUES (?,?,?,?)", true);
+            moduleToTestInstance = new BatchInsert(connect, "INSERT IGNORE INTO module_to_test_instance ( fk_module, fk_test_instance ) VALUES (?,?)", false);
+        }
+
+        long getRows()
+        {
+            return dtLine.getRows() + dtToDt.getRows() + artifactToDtLine.getRows() + testInstance.getRows() + moduleToTestInstance.getRows();
+        }
+
+        long getNanos()
+        {
+            return dtLine.getNanos() + dtToDt.getNanos() + artifactToDtLine.getNanos() + testInstance.getNanos() + moduleToTestInstance.getNanos();
+        }
+
+        void close()
+        {
+            dtLine.close();
+            dtToDt.close();
+            artifactToDtLine.close();
+            testInstance.close();
+            moduleToTestInstance.close();
+        }
+    }
+
+    /**
+     * The total number of rows written by batched synchronization, used for reporting.
+     */
+    private long syncRows = 0;
+
+    /**
+     * The total time spent in batched synchronization, in nanoseconds.
+     */
+    private long syncNanos = 0;
+
+    /**
+     * Return a one line summary of the rows written by {@link #syncDescribedTemplates(List)}.
+     * @return The summary, including the overall rate in rows per second.
+     */
+    public String getSyncStatistics()
+    {
+        long millis = syncNanos / 1000000;
+        long rate = syncNanos > 0 ? (syncRows * 1000000000L) / syncNanos : 0;
+        return String.format("Synchronized %d rows in %d ms (%d rows/sec)", syncRows, millis, rate);
+    }
+
     void addToSet(DescribedTemplate dt, Set<DescribedTemplate> set)
     {
         if (!set.contains(dt))
@@ -2074,69 +2772,71 @@ public class Core
         }
     }
 
-    private void addActions(DescribedTemplate dt, long pk) throws Exception
+    /**
+     * Queue the lines of a described template. The dt_to_dt and artifact_to_dt_line rows
+     * are queued once the line keys are known, see {@link #writeLines(SyncBatch)}.
+     */
+    private void addActions(DescribedTemplate dt, long pk, SyncBatch batch) throws Exception
     {
-        PreparedStatement statement = null;
-        ResultSet keys;
-
         for (int i = 0; i < dt.getActionCount(); i++)
         {
             TestInstance.Action A = dt.getAction(i);
 
-            statement = connect.prepareStatement("INSERT INTO dt_line (fk_described_template,line,fk_child_dt,description) VALUES (?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
-            statement.setLong(1, pk);
-            statement.setInt(2, i);
+            SyncBatch.PendingLine line = new SyncBatch.PendingLine();
+            line.fk_described_template = pk;
 
+            // Dependencies are added before their parents, but an included template need not be listed as one.
+            Long fk_child_dt = null;
             DescribedTemplate child = A.getIncludedTemplate();
-            if (child == null)
-                statement.setNull(3, Types.NULL);
-            else
-                statement.setLong(3, child.getPK());
-
-            statement.setString(4, A.getDescription());
-            statement.executeUpdate();
-
-            long linepk = 0;
-            keys = statement.getGeneratedKeys();
-            if (keys.next())
-                linepk = keys.getLong(1);
-
-            safeClose(statement);
-            statement = null;
+            if (child != null)
+            {
+                DBDescribedTemplate dbchild = findDescribedTemplate(child.getKey());
+                if (dbchild == null)
+                    dbchild = add(child, null, null, null, null, null, batch);
+                fk_child_dt = dbchild.pk;
+            }
 
-            //TODO: This doesn't handle dependencies, which need to roll up.
-            statement = connect.prepareStatement("INSERT INTO dt_to_dt (fk_parent,fk_child) VALUES (?,?)");
-            statement.setLong(1, pk);
-            statement.setLong(2, linepk);
-            statement.executeUpdate();
-            safeClose(statement);
-            statement = null;
+            line.row = batch.dtLine.add(pk, i, fk_child_dt, A.getDescription());
 
             TestInstance.Action.ArtifactUses au = A.getArtifactUses();
             if (au != null)
             {
+                line.primary = au.getPrimary();
+                line.reason = au.getReason();
+
                 Iterator<Artifact> iter = au.getArtifacts();
                 while (iter.hasNext())
                 {
-                    DBArtifact artifact = (DBArtifact) iter.next();
-
-                    try
-                    {
-                        statement = connect.prepareStatement("INSERT INTO artifact_to_dt_line (fk_artifact, fk_dt_line, is_primary, reason) VALUES (?,?,?,?)");
-                        statement.setLong(1, artifact.getPK());
-                        statement.setLong(2, linepk);
-                        statement.setInt(3, au.getPrimary() ? 1 : 0);
-                        statement.setString(4, au.getReason());
-                        statement.executeUpdate();
-                        safeClose(statement);
-                        statement = null;
-                    } catch (Exception e)
-                    {
-                        System.err.println("ERROR: Failed to relate artifact to line, " + e.getMessage());
-                    }
+                    Artifact artifact = iter.next();
+                    if (artifact instanceof DBArtifact)
+                        line.artifacts.add(((DBArtifact) artifact).getPK());
+                    else
+                        System.err.println("ERROR: Failed to relate artifact to line, " + artifact.getName() + " is not in the database");
                 }
             }
+
+            batch.lines.add(line);
+        }
+    }
+
+    /**
+     * Write all queued dt_line rows, and queue the rows that relate to them.
+     */
+    private void writeLines(SyncBatch batch) throws Exception
+    {
+        long[] keys = batch.dtLine.finish();
+        for (SyncBatch.PendingLine line : batch.lines)
+        {
+            long linepk = keys[line.row];
+
+            //TODO: This doesn't handle dependencies, which need to roll up.
+            batch.dtToDt.add(line.fk_described_template, linepk);
+
+            for (Long pk_artifact : line.artifacts)
+                batch.artifactToDtLine.add(pk_artifact, linepk, line.primary ? 1 : 0, line.reason);
         }
+
+        batch.lines.clear();
     }
 
     /**
@@ -2147,14 +2847,16 @@ public class Core
      * @param start The start time, or null.
      * @param ready The ready time, or null.
      * @param complete The complete time, or null.
+     * @param batch The batch that holds the current transaction.
      * @return The key information for the added described template.
      */
-    private DBDescribedTemplate add(DescribedTemplate dt, Boolean result, String owner, Date start, Date ready, Date complete) throws Exception
+    private DBDescribedTemplate add(DescribedTemplate dt, Boolean result, String owner, Date start, Date ready, Date complete, SyncBatch batch) throws Exception
     {
         DescribedTemplate.Key proposed_key = dt.getKey();
 
-        if (keyToDT.containsKey(proposed_key))
-            return keyToDT.get(proposed_key);
+        DBDescribedTemplate existing = findDescribedTemplate(proposed_key);
+        if (existing != null)
+            return existing;
 
         // Recursive check for all dependencies
         // TODO: Figure out if this logic is correct. Doesn't appear to be.
@@ -2162,97 +2864,107 @@ public class Core
         {
             @SuppressWarnings("unused")
             DBDescribedTemplate dbdt;
-            if (!keyToDT.containsKey(child.getKey()))
-                dbdt = add(child, null, null, null, null, null);
+            if (describedTemplates.find(child.getKey()) < 0)
+                dbdt = add(child, null, null, null, null, null, batch);
             else
-                dbdt = check(child);
+                dbdt = check(child, batch);
         }
 
+        long pk = 0;
+        Hash description = dt.getDocumentationHash();
+        long pk_template = syncTemplate(dt.getTemplate());
+        if (result != null || owner != null)
+            reportResult(dt.getTemplate().getHash().toString(), result, owner, start, ready, complete);
+
+        PreparedStatement statement = null;
+        ResultSet query = null;
         try
         {
-            /* All described template additions are handled as transactions. */
-            connect.setAutoCommit(false);
+            statement = connect.prepareStatement("INSERT INTO described_template (fk_module_set, fk_template, description_hash, synchronized) VALUES (?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
+            statement.setBytes(1, dt.getKey().getModuleHash().bytes());
+            statement.setLong(2, pk_template);
+            statement.setBytes(3, dt.getDocumentationHash().bytes());
+            statement.setInt(4, 1); // Default is synchronized.
+            statement.executeUpdate();
 
-            long pk = 0;
-            long pk_template = syncTemplate(dt.getTemplate());
-            if (result != null || owner != null)
-                reportResult(dt.getTemplate().getHash().toString(), result, owner, start, ready, complete);
+            ResultSet keys = statement.getGeneratedKeys();
+            if (keys.next())
+                pk = keys.getLong(1);
 
-            PreparedStatement statement = null;
-            ResultSet query = null;
-            try
-            {
-                statement = connect.prepareStatement("INSERT INTO described_template (fk_module_set, fk_template, description_hash, synchronized) VALUES (?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
-                statement.setBinaryStream(1, new ByteArrayInputStream(dt.getKey().getModuleHash().toBytes()));
-                statement.setLong(2, pk_template);
-                statement.setBinaryStream(3, new ByteArrayInputStream(dt.getDocumentationHash().toBytes()));
-                statement.setInt(4, 1); // Default is synchronized.
-                statement.executeUpdate();
+            safeClose(statement);
+            statement = null;
 
-                ResultSet keys = statement.getGeneratedKeys();
-                if (keys.next())
-                    pk = keys.getLong(1);
+            addActions(dt, pk, batch);
+        } catch (SQLException e)
+        {
+            //TODO: Figure out that this is a duplicate key or not.
+            safeClose(statement);
+            statement = null;
 
-                safeClose(statement);
-                statement = null;
+            // The index may be older than the database, for example if it was shared by a synchronize run.
+            statement = connect.prepareStatement("SELECT pk_described_template, description_hash FROM described_template WHERE fk_module_set=? AND fk_template=?");
+            statement.setBytes(1, dt.getKey().getModuleHash().bytes());
+            statement.setLong(2, pk_template);
+            query = statement.executeQuery();
 
-                addActions(dt, pk);
-            } catch (SQLException e)
+            if (query.next())
             {
-                //TODO: Figure out that this is a duplicate key or not.
-                safeClose(statement);
-                statement = null;
+                pk = query.getLong(1);
+                description = new Hash(query.getBytes(2));
+            }
 
-                statement = connect.prepareStatement("SELECT pk_described_template FROM described_template WHERE fk_module_set=? AND fk_template=?");
-                statement.setBinaryStream(1, new ByteArrayInputStream(dt.getKey().getModuleHash().toBytes()));
-                statement.setLong(2, pk_template);
-                query = statement.executeQuery();
+            safeClose(query);
+            query = null;
+        } finally
+        {
+            safeClose(statement);
+            statement = null;
+        }
 
-                if (query.next())
-                    pk = query.getLong(1);
+        if (pk == 0)
+            throw new Exception("Could not add described template " + dt.getKey().getTemplateHash().toString());
 
-                safeClose(statement);
-                statement = null;
-                safeClose(query);
-            } finally
-            {
-                safeClose(statement);
-                statement = null;
-            }
+        DBDescribedTemplate dbdt = new DBDescribedTemplate();
+        dbdt.pk = pk;
+        dbdt.key = dt.getKey();
+        dbdt.description = description;
+        dbdt.record = describedTemplates.put(dbdt.key, dbdt.pk, dbdt.description);
+        batch.added.add(dbdt.key);
 
-            connect.commit();
-            connect.setAutoCommit(true);
+        // An existing row found in the database may have out of date documentation.
+        if (!description.equals(dt.getDocumentationHash()))
+            return check(dt, batch);
 
-            DBDescribedTemplate dbdt = new DBDescribedTemplate();
-            dbdt.pk = pk;
-            dbdt.key = dt.getKey();
-            pkToDT.put(dbdt.pk, dbdt);
-            keyToDT.put(dbdt.key, dbdt);
-            return dbdt;
-        } catch (Exception e)
-        {
-        	System.err.println("Failed to add described template: " + e);
-        	e.printStackTrace();
-            try
-            {
-                connect.rollback();
-                connect.setAutoCommit(true);
-            } catch (Exception ex)
-            {
-                // TODO: This is really bad - failure to restore state.
-            }
-        }
+        return dbdt;
+    }
 
-        return null;
+    /**
+     * Find a described template in the index.
+     * @param key The key of the described template.
+     * @return The described template, or null if it is not in the index.
+     */
+    private DBDescribedTemplate findDescribedTemplate(DescribedTemplate.Key key)
+    {
+        int record = describedTemplates.find(key);
+        if (record < 0)
+            return null;
+
+        DBDescribedTemplate dbdt = new DBDescribedTemplate();
+        dbdt.pk = describedTemplates.getPk(record);
+        dbdt.key = key;
+        dbdt.description = describedTemplates.getDescription(record);
+        dbdt.record = record;
+        return dbdt;
     }
 
     /**
      * Check that an existing template is correct. If the template exists then the children
      * must exist, but their documentation may be out of date.
      * @param dt The described template to check. Results are not currently checked.
+     * @param batch The batch that holds the current transaction.
      * @return
      */
-    private DBDescribedTemplate check(DescribedTemplate dt) throws Exception
+    private DBDescribedTemplate check(DescribedTemplate dt, SyncBatch batch) throws Exception
     {
         // Recursive check for all dependencies
         for (DescribedTemplate child : dt.getDependencies())
@@ -2260,18 +2972,22 @@ public class Core
             // TODO: Figure out if this is correct.
             @SuppressWarnings("unused")
             DBDescribedTemplate dbdt;
-            if (!keyToDT.containsKey(child.getKey()))
+            if (describedTemplates.find(child.getKey()) < 0)
                 throw new Exception("Parent template exists, child does not.");
-            dbdt = check(child);
+            dbdt = check(child, batch);
         }
 
-        DBDescribedTemplate me = keyToDT.get(dt.getKey());
+        DBDescribedTemplate me = findDescribedTemplate(dt.getKey());
         if (me == null)
             throw new Exception("Request to check a non-existent template.");
 
         if (dt.getDocumentationHash().equals(me.description))
             return me;
 
+        // Queued lines may belong to this template, so they must be written before the delete.
+        if (!batch.lines.isEmpty())
+            writeLines(batch);
+
         // Documentation needs to be recreated.
         PreparedStatement statement = null;
         try
@@ -2287,84 +3003,80 @@ public class Core
 
         try
         {
-            connect.setAutoCommit(false);
-
-            try
-            {
-                statement = connect.prepareStatement("UPDATE described_template SET description_hash=? WHERE pk_described_template=?");
-                statement.setBinaryStream(1, new ByteArrayInputStream(dt.getDocumentationHash().toBytes()));
-                statement.setLong(2, me.pk);
-                statement.executeUpdate();
-            } finally
-            {
-                safeClose(statement);
-                statement = null;
-            }
-
-            addActions(dt, me.pk);
-
-            connect.commit();
-            connect.setAutoCommit(true);
-        } catch (Exception e)
+            statement = connect.prepareStatement("UPDATE described_template SET description_hash=? WHERE pk_described_template=?");
+            statement.setBytes(1, dt.getDocumentationHash().bytes());
+            statement.setLong(2, me.pk);
+            statement.executeUpdate();
+        } finally
         {
-            connect.rollback();
-            connect.setAutoCommit(true);
+            safeClose(statement);
+            statement = null;
         }
 
+        addActions(dt, me.pk, batch);
+
+        if (!batch.described.containsKey(me.key))
+            batch.described.put(me.key, me.description);
+        me.description = dt.getDocumentationHash();
+        describedTemplates.setDescription(me.record, me.description);
         return me;
     }
 
     /**
-     * Compare all described templates, deleting those that should not exist, adding
-     * those that need to be created, and updating those that need to be updated.
-     * Updates are limited to documentation changes.
-     * @param testInstances A list of test instances to be synced.
-     * @throws Exception on any error
+     * The number of times a chunk of described templates is written before a deadlock or lock timeout fails the sync.
      */
-    public void syncDescribedTemplates(List<TestInstance> testInstances) throws Exception
+    private static final int SYNC_ATTEMPTS = 3;
+    private static final long SYNC_RETRY_DELAY = 250; // milliseconds, multiplied by the attempt
+
+    /**
+     * Write one chunk of described templates and their test instances in a single transaction.
+     * @param testInstances The test instances to write.
+     * @throws Exception on any error, in which case the transaction is rolled back and the cached state restored.
+     */
+    private void writeDescribedTemplates(List<TestInstance> testInstances) throws Exception
     {
-        for (TestInstance ti : testInstances)
+        SyncBatch batch = null;
+        try
         {
-            DBDescribedTemplate dbdt;
-            DescribedTemplate.Key key = ti.getTemplate().getKey();
+            connect.setAutoCommit(false);
+            batch = new SyncBatch(connect);
 
-            if (!keyToDT.containsKey(key))
+            for (TestInstance ti : testInstances)
             {
-                // Add the template
-                dbdt = add(ti.getTemplate(), ti.getResult(), ti.getOwner(), ti.getStart(), ti.getReady(), ti.getComplete());
-            } else
-            {
-                dbdt = check(ti.getTemplate());
-            }
+                DBDescribedTemplate dbdt;
+                DescribedTemplate.Key key = ti.getTemplate().getKey();
 
-            // We have the described template. There should be a Test Instance that relates the
-            // current test (pk_test) to the current described template.
-            if (!dtToTI.containsKey(dbdt.pk))
-            {
-                // No test instance, add it.
-                PreparedStatement statement2 = null;
-                try
+                if (describedTemplates.find(key) < 0)
                 {
-                    statement2 = connect.prepareStatement("INSERT INTO test_instance (fk_test, fk_described_template, phase, synchronized) VALUES (?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
-                    statement2.setLong(1, pk_target_test);
-                    statement2.setLong(2, dbdt.pk);
-                    //TODO: Determine the phase
-                    statement2.setLong(3, 0);
-                    statement2.setInt(4, 1); // Default is synchronized.
-                    statement2.executeUpdate();
+                    // Add the template
+                    dbdt = add(ti.getTemplate(), ti.getResult(), ti.getOwner(), ti.getStart(), ti.getReady(), ti.getComplete(), batch);
+                } else
+                {
+                    dbdt = check(ti.getTemplate(), batch);
+                }
 
-                    ResultSet keys = statement2.getGeneratedKeys();
-                    if (keys.next())
-                        ti.pk = keys.getLong(1);
-                } catch (Exception e)
+                // We have the described template. There should be a Test Instance that relates the
+                // current test (pk_test) to the current described template.
+                if (dtToTI.containsKey(dbdt.pk))
+                {
+                    ti.pk = dtToTI.get(dbdt.pk);
+                    continue;
+                }
+
+                SyncBatch.PendingTestInstance pending = batch.testInstances.get(dbdt.pk);
+                if (pending == null)
                 {
-                    System.err.println("ERROR: Could not add module to module_to_test_instance: " + e.getMessage());
+                    // No test instance, add it.
+                    pending = new SyncBatch.PendingTestInstance();
+                    pending.fk_described_template = dbdt.pk;
+                    //TODO: Determine the phase
+                    pending.row = batch.testInstance.add(pk_target_test, dbdt.pk, 0L, 1); // Default is synchronized.
+                    batch.testInstances.put(dbdt.pk, pending);
                 }
 
-                safeClose(statement2);
-                statement2 = null;
+                pending.instances.add(ti);
 
-                // Insert all of the module references
+                // Collect all of the module references
                 List<TestInstance.Action> actions = ti.getActions();
                 for (TestInstance.Action action : actions)
                 {
@@ -2376,29 +3088,124 @@ public class Core
                     while (iter.hasNext())
                     {
                         Artifact artifact = iter.next();
-
-                        try
-                        {
-                            long pk_module = findModule(artifact.getModule());
-                            statement2 = connect.prepareStatement("INSERT INTO module_to_test_instance ( fk_module, fk_test_instance ) VALUES (?,?)");
-                            statement2.setLong(1, pk_module);
-                            statement2.setLong(2, ti.pk);
-                            statement2.execute();
-                            safeClose(statement2);
-                            statement2 = null;
-                        } catch (Exception e)
-                        {
-                            // Ignore, since many times this will be a duplicate.
-                        }
+                        long pk_module = findModule(artifact.getModule());
+                        if (pk_module != 0)
+                            pending.modules.add(pk_module);
                     }
                 }
+            }
+
+            writeLines(batch);
+
+            long[] keys = batch.testInstance.finish();
+            for (SyncBatch.PendingTestInstance pending : batch.testInstances.values())
+            {
+                long pk_test_instance = keys[pending.row];
+                for (TestInstance ti : pending.instances)
+                    ti.pk = pk_test_instance;
+
+                // Insert all of the module references, duplicates are ignored.
+                for (Long pk_module : pending.modules)
+                    batch.moduleToTestInstance.add(pk_module, pk_test_instance);
+            }
+
+            batch.dtToDt.finish();
+            batch.artifactToDtLine.finish();
+            batch.moduleToTestInstance.finish();
+
+            connect.commit();
+            connect.setAutoCommit(true);
+
+            for (SyncBatch.PendingTestInstance pending : batch.testInstances.values())
+                dtToTI.put(pending.fk_described_template, pending.instances.get(0).pk);
+
+            syncRows += batch.getRows();
+            syncNanos += batch.getNanos();
+        } catch (Exception e)
+        {
+            System.err.println("ERROR: Failed to synchronize described templates, " + e.getMessage());
+            try
+            {
+                connect.rollback();
+                connect.setAutoCommit(true);
+            } catch (Exception ex)
+            {
+                // TODO: This is really bad - failure to restore state.
+            }
+
+            // Nothing was committed, so the cached state must not include this batch.
+            if (batch != null)
+            {
+                for (DescribedTemplate.Key added : batch.added)
+                    describedTemplates.remove(added);
+
+                for (Map.Entry<DescribedTemplate.Key, Hash> entry : batch.described.entrySet())
+                {
+                    int record = describedTemplates.find(entry.getKey());
+                    if (record >= 0)
+                        describedTemplates.setDescription(record, entry.getValue());
+                }
+
+                for (TestInstance ti : testInstances)
+                    ti.pk = 0;
+            }
+
+            throw e;
+        } finally
+        {
+            if (batch != null)
+                batch.close();
+        }
+    }
+
+    /**
+     * @param e A failure to write a chunk.
+     * @return True if the database rolled the transaction back on a deadlock or a lock wait timeout.
+     */
+    private static boolean isTransient(SQLException e)
+    {
+        for (SQLException next = e; next != null; next = next.getNextException())
+        {
+            // MySQL reports deadlocks as 1213 and lock wait timeouts as 1205, both with SQLSTATE 40001 or 41000.
+            if (next.getErrorCode() == 1213 || next.getErrorCode() == 1205 || "40001".equals(next.getSQLState()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compare all described templates, deleting those that should not exist, adding
+     * those that need to be created, and updating those that need to be updated.
+     * Updates are limited to documentation changes.
+     * All changes are made in a single transaction. Rows for the dt_line, dt_to_dt, artifact_to_dt_line,
+     * test_instance and module_to_test_instance tables are written in batches.
+     * @param testInstances A list of test instances to be synced.
+     * @throws Exception on any error, in which case no changes are committed.
+     */
+    public void syncDescribedTemplates(List<TestInstance> testInstances) throws Exception
+    {
+        loadHashes();
+        if (describedTemplates == null)
+            throw new Exception("Described templates could not be loaded.");
 
-                safeClose(statement2);
-                statement2 = null;
-                dbdt.pk = ti.pk;
-                dtToTI.put(dbdt.pk, ti.pk);
+        for (int attempt = 1;; attempt++)
+        {
+            try
+            {
+                writeDescribedTemplates(testInstances);
+                break;
+            } catch (SQLException e)
+            {
+                // The whole chunk was rolled back, so a chunk that lost a deadlock or timed out on a lock can be written again.
+                if (attempt >= SYNC_ATTEMPTS || !isTransient(e))
+                    throw e;
+                System.err.println("WARNING: Retrying described template synchronization (attempt " + (attempt + 1) + " of " + SYNC_ATTEMPTS + "), " + e.getMessage());
+                Thread.sleep(SYNC_RETRY_DELAY * attempt);
             }
+        }
 
+        for (TestInstance ti : testInstances)
+        {
             // If the ti has a result recorded, then make sure it is reflected in the run table.
             Statement statement2 = null;
             ResultSet resultSet = null;
@@ -2461,7 +3268,7 @@ public class Core
         try
         {
             statement = connect.prepareStatement("SELECT pk_template FROM template WHERE hash=?");
-            statement.setBinaryStream(1, new ByteArrayInputStream(sync.getHash().toBytes()));
+            statement.setBytes(1, sync.getHash().bytes());
 
             resultSet = statement.executeQuery();
             if (!resultSet.isBeforeFirst())
@@ -2472,7 +3279,7 @@ public class Core
                 statement = null;
 
                 statement = connect.prepareStatement("INSERT INTO template (hash, steps, enabled) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS);
-                statement.setBinaryStream(1, new ByteArrayInputStream(sync.getHash().toBytes()));
+                statement.setBytes(1, sync.getHash().bytes());
                 statement.setString(2, sync.toStandardString());
                 statement.setInt(3, 1); // Default is enabled.
                 statement.executeUpdate();
@@ -2506,232 +3313,92 @@ public class Core
         return pk;
     }
 
-    private List<Hash> getExistingTopArtifacts(long pk)
-    {
-        List<Hash> result = new ArrayList<Hash>();
-        PreparedStatement findArtifacts = null;
-        ResultSet foundArtifacts = null;
-
-        // Read all the related artifacts
-        try
-        {
-            findArtifacts = connect.prepareStatement(String.format("select fk_content from template_to_all_content where fk_template='%d'", pk));
-            foundArtifacts = findArtifacts.executeQuery();
-            while (foundArtifacts.next())
-            {
-                Hash hash = new Hash(foundArtifacts.getBytes(1));
-                result.add(hash);
-            }
-        } catch (Exception e)
-        {
-            // Ignore
-        } finally
-        {
-            safeClose(foundArtifacts);
-            foundArtifacts = null;
-            safeClose(findArtifacts);
-            findArtifacts = null;
-        }
-
-        return result;
-    }
-
-    private void getRequiredTopArtifacts(long pk, Set<Hash> combined)
-    {
-        PreparedStatement findArtifacts = null;
-        ResultSet foundArtifacts = null;
-        PreparedStatement findChildren = null;
-        ResultSet foundChildren = null;
-
-        // Read all the related artifacts
-        try
-        {
-            findArtifacts = connect.prepareStatement(String.format("select fk_content from template_to_content where fk_template='%d'", pk));
-            foundArtifacts = findArtifacts.executeQuery();
-            while (foundArtifacts.next())
-            {
-                Hash hash = new Hash(foundArtifacts.getBytes(1));
-                combined.add(hash);
-            }
-
-            findChildren = connect.prepareStatement(String.format("select fk_child from template_to_template where fk_parent='%d'", pk));
-            foundChildren = findChildren.executeQuery();
-            while (foundChildren.next())
-            {
-                long fk = foundChildren.getLong("fk_child");
-                getRequiredTopArtifacts(fk, combined);
-            }
-        } catch (Exception e)
-        {
-            // Ignore
-        } finally
-        {
-            safeClose(foundArtifacts);
-            foundArtifacts = null;
-            safeClose(foundChildren);
-            findArtifacts = null;
-        }
-    }
-
-    private void getRequiredTemplates(long pk, Set<Long> combined)
-    {
-        PreparedStatement findChildren = null;
-        ResultSet foundChildren = null;
-
-        // If a template is already added then its children must also already be added.
-        if (combined.contains(pk))
-            return;
-
-        // Add me
-        combined.add(pk);
-
-        // Find and add all my children.
-        try
-        {
-            findChildren = connect.prepareStatement(String.format("select fk_child from template_to_template where fk_parent='%d'", pk));
-            foundChildren = findChildren.executeQuery();
-            while (foundChildren.next())
-            {
-                long fk = foundChildren.getLong("fk_child");
-                getRequiredTemplates(fk, combined);
-            }
-        } catch (Exception e)
-        {
-            // Ignore.
-        } finally
-        {
-            safeClose(foundChildren);
-            foundChildren = null;
-            safeClose(findChildren);
-            findChildren = null;
-        }
-    }
-
     /**
-     * Roll up the artifact relationships for all top-level templates. Top-level templates are those referenced
-     * directly from a test instance. This roll-up allows SQL queries to map from an artifact to a test instance
-     * for artifact result reports.
+     * Roll up the lines of included described templates for all top-level described templates. Top-level
+     * described templates are those referenced directly from a test instance, and already relate to their own
+     * lines in dt_to_dt. This roll-up allows SQL queries to map from an artifact to a test instance for artifact
+     * result reports. The include graph and the existing relationships are read once, and the missing
+     * relationships are added in batches.
      */
     public void syncTopTemplateRelationships()
     {
-        // Find all top-level templates.
-        PreparedStatement findTemplates = null;
-        ResultSet foundTemplates = null;
-        PreparedStatement insertArtifact = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        BatchInsert insertLine = null;
 
         if (read_only)
             return;
 
-        /* Templates always have the same "contents" and "relationships" or their hash would change. This
+        /* Described templates always have the same lines and includes or their keys would change. This
          * means that the worst synchronization problem can be a crash while we were in the process of adding
          * relationships. An existing relationship will never be wrong.
          */
         try
         {
-            findTemplates = connect.prepareStatement("select distinct fk_template from test_instance");
-            foundTemplates = findTemplates.executeQuery();
-            while (foundTemplates.next())
+            DescribedTemplateGraph graph = DescribedTemplateGraph.load(connect, true);
+            Set<Long> top = readKeys("SELECT DISTINCT fk_described_template FROM test_instance");
+
+            Map<Long, Set<Long>> existing = new HashMap<Long, Set<Long>>();
+            statement = connect.createStatement();
+            resultSet = statement.executeQuery("SELECT fk_parent, fk_child FROM dt_to_dt");
+            while (resultSet.next())
             {
-                long pk = foundTemplates.getLong("fk_template");
-                List<Hash> existing = getExistingTopArtifacts(pk);
-                Set<Hash> required = new HashSet<Hash>();
-                getRequiredTopArtifacts(pk, required);
+                long parent = resultSet.getLong(1);
+                if (!top.contains(parent))
+                    continue;
 
-                // Worst case we missed adding some last time.
-                required.removeAll(existing);
-                for (Hash h : required)
+                Set<Long> lines = existing.get(parent);
+                if (lines == null)
                 {
-                    // Need to add the relationship.
-                    insertArtifact = connect.prepareStatement("INSERT INTO template_to_all_content (fk_template, fk_content) VALUES (?,?)");
-                    insertArtifact.setLong(1, pk);
-                    insertArtifact.setBinaryStream(2, new ByteArrayInputStream(h.toBytes()));
-                    insertArtifact.executeUpdate();
+                    lines = new HashSet<Long>();
+                    existing.put(parent, lines);
                 }
+                lines.add(resultSet.getLong(2));
             }
-        } catch (Exception e)
-        {
-            // Ignore.
-        } finally
-        {
-            safeClose(foundTemplates);
-            foundTemplates = null;
-            safeClose(insertArtifact);
-            insertArtifact = null;
-        }
-    }
-
-    public void syncTemplateRelationships(Template sync)
-    {
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
 
-        if (read_only)
-            return;
+            safeClose(resultSet);
+            resultSet = null;
+            safeClose(statement);
+            statement = null;
 
-        try
-        {
-            for (Template t : sync.allTemplates)
+            connect.setAutoCommit(false);
+            insertLine = new BatchInsert(connect, "INSERT INTO dt_to_dt (fk_parent,fk_child) VALUES (?,?)", false);
+            for (Long pk : top)
             {
-                statement = connect.prepareStatement(String.format("select fk_parent, fk_child from template_to_template where fk_parent='%d' and fk_child='%d'", sync.getPK(), t.getPK()));
-                resultSet = statement.executeQuery();
-                if (!resultSet.isBeforeFirst())
-                {
-                    // There were no matches. Time to insert. Need to determine if the content exists.
-                    safeClose(resultSet);
-                    resultSet = null;
-                    safeClose(statement);
-                    statement = null;
-
-                    statement = connect.prepareStatement("INSERT INTO template_to_template (fk_parent, fk_child) VALUES (?,?)");
-                    statement.setLong(1, sync.getPK());
-                    statement.setLong(2, t.getPK());
-                    statement.executeUpdate();
-
-                    safeClose(statement);
-                    statement = null;
-                } else
+                // Worst case we missed adding some last time.
+                Set<Long> lines = existing.get(pk);
+                for (Long dt : graph.reachable(Collections.singleton(pk)))
                 {
-                    safeClose(resultSet);
-                    resultSet = null;
+                    for (Long line : graph.getLines(dt))
+                    {
+                        if (lines == null || !lines.contains(line))
+                            insertLine.add(pk, line);
+                    }
                 }
             }
 
-            for (Content a : sync.artifacts)
-            {
-                statement = connect.prepareStatement("select fk_template, fk_content from template_to_content where fk_template=? and fk_content=?");
-                statement.setLong(1, sync.getPK());
-                statement.setBinaryStream(2, new ByteArrayInputStream(a.getHash().toBytes()));
-                resultSet = statement.executeQuery();
-                if (!resultSet.isBeforeFirst())
-                {
-                    // There were no matches. Time to insert. Need to determine if the content exists.
-                    safeClose(resultSet);
-                    resultSet = null;
-                    safeClose(statement);
-                    statement = null;
-
-                    statement = connect.prepareStatement("INSERT INTO template_to_content (fk_template, fk_content) VALUES (?,?)");
-                    statement.setLong(1, sync.getPK());
-                    statement.setBinaryStream(2, new ByteArrayInputStream(a.getHash().toBytes()));
-                    statement.executeUpdate();
-
-                    safeClose(statement);
-                    statement = null;
-                } else
-                {
-                    safeClose(resultSet);
-                    resultSet = null;
-                }
-            }
+            insertLine.finish();
+            connect.commit();
+            connect.setAutoCommit(true);
         } catch (Exception e)
         {
-            System.err.println("ERROR: Couldn't synchronize template relationships, " + e.getMessage());
+            System.err.println("ERROR: Couldn't synchronize top-level template relationships, " + e.getMessage());
+            try
+            {
+                connect.rollback();
+                connect.setAutoCommit(true);
+            } catch (Exception ex)
+            {
+                // TODO: This is really bad - failure to restore state.
+            }
         } finally
         {
             safeClose(resultSet);
             resultSet = null;
             safeClose(statement);
             statement = null;
+            if (insertLine != null)
+                insertLine.close();
         }
     }
 
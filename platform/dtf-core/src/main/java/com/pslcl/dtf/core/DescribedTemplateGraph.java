@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The include graph of described templates, read from the dt_line table with a single query. A described
+ * template includes another when one of its lines refers to the other in fk_child_dt. The graph replaces
+ * walking the includes with a query for each described template.
+ */
+class DescribedTemplateGraph
+{
+    private Map<Long, List<Long>> children = new HashMap<Long, List<Long>>();
+    private Map<Long, List<Long>> lines = new HashMap<Long, List<Long>>();
+
+    private DescribedTemplateGraph()
+    {
+    }
+
+    /**
+     * Read the graph from the database.
+     * @param connect The database connection.
+     * @param withLines True if the lines of each described template should also be read.
+     * @return The graph.
+     * @throws SQLException The graph could not be read.
+     */
+    static DescribedTemplateGraph load(Connection connect, boolean withLines) throws SQLException
+    {
+        DescribedTemplateGraph graph = new DescribedTemplateGraph();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try
+        {
+            statement = connect.createStatement();
+            if (withLines)
+                resultSet = statement.executeQuery("SELECT fk_described_template, fk_child_dt, pk_dt_line FROM dt_line");
+            else
+                resultSet = statement.executeQuery("SELECT fk_described_template, fk_child_dt FROM dt_line WHERE fk_child_dt IS NOT NULL");
+
+            while (resultSet.next())
+            {
+                long pk = resultSet.getLong(1);
+                long child = resultSet.getLong(2);
+                if (!resultSet.wasNull())
+                    add(graph.children, pk, child);
+                if (withLines)
+                    add(graph.lines, pk, resultSet.getLong(3));
+            }
+        } finally
+        {
+            if (resultSet != null)
+                resultSet.close();
+            if (statement != null)
+                statement.close();
+        }
+
+        return graph;
+    }
+
+    private static void add(Map<Long, List<Long>> map, long key, long value)
+    {
+        List<Long> values = map.get(key);
+        if (values == null)
+        {
+            values = new ArrayList<Long>(2);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Return the described templates that are included, directly or indirectly, by a set of described templates.
+     * @param roots The primary keys of the described templates to start from.
+     * @return The primary keys of the roots and all of the described templates that they include.
+     */
+    Set<Long> reachable(Collection<Long> roots)
+    {
+        Set<Long> found = new HashSet<Long>(roots);
+        Deque<Long> pending = new ArrayDeque<Long>(found);
+        while (!pending.isEmpty())
+        {
+            List<Long> included = children.get(pending.pop());
+            if (included == null)
+                continue;
+
+            for (Long child : included)
+            {
+                if (found.add(child))
+                    pending.push(child);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Return the lines of a described template. Lines are only available if they were requested when loading.
+     * @param pk The primary key of the described template.
+     * @return The primary keys of the lines.
+     */
+    List<Long> getLines(long pk)
+    {
+        List<Long> result = lines.get(pk);
+        if (result == null)
+            return Collections.emptyList();
+        return result;
+    }
+}
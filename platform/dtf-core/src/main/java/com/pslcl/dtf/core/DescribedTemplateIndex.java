@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import com.pslcl.dtf.core.generator.template.DescribedTemplate;
+
+/**
+ * This class is an index of all described templates, mapping the template and module set hashes
+ * to the primary key and description hash. It replaces maps of objects with packed records of raw
+ * hash bytes held outside of the Java heap, so that millions of described templates can be indexed
+ * without the cost of a Hash, Key and map entry per row.
+ * <p>
+ * Records are stored densely in one buffer and located through an open-addressing table of record
+ * numbers in a second buffer. Because SHA-256 hashes are uniformly distributed, the leading bytes
+ * of the hashes are used directly to choose a slot.
+ * <p>
+ * An index may be saved to a file, and then mapped by other processes. The mapping is private, so
+ * the pages are shared until a process modifies its copy. This class is not thread safe.
+ */
+class DescribedTemplateIndex
+{
+    private static final int MAGIC = 0x44544649; // "DTFI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private static final int TEMPLATE_OFFSET = 0;
+    private static final int MODULES_OFFSET = 32;
+    private static final int DESCRIPTION_OFFSET = 64;
+    private static final int PK_OFFSET = 96;
+    private static final int RECORD_SIZE = 104;
+
+    private static final int MIN_SLOTS = 1024;
+
+    /**
+     * A buffer is limited to Integer.MAX_VALUE bytes, which limits the records to about 20 million. The slot table
+     * stays at or below three quarters full, so it never needs more than MAX_SLOTS for that many records.
+     */
+    private static final int MAX_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+    private static final int MAX_SLOTS = 1 << 28;
+
+    /**
+     * The records, RECORD_SIZE bytes each. A record with a zero primary key has been removed.
+     */
+    private ByteBuffer records;
+    private int count;
+
+    /**
+     * The open-addressing table. Each slot holds a record number plus one, or zero if empty.
+     */
+    private ByteBuffer slots;
+    private int slotCount;
+    private int used;
+
+    /**
+     * Create an empty index.
+     * @param expected The number of described templates expected.
+     */
+    DescribedTemplateIndex(int expected)
+    {
+        slotCount = slotsFor(expected);
+        slots = ByteBuffer.allocateDirect(slotCount * 4);
+        records = ByteBuffer.allocateDirect(offset(Math.min(Math.max(expected, 16), MAX_RECORDS)));
+        count = 0;
+        used = 0;
+    }
+
+    private DescribedTemplateIndex(ByteBuffer records, int count, int used, ByteBuffer slots, int slotCount)
+    {
+        this.records = records;
+        this.count = count;
+        this.used = used;
+        this.slots = slots;
+        this.slotCount = slotCount;
+    }
+
+    private static int slotsFor(int expected)
+    {
+        int n = MIN_SLOTS;
+        while (n < expected * 2L && n < MAX_SLOTS)
+            n <<= 1;
+        return n;
+    }
+
+    /**
+     * Load the index of all described templates from the database.
+     * @param connect The database connection.
+     * @return The index.
+     * @throws Exception The index could not be read, or contains duplicate keys.
+     */
+    static DescribedTemplateIndex load(Connection connect) throws Exception
+    {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try
+        {
+            int expected = 0;
+            statement = connect.createStatement();
+            resultSet = statement.executeQuery("SELECT COUNT(*) FROM described_template");
+            if (resultSet.next())
+                expected = resultSet.getInt(1);
+            resultSet.close();
+            resultSet = null;
+
+            DescribedTemplateIndex index = new DescribedTemplateIndex(expected);
+            resultSet = statement.executeQuery("SELECT pk_described_template, fk_module_set, hash, description_hash FROM described_template JOIN template ON fk_template = pk_template");
+            while (resultSet.next())
+            {
+                long pk = resultSet.getLong(1);
+                byte[] modules = resultSet.getBytes(2);
+                byte[] template = resultSet.getBytes(3);
+                if (index.find(template, modules) >= 0)
+                    throw new Exception("Duplicate DescribedTemplate.Key " + pk + " " + new Hash(template).toString() + ":" + new Hash(modules).toString());
+
+                index.put(template, modules, pk, resultSet.getBytes(4));
+            }
+
+            return index;
+        } finally
+        {
+            if (resultSet != null)
+                resultSet.close();
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    /**
+     * Write the index to a file that can later be mapped by {@link #map(File)}.
+     * @param file The file to write.
+     * @throws IOException The file could not be written.
+     */
+    void save(File file) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(slotCount).putInt(count).putInt(used).flip();
+
+        ByteBuffer slotData = slots.duplicate();
+        slotData.clear();
+        ByteBuffer recordData = records.duplicate();
+        recordData.clear();
+        recordData.limit(offset(count));
+
+        FileOutputStream os = new FileOutputStream(file);
+        try
+        {
+            FileChannel channel = os.getChannel();
+            for (ByteBuffer buffer : new ByteBuffer[] { header, slotData, recordData })
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+        } finally
+        {
+            os.close();
+        }
+    }
+
+    /**
+     * Map an index previously written by {@link #save(File)}. The mapping is private, so changes
+     * made to the returned index are not visible to other processes and are not written to the file.
+     * @param file The file to map.
+     * @return The index.
+     * @throws IOException The file could not be mapped or is not an index.
+     */
+    static DescribedTemplateIndex map(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining())
+                if (channel.read(header) < 0)
+                    throw new IOException("Not a described template index: " + file.getPath());
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Not a described template index: " + file.getPath());
+
+            int slotCount = header.getInt();
+            int count = header.getInt();
+            int used = header.getInt();
+
+            // The slots and records are mapped separately, since together they may exceed what one buffer can address.
+            long slotBytes = slotCount * 4L;
+            long recordBytes = (long) count * RECORD_SIZE;
+            if (slotCount <= 0 || slotCount > MAX_SLOTS || count < 0 || count > MAX_RECORDS || HEADER_SIZE + slotBytes + recordBytes > channel.size())
+                throw new IOException("Corrupt described template index: " + file.getPath());
+
+            ByteBuffer slots = channel.map(FileChannel.MapMode.PRIVATE, HEADER_SIZE, slotBytes);
+            ByteBuffer records = channel.map(FileChannel.MapMode.PRIVATE, HEADER_SIZE + slotBytes, recordBytes);
+
+            return new DescribedTemplateIndex(records, count, used, slots, slotCount);
+        } finally
+        {
+            // The mapping remains valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Return the number of described templates in the index.
+     * @return The number of entries.
+     */
+    int size()
+    {
+        return used;
+    }
+
+    /**
+     * Return the offset of a record in the records buffer.
+     * @param record The record number, or the record count for the end of the records.
+     * @return The offset.
+     * @throws IllegalStateException The offset is beyond what a buffer can address.
+     */
+    private static int offset(int record)
+    {
+        long offset = (long) record * RECORD_SIZE;
+        if (offset > Integer.MAX_VALUE)
+            throw new IllegalStateException("Described template index cannot hold more than " + MAX_RECORDS + " records.");
+        return (int) offset;
+    }
+
+    private static int slotHash(byte[] template, byte[] modules)
+    {
+        int h = 0;
+        for (int i = 0; i < 4; i++)
+            h = (h << 8) | ((template[i] ^ modules[i]) & 0xFF);
+        return h ^ (h >>> 16);
+    }
+
+    private int slotHash(int record)
+    {
+        int offset = offset(record);
+        int h = records.getInt(offset + TEMPLATE_OFFSET) ^ records.getInt(offset + MODULES_OFFSET);
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int record, byte[] template, byte[] modules)
+    {
+        int offset = offset(record);
+        for (int i = 0; i < 32; i++)
+        {
+            if (records.get(offset + TEMPLATE_OFFSET + i) != template[i])
+                return false;
+            if (records.get(offset + MODULES_OFFSET + i) != modules[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Find a described template.
+     * @param template The 32 byte template hash.
+     * @param modules The 32 byte module set hash.
+     * @return The record number, or -1 if the described template is not in the index.
+     */
+    int find(byte[] template, byte[] modules)
+    {
+        int mask = slotCount - 1;
+        for (int slot = slotHash(template, modules) & mask;; slot = (slot + 1) & mask)
+        {
+            int entry = slots.getInt(slot * 4);
+            if (entry == 0)
+                return -1;
+            if (matches(entry - 1, template, modules))
+                return entry - 1;
+        }
+    }
+
+    /**
+     * Find a described template.
+     * @param key The key of the described template.
+     * @return The record number, or -1 if the described template is not in the index.
+     */
+    int find(DescribedTemplate.Key key)
+    {
+        return find(key.getTemplateHash().bytes(), key.getModuleHash().bytes());
+    }
+
+    /**
+     * Return the primary key of a described template.
+     * @param record The record number returned by find().
+     * @return The primary key.
+     */
+    long getPk(int record)
+    {
+        return records.getLong(offset(record) + PK_OFFSET);
+    }
+
+    /**
+     * Return the description hash of a described template.
+     * @param record The record number returned by find().
+     * @return The description hash.
+     */
+    Hash getDescription(int record)
+    {
+        byte[] description = new byte[32];
+        ByteBuffer view = records.duplicate();
+        view.position(offset(record) + DESCRIPTION_OFFSET);
+        view.get(description);
+        return new Hash(description);
+    }
+
+    /**
+     * Set the description hash of a described template.
+     * @param record The record number returned by find().
+     * @param description The description hash.
+     */
+    void setDescription(int record, Hash description)
+    {
+        ByteBuffer view = records.duplicate();
+        view.position(offset(record) + DESCRIPTION_OFFSET);
+        view.put(description.bytes());
+    }
+
+    /**
+     * Add a described template that is not already in the index.
+     * @param key The key of the described template.
+     * @param pk The primary key, which must not be zero.
+     * @param description The description hash.
+     * @return The record number.
+     */
+    int put(DescribedTemplate.Key key, long pk, Hash description)
+    {
+        return put(key.getTemplateHash().bytes(), key.getModuleHash().bytes(), pk, description.bytes());
+    }
+
+    private int put(byte[] template, byte[] modules, long pk, byte[] description)
+    {
+        if (count >= MAX_RECORDS)
+            throw new IllegalStateException("Described template index cannot hold more than " + MAX_RECORDS + " records.");
+
+        if ((used + 1) * 4L > slotCount * 3L && slotCount < MAX_SLOTS)
+            resizeSlots(slotCount * 2);
+
+        if ((count + 1L) * RECORD_SIZE > records.capacity())
+        {
+            int grownCount = (int) Math.min(Math.max(count * 2L, 16), MAX_RECORDS);
+            ByteBuffer grown = ByteBuffer.allocateDirect(offset(grownCount));
+            ByteBuffer old = records.duplicate();
+            old.clear();
+            old.limit(offset(count));
+            grown.put(old);
+            records = grown;
+        }
+
+        int record = count;
+        ByteBuffer view = records.duplicate();
+        view.position(offset(record));
+        view.put(template, 0, 32);
+        view.put(modules, 0, 32);
+        view.put(description, 0, 32);
+        view.putLong(pk);
+        count += 1;
+        used += 1;
+
+        insertSlot(record);
+        return record;
+    }
+
+    private void insertSlot(int record)
+    {
+        int mask = slotCount - 1;
+        int slot = slotHash(record) & mask;
+        while (slots.getInt(slot * 4) != 0)
+            slot = (slot + 1) & mask;
+        slots.putInt(slot * 4, record + 1);
+    }
+
+    private void resizeSlots(int newSlotCount)
+    {
+        slotCount = newSlotCount;
+        slots = ByteBuffer.allocateDirect(slotCount * 4);
+        for (int record = 0; record < count; record++)
+            if (getPk(record) != 0)
+                insertSlot(record);
+    }
+
+    /**
+     * Remove a described template from the index. Later entries in the same probe sequence are moved
+     * back so that lookups never stop early. The record itself is cleared, not reclaimed.
+     * @param key The key of the described template.
+     */
+    void remove(DescribedTemplate.Key key)
+    {
+        byte[] template = key.getTemplateHash().bytes();
+        byte[] modules = key.getModuleHash().bytes();
+        int mask = slotCount - 1;
+        int slot = slotHash(template, modules) & mask;
+        while (true)
+        {
+            int entry = slots.getInt(slot * 4);
+            if (entry == 0)
+                return;
+            if (matches(entry - 1, template, modules))
+                break;
+            slot = (slot + 1) & mask;
+        }
+
+        records.putLong(offset(slots.getInt(slot * 4) - 1) + PK_OFFSET, 0);
+        used -= 1;
+
+        int hole = slot;
+        for (int next = (hole + 1) & mask;; next = (next + 1) & mask)
+        {
+            int entry = slots.getInt(next * 4);
+            if (entry == 0)
+                break;
+
+            // The entry may move into the hole only if its home slot is not cyclically within (hole, next].
+            int home = slotHash(entry - 1) & mask;
+            boolean movable = (hole <= next) ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable)
+            {
+                slots.putInt(hole * 4, entry);
+                hole = next;
+            }
+        }
+
+        slots.putInt(hole * 4, 0);
+    }
+}
@@ -81,11 +81,14 @@ public class DistributedTestingFramework
         System.out.println("arguments are:");
         System.out.println("  --no-synchronize - optional - disable synchronization.");
         System.out.println("  --no-generators - optional - disable running generators.");
-        System.out.println("  --prune <count> - optional - enable deleting of missing modules.");
+        System.out.println("  --prune <count> - optional - enable deleting of missing modules and unreferenced templates.");
         System.out.println("               <count> is the number of synchronize runs that the module has been missing. ");
         System.out.println("                       Count must be greater than 0.");
         System.out.println("  --generator-process-count <count> - optional - set the number of generator processes that may execute in parallel.");
         System.out.println("               Count must be greater than 0. Defaults to 5.");
+        System.out.println("  --generator-daemon - optional - run Java generators that implement TestGenerator in this process,");
+        System.out.println("               sharing the configuration, database connections and the described template and artifact indexes.");
+        System.out.println("               Other generators, and those whose launcher sets JVM options such as -Xmx, run as processes.");
 
         System.exit(1);
     }
@@ -256,7 +259,7 @@ public class DistributedTestingFramework
                 pk_module = core.addModule(module);
                 for (Artifact artifact : artifacts)
                 {
-                    Hash h = core.addContent(artifact.getContent().asStream(), -1);
+                    Hash h = core.addContent(artifact.getContent());
                     long pk_artifact = core.addArtifact(pk_module, artifact.getConfiguration(), artifact.getName(), artifact.getPosixMode(), h, merge_source, 0, 0);
                     if (artifact.getName().endsWith(".tar.gz"))
                     {
@@ -301,7 +304,7 @@ public class DistributedTestingFramework
                         List<Artifact> artifacts = dmod.getArtifacts();
                         for (Artifact artifact : artifacts)
                         {
-                            Hash h = core.addContent(artifact.getContent().asStream(), -1);
+                            Hash h = core.addContent(artifact.getContent());
                             long pk_artifact = core.addArtifact(pk_module, artifact.getConfiguration(), artifact.getName(), artifact.getPosixMode(), h, false, 0, pk_source_module);
                             if (artifact.getName().endsWith(".tar.gz"))
                             {
@@ -344,8 +347,9 @@ public class DistributedTestingFramework
         private String shell;
         private long id;
         private String script;
+        private File index;
 
-        public GeneratorExecutor(Core core, File generators, String base, String shell, long id, String script)
+        public GeneratorExecutor(Core core, File generators, String base, String shell, long id, String script, File index)
         {
             this.core = core;
             this.generators = generators;
@@ -353,6 +357,7 @@ public class DistributedTestingFramework
             this.shell = shell;
             this.id = id;
             this.script = script;
+            this.index = index;
         }
 
         @Override
@@ -380,6 +385,8 @@ public class DistributedTestingFramework
                 processBuilder.command(params);
                 processBuilder.environment().put("CLASSPATH", generators.getAbsolutePath() + "/lib/*" + File.pathSeparator + base + "/platform/lib/*" + File.pathSeparator + base + "/platform/*");
                 processBuilder.environment().put("DTF_TEST_ID", Long.toString(id));
+                if (index != null)
+                    processBuilder.environment().put(Core.DESCRIBED_TEMPLATE_INDEX_ENV, index.getAbsolutePath());
 
                 Process run = processBuilder.start();
                 inheritIO(run.getInputStream(), System.out, new PrintStream(stdout));
@@ -473,6 +480,7 @@ public class DistributedTestingFramework
         boolean generate = true;
         int prune = -1;
         int generatorProcessCount = 5;
+        boolean generatorDaemon = false;
 
         if (args.length > 1 && args[1].compareTo("--help") == 0)
             synchronizeHelp();
@@ -504,6 +512,9 @@ public class DistributedTestingFramework
                     synchronizeHelp();
 
                 i += 1;
+            } else if (args[i].compareTo("--generator-daemon") == 0)
+            {
+                generatorDaemon = true;
             } else
                 synchronizeHelp();
         }
@@ -596,8 +607,10 @@ public class DistributedTestingFramework
                     }
                 }
 
-                // Remove all unreferenced templates and descriptions
-                core.pruneTemplates();
+                // Remove all unreferenced templates and descriptions. Runs and results of the
+                // removed templates are deleted with them, so this only happens when pruning.
+                if (prune > 0)
+                    core.pruneTemplates();
             }
 
             if (generate)
@@ -615,11 +628,30 @@ public class DistributedTestingFramework
                     shell = "/bin/bash";
                 File generators = new File(core.getConfig().dirGenerators());
 
+                // Build the described template index once, and share it with all of the generators.
+                File index = File.createTempFile("described_template", ".idx");
+                if (!core.saveDescribedTemplateIndex(index))
+                {
+                    FileUtils.deleteQuietly(index);
+                    index = null;
+                }
+
+                GeneratorDaemon daemon = null;
+                if (generatorDaemon)
+                {
+                    core.enableArtifactIndex();
+                    daemon = new GeneratorDaemon(generators, index, core.getArtifactIndex(), core.getConfig(), generatorProcessCount);
+                }
+
                 ExecutorService executor = Executors.newFixedThreadPool(generatorProcessCount);
 
                 for (Map.Entry<Long, String> script : scripts.entrySet())
                 {
-                    Runnable worker = new GeneratorExecutor(core, generators, base, shell, script.getKey(), script.getValue());
+                    Runnable worker = null;
+                    if (daemon != null)
+                        worker = daemon.task(core, script.getKey(), script.getValue());
+                    if (worker == null)
+                        worker = new GeneratorExecutor(core, generators, base, shell, script.getKey(), script.getValue(), index);
                     executor.execute(worker);
                 }
 
@@ -634,6 +666,10 @@ public class DistributedTestingFramework
                     }
                 }
 
+                if (daemon != null)
+                    daemon.close();
+                FileUtils.deleteQuietly(index);
+
                 /* Remove all content that is not referenced or generated. */
                 core.pruneContent();
             }
@@ -857,7 +893,7 @@ public class DistributedTestingFramework
                     bos.close();
 
                     content = bos.toByteArray();
-                    hash = new Hash(content);
+                    hash = Hash.fromContent(new ByteArrayInputStream(content));
                 } catch (Exception e)
                 {
                     System.err.println("ERROR: Failure to create populated artifact, " + e.getMessage());
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.pslcl.dtf.core.generator.TestGenerator;
+
+/**
+ * Runs Java generators inside the synchronize process, see {@link TestGenerator}. All runs share
+ * the configuration, a bounded pool of idle database connections and the read-only described
+ * template and artifact indexes. Each generator run gets its own class loader over the generator
+ * libraries, with the platform class loader as parent, so that the statics of generator classes
+ * belong to that run. The system properties set by the launcher with -D are seen by that run only.
+ * Output written by a generator, or by threads it creates, is captured for that run only. It is
+ * recorded for its test, and written to the console as one block when the run ends.
+ */
+class GeneratorDaemon
+{
+    /**
+     * The output of one generator run.
+     */
+    private static class Capture
+    {
+        // The streams are written by the run's threads, so writes are synchronized by ByteArrayOutputStream.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+    }
+
+    /**
+     * A generator launcher script that can run in-process, see {@link GeneratorDaemon#parseLauncher(File)}.
+     */
+    static class Launcher
+    {
+        String className = null;
+        List<String> args = new ArrayList<String>();
+        Map<String, String> properties = new HashMap<String, String>();
+        List<String> classpath = new ArrayList<String>();
+        Boolean assertions = null;
+        List<String> skipped = new ArrayList<String>();
+        String unsupported = null; // the option that requires a process, if any
+    }
+
+    /**
+     * The system properties, with the -D properties of the current thread's generator run in front.
+     */
+    private class RunProperties extends Properties
+    {
+        private static final long serialVersionUID = 1L;
+
+        RunProperties(Properties system)
+        {
+            putAll(system);
+        }
+
+        @Override
+        public String getProperty(String key)
+        {
+            Map<String, String> p = runProperties.get();
+            if (p != null && p.containsKey(key))
+                return p.get(key);
+            return super.getProperty(key);
+        }
+    }
+
+    /**
+     * Writes to the capture of the current thread if there is one, otherwise to the original stream.
+     */
+    private class Tee extends OutputStream
+    {
+        private PrintStream target;
+        private boolean err;
+
+        Tee(PrintStream target, boolean err)
+        {
+            this.target = target;
+            this.err = err;
+        }
+
+        private OutputStream captured()
+        {
+            Capture c = capture.get();
+            if (c == null)
+                return null;
+            return err ? c.err : c.out;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            OutputStream c = captured();
+            if (c != null)
+                c.write(b);
+            else
+                target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            OutputStream c = captured();
+            if (c != null)
+                c.write(b, off, len);
+            else
+                target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            target.flush();
+        }
+    }
+
+    private class Run implements Runnable
+    {
+        private Core core;
+        private long id;
+        private String script;
+        private URLClassLoader loader;
+        private Class<?> type;
+        private String[] args;
+        private Map<String, String> properties;
+
+        Run(Core core, long id, String script, URLClassLoader loader, Class<?> type, String[] args, Map<String, String> properties)
+        {
+            this.core = core;
+            this.id = id;
+            this.script = script;
+            this.loader = loader;
+            this.type = type;
+            this.args = args;
+            this.properties = properties;
+        }
+
+        @Override
+        public void run()
+        {
+            Thread thread = Thread.currentThread();
+            String tname = thread.getName();
+            ClassLoader context = thread.getContextClassLoader();
+            thread.setName("GeneratorFuture");
+            originalOut.println("Generator: " + this.toString() + " started.");
+
+            Capture c = new Capture();
+            capture.set(c);
+            runProperties.set(properties);
+            thread.setContextClassLoader(loader);
+            try
+            {
+                TestGenerator generator = (TestGenerator) type.getDeclaredConstructor().newInstance();
+                generator.generate(id, args);
+            } catch (Throwable e)
+            {
+                // Errors such as missing classes are also reported, rather than ending the thread.
+                System.err.println("ERROR: Could not run generator " + script + ", " + e);
+            } finally
+            {
+                runProperties.remove();
+                capture.remove();
+                thread.setContextClassLoader(context);
+                try
+                {
+                    loader.close();
+                } catch (IOException e)
+                {
+                    // Ignore
+                }
+
+                core.updateTest(id, new String(c.out.toByteArray(), StandardCharsets.UTF_8), new String(c.err.toByteArray(), StandardCharsets.UTF_8));
+            }
+
+            synchronized (GeneratorDaemon.this)
+            {
+                // Written as one block, so that the output of runs does not interleave on the console.
+                originalOut.write(c.out.toByteArray(), 0, c.out.size());
+                originalOut.flush();
+                originalErr.write(c.err.toByteArray(), 0, c.err.size());
+                originalErr.flush();
+                originalOut.println("Generator: " + this.toString() + " completed.");
+            }
+            thread.setName(tname);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Long.toString(id) + "/" + script;
+        }
+    }
+
+    private File generators;
+    private PrintStream originalOut;
+    private PrintStream originalErr;
+    private Properties originalProperties;
+    private InheritableThreadLocal<Capture> capture = new InheritableThreadLocal<Capture>();
+    private InheritableThreadLocal<Map<String, String>> runProperties = new InheritableThreadLocal<Map<String, String>>();
+
+    /**
+     * Start sharing state between cores and capturing generator output. The daemon must be closed
+     * after all generators have completed.
+     * @param generators The generators directory, containing the bin and lib directories.
+     * @param describedTemplates A saved described template index, or null.
+     * @param artifacts An artifact index, or null.
+     * @param config The configuration shared by all generator runs.
+     * @param parallel The number of generators run in parallel, which bounds the idle connections kept.
+     */
+    GeneratorDaemon(File generators, File describedTemplates, ArtifactIndex artifacts, Core.Config config, int parallel)
+    {
+        this.generators = generators;
+        Core.beginSharing(describedTemplates, artifacts, config, parallel);
+
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setOut(new PrintStream(new Tee(originalOut, false), true));
+        System.setErr(new PrintStream(new Tee(originalErr, true), true));
+        originalProperties = System.getProperties();
+        System.setProperties(new RunProperties(originalProperties));
+    }
+
+    /**
+     * Return a task that runs a generator in this process, or null if the generator must be run
+     * as a process. This is the case unless the launcher script is a single java command naming a
+     * class that implements {@link TestGenerator}, with only options this process can honour.
+     * @param core The core used to record the generator output.
+     * @param id The primary key of the test.
+     * @param script The generator script and its arguments, as stored in the test.
+     * @return The task, or null.
+     */
+    Runnable task(Core core, long id, String script)
+    {
+        String[] params = script.split(" ");
+        Launcher launcher = parseLauncher(new File(generators, "bin/" + params[0]));
+        if (launcher == null)
+            return null;
+        if (launcher.unsupported != null)
+        {
+            originalOut.println("Generator: " + id + "/" + script + " runs as a process, launcher option " + launcher.unsupported + " needs its own JVM.");
+            return null;
+        }
+
+        // Replace $@ with the arguments of the script.
+        List<String> args = new ArrayList<String>();
+        for (String arg : launcher.args)
+        {
+            if (arg.equals("$@") || arg.equals("\"$@\""))
+                args.addAll(Arrays.asList(params).subList(1, params.length));
+            else if (arg.indexOf('$') >= 0 || arg.indexOf('"') >= 0 || arg.indexOf('\'') >= 0)
+                return null;
+            else
+                args.add(arg);
+        }
+
+        for (String option : launcher.skipped)
+            originalOut.println("Generator: " + id + "/" + script + " launcher option " + option + " does not apply in-process, skipped.");
+
+        URLClassLoader loader = null;
+        try
+        {
+            loader = new URLClassLoader(libraries(launcher.classpath), GeneratorDaemon.class.getClassLoader());
+            if (launcher.assertions != null)
+                loader.setDefaultAssertionStatus(launcher.assertions);
+            Class<?> type = Class.forName(launcher.className, false, loader);
+            if (TestGenerator.class.isAssignableFrom(type))
+                return new Run(core, id, script, loader, type, args.toArray(new String[args.size()]), launcher.properties);
+        } catch (Exception e)
+        {
+            // Not loadable here, leave it to the process.
+        } catch (LinkageError e)
+        {
+            // Not loadable here, leave it to the process.
+        }
+
+        if (loader != null)
+        {
+            try
+            {
+                loader.close();
+            } catch (IOException e)
+            {
+                // Ignore
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Stop capturing output and sharing state between cores.
+     */
+    void close()
+    {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        System.setProperties(originalProperties);
+        Core.endSharing();
+    }
+
+    /**
+     * Return the class path of a generator run: the generator libraries, then the launcher's own
+     * class path entries, where an entry ending in * stands for the jars in its directory.
+     */
+    private URL[] libraries(List<String> classpath) throws IOException
+    {
+        List<URL> urls = new ArrayList<URL>();
+        addJars(new File(generators, "lib"), urls);
+        for (String entry : classpath)
+        {
+            if (entry.endsWith("*"))
+                addJars(new File(entry.substring(0, entry.length() - 1)), urls);
+            else
+                urls.add(new File(entry).toURI().toURL());
+        }
+
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    private static void addJars(File dir, List<URL> urls) throws IOException
+    {
+        File[] jars = dir.listFiles();
+        if (jars != null)
+        {
+            Arrays.sort(jars);
+            for (File jar : jars)
+            {
+                if (jar.getName().endsWith(".jar"))
+                    urls.add(jar.toURI().toURL());
+            }
+        }
+    }
+
+    /**
+     * Parse a launcher script of the form <code>java [options] class [arguments]</code>, ignoring
+     * blank lines and comments. Options are kept for the run where this process can honour them:
+     * -D properties, class path entries and assertion switches. Options that only select the VM,
+     * such as -server, are skipped. Any other option, such as -Xmx, -XX or -javaagent, is recorded as
+     * unsupported, since only a process of its own can honour it.
+     * @param launcher The launcher script.
+     * @return The launcher, or null if the script has any other form.
+     */
+    static Launcher parseLauncher(File launcher)
+    {
+        List<String> lines;
+        try
+        {
+            lines = Files.readAllLines(launcher.toPath(), StandardCharsets.UTF_8);
+        } catch (Exception e)
+        {
+            return null;
+        }
+
+        String[] tokens = null;
+        for (String line : lines)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            // Only a single command is supported.
+            if (tokens != null)
+                return null;
+            tokens = line.split("\\s+");
+        }
+
+        if (tokens == null || !(tokens[0].equals("java") || tokens[0].endsWith("/java")))
+            return null;
+
+        for (String token : tokens)
+        {
+            // Redirection, pipes and command lists need the shell.
+            if (token.matches(".*[;|&<>`].*"))
+                return null;
+        }
+
+        Launcher result = new Launcher();
+        int i = 1;
+        while (i < tokens.length && tokens[i].startsWith("-"))
+        {
+            String option = tokens[i];
+            if (option.equals("-jar"))
+                return null;
+            if (option.startsWith("-D"))
+            {
+                if (option.indexOf('$') >= 0 || option.indexOf('"') >= 0 || option.indexOf('\'') >= 0)
+                    return null;
+                int eq = option.indexOf('=');
+                if (eq < 0)
+                    result.properties.put(option.substring(2), "");
+                else
+                    result.properties.put(option.substring(2, eq), option.substring(eq + 1));
+            } else if (option.equals("-cp") || option.equals("-classpath") || option.equals("--class-path"))
+            {
+                i += 1;
+                if (i >= tokens.length)
+                    return null;
+                for (String entry : tokens[i].split(File.pathSeparator))
+                {
+                    // The generator libraries and the platform are already on the class path of every run.
+                    String unquoted = entry.replace("\"", "");
+                    if (unquoted.isEmpty() || unquoted.equals("$CLASSPATH") || unquoted.equals("${CLASSPATH}"))
+                        continue;
+                    if (entry.indexOf('$') >= 0 || entry.indexOf('"') >= 0 || entry.indexOf('\'') >= 0)
+                        return null;
+                    result.classpath.add(entry);
+                }
+            } else if (option.equals("-ea") || option.equals("-enableassertions"))
+                result.assertions = Boolean.TRUE;
+            else if (option.equals("-da") || option.equals("-disableassertions"))
+                result.assertions = Boolean.FALSE;
+            else if (option.equals("-server") || option.equals("-client") || option.equals("-d64") || option.equals("-showversion"))
+                result.skipped.add(option);
+            else if (result.unsupported == null)
+                result.unsupported = option;
+            i += 1;
+        }
+
+        if (i >= tokens.length)
+            return null;
+
+        result.className = tokens[i];
+        result.args.addAll(Arrays.asList(tokens).subList(i + 1, tokens.length));
+        return result;
+    }
+}
@@ -18,12 +18,15 @@ package com.pslcl.dtf.core;
 import java.io.File;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-
-import javax.xml.bind.DatatypeConverter;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * This class represents a hash, which is a SHA-256 hash of some content.
+ * The hash is held as bytes, which is the form used by the database and by all comparisons. The
+ * hex string form is only created when it is requested.
  */
 public class Hash implements Comparable<Hash>
 {
@@ -42,15 +45,27 @@ public class Hash implements Comparable<Hash>
         return new String(hexChars);
     }
 
+    private final byte[] bytes;
+    private final int hashCode;
     private String value = null;
 
+    /**
+     * Create a digest for the algorithm used by all hashes, SHA-256.
+     * @return A new message digest.
+     * @throws NoSuchAlgorithmException Never, SHA-256 is required of all Java platforms.
+     */
+    static MessageDigest createDigest() throws NoSuchAlgorithmException
+    {
+        return MessageDigest.getInstance("SHA-256");
+    }
+
     public static Hash fromContent(File f)
     {
         int buff = 16384;
         try
         {
             RandomAccessFile file = new RandomAccessFile(f, "r");
-            MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
+            MessageDigest hashSum = createDigest();
 
             byte[] buffer = new byte[buff];
             byte[] partialHash = null;
@@ -78,14 +93,15 @@ public class Hash implements Comparable<Hash>
 
     public Hash(byte[] hash)
     {
-        value = bytesToHex(hash);
+        bytes = hash.clone();
+        hashCode = Arrays.hashCode(bytes);
     }
 
     public static Hash fromContent(String content)
     {
         try
         {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest digest = createDigest();
             byte[] hash = digest.digest(content.getBytes("UTF-8"));
             return new Hash(hash);
         } catch (Exception e)
@@ -99,7 +115,7 @@ public class Hash implements Comparable<Hash>
     {
         try
         {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest digest = createDigest();
 
             final int BUFFER_MAX_SIZE = 8192;
             byte[] buffer = new byte[BUFFER_MAX_SIZE];
@@ -122,33 +138,70 @@ public class Hash implements Comparable<Hash>
     @Override
     public String toString()
     {
+        if (value == null)
+            value = bytesToHex(bytes);
         return value;
     }
 
+    /**
+     * Return a copy of the bytes of the hash.
+     * @return The bytes.
+     */
     public byte[] toBytes()
     {
-        return DatatypeConverter.parseHexBinary(value);
+        return bytes.clone();
+    }
+
+    /**
+     * Return a read-only view of the bytes of the hash, without copying them.
+     * @return The bytes.
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
     }
 
+    /**
+     * Return the bytes of the hash without copying them. Callers in this package must not modify the result.
+     * @return The bytes.
+     */
+    byte[] bytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Compare hashes. The order is the same as the order of the hex strings.
+     */
     @Override
     public int compareTo(Hash o)
     {
-        return value.compareTo(o.value);
+        int length = Math.min(bytes.length, o.bytes.length);
+        for (int i = 0; i < length; i++)
+        {
+            int diff = (bytes[i] & 0xFF) - (o.bytes[i] & 0xFF);
+            if (diff != 0)
+                return diff;
+        }
+
+        return bytes.length - o.bytes.length;
     }
 
     @Override
     public int hashCode()
     {
-        return value.hashCode();
+        return hashCode;
     }
 
     @Override
     public boolean equals(Object o)
     {
+        if (this == o)
+            return true;
         if (!(o instanceof Hash))
             return false;
 
         Hash that = (Hash) o;
-        return this.value.equals(that.value);
+        return this.hashCode == that.hashCode && Arrays.equals(this.bytes, that.bytes);
     }
 }
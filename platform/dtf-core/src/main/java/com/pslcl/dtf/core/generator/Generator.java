@@ -20,6 +20,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import com.pslcl.dtf.core.Core;
 import com.pslcl.dtf.core.Hash;
@@ -66,13 +68,132 @@ public class Generator
      */
     private Map<String, Parameter> parameterReferenceMap;
 
+    /**
+     * The primary key of the test that generated test instances are related to.
+     */
+    private long pk_test;
+
+    /**
+     * The background writer, if background sync is enabled.
+     */
+    private SyncWriter writer = null;
+
+    /**
+     * Synchronizes batches of completed test instances with the database on its own thread and core,
+     * so that the generator can continue while the database is updated. Batches are synchronized in
+     * the order they are queued. After a failure the remaining batches are discarded, and the
+     * failure is reported by the next call to submit() or finish().
+     */
+    private class SyncWriter extends Thread
+    {
+        private final List<TestInstance> end = new ArrayList<TestInstance>();
+        private BlockingQueue<List<TestInstance>> queue;
+        private Core syncCore;
+        private volatile Exception failure = null;
+        private int discarded = 0;
+
+        SyncWriter(int queuedBatches)
+        {
+            super("GeneratorSync");
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<List<TestInstance>>(queuedBatches);
+            syncCore = new Core(pk_test);
+        }
+
+        /**
+         * Queue a batch, waiting while the queue is full.
+         * @param batch The test instances to synchronize.
+         * @throws Exception A previous batch failed to synchronize.
+         */
+        void submit(List<TestInstance> batch) throws Exception
+        {
+            if (failure != null)
+                throw failure;
+            queue.put(batch);
+        }
+
+        /**
+         * Wait for all queued batches to be synchronized.
+         * @throws Exception A batch failed to synchronize.
+         */
+        void finish() throws Exception
+        {
+            queue.put(end);
+            join();
+            if (failure != null)
+            {
+                if (discarded > 0)
+                    System.err.println("ERROR: " + discarded + " test instances were not synchronized after a failure.");
+                throw failure;
+            }
+        }
+
+        /**
+         * Stop the writer if it is still running, for example after submit() failed, and close its core.
+         */
+        void shutdown()
+        {
+            try
+            {
+                if (isAlive())
+                {
+                    queue.put(end);
+                    join();
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            syncCore.close();
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                List<TestInstance> batch;
+                try
+                {
+                    batch = queue.take();
+                } catch (InterruptedException e)
+                {
+                    failure = e;
+                    return;
+                }
+
+                if (batch == end)
+                    return;
+
+                if (failure != null)
+                {
+                    discarded += batch.size();
+                    continue;
+                }
+
+                try
+                {
+                    sync(syncCore, batch);
+                } catch (Exception e)
+                {
+                    failure = e;
+                }
+            }
+        }
+    }
+
     /**
      * Create a generator, which in turn can be used to generate test instances.
      * @param pk_test The primary key of the test that any generated test instances are related to.
      */
     public Generator(long pk_test)
     {
+        this.pk_test = pk_test;
         core = new Core(pk_test);
+
+        // Modules and artifacts do not change while generators run.
+        core.enableArtifactIndex();
     }
 
     /**
@@ -93,6 +214,26 @@ public class Generator
 		this.maxInstanceAccumulationCount = maxInstanceAccumulation;
 	}
 
+    /**
+     * Synchronize test instances with the database on a background thread, using a separate database
+     * connection. Each time the maximum number of test instances accumulates they are queued as a batch,
+     * and completeTest() only waits if the given number of batches are already queued. A failure to
+     * synchronize is thrown by a later call to completeTest(), and is reported by close().
+     * Must be called before the first test is completed.
+     *
+     * @param queuedBatches The number of batches that may be queued, which must be greater than 0.
+     */
+    public void enableBackgroundSync(int queuedBatches)
+    {
+        if (writer != null)
+            return;
+
+        synchronized (testInstances) {
+            writer = new SyncWriter(queuedBatches);
+            writer.start();
+        }
+    }
+
 	/**
      * Declare an artifact in the platform. It is uniquely identified by a UUID, which defines the artifact
      * globally throughout the platform in the context of a single running test. Multiple tests running at
@@ -340,15 +481,21 @@ public class Generator
         }
 
         activeTestInstance.close();
+        // The background writer gets a copy, so that it does not read templates the generator is still building.
+        TestInstance completed = (writer != null) ? activeTestInstance.snapshot() : activeTestInstance;
+        List<TestInstance> batch = null;
         synchronized (testInstances) {
-        	testInstances.add(activeTestInstance);
+        	testInstances.add(completed);
             activeTestInstance = null;
             parameterReferenceMap.clear();
             parameterReferenceMap = null;
             
         	if(testInstances.size() >= maxInstanceAccumulationCount){
             	try{
-            		sync();
+            		if (writer != null)
+            		    batch = new ArrayList<TestInstance>(testInstances);
+            		else
+            		    sync(core, testInstances);
             	} catch (Exception e) {
         	        System.err.println("ERROR: Failure to sync test instances, " + e.getMessage());
         	    	e.printStackTrace();
@@ -357,34 +504,48 @@ public class Generator
             	testInstances.clear();
         	}
         }
+
+        // Queue outside of the lock, so that waiting on a full queue only holds up this caller.
+        if (batch != null) {
+        	try{
+        	    writer.submit(batch);
+        	} catch (Exception e) {
+        	    System.err.println("ERROR: Failure to sync test instances, " + e.getMessage());
+        	    e.printStackTrace();
+        	    throw e;
+        	}
+        }
     }
 
-    private void dumpTestInstances()
+    private static void dumpTestInstances(List<TestInstance> instances)
     {
-    	synchronized (testInstances) {
-	        for (TestInstance ti : testInstances)
+    	synchronized (instances) {
+	        for (TestInstance ti : instances)
 	        {
 	            ti.dump();
 	        }
     	}
     }
     
-    private void sync() throws Exception{
+    private static void sync(Core core, List<TestInstance> instances) throws Exception{
     	
         // If the system is read-only, then just dump the created objects.
         if (core.isReadOnly())
         {
-            dumpTestInstances();
+            dumpTestInstances(instances);
             return;
         }
 
-        synchronized (testInstances) {
+        synchronized (instances) {
             /* The described template arrays are already loaded. We need to add any defined templates
              * that are not in the database, and remove any that are no longer needed.
              */
-            core.syncDescribedTemplates(testInstances);
+            core.syncDescribedTemplates(instances);
 		}
 
+        if (trace)
+            System.out.println(core.getSyncStatistics());
+
         /* Read the main contents of the top-level synchronized tables: Content, DescribedTemplate.
          * Content is easy, since it either exists or does not.
          * DescribedTemplate is a relationship between a test instance and the required hashes.
@@ -405,10 +566,6 @@ public class Generator
             t.sync();
         }
 
-        for ( Template t : testResources.values() ) {
-            t.syncRelationships();
-        }
-
         // Once the templates have been updated, the documentation can be updated to include the correct keys.
         for ( Description d : testDescriptions.values() ) {
             d.sync();
@@ -437,12 +594,29 @@ public class Generator
     public void close()
     {
     	try{
-    		sync();
+    		if (writer != null) {
+    		    List<TestInstance> batch;
+    		    synchronized (testInstances) {
+    		        batch = new ArrayList<TestInstance>(testInstances);
+    		        testInstances.clear();
+    		    }
+    		    if (!batch.isEmpty())
+    		        writer.submit(batch);
+    		    writer.finish();
+    		    if (trace && !writer.syncCore.isReadOnly())
+    		        System.out.println(writer.syncCore.getSyncStatistics());
+    		} else {
+    		    sync(core, testInstances);
+    		    if (trace && !core.isReadOnly())
+    		        System.out.println(core.getSyncStatistics());
+    		}
     	} catch (Exception e) {
 	        System.err.println("ERROR: Failure to close generator, " + e.getMessage());
 	    	e.printStackTrace();
 	    }
     	finally{
+    		if (writer != null)
+    		    writer.shutdown();
     		core.close();
     	}
     }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.generator;
+
+/**
+ * A generator that can be run inside the synchronize process rather than as a separate process.
+ * <p>
+ * When synchronize runs with <code>--generator-daemon</code> and a generator's launcher script is a
+ * single <code>java</code> command, the named class is loaded from the generator libraries. If it
+ * implements this interface and has a public no-argument constructor, it is created and run on a
+ * synchronize thread. It shares the described template and artifact indexes with other generators, but
+ * reads its own configuration and uses its own database connections.
+ * Otherwise the script is run as a process, as it is without the option.
+ * <p>
+ * Implementations should create a {@link Generator} with the given test key rather than reading
+ * <code>DTF_TEST_ID</code> from the environment, must close it before returning, and must not call
+ * <code>System.exit()</code>. Output written to <code>System.out</code> and <code>System.err</code> is
+ * recorded for the test as it is for generator processes. Several generators may run at the same
+ * time, so static state should not be modified.
+ */
+public interface TestGenerator
+{
+    /**
+     * Generate the test instances of a test.
+     * @param pk_test The primary key of the test, passed to {@link Generator#Generator(long)}.
+     * @param args The arguments given on the launcher script's command line.
+     * @throws Exception Any error, which is recorded for the test.
+     */
+    void generate(long pk_test, String[] args) throws Exception;
+}
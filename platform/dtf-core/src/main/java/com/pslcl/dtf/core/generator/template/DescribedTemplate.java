@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.pslcl.dtf.core.Core;
 import com.pslcl.dtf.core.Hash;
@@ -170,6 +171,41 @@ public class DescribedTemplate
         this.key = new Key(template.hash, moduleHash);
     }
 
+    private DescribedTemplate(DescribedTemplate source)
+    {
+        this.key = source.key;
+        this.documentation = source.documentation;
+        this.documentationHash = source.documentationHash;
+        this.moduleDescription = source.moduleDescription;
+    }
+
+    /**
+     * Copy this described template, its template, actions and dependencies, for {@link TestInstance#snapshot()}.
+     * @param frozen The copies already made by this snapshot, by identity, so that shared objects are copied once.
+     * @return The copy.
+     * @throws Exception An action could not be copied.
+     */
+    DescribedTemplate freeze(Map<Object, Object> frozen) throws Exception
+    {
+        DescribedTemplate copy = (DescribedTemplate) frozen.get(this);
+        if (copy != null)
+            return copy;
+
+        copy = new DescribedTemplate(this);
+        frozen.put(this, copy);
+
+        copy.dependencies = new ArrayList<DescribedTemplate>();
+        for (DescribedTemplate dependency : dependencies)
+            copy.dependencies.add(dependency.freeze(frozen));
+
+        copy.actions = new ArrayList<TestInstance.Action>();
+        for (TestInstance.Action action : actions)
+            copy.actions.add(TestInstance.freeze(action, template, frozen));
+
+        copy.template = new Template(template, copy.actions, copy.dependencies);
+        return copy;
+    }
+
     public Template getTemplate()
     {
         return template;
@@ -17,8 +17,9 @@ package com.pslcl.dtf.core.generator.template;
 
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -241,7 +242,7 @@ public class Template implements Comparable<Template>
     {
         this.core = core;
         this.actions = actions;
-        Collections.sort(actions, new TestInstance.Action.ActionSorter());
+        sortActions(actions, null);
 
         if (dependencies == null)
             this.dependencies = new ArrayList<DescribedTemplate>();
@@ -251,10 +252,99 @@ public class Template implements Comparable<Template>
         buildStrings();
     }
 
+    /**
+     * Copy a closed template for {@link TestInstance#snapshot()}. The copy has its own lists, so later changes
+     * to the source are not seen by the copy.
+     * @param source The template to copy.
+     * @param actions The frozen actions of the copy.
+     * @param dependencies The frozen dependencies of the copy.
+     */
+    Template(Template source, List<TestInstance.Action> actions, List<DescribedTemplate> dependencies)
+    {
+        this.core = source.core;
+        this.actions = actions;
+        this.dependencies = dependencies;
+        this.references = new HashMap<UUID, String>(source.references);
+        this.allTemplates = new ArrayList<Template>(source.allTemplates);
+        this.artifacts = new ArrayList<Content>(source.artifacts);
+        this.hash = source.hash;
+        this.std_string = source.std_string;
+        this.pk = source.pk;
+    }
+
+    /**
+     * An action with its sort key, the command in the context of a template.
+     */
+    private static class SortEntry
+    {
+        Action action;
+        int setID;
+        String command;
+    }
+
+    private static final Comparator<SortEntry> entrySorter = new Comparator<SortEntry>()
+    {
+        @Override
+        public int compare(SortEntry o1, SortEntry o2)
+        {
+            if (o1.setID < o2.setID)
+                return -1;
+            else if (o1.setID > o2.setID)
+                return +1;
+
+            if (o1.command == null || o2.command == null)
+                return 0;
+            return o1.command.compareTo(o2.command);
+        }
+    };
+
+    /**
+     * Sort actions in the same order as {@link TestInstance.Action.ActionSorter}, but computing the
+     * command of each action once rather than for every comparison. As with ActionSorter, an action
+     * whose command cannot be determined compares equal to other actions.
+     * @param list The actions to sort.
+     * @param template The template used to determine commands, may be null.
+     * @return True if sorting again with the same commands would not change the order.
+     */
+    static boolean sortActions(List<Action> list, Template template)
+    {
+        SortEntry[] entries = new SortEntry[list.size()];
+        for (int i = 0; i < entries.length; i++)
+        {
+            SortEntry entry = new SortEntry();
+            entry.action = list.get(i);
+            entry.setID = entry.action.getSetID();
+            try
+            {
+                entry.command = entry.action.getCommand(template);
+            } catch (Exception e)
+            {
+                // Compares equal, as with ActionSorter.
+            }
+            entries[i] = entry;
+        }
+
+        Arrays.sort(entries, entrySorter);
+
+        // A sort leaves a list that is already in ascending order unchanged.
+        boolean stable = true;
+        for (int i = 0; i < entries.length; i++)
+        {
+            list.set(i, entries[i].action);
+            if (i > 0 && entrySorter.compare(entries[i], entries[i - 1]) < 0)
+                stable = false;
+        }
+        return stable;
+    }
+
     /**
      * Build the string representation of the template. This format is canonical, and
      * must be strictly followed. The first section contains all dependencies, which are sorted
      * textually. Next come the actions, which are sorted textually, beginning with the set ID.
+     * <p>
+     * Actions may refer to resources bound by earlier actions, and those references are only known
+     * once the earlier actions have been added, so the actions are sorted again as the string is built.
+     * Commands only change when a reference is added, so the actions are only sorted again then.
      * @throws Exception 
      */
     private void buildStrings() throws Exception
@@ -270,7 +360,7 @@ public class Template implements Comparable<Template>
             }
 
             int offset = dependencies.size();
-            int currentSetID = 0;
+            boolean sorted = false;
             for (int i = 0; i < actions.size(); i++)
             {
             	Action action = actions.get(i);
@@ -279,13 +369,15 @@ public class Template implements Comparable<Template>
 
                 Resource resource = action.getBoundResource();
                 if (resource != null)
+                {
                     references.put(resource.instance, Integer.toString(offset + i));
-                
-                //Sort again if we are about to move to next set. This allows resource references assigned in the current set to be used in the sort.
+                    sorted = false;
+                }
+
+                //Sort again if we are about to move past the first set. This allows resource references assigned so far to be used in the sort.
                 //This should only change the order of actions that we have not yet gotten to.
-            	if(i < actions.size() - 1 && actions.get(i + 1).getSetID() > currentSetID){
-            		Collections.sort(actions, new TestInstance.Action.ActionSorter(this));
-            	}
+                if (!sorted && i < actions.size() - 1 && actions.get(i + 1).getSetID() > 0)
+                    sorted = sortActions(actions, this);
             }
 
             std_string = standardString.toString();
@@ -355,9 +447,4 @@ public class Template implements Comparable<Template>
         if (pk == 0)
             pk = core.syncTemplate(this);
     }
-
-    public void syncRelationships()
-    {
-        core.syncTemplateRelationships(this);
-    }
 }
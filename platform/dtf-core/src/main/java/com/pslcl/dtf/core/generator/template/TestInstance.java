@@ -20,8 +20,10 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -250,6 +252,103 @@ public class TestInstance
 		}
     }
 
+    /**
+     * An action copied by {@link TestInstance#snapshot()}. It holds the values that synchronization reads,
+     * and is not connected to the resources, artifacts iterators or templates of the generator.
+     */
+    private static class FrozenAction extends Action
+    {
+        private final String command;
+        private final String description;
+        private final String reason;
+        private final Boolean primary;
+        private final List<Artifact> artifacts; // null if the action uses no artifacts
+        private final DescribedTemplate include;
+
+        FrozenAction(Action source, Template template, Map<Object, Object> frozen) throws Exception
+        {
+            String command;
+            try
+            {
+                command = source.getCommand(template);
+            } catch (Exception e)
+            {
+                command = null;
+            }
+
+            this.command = command;
+            description = source.getDescription();
+            ArtifactUses au = source.getArtifactUses();
+            if (au != null)
+            {
+                reason = au.getReason();
+                primary = au.getPrimary();
+                artifacts = new ArrayList<Artifact>();
+                Iterator<Artifact> iter = au.getArtifacts();
+                while (iter.hasNext())
+                    artifacts.add(iter.next());
+            } else
+            {
+                reason = null;
+                primary = null;
+                artifacts = null;
+            }
+
+            DescribedTemplate included = source.getIncludedTemplate();
+            include = (included == null) ? null : included.freeze(frozen);
+            assignSetID(source.getSetID());
+        }
+
+        @Override
+        public String getCommand(Template t) throws Exception
+        {
+            return command;
+        }
+
+        @Override
+        public String getDescription() throws Exception
+        {
+            return description;
+        }
+
+        @Override
+        public ArtifactUses getArtifactUses() throws Exception
+        {
+            if (artifacts == null)
+                return null;
+            return new ArtifactUses(reason, primary, artifacts.iterator());
+        }
+
+        @Override
+        public Resource getBoundResource() throws Exception
+        {
+            return null;
+        }
+
+        @Override
+        public DescribedTemplate getIncludedTemplate() throws Exception
+        {
+            return include;
+        }
+
+        @Override
+        public List<Action> getActionDependencies() throws Exception
+        {
+            return new ArrayList<Action>();
+        }
+    }
+
+    static Action freeze(Action action, Template template, Map<Object, Object> frozen) throws Exception
+    {
+        Action copy = (Action) frozen.get(action);
+        if (copy == null)
+        {
+            copy = new FrozenAction(action, template, frozen);
+            frozen.put(action, copy);
+        }
+        return copy;
+    }
+
     /**
      * The core to use for database and other common access. Note that the core
      * represents the generation of a single test, and it maintains the primary
@@ -406,7 +505,7 @@ public class TestInstance
     	assignSetIDs();
 
         // Sort each set of actions (only one set for now)
-        Collections.sort(actions, new Action.ActionSorter());
+        Template.sortActions(actions, null);
 
         // Determine dependencies for each template (none for now)
         List<DescribedTemplate> dependencies = new ArrayList<DescribedTemplate>();
@@ -454,6 +553,33 @@ public class TestInstance
         return dtemplate;
     }
 
+    /**
+     * Copy a closed test instance, so that it can be synchronized on another thread while the generator
+     * continues. The copy holds its own described templates, templates and actions, with the values that
+     * synchronization reads already computed, so later changes made by the generator are not seen.
+     * Artifacts and modules are shared, since they are not changed while generators run.
+     * @return The copy.
+     * @throws Exception The test instance is not closed, or an action could not be copied.
+     */
+    public TestInstance snapshot() throws Exception
+    {
+        if (dtemplate == null)
+            throw new IllegalStateException("Test instance is not closed.");
+
+        Map<Object, Object> frozen = new IdentityHashMap<Object, Object>();
+        TestInstance copy = new TestInstance(core);
+        copy.dtemplate = dtemplate.freeze(frozen);
+        copy.actions = new ArrayList<Action>();
+        for (Action action : actions)
+            copy.actions.add(freeze(action, dtemplate.getTemplate(), frozen));
+        copy.result = result;
+        copy.owner = owner;
+        copy.start = start;
+        copy.ready = ready;
+        copy.complete = complete;
+        return copy;
+    }
+
     public Boolean getResult()
     {
         return result;
@@ -60,6 +60,24 @@ public class ResourceNames
      * dtf runner    
     ******************************************************************************/    
     public static final String DtfRunnerTestInstanceLimitKey = RunnerKeyBase + ".test-instance-limit";
+    public static final String DtfRunnerDbWriteBehindKey = RunnerKeyBase + ".db-write-behind";
+    public static final String DtfRunnerReservePolicyKey = RunnerKeyBase + ".reserve-policy";
+    
+    public static final String DtfRunnerDbWriteBehindDefault = "0";
+    public static final String DtfRunnerReservePolicyDefault = "order";
+
+    /* ****************************************************************************
+     * dtf runner content proxy    
+    ******************************************************************************/    
+    public static final String ContentProxyKeyBase = RunnerKeyBase + ".content-proxy";
+    public static final String ContentProxyPortKey = ContentProxyKeyBase + ".port";
+    public static final String ContentProxyHostKey = ContentProxyKeyBase + ".host";
+    public static final String ContentProxyDirKey = ContentProxyKeyBase + ".dir";
+    public static final String ContentProxySizeKey = ContentProxyKeyBase + ".size";
+    
+    public static final String ContentProxyPortDefault = "0";
+    public static final String ContentProxyDirDefault = "content-cache";
+    public static final String ContentProxySizeDefault = "10240"; // megabytes
         
 
     /* ****************************************************************************
@@ -91,6 +109,20 @@ public class ResourceNames
     
     public static final String ResourceManagerClassDefault = "com.pslcl.dtf.resource.aws.AwsResourcesManager";
 
+    /* ****************************************************************************
+     * Local resources, see LocalResourcesManager
+    ******************************************************************************/
+    public static final String LocalKeyBase = ResourceKeyBase + ".local";
+    public static final String LocalSandboxKey = LocalKeyBase + ".sandbox-path";
+    public static final String LocalContentDirKey = LocalKeyBase + ".content-dir";
+    public static final String LocalMachineLimitKey = LocalKeyBase + ".machine-limit";
+    public static final String LocalAddressKey = LocalKeyBase + ".address";
+    
+    public static final String LocalSandboxDefault = "local-sandbox";
+    public static final String LocalContentDirDefault = null;   // fetch from the deploy url
+    public static final String LocalMachineLimitDefault = "0";  // unlimited
+    public static final String LocalAddressDefault = "127.0.0.1";
+
     /* ****************************************************************************
      * Hardware/image     
     ******************************************************************************/    
@@ -119,9 +151,11 @@ public class ResourceNames
     public static final String DepoyKeyBase = PslclKeyBase + ".deploy";
     public static final String DeployLinuxSandboxKey = DepoyKeyBase + ".linux-sandbox-path";
     public static final String DeployWinSandboxKey = DepoyKeyBase + ".win-sandbox-path";
+    public static final String DeployCacheSizeKey = DepoyKeyBase + ".cache-size";
     
     public static final String DeployLinuxSandboxDefault = "/opt/dtf/sandbox";
     public static final String DeployWinSandboxDefault = "c:\\opt\\dtf\\sandbox";
+    public static final String DeployCacheSizeDefault = "1024"; // megabytes
     
     /* ****************************************************************************
      * Inspect    
@@ -15,6 +15,7 @@
  */
 package com.pslcl.dtf.core.runner.resource.instance;
 
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -40,6 +41,19 @@ public interface MachineInstance extends ResourceInstance
      */
     Future<Void> deploy(String partialDestPath, String url) throws Exception;
 
+    /**
+     * Place many files on a machine, with one request to the machine.
+     * <p>Each artifact is placed as if by {@link #deploy(String, String)}. The files are fetched in parallel,
+     * and each is verified against its hash before it is placed.
+     * 
+     * @param artifacts
+     *            The artifacts to place.
+     * 
+     * @return One Future for each artifact, in the order given. Each returns once its artifact is placed, or throws an exception if it is not.
+     * @throws Exception  if the deploy cannot be started
+     */
+    List<Future<Void>> deploy(List<Artifact> artifacts) throws Exception;
+
     /**
      * Delete a file from a machine.
      * <p>An example of use would be 
@@ -117,4 +131,23 @@ public interface MachineInstance extends ResourceInstance
      */
     Future<RunnableProgram> start(String command) throws Exception;
 
-}
\ No newline at end of file
+    /**
+     * An artifact to be placed on a machine.
+     */
+    class Artifact
+    {
+        /** The partial destination path, as given to {@link MachineInstance#deploy(String, String)}. */
+        public final String partialDestPath;
+        /** The URL of the artifact. */
+        public final String url;
+        /** The hex SHA-256 hash of the artifact content, or null to place it unverified. */
+        public final String hash;
+
+        public Artifact(String partialDestPath, String url, String hash)
+        {
+            this.partialDestPath = partialDestPath;
+            this.url = url;
+            this.hash = hash;
+        }
+    }
+}
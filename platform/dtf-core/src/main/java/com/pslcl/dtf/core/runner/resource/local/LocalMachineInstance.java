@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+
+import com.pslcl.dtf.core.Hash;
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.instance.CableInstance;
+import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
+import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
+import com.pslcl.dtf.core.runner.resource.instance.RunnableProgram;
+
+/**
+ * A machine that is a directory on the local host.
+ * <p>
+ * Each run has its own sandbox, <code>&lt;sandbox&gt;/machine-&lt;resourceId&gt;/&lt;runId&gt;</code>, to which
+ * artifacts are deployed and in which programs are run, as with the STAF based machines. Full paths given to
+ * deploy, delete or run are also kept within the run sandbox. Programs are run with <code>sh</code>, and their
+ * combined output is appended to <code>&lt;runId&gt;.log</code> beside the run sandbox.
+ */
+@SuppressWarnings("javadoc")
+public class LocalMachineInstance extends LocalResourceInstance implements MachineInstance
+{
+    public static final String MachineDirPrefix = "machine-";
+    public static final String LogFileSuffix = ".log";
+    public static final int ConnectTimeoutMs = 30 * 1000;
+    public static final int ReadTimeoutMs = 5 * 60 * 1000;
+
+    private final LocalMachineProvider provider;
+    public final File root;
+    private final List<LocalRunnableProgram> programs;
+
+    public LocalMachineInstance(LocalMachineProvider provider, ReservedResource resource) throws Exception
+    {
+        super(resource);
+        this.provider = provider;
+        root = new File(provider.manager.sandbox, MachineDirPrefix + resource.getCoordinates().resourceId);
+        if (!root.isDirectory() && !root.mkdirs())
+            throw new Exception("unable to create the machine sandbox: " + root.getPath());
+        programs = new ArrayList<LocalRunnableProgram>();
+    }
+
+    public File getRunDir()
+    {
+        return new File(root, Long.toString(getCoordinates().getRunId()));
+    }
+
+    private File getFile(String partialDestPath)
+    {
+        String path = partialDestPath.replace('\\', '/');
+        int idx = path.indexOf(':');
+        if (idx != -1)
+            path = path.substring(idx + 1); // drop a windows drive
+        while (path.startsWith("/"))
+            path = path.substring(1);
+        return new File(getRunDir(), path);
+    }
+
+    private void place(String partialDestPath, String url, String hash) throws Exception
+    {
+        File dest = getFile(partialDestPath);
+        File dir = dest.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new Exception("unable to create " + dir.getPath());
+        File temp = new File(dir, dest.getName() + ".part");
+        try
+        {
+            File content = provider.manager.getContentFile(hash, url);
+            if (content != null)
+                FileUtils.copyFile(content, temp);
+            else
+                FileUtils.copyURLToFile(new URL(url), temp, ConnectTimeoutMs, ReadTimeoutMs);
+            if (hash != null)
+            {
+                Hash actual = Hash.fromContent(temp);
+                if (actual == null || !actual.toString().equalsIgnoreCase(hash))
+                    throw new Exception("deploy of " + partialDestPath + " from " + url + " does not match its hash " + hash);
+            }
+            Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dest.setExecutable(true, false);
+        } finally
+        {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    private LocalRunnableProgram launch(String command) throws Exception
+    {
+        String trimmed = command.trim();
+        String program = trimmed;
+        String args = "";
+        for (int i = 0; i < trimmed.length(); i++)
+        {
+            if (Character.isWhitespace(trimmed.charAt(i)))
+            {
+                program = trimmed.substring(0, i);
+                args = trimmed.substring(i);
+                break;
+            }
+        }
+        File file = getFile(program);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new Exception("unable to create " + dir.getPath());
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", "./" + file.getName() + args);
+        builder.directory(dir);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(Redirect.appendTo(new File(root, getCoordinates().getRunId() + LogFileSuffix)));
+        LocalRunnableProgram runnableProgram = new LocalRunnableProgram(command, builder.start(), provider.config.blockingExecutor);
+        synchronized (programs)
+        {
+            Iterator<LocalRunnableProgram> iter = programs.iterator();
+            while (iter.hasNext())
+            {
+                if (!iter.next().isRunning())
+                    iter.remove();
+            }
+            programs.add(runnableProgram);
+        }
+        return runnableProgram;
+    }
+
+    /**
+     * Stop any programs still running and remove the machine sandbox.
+     */
+    public void release()
+    {
+        synchronized (programs)
+        {
+            for (LocalRunnableProgram program : programs)
+                program.destroy();
+            programs.clear();
+        }
+        FileUtils.deleteQuietly(root);
+    }
+
+    @Override
+    public Future<Void> deploy(final String partialDestPath, final String url) throws Exception
+    {
+        return provider.config.blockingExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                place(partialDestPath, url, null);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<Future<Void>> deploy(List<Artifact> artifacts) throws Exception
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final Artifact artifact : artifacts)
+        {
+            futures.add(provider.config.blockingExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    place(artifact.partialDestPath, artifact.url, artifact.hash);
+                    return null;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    @Override
+    public Future<Void> delete(final String partialDestPath) throws Exception
+    {
+        return provider.config.blockingExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                File file = (partialDestPath == null ? getRunDir() : getFile(partialDestPath));
+                if (!FileUtils.deleteQuietly(file) && file.exists())
+                    throw new Exception("unable to delete " + file.getPath());
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<CableInstance> connect(NetworkInstance network)
+    {
+        return CompletableFuture.<CableInstance> completedFuture(new LocalCableInstance(this, network, provider.manager.address));
+    }
+
+    @Override
+    public Future<Void> disconnect(NetworkInstance network)
+    {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Future<RunnableProgram> run(final String command) throws Exception
+    {
+        return provider.config.blockingExecutor.submit(new Callable<RunnableProgram>()
+        {
+            @Override
+            public RunnableProgram call() throws Exception
+            {
+                LocalRunnableProgram runnableProgram = launch(command);
+                runnableProgram.waitFor();
+                return runnableProgram;
+            }
+        });
+    }
+
+    @Override
+    public Future<RunnableProgram> configure(String command) throws Exception
+    {
+        return run(command);
+    }
+
+    @Override
+    public Future<RunnableProgram> start(final String command) throws Exception
+    {
+        return provider.config.blockingExecutor.submit(new Callable<RunnableProgram>()
+        {
+            @Override
+            public RunnableProgram call() throws Exception
+            {
+                return launch(command);
+            }
+        });
+    }
+}
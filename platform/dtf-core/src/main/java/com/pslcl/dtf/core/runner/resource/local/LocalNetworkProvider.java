@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
+import com.pslcl.dtf.core.runner.resource.provider.NetworkProvider;
+
+@SuppressWarnings("javadoc")
+public class LocalNetworkProvider extends LocalResourceProvider<NetworkInstance> implements NetworkProvider
+{
+    public LocalNetworkProvider(LocalResourcesManager manager)
+    {
+        super(manager);
+    }
+
+    @Override
+    protected NetworkInstance createInstance(ReservedResource resource) throws Exception
+    {
+        return new LocalNetworkInstance(resource);
+    }
+
+    @Override
+    protected void releaseInstance(NetworkInstance instance, boolean isReusable)
+    {
+    }
+}
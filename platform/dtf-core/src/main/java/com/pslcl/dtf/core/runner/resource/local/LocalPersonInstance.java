@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.instance.PersonInstance;
+
+/**
+ * A person who is never asked; each inspect request is written to the sandbox instead.
+ * <p>
+ * The instructions and any attachment of an inspect request are placed in
+ * <code>&lt;sandbox&gt;/inspect/&lt;resourceId&gt;/&lt;n&gt;</code>, numbered from 0.
+ */
+@SuppressWarnings("javadoc")
+public class LocalPersonInstance extends LocalResourceInstance implements PersonInstance
+{
+    public static final String InspectDirName = "inspect";
+    public static final String InstructionsFileName = "instructions.html";
+
+    private final LocalPersonProvider provider;
+    private final AtomicInteger inspectCount;
+
+    public LocalPersonInstance(LocalPersonProvider provider, ReservedResource resource)
+    {
+        super(resource);
+        this.provider = provider;
+        inspectCount = new AtomicInteger(0);
+    }
+
+    @Override
+    public Future<Void> inspect(final String instructions, final InputStream fileContent, final String fileName)
+    {
+        final File dir = new File(provider.manager.sandbox, InspectDirName + File.separator + getCoordinates().resourceId + File.separator + inspectCount.getAndIncrement());
+        return provider.config.blockingExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                FileUtils.writeStringToFile(new File(dir, InstructionsFileName), instructions, StandardCharsets.UTF_8);
+                if (fileContent != null)
+                    FileUtils.copyInputStreamToFile(fileContent, new File(dir, fileName));
+                return null;
+            }
+        });
+    }
+}
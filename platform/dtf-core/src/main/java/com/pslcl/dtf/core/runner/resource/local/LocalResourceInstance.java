@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.util.Map;
+
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.ResourceCoordinates;
+import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
+import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+
+@SuppressWarnings("javadoc")
+public abstract class LocalResourceInstance implements ResourceInstance
+{
+    public final ReservedResource resource;
+
+    protected LocalResourceInstance(ReservedResource resource)
+    {
+        this.resource = resource;
+    }
+
+    @Override
+    public String getName()
+    {
+        return resource.getName();
+    }
+
+    @Override
+    public Map<String, String> getAttributes()
+    {
+        return resource.getAttributes();
+    }
+
+    @Override
+    public void addAttribute(String key, String value)
+    {
+        resource.addAttribute(key, value);
+    }
+
+    @Override
+    public ResourceCoordinates getCoordinates()
+    {
+        return resource.getCoordinates();
+    }
+
+    @Override
+    public ResourceProvider getResourceProvider()
+    {
+        return resource.getResourceProvider();
+    }
+}
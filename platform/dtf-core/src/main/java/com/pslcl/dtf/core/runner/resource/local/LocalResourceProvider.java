@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.ReservedResource;
+import com.pslcl.dtf.core.runner.resource.ResourceCoordinates;
+import com.pslcl.dtf.core.runner.resource.ResourceDescription;
+import com.pslcl.dtf.core.runner.resource.ResourceReserveDisposition;
+import com.pslcl.dtf.core.runner.resource.exception.ResourceNotReservedException;
+import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
+import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+
+/**
+ * The reserve, bind and release bookkeeping shared by the local resource providers.
+ * <p>
+ * Local resources are always available, up to an optional limit, so reserve completes at once; a reservation
+ * that is not bound within its timeout is dropped. Bind creates the instance on the calling thread.
+ * Resource attributes are accepted and ignored.
+ * @param <T> the type of instance bound by the provider.
+ */
+@SuppressWarnings("javadoc")
+public abstract class LocalResourceProvider<T extends ResourceInstance> implements ResourceProvider
+{
+    protected final Logger log;
+    public final LocalResourcesManager manager;
+    public volatile RunnerConfig config;
+    private final HashMap<Long, ReservedResource> reserved;   // key is resourceId
+    private final HashMap<Long, ScheduledFuture<?>> timers;    // key is resourceId
+    private final HashMap<Long, ReservedResource> binding;     // key is resourceId
+    private final HashMap<Long, T> bound;                      // key is resourceId
+
+    protected LocalResourceProvider(LocalResourcesManager manager)
+    {
+        log = LoggerFactory.getLogger(getClass());
+        this.manager = manager;
+        reserved = new HashMap<Long, ReservedResource>();
+        timers = new HashMap<Long, ScheduledFuture<?>>();
+        binding = new HashMap<Long, ReservedResource>();
+        bound = new HashMap<Long, T>();
+    }
+
+    /**
+     * Create the instance for a reserved resource.
+     * @param resource the reserved resource.
+     * @return the instance.
+     * @throws Exception if the instance could not be created.
+     */
+    protected abstract T createInstance(ReservedResource resource) throws Exception;
+
+    /**
+     * Release a bound instance.
+     * @param instance the instance.
+     * @param isReusable true if the same resource is likely to be asked for again soon.
+     */
+    protected abstract void releaseInstance(T instance, boolean isReusable);
+
+    /**
+     * @return the number of reserved and bound resources allowed at once, or 0 for no limit.
+     */
+    protected int getLimit()
+    {
+        return 0;
+    }
+
+    @Override
+    public void init(RunnerConfig config) throws Exception
+    {
+        config.initsb.ttl(getClass().getSimpleName(), " Initialization");
+        this.config = config;
+    }
+
+    @Override
+    public void destroy()
+    {
+        releaseAll();
+    }
+
+    @Override
+    public String getName()
+    {
+        return ResourceProvider.getTypeName(this);
+    }
+
+    @Override
+    public List<String> getAttributes()
+    {
+        return new ArrayList<String>();
+    }
+
+    @Override
+    public Future<List<ResourceReserveDisposition>> reserve(List<ResourceDescription> resources, int timeoutSeconds)
+    {
+        List<ResourceReserveDisposition> list = new ArrayList<ResourceReserveDisposition>();
+        for (ResourceDescription resource : resources)
+        {
+            if (!getName().equals(resource.getName()))
+            {
+                list.add(new ResourceReserveDisposition(resource));
+                continue;
+            }
+            final long resourceId = resource.getCoordinates().resourceId;
+            synchronized (reserved)
+            {
+                int limit = getLimit();
+                if (limit > 0 && reserved.size() + binding.size() + bound.size() >= limit)
+                {
+                    list.add(new ResourceReserveDisposition(resource));
+                    continue;
+                }
+                resource.getCoordinates().setManager(manager);
+                resource.getCoordinates().setProvider(this);
+                ReservedResource reservedResource = new ReservedResource(resource.getCoordinates(), resource.getAttributes(), timeoutSeconds);
+                reserved.put(resourceId, reservedResource);
+                timers.put(resourceId, config.scheduledExecutor.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        synchronized (reserved)
+                        {
+                            timers.remove(resourceId);
+                            if (reserved.remove(resourceId) != null)
+                                log.debug(getClass().getSimpleName() + " reservation timed out, resourceId: " + resourceId);
+                        }
+                    }
+                }, timeoutSeconds, TimeUnit.SECONDS));
+                list.add(new ResourceReserveDisposition(resource, reservedResource));
+            }
+        }
+        return CompletableFuture.completedFuture(list);
+    }
+
+    @Override
+    public Future<T> bind(ReservedResource resource) throws ResourceNotReservedException
+    {
+        long resourceId = resource.getCoordinates().resourceId;
+        ReservedResource reservedResource;
+        synchronized (reserved)
+        {
+            reservedResource = reserved.remove(resourceId);
+            if (reservedResource == null)
+                throw new ResourceNotReservedException(resource.getName() + "(" + resourceId + ") is not reserved");
+            ScheduledFuture<?> timer = timers.remove(resourceId);
+            if (timer != null)
+                timer.cancel(false);
+            binding.put(resourceId, reservedResource);
+        }
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try
+        {
+            T instance = createInstance(reservedResource);
+            boolean released;
+            synchronized (reserved)
+            {
+                released = (binding.remove(resourceId) == null);
+                if (!released)
+                    bound.put(resourceId, instance);
+            }
+            if (released)
+            {
+                releaseInstance(instance, false);
+                throw new Exception(resource.getName() + "(" + resourceId + ") was released during bind");
+            }
+            future.complete(instance);
+        } catch (Exception e)
+        {
+            synchronized (reserved)
+            {
+                binding.remove(resourceId);
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public List<Future<T>> bind(List<ReservedResource> resources) throws ResourceNotReservedException
+    {
+        List<Future<T>> list = new ArrayList<Future<T>>();
+        for (ReservedResource resource : resources)
+            list.add(bind(resource));
+        return list;
+    }
+
+    public void setRunId(long templateInstanceId, long runId)
+    {
+        synchronized (reserved)
+        {
+            for (ReservedResource resource : reserved.values())
+            {
+                ResourceCoordinates coord = resource.getCoordinates();
+                if (coord.templateInstanceId == templateInstanceId)
+                    coord.setRunId(runId);
+            }
+            for (ReservedResource resource : binding.values())
+            {
+                ResourceCoordinates coord = resource.getCoordinates();
+                if (coord.templateInstanceId == templateInstanceId)
+                    coord.setRunId(runId);
+            }
+            for (T instance : bound.values())
+            {
+                ResourceCoordinates coord = instance.getCoordinates();
+                if (coord.templateInstanceId == templateInstanceId)
+                    coord.setRunId(runId);
+            }
+        }
+    }
+
+    public void release(long templateInstanceId, boolean isReusable)
+    {
+        releaseMatching(templateInstanceId, null, isReusable);
+    }
+
+    public void release(long templateInstanceId, long resourceId, boolean isReusable)
+    {
+        releaseMatching(templateInstanceId, resourceId, isReusable);
+    }
+
+    public void releaseAll()
+    {
+        releaseMatching(null, null, false);
+    }
+
+    private void releaseMatching(Long templateInstanceId, Long resourceId, boolean isReusable)
+    {
+        List<T> instances = new ArrayList<T>();
+        synchronized (reserved)
+        {
+            List<Long> releaseList = new ArrayList<Long>();
+            for (Entry<Long, ReservedResource> entry : reserved.entrySet())
+            {
+                if (isMatch(entry.getValue().getCoordinates(), templateInstanceId, resourceId))
+                    releaseList.add(entry.getKey());
+            }
+            for (Long key : releaseList)
+            {
+                reserved.remove(key);
+                ScheduledFuture<?> timer = timers.remove(key);
+                if (timer != null)
+                    timer.cancel(false);
+            }
+            releaseList.clear();
+            // an instance still being created is released by bind once created
+            for (Entry<Long, ReservedResource> entry : binding.entrySet())
+            {
+                if (isMatch(entry.getValue().getCoordinates(), templateInstanceId, resourceId))
+                    releaseList.add(entry.getKey());
+            }
+            for (Long key : releaseList)
+                binding.remove(key);
+            releaseList.clear();
+            for (Entry<Long, T> entry : bound.entrySet())
+            {
+                if (isMatch(entry.getValue().getCoordinates(), templateInstanceId, resourceId))
+                    releaseList.add(entry.getKey());
+            }
+            for (Long key : releaseList)
+            {
+                T instance = bound.remove(key);
+                if (instance != null)
+                    instances.add(instance);
+            }
+        }
+        for (T instance : instances)
+        {
+            try
+            {
+                releaseInstance(instance, isReusable);
+            } catch (Exception e)
+            {
+                log.warn(getClass().getSimpleName() + ".release failed", e);
+            }
+        }
+    }
+
+    private static boolean isMatch(ResourceCoordinates coord, Long templateInstanceId, Long resourceId)
+    {
+        if (templateInstanceId != null && coord.templateInstanceId != templateInstanceId.longValue())
+            return false;
+        return resourceId == null || coord.resourceId == resourceId.longValue();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.ResourceNames;
+import com.pslcl.dtf.core.runner.resource.ResourcesManager;
+import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.StrH;
+
+/**
+ * A <code>ResourcesManager</code> whose resources are all on the local host.
+ * <p>
+ * Machines are sandbox directories under a configured path, with programs run as local processes rather than
+ * through STAF; deploys copy from a local content store or fetch the deploy url directly. Networks and cables
+ * are placeholders that give the configured local address, and inspect requests are written to the sandbox.
+ * This allows the runner to be exercised on one host without any cloud account, for example to measure or
+ * regression-test its throughput. Configure it as the resource manager class; it is not intended for isolation
+ * between tests, which run with the privileges of the runner.
+ */
+@SuppressWarnings("javadoc")
+public class LocalResourcesManager implements ResourcesManager
+{
+    private final List<ResourceProvider> resourceProviders;
+    public final LocalMachineProvider machineProvider;
+    public final LocalNetworkProvider networkProvider;
+    public final LocalPersonProvider personProvider;
+    public volatile RunnerConfig config;
+    public volatile File sandbox;
+    public volatile File contentDir;
+    public volatile int machineLimit;
+    public volatile String address;
+
+    public LocalResourcesManager()
+    {
+        resourceProviders = new ArrayList<ResourceProvider>();
+        machineProvider = new LocalMachineProvider(this);
+        networkProvider = new LocalNetworkProvider(this);
+        personProvider = new LocalPersonProvider(this);
+        resourceProviders.add(machineProvider);
+        resourceProviders.add(networkProvider);
+        resourceProviders.add(personProvider);
+    }
+
+    /**
+     * Get the local content store file for an artifact.
+     * @param hash the hex content hash of the artifact, may be null.
+     * @param url the deploy url of the artifact, whose last segment is the hash if hash is null.
+     * @return the file, or null if there is no content store or it does not hold the artifact.
+     */
+    public File getContentFile(String hash, String url)
+    {
+        if (contentDir == null)
+            return null;
+        if (hash == null)
+            hash = StrH.getAtomicName(url, '/');
+        if (hash == null || hash.length() == 0)
+            return null;
+        File file = new File(contentDir, hash.toUpperCase());
+        return file.isFile() ? file : null;
+    }
+
+    @Override
+    public List<ResourceProvider> getResourceProviders()
+    {
+        return new ArrayList<ResourceProvider>(resourceProviders);
+    }
+
+    @Override
+    public void init(RunnerConfig config) throws Exception
+    {
+        this.config = config;
+        config.initsb.level.incrementAndGet();
+        config.initsb.ttl(getClass().getSimpleName(), " Initialization");
+        config.initsb.level.incrementAndGet();
+
+        String value = config.properties.getProperty(ResourceNames.LocalSandboxKey, ResourceNames.LocalSandboxDefault);
+        value = StrH.trim(value);
+        sandbox = new File(value).getAbsoluteFile();
+        config.initsb.ttl(ResourceNames.LocalSandboxKey, " = ", sandbox.getPath());
+        if (!sandbox.isDirectory() && !sandbox.mkdirs())
+            throw new Exception("unable to create the local sandbox: " + sandbox.getPath());
+
+        value = config.properties.getProperty(ResourceNames.LocalContentDirKey, ResourceNames.LocalContentDirDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(ResourceNames.LocalContentDirKey, " = ", value);
+        contentDir = (value == null || value.length() == 0 ? null : new File(value));
+
+        value = config.properties.getProperty(ResourceNames.LocalMachineLimitKey, ResourceNames.LocalMachineLimitDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(ResourceNames.LocalMachineLimitKey, " = ", value);
+        machineLimit = Integer.parseInt(value);
+
+        value = config.properties.getProperty(ResourceNames.LocalAddressKey, ResourceNames.LocalAddressDefault);
+        value = StrH.trim(value);
+        config.initsb.ttl(ResourceNames.LocalAddressKey, " = ", value);
+        address = value;
+
+        machineProvider.init(config);
+        networkProvider.init(config);
+        personProvider.init(config);
+        config.initsb.level.decrementAndGet();
+    }
+
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            int size = resourceProviders.size();
+            for (int i = 0; i < size; i++)
+                resourceProviders.get(i).destroy();
+            resourceProviders.clear();
+        } catch (Exception e)
+        {
+            LoggerFactory.getLogger(getClass()).error(getClass().getSimpleName() + ".destroy failed", e);
+        }
+    }
+
+    @Override
+    public void setRunId(long templateInstanceId, long runId)
+    {
+        machineProvider.setRunId(templateInstanceId, runId);
+        networkProvider.setRunId(templateInstanceId, runId);
+        personProvider.setRunId(templateInstanceId, runId);
+    }
+
+    @Override
+    public void release(long templateInstanceId, boolean isReusable)
+    {
+        personProvider.release(templateInstanceId, isReusable);
+        networkProvider.release(templateInstanceId, isReusable);
+        machineProvider.release(templateInstanceId, isReusable);
+    }
+
+    @Override
+    public void release(long templateInstanceId, long resourceId, boolean isReusable)
+    {
+        personProvider.release(templateInstanceId, resourceId, isReusable);
+        networkProvider.release(templateInstanceId, resourceId, isReusable);
+        machineProvider.release(templateInstanceId, resourceId, isReusable);
+    }
+
+    @Override
+    public void forceCleanup()
+    {
+        personProvider.releaseAll();
+        networkProvider.releaseAll();
+        machineProvider.releaseAll();
+        File[] files = sandbox.listFiles();
+        if (files == null)
+            return;
+        for (File file : files)
+            FileUtils.deleteQuietly(file);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.local;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.pslcl.dtf.core.runner.resource.instance.RunnableProgram;
+
+/**
+ * A program run as a local process.
+ */
+@SuppressWarnings("javadoc")
+public class LocalRunnableProgram implements RunnableProgram
+{
+    public static final int KillTimeoutSeconds = 10;
+
+    public final String command;
+    private final Process process;
+    private final ExecutorService executor;
+
+    public LocalRunnableProgram(String command, Process process, ExecutorService executor)
+    {
+        this.command = command;
+        this.process = process;
+        this.executor = executor;
+    }
+
+    /**
+     * Wait for the program to exit.
+     * @return the exit code.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public int waitFor() throws InterruptedException
+    {
+        return process.waitFor();
+    }
+
+    /**
+     * Stop the program without waiting for it to exit.
+     */
+    public void destroy()
+    {
+        process.destroy();
+    }
+
+    @Override
+    public Future<Integer> kill()
+    {
+        return executor.submit(new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws Exception
+            {
+                process.destroy();
+                if (!process.waitFor(KillTimeoutSeconds, TimeUnit.SECONDS))
+                    process.destroyForcibly().waitFor();
+                return process.exitValue();
+            }
+        });
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return process.isAlive();
+    }
+
+    @Override
+    public Integer getRunResult()
+    {
+        if (process.isAlive())
+            return null;
+        return process.exitValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + ": " + command + (process.isAlive() ? " (running)" : " (exit " + process.exitValue() + ")");
+    }
+}
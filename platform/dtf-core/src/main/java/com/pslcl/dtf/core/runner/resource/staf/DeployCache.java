@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.staf;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * The manifest of the artifact cache on one machine.
+ * <p>
+ * Deployed artifacts are kept in a cache directory beside the run sandboxes, each in a file named by its content
+ * hash, so that a machine reused by a later run is given each artifact it already holds without a transfer.
+ * This manifest records the hashes held and their sizes, in least recently used order. When the total size
+ * exceeds the limit, the least recently used hashes are evicted from the manifest; their files are removed
+ * by the next deploy to the machine. A deploy whose script does not run gives its evicted hashes back, so
+ * that their files are removed by a later one.
+ */
+public class DeployCache
+{
+    public static final String CacheDirName = ".cache";
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes;
+    private final List<String> evicted;
+    private long totalBytes;
+
+    /**
+     * @param maxBytes the size limit of the cache.
+     */
+    public DeployCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        evicted = new ArrayList<String>();
+        totalBytes = 0;
+    }
+
+    /**
+     * Check for a cached artifact, marking it as recently used.
+     * @param hash the hex content hash of the artifact.
+     * @return true if the manifest holds the hash.
+     */
+    public synchronized boolean contains(String hash)
+    {
+        return sizes.get(hash.toUpperCase()) != null;
+    }
+
+    /**
+     * Record an artifact as cached, evicting others as needed to keep within the size limit.
+     * @param hash the hex content hash of the artifact.
+     * @param size the size of the artifact in bytes.
+     */
+    public synchronized void add(String hash, long size)
+    {
+        hash = hash.toUpperCase();
+        evicted.remove(hash);
+        Long previous = sizes.put(hash, size);
+        if (previous != null)
+            totalBytes -= previous;
+        totalBytes += size;
+        Iterator<Entry<String, Long>> iter = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext())
+        {
+            Entry<String, Long> eldest = iter.next();
+            if (eldest.getKey().equals(hash))
+                continue;
+            totalBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            iter.remove();
+        }
+    }
+
+    /**
+     * Forget an artifact, for example one whose cached file could not be used.
+     * @param hash the hex content hash of the artifact.
+     */
+    public synchronized void remove(String hash)
+    {
+        Long previous = sizes.remove(hash.toUpperCase());
+        if (previous != null)
+            totalBytes -= previous;
+    }
+
+    /**
+     * Take the hashes evicted since the last call, whose files are to be removed from the machine.
+     * Hashes given in keep are not taken, since they are about to be cached again.
+     * @param keep the hex content hashes about to be deployed.
+     * @return the evicted hashes.
+     */
+    public synchronized List<String> takeEvicted(List<String> keep)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String hash : evicted)
+        {
+            boolean kept = false;
+            for (String k : keep)
+            {
+                if (k != null && k.equalsIgnoreCase(hash))
+                    kept = true;
+            }
+            if (!kept)
+                list.add(hash);
+        }
+        evicted.clear();
+        return list;
+    }
+
+    /**
+     * Give back hashes taken by {@link #takeEvicted(List)} whose files were not removed from the machine.
+     * Hashes cached again since they were taken are not given back.
+     * @param hashes the hex content hashes taken.
+     */
+    public synchronized void restoreEvicted(List<String> hashes)
+    {
+        for (String hash : hashes)
+        {
+            hash = hash.toUpperCase();
+            if (!sizes.containsKey(hash) && !evicted.contains(hash))
+                evicted.add(hash);
+        }
+    }
+
+    public synchronized int size()
+    {
+        return sizes.size();
+    }
+
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+}
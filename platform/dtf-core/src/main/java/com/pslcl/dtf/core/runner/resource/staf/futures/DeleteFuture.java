@@ -70,7 +70,7 @@ public class DeleteFuture implements Callable<Void>
         if(windows)
             issueRequest("rd " + commandData.getFdn() + " /s /q");
         else
-            issueRequest("sudo " + "rm -rf" + commandData.getFdn() + " ");
+            issueRequest("sudo " + "rm -rf " + commandData.getFdn() + " ");
         Thread.currentThread().setName(tname);
         return null;
     }
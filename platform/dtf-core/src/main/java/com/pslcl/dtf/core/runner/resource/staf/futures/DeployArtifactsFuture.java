@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.staf.futures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.core.runner.resource.instance.MachineInstance.Artifact;
+import com.pslcl.dtf.core.runner.resource.staf.DeployCache;
+import com.pslcl.dtf.core.runner.resource.staf.ProcessCommandData;
+import com.pslcl.dtf.core.runner.resource.staf.StafSupport;
+import com.pslcl.dtf.core.util.StrH;
+import com.pslcl.dtf.core.util.TabToLevel;
+
+/**
+ * Deploys many artifacts to one machine with a single generated script, so that the whole deploy costs one STAF
+ * process request instead of several per artifact.
+ * <p>
+ * The script fetches all artifacts in parallel into temporary files beside their destinations, verifies each
+ * against its SHA-256 hash, and moves it into place. It reports one line per artifact, which completes that
+ * artifact's future. The script is passed base64 encoded, so that it needs no quoting within the STAF request.
+ * Windows limits the length of a command line, so many artifacts may be split over a few scripts, run in turn.
+ * <p>
+ * Given a {@link DeployCache}, each artifact with a hash is fetched into the machine's cache directory, unless it is
+ * already there, and copied into place from there. The script reports the size of each artifact, and whether it was
+ * found in the cache, which keeps the manifest current. An artifact the manifest already holds is only copied from
+ * the cache, with no transfer; should its cached file be gone, it is fetched by a further script.
+ */
+@SuppressWarnings("javadoc")
+public class DeployArtifactsFuture implements Callable<Void>
+{
+    public static final String ResultTag = "DTFDEPLOY";
+    private static final int MaxLinuxCommand = 100000;
+    private static final int MaxWindowsCommand = 30000;
+
+    private final Logger log;
+    private final String host;
+    private final String linuxSandbox;
+    private final String winSandbox;
+    private final List<Artifact> artifacts;
+    private final List<CompletableFuture<Void>> futures;
+    private final DeployCache cache;
+    private List<String> evicted;
+    private boolean evictedRemoved;
+    private final boolean[] cached;
+    private final List<Integer> gone;
+    private final boolean windows;
+    private final long runId;
+
+    /**
+     * @param futures one per artifact, in the same order; each is completed by this call.
+     * @param cache the manifest of the machine's artifact cache, or null to deploy without caching.
+     */
+    public DeployArtifactsFuture(String host, String linuxSandbox, String winSandbox, List<Artifact> artifacts, List<CompletableFuture<Void>> futures, DeployCache cache, boolean windows, long runId)
+    {
+        this.host = host;
+        this.linuxSandbox = linuxSandbox;
+        this.winSandbox = winSandbox;
+        this.artifacts = artifacts;
+        this.futures = futures;
+        this.cache = cache;
+        this.evicted = new ArrayList<String>();
+        this.evictedRemoved = false;
+        this.cached = new boolean[artifacts.size()];
+        this.gone = new ArrayList<Integer>();
+        this.windows = windows;
+        this.runId = runId;
+        log = LoggerFactory.getLogger(getClass());
+        if (log.isDebugEnabled())
+        {
+            TabToLevel format = new TabToLevel();
+            format.ttl("\n", getClass().getSimpleName(),":");
+            format.level.incrementAndGet();
+            format.ttl("host = ", host);
+            format.ttl("linuxSandboxPath = ", linuxSandbox);
+            format.ttl("winSandboxPath = ", winSandbox);
+            format.ttl("artifacts = ", artifacts.size());
+            format.ttl("cache = ", (cache == null ? "none" : cache.size() + " artifacts, " + cache.getTotalBytes() + " bytes"));
+            format.ttl("windows = ", windows);
+            format.ttl("runId = ", runId);
+            log.debug(format.toString());
+        }
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+        String tname = Thread.currentThread().getName();
+        Thread.currentThread().setName("DeployArtifactsFuture");
+        try
+        {
+            List<Integer> all = new ArrayList<Integer>();
+            for (int i = 0; i < artifacts.size(); i++)
+                all.add(i);
+            if (cache != null)
+            {
+                List<String> hashes = new ArrayList<String>();
+                for (Artifact artifact : artifacts)
+                    hashes.add(artifact.hash);
+                evicted = cache.takeEvicted(hashes);
+                for (int i = 0; i < artifacts.size(); i++)
+                    cached[i] = artifacts.get(i).hash != null && cache.contains(artifacts.get(i).hash);
+            }
+            deploy(all, true);
+            if (!gone.isEmpty())
+            {
+                // the manifest held these, but their cached files are gone, so fetch them after all
+                List<Integer> retry = new ArrayList<Integer>(gone);
+                gone.clear();
+                deploy(retry, false);
+            }
+        } catch (Exception e)
+        {
+            for (CompletableFuture<Void> future : futures)
+                future.completeExceptionally(e);
+            throw e;
+        } finally
+        {
+            // the files of evicted hashes are only gone once the first script has run
+            if (cache != null && !evictedRemoved)
+                cache.restoreEvicted(evicted);
+            Thread.currentThread().setName(tname);
+        }
+        return null;
+    }
+
+    /**
+     * Deploy the given artifacts, with as few scripts as the command line limit allows.
+     * @param indexes the indexes of the artifacts to deploy.
+     * @param removeEvicted true to have the first script remove the files of evicted hashes.
+     */
+    private void deploy(List<Integer> indexes, boolean removeEvicted) throws Exception
+    {
+        int first = 0;
+        while (first < indexes.size())
+        {
+            int last = first;
+            boolean remove = removeEvicted && first == 0;
+            String command = getCommand(indexes.subList(first, last + 1), remove);
+            while (last + 1 < indexes.size())
+            {
+                String longer = getCommand(indexes.subList(first, last + 2), remove);
+                if (longer.length() > (windows ? MaxWindowsCommand : MaxLinuxCommand))
+                    break;
+                command = longer;
+                ++last;
+            }
+            boolean ran = execute(command, indexes.subList(first, last + 1));
+            if (remove && ran)
+                evictedRemoved = true;
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Run one deploy script and complete the futures of its artifacts.
+     * @return true if the script ran, which it shows by reporting a result for any artifact.
+     */
+    private boolean execute(String command, List<Integer> indexes) throws Exception
+    {
+        ProcessCommandData cmdData = new ProcessCommandData(windows ? winSandbox : linuxSandbox, null, null, false, false);
+        cmdData.setUseWorkingDir(false);
+        cmdData.setHost(host);
+        cmdData.setWait(true);
+        cmdData.setContext(null);
+        cmdData.setCommand(command);
+        StafRunnableProgram runnableProgram;
+        if (windows)
+            runnableProgram = StafSupport.issueProcessPowershellRequest(cmdData);
+        else
+            runnableProgram = StafSupport.issueProcessShellRequest(cmdData);
+
+        String[] outcomes = new String[indexes.size()];
+        boolean ran = false;
+        String sysOut = runnableProgram.result.getCompletionSysOut();
+        if (sysOut != null)
+        {
+            for (String line : sysOut.split("\r?\n"))
+            {
+                String[] fields = line.trim().split("\\s+", 4);
+                if (fields.length < 3 || !ResultTag.equals(fields[0]))
+                    continue;
+                int index = indexes.indexOf(Integer.valueOf(fields[1]));
+                if (index >= 0)
+                {
+                    outcomes[index] = fields[2] + (fields.length > 3 ? " " + fields[3] : "");
+                    ran = true;
+                }
+            }
+        }
+        for (int i = 0; i < outcomes.length; i++)
+        {
+            int index = indexes.get(i);
+            CompletableFuture<Void> future = futures.get(index);
+            Artifact artifact = artifacts.get(index);
+            if (outcomes[i] != null && outcomes[i].equals("GONE") && cached[index])
+            {
+                cached[index] = false;
+                cache.remove(artifact.hash);
+                gone.add(index);
+                continue;
+            }
+            if (outcomes[i] != null && outcomes[i].startsWith("OK"))
+            {
+                // OK size HIT|MISS|NONE
+                String[] fields = outcomes[i].split("\\s+");
+                if (cache != null && artifact.hash != null && fields.length > 2 && !fields[2].equals("NONE"))
+                    cache.add(artifact.hash, Long.parseLong(fields[1].trim()));
+                if (log.isDebugEnabled())
+                    log.debug("deployed " + artifact.partialDestPath + ", cache " + (fields.length > 2 ? fields[2] : "NONE"));
+                future.complete(null);
+                continue;
+            }
+            if (cache != null && artifact.hash != null)
+                cache.remove(artifact.hash);
+            String msg = "deploy of " + artifact.partialDestPath + " failed: ";
+            if (outcomes[i] != null)
+                msg += outcomes[i];
+            else
+                msg += "no result reported; " + runnableProgram.result.getCompletionSysErr();
+            log.warn(msg);
+            future.completeExceptionally(new Exception(msg));
+        }
+        return ran;
+    }
+
+    /**
+     * @return the command to run the script that deploys the artifacts of the given indexes.
+     */
+    private String getCommand(List<Integer> indexes, boolean removeEvicted) throws Exception
+    {
+        if (windows)
+        {
+            String script = getPowershellScript(indexes, removeEvicted);
+            return "-NoProfile -NonInteractive -EncodedCommand " + Base64.getEncoder().encodeToString(script.getBytes(StandardCharsets.UTF_16LE));
+        }
+        String script = getShellScript(indexes, removeEvicted);
+        return "echo " + Base64.getEncoder().encodeToString(script.getBytes(StandardCharsets.UTF_8)) + " | base64 -d | sudo sh";
+    }
+
+    private String getShellScript(List<Integer> indexes, boolean removeEvicted) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        if (cache != null)
+        {
+            sb.append("C=").append(shellQuote(StrH.addTrailingSeparator(linuxSandbox, '/') + DeployCache.CacheDirName)).append("\n")
+              .append("mkdir -p \"$C\"\n");
+            for (String hash : (removeEvicted ? evicted : new ArrayList<String>()))
+                sb.append("rm -f \"$C/").append(hash).append("\"\n");
+        } else
+            sb.append("C=\n");
+        // d index url dir file hash cachekey
+        // With a cache key, the artifact is fetched into the cache unless already there, then copied into place.
+        // It is copied, not linked, so that a test that modifies its copy does not change the cache.
+        sb.append("d() {\n")
+          .append("  t=\"$4.dtf$1\"; s=NONE; f=\"$t\"\n")
+          .append("  if [ -n \"$C\" ] && [ -n \"$6\" ]; then s=MISS; f=\"$C/$6.dtf$1\"; [ -f \"$C/$6\" ] && s=HIT; fi\n")
+          .append("  if ! mkdir -p \"$3\"; then echo \"").append(ResultTag).append(" $1 FAIL place\"; return; fi\n")
+          .append("  if [ $s != HIT ]; then\n")
+          .append("    if ! { wget -q -O \"$f\" \"$2\" && { [ -z \"$5\" ] || echo \"$5  $f\" | sha256sum -c --status; }; }\n")
+          .append("    then rm -f \"$f\"; echo \"").append(ResultTag).append(" $1 FAIL fetch\"; return; fi\n")
+          .append("    [ $s = MISS ] && mv -f \"$f\" \"$C/$6\"\n")
+          .append("  fi\n")
+          .append("  if { [ $s = NONE ] || cp -f \"$C/$6\" \"$t\"; } && mv -f \"$t\" \"$4\" && chmod 777 \"$4\"\n")
+          .append("  then echo \"").append(ResultTag).append(" $1 OK $(wc -c < \"$4\" | tr -d ' ') $s\"\n")
+          .append("  else rm -f \"$t\"; echo \"").append(ResultTag).append(" $1 FAIL place\"\n")
+          .append("  fi\n")
+          .append("}\n");
+        // h index dir file cachekey
+        // The manifest holds the artifact, so it is only copied from the cache; GONE asks for a fetch instead.
+        sb.append("h() {\n")
+          .append("  t=\"$3.dtf$1\"\n")
+          .append("  if [ ! -f \"$C/$4\" ]; then echo \"").append(ResultTag).append(" $1 GONE\"; return; fi\n")
+          .append("  if mkdir -p \"$2\" && cp -f \"$C/$4\" \"$t\" && mv -f \"$t\" \"$3\" && chmod 777 \"$3\"\n")
+          .append("  then echo \"").append(ResultTag).append(" $1 OK $(wc -c < \"$3\" | tr -d ' ') HIT\"\n")
+          .append("  else rm -f \"$t\"; echo \"").append(ResultTag).append(" $1 FAIL place\"\n")
+          .append("  fi\n")
+          .append("}\n");
+        for (int i : indexes)
+        {
+            Artifact artifact = artifacts.get(i);
+            String[] target = getTarget(artifact.partialDestPath, '/');
+            if (cached[i])
+            {
+                sb.append("h ").append(i)
+                  .append(" ").append(shellQuote(target[0]))
+                  .append(" ").append(shellQuote(target[1]))
+                  .append(" ").append(shellQuote(artifact.hash.toUpperCase()))
+                  .append(" &\n");
+                continue;
+            }
+            sb.append("d ").append(i)
+              .append(" ").append(shellQuote(artifact.url))
+              .append(" ").append(shellQuote(target[0]))
+              .append(" ").append(shellQuote(target[1]))
+              .append(" ").append(shellQuote(artifact.hash == null ? "" : artifact.hash.toLowerCase()))
+              .append(" ").append(shellQuote(artifact.hash == null ? "" : artifact.hash.toUpperCase()))
+              .append(" &\n");
+        }
+        sb.append("wait\n");
+        return sb.toString();
+    }
+
+    private String getPowershellScript(List<Integer> indexes, boolean removeEvicted) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        if (cache != null)
+        {
+            sb.append("$C=").append(powershellQuote(StrH.addTrailingSeparator(winSandbox, '\\') + DeployCache.CacheDirName)).append("\n")
+              .append("New-Item -ItemType Directory -Force -Path $C|Out-Null\n");
+            for (String hash : (removeEvicted ? evicted : new ArrayList<String>()))
+                sb.append("Remove-Item -Force -ErrorAction SilentlyContinue (Join-Path $C '").append(hash).append("')\n");
+        } else
+            sb.append("$C=''\n");
+        // an artifact the manifest holds is given no url, so it is only copied from the cache
+        sb.append("$d=@(");
+        for (int i : indexes)
+        {
+            Artifact artifact = artifacts.get(i);
+            String[] target = getTarget(artifact.partialDestPath, '\\');
+            sb.append(i == indexes.get(0) ? "" : ",")
+              .append("@(").append(i)
+              .append(",").append(powershellQuote(cached[i] ? "" : artifact.url))
+              .append(",").append(powershellQuote(target[0]))
+              .append(",").append(powershellQuote(target[1]))
+              .append(",").append(powershellQuote(artifact.hash == null ? "" : artifact.hash))
+              .append(",").append(powershellQuote(artifact.hash == null ? "" : artifact.hash.toUpperCase()))
+              .append(")");
+        }
+        // with a cache key, the artifact is fetched into the cache unless already there, then copied into place
+        sb.append(")\n")
+          .append("function F($a){if($C -and $a[5]){(Join-Path $C $a[5])+'.dtf'+$a[0]}else{$a[3]+'.dtf'+$a[0]}}\n")
+          .append("$t=@{}\n")
+          .append("foreach($a in $d){try{New-Item -ItemType Directory -Force -Path $a[2]|Out-Null;")
+          .append("if($C -and $a[5] -and (Test-Path (Join-Path $C $a[5]))){continue};if(-not $a[1]){$t[$a[0]]='GONE';continue};")
+          .append("$t[$a[0]]=(New-Object Net.WebClient).DownloadFileTaskAsync($a[1],(F $a))}catch{$t[$a[0]]=$_.Exception.Message}}\n")
+          .append("foreach($a in $d){$f=F $a;$c=$null;$s='NONE';if($C -and $a[5]){$c=Join-Path $C $a[5];$s='MISS'};")
+          .append("if($t[$a[0]] -eq 'GONE'){'").append(ResultTag).append(" '+$a[0]+' GONE';continue};")
+          .append("try{$k=$t[$a[0]];if($k -eq $null){$s='HIT'}else{if($k -is [string]){throw $k};$k.Wait();")
+          .append("if($a[4] -and (Get-FileHash -Algorithm SHA256 $f).Hash -ne $a[4]){throw 'hash mismatch'};")
+          .append("if($c){Move-Item -Force $f $c}else{Move-Item -Force $f $a[3]}};")
+          .append("if($c){Copy-Item -Force $c $a[3]};")
+          .append("'").append(ResultTag).append(" '+$a[0]+' OK '+(Get-Item $a[3]).Length+' '+$s}")
+          .append("catch{Remove-Item -Force -ErrorAction SilentlyContinue $f;'").append(ResultTag).append(" '+$a[0]+' FAIL '+$_.Exception.Message}}\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return the destination directory and file of the given partial destination path.
+     */
+    private String[] getTarget(String partialDestPath, char separator) throws Exception
+    {
+        ProcessCommandData cmdData = DeployFuture.getCommandPath(partialDestPath, linuxSandbox, winSandbox, windows, runId);
+        String file;
+        if (cmdData.isFdn())
+            file = partialDestPath.replace(separator == '/' ? '\\' : '/', separator);
+        else
+            file = StrH.addTrailingSeparator(cmdData.getBasePath(), separator) + cmdData.getFileName();
+        String dir = StrH.getPenultimateNameFromPath(file);
+        return new String[] { dir == null ? "." : dir, file };
+    }
+
+    private static String shellQuote(String value)
+    {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private static String powershellQuote(String value)
+    {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Create the futures to be given to a new DeployArtifactsFuture.
+     * @param count the number of artifacts.
+     * @return one new future per artifact.
+     */
+    public static List<CompletableFuture<Void>> newFutures(int count)
+    {
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(count);
+        for (int i = 0; i < count; i++)
+            futures.add(new CompletableFuture<Void>());
+        return futures;
+    }
+}
@@ -18,8 +18,10 @@ package com.pslcl.dtf.core.util.executor;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -79,8 +81,16 @@ public class BlockingExecutor extends ThreadPoolExecutor
      */
     public void init(BlockingExecutorConfig config)
     {
-        setCorePoolSize(config.getCorePoolSize());
-        setMaximumPoolSize(config.getMaximumPoolSize());
+        // since Java 9 neither size may cross the other, so raise the maximum first when growing past it
+        if (config.getCorePoolSize() > getMaximumPoolSize())
+        {
+            setMaximumPoolSize(config.getMaximumPoolSize());
+            setCorePoolSize(config.getCorePoolSize());
+        } else
+        {
+            setCorePoolSize(config.getCorePoolSize());
+            setMaximumPoolSize(config.getMaximumPoolSize());
+        }
         setKeepAliveTime(config.getKeepAliveTime(), TimeUnit.MILLISECONDS);
         allowCoreThreadTimeOut(config.isAllowCoreThreadTimeout());
         rejectPolicy = new BlockThenRunPolicy(config.getMaximumBlockingTime(), config.getStatusTracker(), config.getStatusSubsystemName());
@@ -99,6 +109,22 @@ public class BlockingExecutor extends ThreadPoolExecutor
 //        rejectPolicy.setMaxBlockingTime(maxOfferTime);
 //    }
 
+    /**
+     * Submitted tasks are <code>CompletionFutureTask</code>s, so that callers may follow their completion without blocking.
+     * @see CompletionFutureTask#whenDone(java.util.Collection, java.util.concurrent.Executor)
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+    {
+        return new CompletionFutureTask<T>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+    {
+        return new CompletionFutureTask<T>(runnable, value);
+    }
+
     @Override
     public void setRejectedExecutionHandler(RejectedExecutionHandler h)
     {
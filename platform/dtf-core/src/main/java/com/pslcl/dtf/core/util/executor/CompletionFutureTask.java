@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.util.executor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiFunction;
+
+/**
+ * A <code>FutureTask</code> that signals a <code>CompletableFuture</code> when it completes.
+ * <p>
+ * <code>BlockingExecutor</code> wraps every submitted task in one of these, so callers that are
+ * handed a plain <code>Future</code> may chain further work on its completion instead of holding
+ * a thread in <code>Future.get()</code> until it is done.
+ * @param <V> the result type of the task.
+ */
+public class CompletionFutureTask<V> extends FutureTask<V>
+{
+    private final CompletableFuture<Void> completion;
+
+    public CompletionFutureTask(Callable<V> callable)
+    {
+        super(callable);
+        completion = new CompletableFuture<Void>();
+    }
+
+    public CompletionFutureTask(Runnable runnable, V result)
+    {
+        super(runnable, result);
+        completion = new CompletableFuture<Void>();
+    }
+
+    /**
+     * Return a stage that completes normally once this task is done, whether the task succeeded,
+     * failed or was cancelled. The outcome itself is read with <code>get()</code>, which no longer blocks.
+     * @return the completion stage of this task.
+     */
+    public CompletableFuture<Void> getCompletion()
+    {
+        return completion;
+    }
+
+    @Override
+    protected void done()
+    {
+        completion.complete(null);
+    }
+
+    /**
+     * Return a stage that completes normally once all of the given futures are done.
+     * <p>
+     * Futures created by a <code>BlockingExecutor</code>, or that are themselves <code>CompletableFuture</code>s,
+     * are followed without using a thread. Any other future is waited on by a task given to <code>executor</code>.
+     * Null entries are ignored.
+     * @param futures the futures to wait for.
+     * @param executor the executor used to wait on futures that cannot signal their completion.
+     * @return a stage that completes when every future is done.
+     */
+    public static CompletableFuture<Void> whenDone(Collection<? extends Future<?>> futures, Executor executor)
+    {
+        List<CompletableFuture<?>> stages = new ArrayList<CompletableFuture<?>>();
+        for (Future<?> future : futures)
+        {
+            if (future == null || future.isDone())
+                continue;
+            if (future instanceof CompletionFutureTask)
+                stages.add(((CompletionFutureTask<?>) future).getCompletion());
+            else if (future instanceof CompletableFuture)
+                stages.add(((CompletableFuture<?>) future).handle(IgnoreOutcome.instance));
+            else
+                stages.add(CompletableFuture.runAsync(new WaitFor(future), executor));
+        }
+        if (stages.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        return CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()]));
+    }
+
+    private static class IgnoreOutcome implements BiFunction<Object, Throwable, Void>
+    {
+        private static final IgnoreOutcome instance = new IgnoreOutcome();
+
+        @Override
+        public Void apply(Object result, Throwable t)
+        {
+            return null;
+        }
+    }
+
+    private static class WaitFor implements Runnable
+    {
+        private final Future<?> future;
+
+        private WaitFor(Future<?> future)
+        {
+            this.future = future;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                future.get();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            } catch (Exception e)
+            {
+                // the outcome is read again by the caller; only completion matters here
+            }
+        }
+    }
+}
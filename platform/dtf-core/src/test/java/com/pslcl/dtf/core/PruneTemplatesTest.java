@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.pslcl.dtf.core.generator.resource.Resource;
+import com.pslcl.dtf.core.generator.template.DescribedTemplate;
+import com.pslcl.dtf.core.generator.template.Template;
+import com.pslcl.dtf.core.generator.template.TestInstance;
+
+/**
+ * Synchronizes a described template that includes another into an embedded H2 database in MySQL mode, holding
+ * the qa_portal tables that synchronization and pruning use, and checks that pruning keeps the included one.
+ * Run as a program, with H2 on the classpath; it exits with status 1 on the first failed check.
+ */
+public class PruneTemplatesTest
+{
+    private static final String URL = "jdbc:h2:mem:prune;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static final String[] SCHEMA = {
+        "CREATE TABLE test_plan (pk_test_plan INT NOT NULL AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50) NULL, description LONGTEXT NULL)",
+        "CREATE TABLE test (pk_test INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_test_plan INT NOT NULL REFERENCES test_plan (pk_test_plan) ON DELETE CASCADE," +
+        "  name VARCHAR(100) NULL, description LONGTEXT NULL, script VARCHAR(200) NOT NULL)",
+        "CREATE TABLE template (pk_template INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  hash BINARY(32) NOT NULL UNIQUE, steps MEDIUMTEXT NOT NULL, enabled TINYINT(1) NULL)",
+        "CREATE TABLE run (pk_run INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_template INT NOT NULL REFERENCES template (pk_template) ON DELETE CASCADE," +
+        "  start_time DATETIME NOT NULL, result TINYINT(1) NULL, owner VARCHAR(128) NULL)",
+        "CREATE TABLE described_template (pk_described_template INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_module_set BINARY(32) NOT NULL, fk_template INT NOT NULL REFERENCES template (pk_template)," +
+        "  description_hash BINARY(32) NOT NULL, synchronized TINYINT(1) NULL, UNIQUE (fk_module_set, fk_template))",
+        "CREATE TABLE test_instance (pk_test_instance INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  description LONGTEXT NULL, fk_test INT NOT NULL REFERENCES test (pk_test) ON DELETE CASCADE," +
+        "  fk_described_template INT NOT NULL REFERENCES described_template (pk_described_template) ON DELETE CASCADE," +
+        "  fk_run INT NULL REFERENCES run (pk_run) ON DELETE SET NULL, due_date DATETIME NULL, phase INT NOT NULL, synchronized TINYINT(1) NULL)",
+        "CREATE TABLE dt_line (pk_dt_line INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_described_template INT NOT NULL REFERENCES described_template (pk_described_template) ON DELETE CASCADE," +
+        "  line INT NOT NULL, fk_child_dt INT NULL, description MEDIUMTEXT NULL)",
+        "CREATE TABLE dt_to_dt (fk_parent INT NOT NULL REFERENCES described_template (pk_described_template) ON DELETE CASCADE," +
+        "  fk_child INT NOT NULL REFERENCES dt_line (pk_dt_line) ON DELETE CASCADE)",
+        "CREATE TABLE artifact_to_dt_line (fk_artifact INT NOT NULL," +
+        "  fk_dt_line INT NOT NULL REFERENCES dt_line (pk_dt_line) ON DELETE CASCADE, is_primary TINYINT(1) NULL, reason VARCHAR(45) NULL)",
+        "CREATE TABLE module_to_test_instance (fk_module INT NOT NULL," +
+        "  fk_test_instance INT NOT NULL REFERENCES test_instance (pk_test_instance) ON DELETE CASCADE, UNIQUE (fk_module, fk_test_instance))"
+    };
+
+    /**
+     * An action with a fixed command, that may include a described template.
+     */
+    private static class Step extends TestInstance.Action
+    {
+        private String command;
+        private DescribedTemplate include;
+
+        Step(String command, DescribedTemplate include)
+        {
+            this.command = command;
+            this.include = include;
+        }
+
+        @Override
+        public String getCommand(Template t) throws Exception
+        {
+            return command;
+        }
+
+        @Override
+        public String getDescription() throws Exception
+        {
+            return "<li>" + command + "</li>";
+        }
+
+        @Override
+        public ArtifactUses getArtifactUses() throws Exception
+        {
+            return null;
+        }
+
+        @Override
+        public Resource getBoundResource() throws Exception
+        {
+            return null;
+        }
+
+        @Override
+        public DescribedTemplate getIncludedTemplate() throws Exception
+        {
+            return include;
+        }
+    }
+
+    private static Connection connection; // also keeps the in-memory database open
+
+    public static void main(String[] args)
+    {
+        int exitStatus = 1;
+        try
+        {
+            connection = DriverManager.getConnection(URL, "sa", "");
+            Statement statement = connection.createStatement();
+            for (String table : SCHEMA)
+                statement.execute(table);
+            statement.execute("INSERT INTO test_plan (name) VALUES ('plan')");
+            statement.execute("INSERT INTO test (fk_test_plan, name, script) VALUES (1, 'test', 'generator')");
+            statement.close();
+
+            testIncludedSurvivesPrune();
+            testPruneRefusesUnresolvedIncludes();
+            System.out.println("PruneTemplatesTest passed");
+            exitStatus = 0;
+        } catch (Throwable t)
+        {
+            System.err.println("PruneTemplatesTest failed: " + t);
+            t.printStackTrace();
+        }
+        System.exit(exitStatus);
+    }
+
+    private static void testIncludedSurvivesPrune() throws Exception
+    {
+        Core core = new Core(1, DriverManager.getConnection(URL, "sa", ""));
+        try
+        {
+            List<TestInstance.Action> childActions = new ArrayList<TestInstance.Action>();
+            childActions.add(new Step("child step", null));
+            Template childTemplate = new Template(core, childActions, null);
+            DescribedTemplate child = new DescribedTemplate(childTemplate, childActions, new ArrayList<DescribedTemplate>());
+
+            // The included template is not listed as a dependency, so it is added while the parent's lines are written.
+            List<TestInstance.Action> parentActions = new ArrayList<TestInstance.Action>();
+            parentActions.add(new Step("include " + childTemplate.getHash().toString(), child));
+            parentActions.add(new Step("parent step", null));
+            Template parentTemplate = new Template(core, parentActions, null);
+            final DescribedTemplate parent = new DescribedTemplate(parentTemplate, parentActions, new ArrayList<DescribedTemplate>());
+
+            TestInstance ti = new TestInstance(core)
+            {
+                @Override
+                public DescribedTemplate getTemplate()
+                {
+                    return parent;
+                }
+            };
+            core.syncDescribedTemplates(Arrays.asList(ti));
+
+            long pkParent = readLong("SELECT fk_described_template FROM test_instance");
+            long pkChild = readLong("SELECT pk_described_template FROM described_template WHERE pk_described_template <> " + pkParent);
+            check(readLong("SELECT COUNT(*) FROM described_template") == 2, "syncDescribedTemplates() adds the parent and the included described template");
+            check(readLong("SELECT fk_child_dt FROM dt_line WHERE fk_described_template = " + pkParent + " AND fk_child_dt IS NOT NULL") == pkChild,
+                    "syncDescribedTemplates() records the included described template in fk_child_dt");
+
+            long pkUnused = addUnusedDescribedTemplate("unused");
+            core.pruneTemplates();
+            check(readLong("SELECT COUNT(*) FROM described_template WHERE pk_described_template = " + pkChild) == 1, "pruneTemplates() keeps an included described template");
+            check(readLong("SELECT COUNT(*) FROM template WHERE steps = 'child step\n'") == 1, "pruneTemplates() keeps the template of an included described template");
+            check(readLong("SELECT COUNT(*) FROM described_template WHERE pk_described_template = " + pkUnused) == 0, "pruneTemplates() removes an unused described template");
+            check(readLong("SELECT COUNT(*) FROM template WHERE steps = 'unused'") == 0, "pruneTemplates() removes the template of an unused described template");
+        } finally
+        {
+            core.close();
+        }
+    }
+
+    private static void testPruneRefusesUnresolvedIncludes() throws Exception
+    {
+        Core core = new Core(1, DriverManager.getConnection(URL, "sa", ""));
+        try
+        {
+            long pkParent = readLong("SELECT fk_described_template FROM test_instance");
+            execute("INSERT INTO dt_line (fk_described_template, line, fk_child_dt, description) VALUES (" + pkParent + ", 9, 0, 'unresolved')");
+            long pkUnused = addUnusedDescribedTemplate("unresolved");
+            core.pruneTemplates();
+            check(readLong("SELECT COUNT(*) FROM described_template WHERE pk_described_template = " + pkUnused) == 1, "pruneTemplates() removes nothing while an include is recorded as 0");
+        } finally
+        {
+            core.close();
+        }
+    }
+
+    private static long addUnusedDescribedTemplate(String steps) throws Exception
+    {
+        execute("INSERT INTO template (hash, steps, enabled) VALUES (" + hash(steps) + ", '" + steps + "', 1)");
+        long pkTemplate = readLong("SELECT pk_template FROM template WHERE steps = '" + steps + "'");
+        execute("INSERT INTO described_template (fk_module_set, fk_template, description_hash, synchronized) VALUES (" + hash(steps) + ", " + pkTemplate + ", " + hash(steps) + ", 1)");
+        return readLong("SELECT pk_described_template FROM described_template WHERE fk_template = " + pkTemplate);
+    }
+
+    private static String hash(String content)
+    {
+        return "X'" + Hash.fromContent(content).toString() + "'";
+    }
+
+    private static void execute(String sql) throws Exception
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            statement.execute(sql);
+        } finally
+        {
+            statement.close();
+        }
+    }
+
+    private static long readLong(String sql) throws Exception
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            ResultSet resultSet = statement.executeQuery(sql);
+            if (!resultSet.next())
+                throw new AssertionError("no row for " + sql);
+            return resultSet.getLong(1);
+        } finally
+        {
+            statement.close();
+        }
+    }
+
+    private static void check(boolean condition, String description)
+    {
+        if (!condition)
+            throw new AssertionError(description);
+        System.out.println("ok: " + description);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.core.runner.resource.staf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exercises the artifact cache manifest of a machine.
+ * Run as a program; it exits with status 1 on the first failed check.
+ */
+public class DeployCacheTest
+{
+    public static void main(String[] args)
+    {
+        int exitStatus = 1;
+        try
+        {
+            testEviction();
+            testKeep();
+            testRestoreAfterFailedDeploy();
+            System.out.println("DeployCacheTest passed");
+            exitStatus = 0;
+        } catch (Throwable t)
+        {
+            System.err.println("DeployCacheTest failed: " + t);
+            t.printStackTrace();
+        }
+        System.exit(exitStatus);
+    }
+
+    private static void testEviction()
+    {
+        DeployCache cache = new DeployCache(100);
+        cache.add("aa", 40);
+        cache.add("bb", 40);
+        check(cache.contains("AA"), "contains() ignores case and marks aa as recently used");
+        cache.add("cc", 40);
+        check(!cache.contains("bb") && cache.contains("aa") && cache.contains("cc"), "add() evicts the least recently used hash");
+        check(cache.getTotalBytes() == 80 && cache.size() == 2, "add() keeps the total within the limit");
+        check(cache.takeEvicted(new ArrayList<String>()).equals(Arrays.asList("BB")), "takeEvicted() returns the evicted hash");
+        check(cache.takeEvicted(new ArrayList<String>()).isEmpty(), "takeEvicted() returns each evicted hash once");
+    }
+
+    private static void testKeep()
+    {
+        DeployCache cache = new DeployCache(50);
+        cache.add("aa", 40);
+        cache.add("bb", 40);
+        check(cache.takeEvicted(Arrays.asList("aa")).isEmpty(), "takeEvicted() leaves a hash about to be deployed again");
+    }
+
+    private static void testRestoreAfterFailedDeploy()
+    {
+        DeployCache cache = new DeployCache(50);
+        cache.add("aa", 40);
+        cache.add("bb", 40);
+        cache.add("cc", 40);
+
+        // the deploy takes the evicted hashes, then its script does not run
+        List<String> taken = cache.takeEvicted(new ArrayList<String>());
+        check(taken.equals(Arrays.asList("AA", "BB")), "takeEvicted() returns both evicted hashes");
+        cache.restoreEvicted(taken);
+        check(cache.takeEvicted(new ArrayList<String>()).equals(Arrays.asList("AA", "BB")), "restoreEvicted() gives the hashes to the next deploy");
+
+        // a hash cached again while the failed deploy held it is not given back
+        taken = Arrays.asList("AA", "BB");
+        cache.add("bb", 40);
+        cache.restoreEvicted(taken);
+        List<String> next = cache.takeEvicted(new ArrayList<String>());
+        check(next.contains("AA") && next.contains("CC") && !next.contains("BB"), "restoreEvicted() skips a hash cached again");
+        check(next.size() == 2, "restoreEvicted() gives each hash back once");
+    }
+
+    private static void check(boolean condition, String description)
+    {
+        if (!condition)
+            throw new AssertionError(description);
+        System.out.println("ok: " + description);
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.fluent.Executor;
+import org.apache.http.client.fluent.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.core.Hash;
+import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.ResourceNames;
+import com.pslcl.dtf.core.util.StrH;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP proxy, embedded in dtf-runner, for the QA Portal's content, so that the machines of many test runs fetch
+ * each artifact from the portal once, instead of once per machine.
+ *
+ * It serves GET and HEAD for /content/hash, with single range requests, in the same form as the portal.
+ * Content is immutable and named by its hash, so it is kept on disk, verified against its hash, with least recently used eviction.
+ * Concurrent requests for content not yet on disk share one fetch from the portal.
+ * Content evicted while requests are still serving it is deleted when the last of them completes.
+ */
+public class ContentProxy {
+    private static final String ContentPath = "/content/";
+    private static final Pattern HashPattern = Pattern.compile("[0-9A-Fa-f]{64}");
+    private static final Pattern RangePattern = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final int BufferSize = 64 * 1024;
+
+    private final Logger log;
+    private final String simpleName;
+    private final Executor httpExecutor; // is pooling, uses PoolingHttpClientConnectionManager
+    private final Map<String, CompletableFuture<File>> fetches;
+    private final LinkedHashMap<String, Long> cached; // hash to file size, least recently used first; access is synchronized on the map
+    private final Map<String, Integer> readers;       // hash to the number of requests serving it; guarded by cached
+    private final Set<String> evictedInUse;           // hashes evicted while being served, deleted when no longer served; guarded by cached
+    private volatile QAPortalAccess qaPortalAccess;
+    private volatile HttpServer server;
+    private volatile ExecutorService serverExecutor;
+    private volatile File dir;
+    private volatile long maxBytes;
+    private volatile String advertisedHost;
+    private long totalBytes; // guarded by cached
+
+    ContentProxy() {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.simpleName = getClass().getSimpleName() + " ";
+        this.httpExecutor = Executor.newInstance();
+        this.fetches = new ConcurrentHashMap<>();
+        this.cached = new LinkedHashMap<>(16, 0.75f, true);
+        this.readers = new HashMap<>();
+        this.evictedInUse = new HashSet<>();
+        this.totalBytes = 0;
+    }
+
+    /**
+     * Note: Pair init() with a destroy() call
+     * @param config The RunnerConfig
+     * @param qaPortalAccess Access to the QA Portal, from which content is fetched
+     * @return false if not configured, in which case machines fetch from the portal
+     * @throws Exception on any error
+     */
+    boolean init(RunnerConfig config, QAPortalAccess qaPortalAccess) throws Exception {
+        String port = StrH.trim(config.properties.getProperty(ResourceNames.ContentProxyPortKey, ResourceNames.ContentProxyPortDefault));
+        if (port == null || port.isEmpty() || Integer.parseInt(port) <= 0)
+            return false;
+        this.qaPortalAccess = qaPortalAccess;
+        this.dir = new File(StrH.trim(config.properties.getProperty(ResourceNames.ContentProxyDirKey, ResourceNames.ContentProxyDirDefault)));
+        this.maxBytes = Long.parseLong(StrH.trim(config.properties.getProperty(ResourceNames.ContentProxySizeKey, ResourceNames.ContentProxySizeDefault))) * 1024L * 1024L;
+        this.advertisedHost = StrH.trim(config.properties.getProperty(ResourceNames.ContentProxyHostKey));
+        if (this.advertisedHost == null || this.advertisedHost.isEmpty())
+            this.advertisedHost = InetAddress.getLocalHost().getHostAddress();
+        if (!this.dir.isDirectory() && !this.dir.mkdirs())
+            throw new Exception("ContentProxy cannot create directory " + this.dir.getAbsolutePath());
+        this.loadCache();
+
+        this.serverExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ContentProxy-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.server = HttpServer.create(new InetSocketAddress(Integer.parseInt(port)), 0);
+        this.server.createContext(ContentProxy.ContentPath, new ContentHandler());
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+        log.info(simpleName + "serves content at " + this.getURL("").toString() + ", cache " + this.dir.getAbsolutePath() + " holds " + this.cached.size() + " items");
+        return true;
+    }
+
+    void destroy() {
+        if (this.server != null)
+            this.server.stop(0);
+        if (this.serverExecutor != null)
+            this.serverExecutor.shutdownNow();
+    }
+
+    /**
+     *
+     * @param hash The hash of the content
+     * @return The URL at which machines fetch the content from this proxy
+     * @throws Exception on any error
+     */
+    public URL getURL(String hash) throws Exception {
+        return new URL("http", this.advertisedHost, this.server.getAddress().getPort(), ContentProxy.ContentPath + hash);
+    }
+
+    /**
+     *
+     * @param hash The hash of the content
+     * @return The URL at which dtf-runner itself reads the content from this proxy
+     * @throws Exception on any error
+     */
+    URL getLocalURL(String hash) throws Exception {
+        return new URL("http", "127.0.0.1", this.server.getAddress().getPort(), ContentProxy.ContentPath + hash);
+    }
+
+    /**
+     * Return the file holding the content of the given hash, fetching it from the portal if not on disk.
+     * Note: Blocks until the content is on disk
+     * Note: Pair a successful call with a release() call, when the file is no longer read
+     * @param hash The upper case hash of the content
+     * @return The file
+     * @throws Exception on any error, including content not found at the portal
+     */
+    private File getContent(String hash) throws Exception {
+        File file = new File(this.dir, hash);
+        while (true) {
+            synchronized (this.cached) {
+                if (this.cached.get(hash) != null && file.isFile()) {
+                    this.acquire(hash);
+                    return file;
+                }
+            }
+            CompletableFuture<File> fetch = new CompletableFuture<>();
+            CompletableFuture<File> existing = this.fetches.putIfAbsent(hash, fetch);
+            if (existing == null)
+                return this.fetch(hash, file, fetch);
+            try {
+                existing.get(); // another request is fetching the same content; then serve it as cached content
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+            }
+        }
+    }
+
+    /**
+     * Fetch content from the portal to disk, completing the given future for requests waiting on it.
+     */
+    private File fetch(String hash, File file, CompletableFuture<File> fetch) throws Exception {
+        try {
+            File temp = File.createTempFile(hash, ".part", this.dir);
+            try {
+                URL url = this.qaPortalAccess.formArtifactHashSpecifiedURL(hash);
+                this.httpExecutor.execute(Request.Get(url.toString()).connectTimeout(10000).socketTimeout(60000)).saveContent(temp);
+                Hash fetched = Hash.fromContent(temp);
+                if (fetched == null || !fetched.toString().equalsIgnoreCase(hash))
+                    throw new Exception("content fetched for " + hash + " does not match its hash");
+                if (!temp.renameTo(file)) {
+                    file.delete();
+                    if (!temp.renameTo(file))
+                        throw new IOException("cannot move fetched content to " + file.getAbsolutePath());
+                }
+            } finally {
+                temp.delete();
+            }
+            synchronized (this.cached) {
+                this.acquire(hash); // before add(), so that the content cannot be deleted before it is served
+            }
+            this.add(hash, file.length());
+            log.debug(simpleName + "fetched " + hash + ", " + file.length() + " bytes");
+            fetch.complete(file);
+            return file;
+        } catch (Exception e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.fetches.remove(hash, fetch);
+        }
+    }
+
+    /**
+     * Count a request serving content. The caller holds the lock of cached.
+     */
+    private void acquire(String hash) {
+        Integer count = this.readers.get(hash);
+        this.readers.put(hash, (count == null) ? 1 : count + 1);
+    }
+
+    /**
+     * Uncount a request serving content, deleting the content if it was evicted and this was its last request.
+     */
+    private void release(String hash) {
+        boolean delete = false;
+        synchronized (this.cached) {
+            Integer count = this.readers.get(hash);
+            if (count == null || count <= 1) {
+                this.readers.remove(hash);
+                delete = this.evictedInUse.remove(hash);
+            } else {
+                this.readers.put(hash, count - 1);
+            }
+        }
+        if (delete) {
+            File file = new File(this.dir, hash);
+            if (!file.delete())
+                log.debug(simpleName + "cannot evict " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Record content as on disk, then evict the least recently used content beyond the size limit.
+     * Evicted content that requests are still serving is deleted by release(), after the last of them.
+     */
+    private void add(String hash, long size) {
+        List<File> evicted = new ArrayList<>();
+        synchronized (this.cached) {
+            this.evictedInUse.remove(hash);
+            Long previous = this.cached.put(hash, size);
+            if (previous != null)
+                this.totalBytes -= previous;
+            this.totalBytes += size;
+            Iterator<Map.Entry<String, Long>> iter = this.cached.entrySet().iterator();
+            while (this.totalBytes > this.maxBytes && iter.hasNext()) {
+                Map.Entry<String, Long> eldest = iter.next();
+                if (eldest.getKey().equals(hash))
+                    continue;
+                this.totalBytes -= eldest.getValue();
+                if (this.readers.containsKey(eldest.getKey()))
+                    this.evictedInUse.add(eldest.getKey());
+                else
+                    evicted.add(new File(this.dir, eldest.getKey()));
+                iter.remove();
+            }
+        }
+        for (File file : evicted) {
+            if (!file.delete())
+                log.debug(simpleName + "cannot evict " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Record the content already on disk, oldest first, and remove partial fetches.
+     */
+    private void loadCache() {
+        File[] files = this.dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (!file.isFile())
+                continue;
+            if (HashPattern.matcher(file.getName()).matches())
+                this.add(file.getName(), file.length());
+            else if (file.getName().endsWith(".part"))
+                file.delete();
+        }
+    }
+
+    private class ContentHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                boolean head = method.equalsIgnoreCase("HEAD");
+                if (!head && !method.equalsIgnoreCase("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                String hash = exchange.getRequestURI().getPath().substring(ContentProxy.ContentPath.length());
+                if (!HashPattern.matcher(hash).matches()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                hash = hash.toUpperCase();
+                File file;
+                try {
+                    file = getContent(hash);
+                } catch (Exception e) {
+                    log.debug(simpleName + "cannot provide " + hash + ": " + e.getMessage());
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                try {
+                    send(exchange, file, head);
+                } finally {
+                    release(hash);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void send(HttpExchange exchange, File file, boolean head) throws IOException {
+            try (RandomAccessFile content = new RandomAccessFile(file, "r")) {
+                long length = content.length();
+                long first = 0;
+                long last = length - 1;
+                int status = 200;
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range != null) {
+                    Matcher m = RangePattern.matcher(range.trim());
+                    if (m.matches() && !(m.group(1).isEmpty() && m.group(2).isEmpty())) {
+                        if (m.group(1).isEmpty()) {
+                            first = Math.max(0, length - Long.parseLong(m.group(2))); // suffix range: the last n bytes
+                        } else {
+                            first = Long.parseLong(m.group(1));
+                            if (!m.group(2).isEmpty())
+                                last = Math.min(last, Long.parseLong(m.group(2)));
+                        }
+                        if (first > last || first >= length) {
+                            exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                            exchange.sendResponseHeaders(416, -1);
+                            return;
+                        }
+                        status = 206;
+                        exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+                    }
+                }
+                long count = last - first + 1;
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+                if (head) {
+                    exchange.getResponseHeaders().set("Content-Length", String.valueOf(count));
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+                OutputStream out = exchange.getResponseBody();
+                byte[] buffer = new byte[ContentProxy.BufferSize];
+                content.seek(first);
+                while (count > 0) {
+                    int read = content.read(buffer, 0, (int)Math.min(buffer.length, count));
+                    if (read < 0)
+                        break;
+                    out.write(buffer, 0, read);
+                    count -= read;
+                }
+                out.flush();
+            }
+        }
+    }
+
+}
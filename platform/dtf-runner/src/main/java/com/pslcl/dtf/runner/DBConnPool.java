@@ -14,6 +14,7 @@ import com.pslcl.dtf.core.runner.resource.ResourceNames;
 import com.pslcl.dtf.core.util.StrH;
 
 public class DBConnPool {
+    private static final int MAX_OPEN_PREPARED_STATEMENTS = 16; // per connection: RunStore's statements, with the few IN list lengths of getCanceledRuns()
     private volatile String host;
     private volatile String user;
     private volatile String password;
@@ -42,7 +43,7 @@ public class DBConnPool {
 	/**
 	 * Determine the DB host, user, and password, and setup the MySQL connection pool.
 	 * 
-     * Note: Host configuration is required.
+     * Note: Host configuration is required. It names a MySQL host, or is a full JDBC url.
      * Note: User and password configurations are optional, and if not specified then a guest account is used. This sets the 'read_only' flag, which disables all database modifications.
 	 * Note: This init() call must be paired with the destroy() call
 	 * 
@@ -75,11 +76,14 @@ public class DBConnPool {
 
 		// setup connection pool
         pool.setDriverClassName("java.sql.DriverManager");
-        String dbUrl = "jdbc:mysql://"+host+"/qa_portal?user="+user+"&password="+password;
+        // a host given as a full JDBC url selects another database, such as the embedded one of the load harness
+        String dbUrl = host.startsWith("jdbc:") ? host : "jdbc:mysql://"+host+"/qa_portal?user="+user+"&password="+password;
         pool.setUrl(dbUrl);
 		pool.setUsername(user);
 		pool.setPassword(password);
 		pool.setInitialSize(1);
+		pool.setPoolPreparedStatements(true); // RunStore prepares the same few statements on each pooled connection
+		pool.setMaxOpenPreparedStatements(MAX_OPEN_PREPARED_STATEMENTS);
 	}
 	
 	
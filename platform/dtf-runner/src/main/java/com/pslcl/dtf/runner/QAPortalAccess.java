@@ -68,6 +68,7 @@ public class QAPortalAccess {
     // Class instance variables
     private final Executor executor; // is pooling, uses PoolingHttpClientConnectionManager 
     private volatile String hostQAPortal = null;
+    private volatile ContentProxy contentProxy = null;
     private final Logger log;
     private final String simpleName;
 
@@ -81,10 +82,12 @@ public class QAPortalAccess {
     private Response request(String contentSpecifier) throws Exception {
         Response retResponse = null;
         try {
-            String urlAsString = this.formArtifactHashSpecifiedURL(contentSpecifier).toString();
+            ContentProxy proxy = this.contentProxy;
+            String urlAsString = (proxy != null ? proxy.getLocalURL(contentSpecifier) : this.formArtifactHashSpecifiedURL(contentSpecifier)).toString();
+            // the proxy sends no response until it has fetched the whole content from the portal, so allow it the portal fetch timeouts
             Request request = Request.Get(urlAsString)
-                    .connectTimeout(1000)
-                    .socketTimeout(1000);
+                    .connectTimeout(proxy != null ? 10000 : 1000)
+                    .socketTimeout(proxy != null ? 60000 : 1000);
             retResponse =   this.executor.execute(request); // submits the request and collects the response
         } catch (Exception e) {
             log.debug(this.simpleName + "http content request exception for contentSpecifier " + contentSpecifier + ", exception message: " + e.getMessage());
@@ -115,6 +118,14 @@ public class QAPortalAccess {
 		}
     }
     
+    /**
+     * Read content through the given proxy, and have machines fetch deployed artifacts from it.
+     * @param contentProxy The content proxy, or null to use the portal directly
+     */
+    void setContentProxy(ContentProxy contentProxy) {
+        this.contentProxy = contentProxy;
+    }
+    
     /**
      * 
      * @param contentSpecifier The string that identifies the content
@@ -162,6 +173,19 @@ public class QAPortalAccess {
         new QAPortalReadTask(inspectHandler, this, contentHash);
     }	
 	
+    /**
+     * 
+     * @param artifactHash The hash of the artifact
+     * @return The URL from which a machine fetches the artifact: the content proxy, if configured, or else the QA Portal
+     * @throws Exception on any error
+     */
+    public URL formArtifactDeployURL(String artifactHash) throws Exception {
+        ContentProxy proxy = this.contentProxy;
+        if (proxy != null)
+            return proxy.getURL(artifactHash);
+        return this.formArtifactHashSpecifiedURL(artifactHash);
+    }
+    
     /**
      * 
      * @param artifactHash The hash of the artifact
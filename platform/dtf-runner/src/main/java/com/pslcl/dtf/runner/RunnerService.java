@@ -50,6 +50,7 @@ public class RunnerService implements Runner, RunnerServiceMBean
     private volatile RunnerConfig config = null;
     private volatile DBConnPool dbConnPool = null;
     private volatile QAPortalAccess qaPortalAccess = null;
+    private volatile ContentProxy contentProxy = null;
 
     /** the process classes */
     public volatile RunnerMachine runnerMachine = null;
@@ -139,6 +140,9 @@ public class RunnerService implements Runner, RunnerServiceMBean
             this.processTracker = new ProcessTracker(this);
             this.qaPortalAccess = new QAPortalAccess();
             this.qaPortalAccess.init(config);
+            this.contentProxy = new ContentProxy();
+            if (this.contentProxy.init(config, this.qaPortalAccess))
+                this.qaPortalAccess.setContentProxy(this.contentProxy);
         } catch (Exception e)
         {
         	LoggerFactory.getLogger(getClass()).error(getClass().getSimpleName() + config.initsb.sb.toString(), e);
@@ -179,6 +183,8 @@ public class RunnerService implements Runner, RunnerServiceMBean
     	LoggerFactory.getLogger(getClass()).debug("Stopping RunnerService.");
         if (runnerMachine != null)
             runnerMachine.destroy();
+        if (contentProxy != null)
+            contentProxy.destroy();
         // Destroy the Status Tracker
         if (config != null)
             config.statusTracker.destroy();
@@ -255,7 +261,7 @@ public class RunnerService implements Runner, RunnerServiceMBean
             long reNum = Long.parseLong(strRunEntryNumber);
             try
             {
-                if (ProcessTracker.isResultStored(this.dbConnPool, reNum)) {
+                if (ProcessTracker.isResultStored(this.runnerMachine.getRunStore(), reNum)) {
                     LoggerFactory.getLogger(getClass()).debug(getClass().getSimpleName() + ".submitQueueStoreNumber() finds reNum " + reNum + " has a non-null result already stored. Acking this reNum now.");
                     ackRunEntry(message);
                 } else if (processTracker.isRunning(reNum)) {
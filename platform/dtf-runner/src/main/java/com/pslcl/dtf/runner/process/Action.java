@@ -44,10 +44,12 @@ public enum Action implements Actions {
             Action retAction = reState.getAction();
             if (retAction == INITIALIZE) {
                 try {
+					// the next action is set first: once engaged, the run entry's task executes whatever action reState holds
+					reState.setAction(ANALYZE);
 					// put new reState object to ActionStore as kvp reNum/reState
 					runnerService.runnerMachine.engageRunEntry(reNum, reState);
-					reState.setAction(ANALYZE);
 				} catch (Exception e) {
+					reState.setAction(INITIALIZE);
 					log.warn("Action.INITIALIZE() sees exception message " + e);
 					throw e;
 				}
@@ -76,6 +78,11 @@ public enum Action implements Actions {
 //  PRIORITIZE,    // useful here?    
     
     TESTRUN {
+        @Override
+        boolean isBlocking() {
+            return true;
+        }
+
         @Override
         Action act(RunEntryState reState, RunEntryCore reCore, RunnerService runnerService) {
             try {
@@ -118,6 +125,14 @@ public enum Action implements Actions {
     };
 
     abstract Action act(RunEntryState reState, RunEntryCore reCore, RunnerService runnerService) throws Exception;
+
+    /**
+     * 
+     * @return true if act() holds its thread until a long running activity completes, such as a test run
+     */
+    boolean isBlocking() {
+        return false;
+    }
     
 
 	private static Logger log = LoggerFactory.getLogger(Action.class);
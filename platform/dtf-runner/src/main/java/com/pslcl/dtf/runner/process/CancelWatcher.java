@@ -0,0 +1,85 @@
+package com.pslcl.dtf.runner.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches table run for cancellation of every test run in progress, with one periodic query for all of them.
+ * 
+ * To indicate run cancel, a false test run result is stored by forces outside dtf-runner, e.g. the dtfexec app.
+ * A test run stops being watched before dtf-runner stores its own result, so that a false result stored by dtf-runner is never seen as a cancel.
+ */
+public class CancelWatcher implements Runnable {
+    private static final int SLEEPTIME = 1000 * 8; // 8 seconds
+
+    private final Logger log;
+    private final String simpleName;
+    private final RunStore runStore;
+    private final ConcurrentHashMap<Long, RunEntryCore> watched;
+    private volatile ScheduledFuture<?> checks;
+
+    CancelWatcher(RunStore runStore) {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.simpleName = getClass().getSimpleName() + " ";
+        this.runStore = runStore;
+        this.watched = new ConcurrentHashMap<>();
+        this.checks = null;
+    }
+
+    /**
+     * Note: Pair start() with a stop() call
+     * @param scheduledExecutor Runs the periodic check
+     */
+    void start(ScheduledExecutorService scheduledExecutor) {
+        this.checks = scheduledExecutor.scheduleWithFixedDelay(this, CancelWatcher.SLEEPTIME, CancelWatcher.SLEEPTIME, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (this.checks != null)
+            this.checks.cancel(false);
+        this.watched.clear();
+    }
+
+    /**
+     * Watch a test run for cancellation, until it is canceled or unwatch() is called.
+     * @param reCore The test run
+     */
+    void watch(RunEntryCore reCore) {
+        this.watched.put(reCore.getRENum(), reCore);
+    }
+
+    /**
+     * @param reCore The test run
+     */
+    void unwatch(RunEntryCore reCore) {
+        if (this.watched.remove(reCore.getRENum(), reCore))
+            log.debug(this.simpleName + "TERMINATES run-cancel checking for reNum " + reCore.getRENum());
+    }
+
+    @Override
+    public void run() {
+        if (this.watched.isEmpty())
+            return;
+        List<Long> reNums = new ArrayList<>(this.watched.keySet());
+        try {
+            List<Long> canceled = this.runStore.getCanceledRuns(reNums);
+            for (Long reNum : canceled) {
+                RunEntryCore reCore = this.watched.remove(reNum);
+                if (reCore != null)
+                    reCore.cancel();
+            }
+            log.debug(this.simpleName + ".run() checked " + reNums.size() + " test run(s), finds " + canceled.size() + " CANCELED");
+        } catch (Exception e) {
+            // swallow exception, we will check run cancel again, in a while.
+            log.warn(this.simpleName + "run-cancel check exception, msg: " + e.getMessage());
+        }
+    }
+
+}
\ No newline at end of file
@@ -17,7 +17,6 @@ package com.pslcl.dtf.runner.process;
 
 import java.util.concurrent.TimeoutException;
 
-import com.pslcl.dtf.runner.DBConnPool;
 import com.pslcl.dtf.runner.RunnerService;
 
 public class ProcessTracker {
@@ -28,17 +27,17 @@ public class ProcessTracker {
      * 
      * Note: This is a static method, because there is only one database.
      * Note: Timeout at five seconds by throwing TimeoutException
-     * @param dbConnPool The database connection pool
+     * @param runStore Access to table run
      * @param reNum The run entry number
      * @return true if result is stored (as true or false); false if result is not stored
      * @throws TimeoutException on timeout
      * @throws Exception on any error
      */
-    static public boolean isResultStored(DBConnPool dbConnPool, long reNum) throws TimeoutException, Exception {
+    static public boolean isResultStored(RunStore runStore, long reNum) throws TimeoutException, Exception {
     	boolean retBoolean = false;
 
         // temporarily, comment out these two lines, to allow local testing to proceed, even if a result is already stored
- 		Boolean result = RunEntryCore.getResult(dbConnPool, reNum);
+ 		Boolean result = runStore.getResult(reNum);
  		retBoolean = (result != null);
    		
         return retBoolean;
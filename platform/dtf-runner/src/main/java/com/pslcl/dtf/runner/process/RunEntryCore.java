@@ -14,17 +14,11 @@
  */
 package com.pslcl.dtf.runner.process;
 
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.Statement;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.pslcl.dtf.runner.DBConnPool;
 import com.pslcl.dtf.runner.RunnerService;
 import com.pslcl.dtf.runner.template.InstancedTemplate;
 
@@ -34,185 +28,33 @@ import com.pslcl.dtf.runner.template.InstancedTemplate;
  */
 public class RunEntryCore {
 
-    // static methods
-	
-    /**
-     *
-     * @param dbConnPool The database connection pool
-     * @param reNum The run entry number
-     * @return null if no if no result is stored, or true or false
-     * @throws Exception on any error
-     */
-    static public Boolean getResult(DBConnPool dbConnPool, long reNum) throws Exception {
-    	Boolean retBoolean = null;
-        Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        try {
-        	connection = dbConnPool.getConnection();
-            statement = connection.createStatement();
-            String strRENum = String.valueOf(reNum);
-            resultSet = statement.executeQuery( "SELECT pk_run, result " +
-                                                "FROM run " +
-                                                "WHERE pk_run = " + strRENum );
-            if ( resultSet.next() ) {
-                retBoolean = resultSet.getBoolean("result"); // note: false is returned for SQL_NULL
-                // the really cool api is: getBoolean first to get true or false, but only AFTER that, check to see if database column really holds null.
-                if (resultSet.wasNull())
-                	retBoolean = null;
-                if (resultSet.next())
-                    throw new Exception("resultSet wrongly has more than one entry");
-            } else {
-                throw new Exception("template data not present");
-            }
-        } catch(Exception e) {
-            LoggerFactory.getLogger("RunEntryCore").error("getResult() exception for reNum " + reNum + ": "+ e);
-            throw e;
-        } finally {
-            try {
-                if ( resultSet != null )
-                    resultSet.close();
-            } catch ( Exception e ) {
-                // ignore
-            }
-            resultSet = null;
-            
-            try {
-                if ( statement != null )
-                	statement.close();
-            } catch ( Exception e ) {
-                // ignore
-            }
-            statement = null;
-            
-            if (connection != null)
-            	connection.close();
-        }
-    	return retBoolean;
-    }	
-
-    
     // class instance members
     
     private final Logger log;
     private final String simpleName;
-    private DBConnPool dbConnPool;
+    private final RunStore runStore;
     private Long reNum;
     private DBTemplate topDBTemplate = null; // describes the top-level template only, i.e. the template that is matched to the run table entry known as reNum
-    private CancelTask cancelTask;
+    private CancelWatcher cancelWatcher;
     private volatile boolean testRunIsCanceled; // volatile fixes a bug where an old and wrong value tends to be returned, caused by other threads are hogging time somewhat
 
 
     // private methods
 
-    private void safeClose( ResultSet r ) {
-        try {
-            if ( r != null )
-                r.close();
-        }
-        catch ( Exception e ) {
-            // Ignore
-        }
-    }
-
-    private void safeClose( Statement s ) {
-        try {
-            if ( s != null )
-                s.close();
-        }
-        catch ( Exception e ) {
-            // Ignore
-        }
-    }
-    
     /**
      * load data for reNum in topDBTemplate
      */
     private void loadRunEntryData() throws Exception {
         // meant to be called once only; if more than once becomes useful, might work but review
-        Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
+        // These table run entries are filled: pk_run, fk_template, start_time, and maybe owner.
+        // topDBTemplate.reNum was filled in constructor; now fill all other entries of topDBTemplate, from table run entry reNum and its matching table template entry
         try {
-        	connection = this.dbConnPool.getConnection();
-        	statement = connection.createStatement();
-            if (this.reNum != null) {
-                String strRENum = String.valueOf(this.reNum);
-
-                // These table run entries are filled: pk_run, fk_template, start_time, and maybe owner.
-                // topDBTemplate.reNum was filled in constructor; now fill all other entries of topDBTemplate
-                //     acquire run table information for entry reNum
-                //     acquire the matching template table information
-                resultSet = statement.executeQuery( "SELECT pk_template, hash, enabled, steps, artifacts, start_time, ready_time, end_time, result, owner " +
-                                                    "FROM template " +
-                                                    "JOIN run ON fk_template = pk_template " +
-                                                    "WHERE pk_run = " + strRENum );
-                if ( resultSet.next() ) {
-                    topDBTemplate.pk_template = resultSet.getLong("pk_template");
-                    topDBTemplate.hash = resultSet.getBytes("hash");
-                    topDBTemplate.enabled = resultSet.getBoolean("enabled");
-                    topDBTemplate.steps = resultSet.getString("steps");
-                    topDBTemplate.artifacts = resultSet.getBytes("artifacts");
-                    topDBTemplate.result = (resultSet.getObject("result") != null) ? resultSet.getBoolean("result") : null;
-                    topDBTemplate.owner = resultSet.getString("owner");
-                    
-                    topDBTemplate.start_time = resultSet.getDate("start_time");
-                    Timestamp timestamp = resultSet.getTimestamp("start_time");
-                    if (timestamp != null)
-                    	topDBTemplate.start_time = new Date(timestamp.getTime());
-                    
-                    topDBTemplate.ready_time = resultSet.getDate("ready_time");
-                    timestamp = resultSet.getTimestamp("ready_time");
-                    if (timestamp != null)
-                    	topDBTemplate.ready_time = new Date(timestamp.getTime());
-                    
-                    topDBTemplate.end_time = resultSet.getDate("end_time");
-                    timestamp = resultSet.getTimestamp("end_time");
-                    if (timestamp != null)
-                    	topDBTemplate.end_time = new Date(timestamp.getTime());
-                    
-                    log.debug(simpleName + "<internal> loadRunEntryData() loads data from run-template matched records for reNum " + this.reNum + ", pk_template " + topDBTemplate.pk_template);
-                    if (resultSet.next())
-                        throw new Exception("resultSet wrongly has more than one entry");
-                } else {
-                    log.debug(simpleName + "<internal> loadRunEntryData() fails to find data from run-template matched records for reNum " + this.reNum + ", pk_template " + topDBTemplate.pk_template);
-                    throw new Exception("template data not present for specified reNum");
-                }
-            } else {
-            	// Note: Is it impossible to be here, now? It means that reCore was instantiated without coming through the path that has an reNum and a matching entry in table run.     
-            	
-                // acquire template table information
-                resultSet = statement.executeQuery( "SELECT pk_template, hash, enabled, steps " +
-                                                    "FROM template " );
-                if ( resultSet.next() ) {
-                    topDBTemplate.pk_template = resultSet.getLong("pk_template");
-                    topDBTemplate.hash = resultSet.getBytes("hash");
-                    topDBTemplate.enabled = resultSet.getBoolean("enabled");
-                    topDBTemplate.steps = resultSet.getString("steps");
-
-                    // run table not queried, so set defaults in topDBTemplate (for the missing run table entries)
-                    topDBTemplate.artifacts = null;
-                    topDBTemplate.start_time = new Date();
-                    topDBTemplate.ready_time = null;
-                    topDBTemplate.end_time = null;
-                    topDBTemplate.result = null;
-                    topDBTemplate.owner = "dtf-runner";
-                    log.debug(simpleName + "<internal> loadRunEntryData() loads template data only for test run with no table run entry, for pk_template " + topDBTemplate.pk_template);
-                    if (resultSet.next())
-                        throw new Exception("resultSet wrongly has more than one entry");
-                } else {
-                    throw new Exception("template data not present");
-                }
-            }
+            this.runStore.loadRunEntry(this.topDBTemplate);
+            log.debug(simpleName + "<internal> loadRunEntryData() loads data from run-template matched records for reNum " + this.reNum + ", pk_template " + topDBTemplate.pk_template);
         } catch(Exception e) {
         	// can get here when MySQL Server is not running
             log.error(simpleName + "loadRunEntryData() exception for reNum " + this.reNum + ": "+ e);
             throw e;
-        } finally {
-            safeClose( resultSet ); resultSet = null;
-            safeClose( statement ); statement = null;
-            if (connection != null)
-            	connection.close();
         }
     }
 
@@ -227,7 +69,7 @@ public class RunEntryCore {
         if (topDBTemplate.owner == null)
             topDBTemplate.owner = "dtf-runner";
 		try { 
-	        writeRunEntryData(); // ready_time and owner have changed
+	        this.runStore.storeReady(topDBTemplate); // ready_time and owner have changed; may be written behind
 		} catch (Exception e) {
 			log.debug(this.simpleName + "storeReadyRunEntryData() database write failure");
 			throw e;
@@ -235,96 +77,38 @@ public class RunEntryCore {
     }
 
     /**
+     * Note: If reNum.result field has a value (is not null), this does not overwrite anything
+     * Note: Does not overwrite run.pk_run, run.fk_template, run.start_time; dtf-runner does not own these
+     * Note: dtf-runner also do not own table template, and does not write it
      *
+     * @return true if stored; false if a result was already stored
      */
-    private void storeResultRunEntryData() throws Exception {
+    private boolean storeResultRunEntryData() throws Exception {
         topDBTemplate.end_time = new Date(); // now
         try {
-            writeRunEntryData();
+            return this.runStore.storeResult(topDBTemplate);
         } catch (Exception e) {
 			log.debug(this.simpleName + "storeResultRunEntryData() database write failure");
 			throw e;
         }
     }
 
-    /**
-     * Note: If reNum.result field has a value (is not null), this does not overwrite anything
-     * Note: Does not overwrite run.pk_run, run.fk_template, run.start_time; dtf-runner does not own these
-     * Note: dtf-runner also do not own table template, and does not write it
-     *
-     */
-    private void writeRunEntryData() throws Exception {
-        // temporarily, comment out these next 5 lines, to allow overwriting a past non-null result
-    	Boolean previousResultIsStored = RunEntryCore.getResult(this.dbConnPool, this.reNum);
-    	if (previousResultIsStored != null) { // this specific test is a fail-safe
-    		log.warn(simpleName + "writeRunEntryData() does not overwrite a previously stored result, for reNum " + topDBTemplate.reNum);
-    		throw new Exception("Database write not accomplished");
-    	} else
-    		
-    	{
-    		if (!this.dbConnPool.getReadOnly()) {
-                Connection connection = null;
-    	        Statement statement = null;
-    	        try {
-    	        	connection = this.dbConnPool.getConnection();
-    	            connection.setAutoCommit(true);
-    	        	statement = connection.createStatement();
-    	            String strRENum = String.valueOf(topDBTemplate.reNum);
-    	            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    	
-    	            String readyTime = "null";
-    	            if (topDBTemplate.ready_time != null)
-    	                readyTime = "'" + sdf.format(topDBTemplate.ready_time) + "'";
-    	            String endTime = "null";
-    	            if (topDBTemplate.end_time != null)
-    	                endTime = "'" + sdf.format(topDBTemplate.end_time) + "'";
-    	            String owner = "null";
-    	            if (topDBTemplate.owner != null)
-    	                owner = "'" + topDBTemplate.owner + "'";
-   	                Boolean result = topDBTemplate.result;
-    	            byte [] artifacts = null;
-    	            if (topDBTemplate.artifacts != null)
-    	                artifacts = topDBTemplate.artifacts;
-    	
-    	            String str = "UPDATE run " +
-    	                         "SET ready_time = " + readyTime + ", " +
-    	                               "end_time = " + endTime   + ", " +
-    	                                  "owner = " + owner + ", " +
-    	                                 "result = " + result + ", " +
-    	                              "artifacts = " + artifacts + " " +
-    	                         "WHERE pk_run = " + strRENum;
-    	
-    	            statement.executeUpdate( str ); // returns the matching row count: 1 for pk_run row exists, or 0
-    	        } catch(Exception e) {
-    	            log.error(simpleName + "writeRunEntryData() exception for reNum " + topDBTemplate.reNum + ": "+ e);
-    	            throw e;
-    	        } finally {
-    	            safeClose( statement ); statement = null;
-    	            connection.close();
-    	        }    			
-    		} else {
-    			log.warn(simpleName + "writeRunEntryData() finds readonly status; does not write a result, for reNum " + topDBTemplate.reNum);
-    			throw new Exception("Database write not accomplished");
-    		}
-    	}
-    }
-
 
     // public methods
 
     /** constructor
      *
-     *@param dbConnPool The database connection pool
+     * @param runStore Access to tables run and template
      * @param reNum The run entry number
      * @throws Exception on any area
      */
-    public RunEntryCore(DBConnPool dbConnPool, Long reNum) throws Exception {
+    public RunEntryCore(RunStore runStore, Long reNum) throws Exception {
     	this.log = LoggerFactory.getLogger(getClass());
         this.simpleName = getClass().getSimpleName() + " ";
-        this.dbConnPool = dbConnPool;
+        this.runStore = runStore;
         this.reNum = reNum;
         topDBTemplate = new DBTemplate(this.reNum);
-        this.cancelTask = null;
+        this.cancelWatcher = null;
         this.testRunIsCanceled = false;
         try {
           	// fill all fields of topDBTemplate from the existing existing database entries
@@ -352,39 +136,17 @@ public class RunEntryCore {
      * @throws Exception on any error
      */
     public DBTemplate getTemplateInfo(String templateHash) throws Exception {
-    	DBTemplate retDBTemplate = new DBTemplate(-1L);
-    	retDBTemplate.hash = templateHash.getBytes();
-        Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
         try {
-        	connection = this.dbConnPool.getConnection();
-        	statement = connection.createStatement();
-        	String str = "SELECT pk_template, hash, enabled, steps " +
-                         "FROM template " +
-                         "WHERE hash = " + templateHash;
-            resultSet = statement.executeQuery(str);
-            if ( resultSet.next() ) {
-                retDBTemplate.pk_template = resultSet.getLong("pk_template");
-                retDBTemplate.hash = resultSet.getBytes("hash");
-                retDBTemplate.enabled = resultSet.getBoolean("enabled");
-                retDBTemplate.steps = resultSet.getString("steps");
-            }
+            return this.runStore.getTemplate(templateHash);
         } catch (Exception e) {
-        	log.debug(this.simpleName + ".getTemplateInfo() does not find template for templateID " + DBTemplate.getId(retDBTemplate.hash));
+        	log.debug(this.simpleName + ".getTemplateInfo() does not find template for templateID " + templateHash);
         	throw e;
-        } finally {
-            safeClose( resultSet ); resultSet = null;
-            safeClose( statement ); statement = null;
-            if (connection != null)
-            	connection.close();
         }
-    	return retDBTemplate;
     }
     
-    private void closeCancelTask() {
-    	if (this.cancelTask != null)
-    		this.cancelTask.close();
+    private void closeCancelWatch() {
+    	if (this.cancelWatcher != null)
+    		this.cancelWatcher.unwatch(this);
     }
     
     /**
@@ -425,9 +187,10 @@ public class RunEntryCore {
         try {
         	// Setup test run cancellation, prior to starting our test run.
         	// 	   While a test run is in progress, a user can cancel it, by entering a fail result in "our" run table entry.  
-        	// Setup local task to watch for on the fly run cancellation. Place it as a member of RunEntryCore (ie: this), passed into and accessible while the test run executes its template steps.
-        	this.cancelTask = new CancelTask(this, runnerMachine);
-        	// temporarily, comment out the above line, to avoid CancelTask activity
+        	// Register with the runner's cancel watcher, which watches all test runs for on the fly run cancellation. It marks RunEntryCore (ie: this), passed into and accessible while the test run executes its template steps.
+        	this.cancelWatcher = runnerMachine.getCancelWatcher();
+        	this.cancelWatcher.watch(this);
+        	// temporarily, comment out the above line, to avoid cancel watching
         	
 			log.debug(this.simpleName + ".testRun() launches template instantiation for top level template " + DBTemplate.getId(this.topDBTemplate.hash));
         	// Start our test run. This executes all the template steps of our top level template (represented by this.topDBTemplate).
@@ -443,7 +206,7 @@ public class RunEntryCore {
         	log.warn("Failed to execute test run " + reNum + " - " + t, t);
             throw t;
         } finally {
-        	this.closeCancelTaskStoreResultAckMessageQueue(runnerMachine.getService(), result);
+        	this.closeCancelWatchStoreResultAckMessageQueue(runnerMachine.getService(), result);
         }
         
     	// note: for !testRunSuccess, the template has already cleaned itself up (it was handled internally, by exception processing code, because we can't do it- iT is null for that)
@@ -458,25 +221,11 @@ public class RunEntryCore {
     }
     
     /**
-     * To indicate run cancel, a false test run result can be stored by forces outside dtf-runner, e.g. the dtfexec app.
-     * This need not be called after the dtf-test-runner stores a false test run result.
+     * Called by the CancelWatcher, when a false test run result has been stored by forces outside dtf-runner, e.g. the dtfexec app.
      */
-    void checkRunCancel() {
-		try {
-			Boolean result = RunEntryCore.getResult(this.dbConnPool, this.reNum);
-			// result null:  test run not canceled
-			//        true:  test run passed, not canceled
-			//        false: test run canceled by a force that is outside dtf-runner
-			//    (or false could mean that we are called wrongly, after we stored a false test run result)
-	    	if (result!=null &&	!result.booleanValue()) {
-	    		// cancel this test run
-	    		this.testRunIsCanceled = true;
-	    	}
-	    	log.debug(this.simpleName + ".checkRunCancel() called for reNum " + this.reNum + ", finds test run " + (this.testRunIsCanceled?"CANCELED":"running"));
-		} catch (Exception e) {
-			log.warn(this.simpleName + "for reNum " + this.reNum + ", checkRunCancel exception, msg: " + e.getMessage());
-			// swallow exception, we will check run cancel again, in a while.
-		}
+    void cancel() {
+    	this.testRunIsCanceled = true;
+    	log.debug(this.simpleName + ".cancel() called for reNum " + this.reNum + ", finds test run CANCELED");
     }
     
     /**
@@ -485,9 +234,9 @@ public class RunEntryCore {
      * @param result Result of the test run
      * @throws Exception Swallows all operational exceptions, will throw things like null pointer exception.
      */
-    private void closeCancelTaskStoreResultAckMessageQueue(RunnerService runnerService, Boolean result) throws Exception {
+    private void closeCancelWatchStoreResultAckMessageQueue(RunnerService runnerService, Boolean result) throws Exception {
         // Our input is this.topDBTemplate. It has been filled from our reNum entry in table run and its one linked entry in table template. Its start_time and ready_time are filled and stored to table run.
-    	this.closeCancelTask();
+    	this.closeCancelWatch();
         this.topDBTemplate.result = result;
         this.storeResultAndAckMessageQueue(runnerService);
     }
@@ -499,21 +248,19 @@ public class RunEntryCore {
      */
     private void storeResultAndAckMessageQueue(RunnerService runnerService) throws Exception {
     	boolean resultNowStored = false;
-    	Boolean foundResult = RunEntryCore.getResult(this.dbConnPool, reNum);
-    	// Note: When a test run actually fails or succeeds, this is the only path that writes the result portion of the run entry. To see foundResult not null, right now, might indicate some sort of double run of the test run 
-
-    	if (foundResult == null) {
-    		// note: we do not get here when test run is canceled
-        	try {
-    			storeResultRunEntryData();
+    	Boolean foundResult = null;
+    	// Note: When a test run actually fails or succeeds, this is the only path that writes the result portion of the run entry. To find a result already stored, right now, might indicate some sort of double run of the test run, or a canceled test run
+    	try {
+    		if (storeResultRunEntryData()) {
     			resultNowStored = true;
     	        log.debug(this.simpleName + ".storeResultAndAckMessageQueue(), for reNum " + this.topDBTemplate.reNum + ", stored to database this result: " + this.topDBTemplate.result); // result can be null, true, or false
-    		} catch (Exception e) {
-    			// swallow this exception, it does not relate to the actual test run
-                log.debug(this.simpleName + ".storeResultAndAckMessageQueue(), for reNum " + this.topDBTemplate.reNum + ", FAILED to store to database this result: " + this.topDBTemplate.result + "; message queue not acked"); // result can be null, true, or false
+    		} else {
+    			foundResult = this.runStore.getResult(reNum); // the write was refused; confirm a stored result
+               	log.debug(simpleName + ".storeResultAndAckMessageQueue() finds result already stored for reNum " + this.topDBTemplate.reNum);
     		}
-    	} else {
-           	log.debug(simpleName + ".storeResultAndAckMessageQueue() finds result already stored for reNum " + this.topDBTemplate.reNum);
+    	} catch (Exception e) {
+    		// swallow this exception, it does not relate to the actual test run
+            log.debug(this.simpleName + ".storeResultAndAckMessageQueue(), for reNum " + this.topDBTemplate.reNum + ", FAILED to store to database this result: " + this.topDBTemplate.result + "; message queue not acked"); // result can be null, true, or false
     	}
 
     	if (foundResult!=null || resultNowStored) {
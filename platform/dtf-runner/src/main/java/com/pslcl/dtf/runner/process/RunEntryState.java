@@ -19,8 +19,7 @@ public class RunEntryState {
     
     private final long reNum;
     private Object message;
-    private Action action;
-    private Action lastAction;
+    private volatile Action action;
     
     /**
      * Constructor
@@ -31,7 +30,6 @@ public class RunEntryState {
         this.reNum = reNum;
         this.message = message;
         this.action = Action.INITIALIZE;
-        this.lastAction = this.action;
     }
 
     long getRunEntryNumber() {
@@ -50,24 +48,4 @@ public class RunEntryState {
         this.action = action;
     }
     
-    /**
-     * Note: blocks until Action has changed; calling this.setAction() is required 
-     * @return
-     * @throws InterruptedException
-     */
-    Action getNewAction() throws InterruptedException {
-    	do {
-	    	if (this.lastAction != this.action) {
-	    		this.lastAction =  this.action;
-	    		return this.action;
-	    	}
-	    	
-	        try {
-	            Thread.sleep(1000);
-	        } catch (InterruptedException ie) {
-	        	throw ie;
-	        }
-    	} while (true);
-    }
-    
 }
@@ -20,14 +20,20 @@ import org.slf4j.LoggerFactory;
 
 import com.pslcl.dtf.runner.RunnerService;
 
+/**
+ * Drives one run entry through its Actions, as a state machine.
+ *
+ * Each Action is executed as its own task. Actions that only move state forward execute on the shared scheduled executor; an Action that blocks for the life of the test run executes on the run executor of RunnerMachine,
+ * which uses virtual threads where the JVM supports them. No thread is held between Actions.
+ */
 public class RunEntryTask implements Runnable {
 
 	// instance declarations 
 
 	private RunnerMachine runnerMachine;
     private RunEntryCore reCore;
+    private RunEntryState reState;
     private long reNum;
-    //private String runInstanceThreadName;
     private final Logger log;
     private final String simpleName;
         
@@ -37,9 +43,8 @@ public class RunEntryTask implements Runnable {
     /**
      * Constructor: From a given run entry number, initiate execution of its test run.
      * 
-     * Note: Step 1 Check to see if first time setup is accomplished; if not, setup our testrunExecutor.
-     * Note: Step 2 Submit this test instance to the testRunExecutorService for future execution.
-     * Note: Every thread or task created by this class closes itself automatically, whether seconds or days from instantiation.
+     * Note: The current Action of the run entry must already be set, because it may execute before this constructor returns.
+     * Note: Every task created by this class closes itself automatically, whether seconds or days from instantiation.
      * @param runnerMachine The RunnerMachine
      * @param reNum The run entry number
      * @throws Exception on any error
@@ -49,11 +54,12 @@ public class RunEntryTask implements Runnable {
         this.simpleName = getClass().getSimpleName() + " ";
         this.runnerMachine = runnerMachine;
         this.reNum = reNum;
-        //this.runInstanceThreadName = new String("runEntry " + reNum);
-        this.reCore = new RunEntryCore(this.runnerMachine.getDBConnPool(), new Long(reNum));
+        this.reCore = new RunEntryCore(this.runnerMachine.getRunStore(), new Long(reNum));
+        this.reState = this.runnerMachine.getService().runEntryStateStore.get(reNum);
         
         try {
-            runnerMachine.getConfig().blockingExecutor.execute(this); // schedules call to this.run(); this is the full execution of the specified test run
+            log.debug(simpleName + "opens reNum " + reNum);
+            this.schedule(); // schedules call to this.run() for the first Action; each Action schedules the next, through the full execution of the specified test run
         } catch (Exception e) {
             log.error(simpleName + "constructor failed for reNum " + reNum + ", with Exception " + e);
             throw e;
@@ -61,35 +67,40 @@ public class RunEntryTask implements Runnable {
     }
 
     /**
-     * Execute one test run
+     * Schedule execution of the current Action.
+     */
+    private void schedule() {
+        if (this.reState.getAction().isBlocking())
+            this.runnerMachine.getRunExecutor().execute(this);
+        else
+            this.runnerMachine.getConfig().scheduledExecutor.execute(this);
+    }
+
+    /**
+     * Execute the current Action of this run entry, then schedule the next one.
      * 
-     * Note: Efforts to exit this thread early require cooperation of whatever code this method calls.
+     * Note: Efforts to exit early require cooperation of whatever code this method calls.
      */
     @Override
     public void run() {
         String tname = Thread.currentThread().getName();
         Thread.currentThread().setName("RunEntryTask");
-        // this thread blocks while waiting for the test run to return a test result and otherwise complete itself (if needed, block could be for days at a time)
-        log.debug(simpleName + "run() opens reNum " + reNum);
-    	RunnerService rs = this.runnerMachine.getService();
-    	RunEntryStateStore ress = rs.runEntryStateStore;
-    	RunEntryState reState = ress.get(reNum);
-        
-        while(true) {
-			try {
-	            Action newAction = reState.getNewAction(); // blocks until action changes to something new
-	            Action nextAction = newAction.act(reState, reCore, runnerMachine.getService());
-                log.debug(simpleName + "run() ran Action " + newAction.toString() + " for reNum " + reNum + ", finds next action " + nextAction.toString());
-	            if (nextAction == Action.DISCARDED)
-	                break; // close thread
-			} catch (Throwable t) {
-				log.warn(this.simpleName + "run() sees exception " + t.getMessage());
-				break; // close thread
-			}
+        boolean close = true;
+        try {
+            Action action = this.reState.getAction();
+            Action nextAction = action.act(this.reState, this.reCore, this.runnerMachine.getService());
+            log.debug(simpleName + "run() ran Action " + action.toString() + " for reNum " + reNum + ", finds next action " + nextAction.toString());
+            if (nextAction != Action.DISCARDED) {
+                this.schedule();
+                close = false;
+            }
+        } catch (Throwable t) {
+            log.warn(this.simpleName + "run() sees exception " + t.getMessage());
+        } finally {
+            Thread.currentThread().setName(tname);
         }
- 
-        log.debug(simpleName + "run() closes reNum " + reNum);
-        Thread.currentThread().setName(tname);
+        if (close)
+            log.debug(simpleName + "run() closes reNum " + reNum);
     }
     
-}
\ No newline at end of file
+}
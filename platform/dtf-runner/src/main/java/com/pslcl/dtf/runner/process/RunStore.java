@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.process;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pslcl.dtf.runner.DBConnPool;
+
+/**
+ * RunStore is dtf-runner's only access to tables run and template.
+ *
+ * All statements are prepared with bound parameters; DBConnPool pools them with their connections, so each is parsed once per connection.
+ * A result, once stored, is never overwritten, so stored results are cached and not read again. Templates are content addressed by hash, so found templates are cached, too.
+ * Optionally, the ready update of a run entry is written behind: it is held briefly, written in a batch with those of other run entries, and dropped if the result update of its run entry comes first, since that update writes every column the ready update writes.
+ */
+public class RunStore {
+    private static final String SELECT_RUN_ENTRY = "SELECT pk_template, hash, enabled, steps, artifacts, start_time, ready_time, end_time, result, owner " +
+                                                   "FROM template " +
+                                                   "JOIN run ON fk_template = pk_template " +
+                                                   "WHERE pk_run = ?";
+    private static final String SELECT_RESULT = "SELECT result FROM run WHERE pk_run = ?";
+    private static final String SELECT_TEMPLATE = "SELECT pk_template, hash, enabled, steps FROM template WHERE hash = ?";
+    // never overwrites a stored result; the affected row count tells whether one was stored already
+    private static final String UPDATE_RUN_ENTRY = "UPDATE run " +
+                                                   "SET ready_time = ?, end_time = ?, owner = ?, result = ?, artifacts = ? " +
+                                                   "WHERE pk_run = ? AND result IS NULL";
+    private static final String SELECT_CANCELED = "SELECT pk_run FROM run WHERE result = 0 AND pk_run IN ";
+    private static final int MAX_RUNS_PER_QUERY = 500;
+    private static final int[] CANCELED_QUERY_SIZES = {1, 16, 128, MAX_RUNS_PER_QUERY}; // IN list lengths, so few statements are pooled
+    private static final int MAX_CACHED_RESULTS = 10000;
+    private static final int MAX_CACHED_TEMPLATES = 1000;
+
+    private final Logger log;
+    private final String simpleName;
+    private final DBConnPool dbConnPool;
+    private final Map<Long, Boolean> storedResults;      // reNum to non-null stored result; access is synchronized on the map
+    private final Map<String, DBTemplate> templates;     // hex hash to found template; access is synchronized on the map
+    private final ConcurrentHashMap<Long, RunEntry> pendingWrites;
+    private final AtomicBoolean flushScheduled;
+    private volatile ScheduledExecutorService scheduledExecutor;
+    private volatile long writeBehindMillis;
+
+    /**
+     * The columns of table run written by dtf-runner, as they were when a write was requested.
+     */
+    private static class RunEntry {
+        private final long reNum;
+        private final Date readyTime;
+        private final Date endTime;
+        private final String owner;
+        private final Boolean result;
+        private final byte[] artifacts;
+
+        private RunEntry(DBTemplate dbTemplate) {
+            this.reNum = dbTemplate.reNum;
+            this.readyTime = dbTemplate.ready_time;
+            this.endTime = dbTemplate.end_time;
+            this.owner = dbTemplate.owner;
+            this.result = dbTemplate.result;
+            this.artifacts = dbTemplate.artifacts;
+        }
+    }
+
+    /**
+     *
+     * @param dbConnPool The database connection pool
+     */
+    public RunStore(DBConnPool dbConnPool) {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.simpleName = getClass().getSimpleName() + " ";
+        this.dbConnPool = dbConnPool;
+        this.storedResults = new BoundedMap<Long, Boolean>(RunStore.MAX_CACHED_RESULTS);
+        this.templates = new BoundedMap<String, DBTemplate>(RunStore.MAX_CACHED_TEMPLATES);
+        this.pendingWrites = new ConcurrentHashMap<>();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.scheduledExecutor = null;
+        this.writeBehindMillis = 0;
+    }
+
+    /**
+     * Write ready updates behind, by the given delay.
+     * Note: Pair with a stop() call
+     * @param scheduledExecutor Runs the batched writes
+     * @param delayMillis How long a ready update may be held; 0 or less writes it immediately
+     */
+    void start(ScheduledExecutorService scheduledExecutor, long delayMillis) {
+        this.scheduledExecutor = scheduledExecutor;
+        this.writeBehindMillis = delayMillis;
+    }
+
+    /**
+     * Write any held updates, and stop holding them.
+     */
+    void stop() {
+        this.writeBehindMillis = 0;
+        this.flush();
+    }
+
+    /**
+     *
+     * @param reNum The run entry number
+     * @return null if no result is stored, or true or false
+     * @throws Exception on any error, including no run entry for reNum
+     */
+    public Boolean getResult(long reNum) throws Exception {
+        synchronized (this.storedResults) {
+            Boolean cached = this.storedResults.get(reNum);
+            if (cached != null)
+                return cached;
+        }
+        return this.readResult(reNum);
+    }
+
+    /**
+     * Fill dbTemplate, from the run entry of dbTemplate.reNum and its template.
+     * @param dbTemplate Holds the run entry number; on return, also holds the matching run and template table entries
+     * @throws Exception on any error, including no run entry for dbTemplate.reNum
+     */
+    void loadRunEntry(DBTemplate dbTemplate) throws Exception {
+        try (Connection connection = this.dbConnPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RunStore.SELECT_RUN_ENTRY)) {
+            statement.setLong(1, dbTemplate.reNum);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next())
+                    throw new Exception("template data not present for specified reNum");
+                dbTemplate.pk_template = resultSet.getLong("pk_template");
+                dbTemplate.hash = resultSet.getBytes("hash");
+                dbTemplate.enabled = resultSet.getBoolean("enabled");
+                dbTemplate.steps = resultSet.getString("steps");
+                dbTemplate.artifacts = resultSet.getBytes("artifacts");
+                dbTemplate.result = (resultSet.getObject("result") != null) ? resultSet.getBoolean("result") : null;
+                dbTemplate.owner = resultSet.getString("owner");
+                dbTemplate.start_time = RunStore.toDate(resultSet.getTimestamp("start_time"));
+                dbTemplate.ready_time = RunStore.toDate(resultSet.getTimestamp("ready_time"));
+                dbTemplate.end_time = RunStore.toDate(resultSet.getTimestamp("end_time"));
+                if (resultSet.next())
+                    throw new Exception("resultSet wrongly has more than one entry");
+            }
+        }
+        if (dbTemplate.result != null)
+            this.cacheResult(dbTemplate.reNum, dbTemplate.result);
+    }
+
+    /**
+     *
+     * @param templateHash String representation of the Hash of the template
+     * @return A new DBTemplate holding the template table entry; if not found, it holds only the given hash and is not valid
+     * @throws Exception on any error
+     */
+    DBTemplate getTemplate(String templateHash) throws Exception {
+        DBTemplate found;
+        synchronized (this.templates) {
+            found = this.templates.get(templateHash);
+        }
+        if (found == null) {
+            found = this.readTemplate(templateHash);
+            if (found == null) {
+                DBTemplate retDBTemplate = new DBTemplate(-1L);
+                retDBTemplate.hash = templateHash.getBytes();
+                return retDBTemplate;
+            }
+            synchronized (this.templates) {
+                this.templates.put(templateHash, found);
+            }
+        }
+        DBTemplate retDBTemplate = new DBTemplate(-1L);
+        retDBTemplate.pk_template = found.pk_template;
+        retDBTemplate.hash = found.hash;
+        retDBTemplate.enabled = found.enabled;
+        retDBTemplate.steps = found.steps;
+        return retDBTemplate;
+    }
+
+    /**
+     * Store the ready update of a run entry: ready_time and owner, with the other columns written by dtf-runner.
+     * Note: With write behind, this returns before the write, and a failure to write is logged only.
+     * @param dbTemplate The top level template of the run entry
+     * @throws Exception on any error, including a result already stored
+     */
+    void storeReady(DBTemplate dbTemplate) throws Exception {
+        RunEntry runEntry = new RunEntry(dbTemplate);
+        ScheduledExecutorService executor = this.scheduledExecutor;
+        long delay = this.writeBehindMillis;
+        if (delay > 0 && executor != null && !this.dbConnPool.getReadOnly()) {
+            this.pendingWrites.put(runEntry.reNum, runEntry);
+            if (this.flushScheduled.compareAndSet(false, true)) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushScheduled.set(false);
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        if (!this.write(runEntry))
+            throw new Exception("Database write not accomplished");
+    }
+
+    /**
+     * Store the result update of a run entry. It supersedes any held ready update of the same run entry.
+     * @param dbTemplate The top level template of the run entry
+     * @return true if the update is stored; false if a result was already stored, which is left as is
+     * @throws Exception on any error
+     */
+    boolean storeResult(DBTemplate dbTemplate) throws Exception {
+        RunEntry runEntry = new RunEntry(dbTemplate);
+        this.pendingWrites.remove(runEntry.reNum);
+        return this.write(runEntry);
+    }
+
+    /**
+     *
+     * @param reNums Run entry numbers to check
+     * @return Those of reNums whose run entry holds a false result
+     * @throws Exception on any error
+     */
+    List<Long> getCanceledRuns(List<Long> reNums) throws Exception {
+        List<Long> retList = new ArrayList<>();
+        try (Connection connection = this.dbConnPool.getConnection()) {
+            for (int begin=0; begin<reNums.size(); begin+=RunStore.MAX_RUNS_PER_QUERY) {
+                List<Long> chunk = reNums.subList(begin, Math.min(reNums.size(), begin + RunStore.MAX_RUNS_PER_QUERY));
+                // the IN list is padded to one of a few lengths by repeating the last run, so only those few statements are prepared and reused
+                int size = RunStore.CANCELED_QUERY_SIZES[RunStore.CANCELED_QUERY_SIZES.length - 1];
+                for (int querySize : RunStore.CANCELED_QUERY_SIZES) {
+                    if (querySize >= chunk.size()) {
+                        size = querySize;
+                        break;
+                    }
+                }
+                StringBuilder sb = new StringBuilder(RunStore.SELECT_CANCELED).append('(');
+                for (int i=0; i<size; i++)
+                    sb.append(i==0 ? "?" : ",?");
+                sb.append(')');
+                try (PreparedStatement statement = connection.prepareStatement(sb.toString())) {
+                    for (int i=0; i<size; i++)
+                        statement.setLong(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next())
+                            retList.add(resultSet.getLong("pk_run"));
+                    }
+                }
+            }
+        }
+        for (Long reNum : retList)
+            this.cacheResult(reNum, Boolean.FALSE);
+        return retList;
+    }
+
+    // private methods
+
+    private Boolean readResult(long reNum) throws Exception {
+        Boolean retBoolean = null;
+        try (Connection connection = this.dbConnPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RunStore.SELECT_RESULT)) {
+            statement.setLong(1, reNum);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next())
+                    throw new Exception("template data not present");
+                retBoolean = resultSet.getBoolean("result"); // note: false is returned for SQL_NULL
+                if (resultSet.wasNull())
+                    retBoolean = null;
+            }
+        } catch (Exception e) {
+            log.error(simpleName + "getResult() exception for reNum " + reNum + ": " + e);
+            throw e;
+        }
+        if (retBoolean != null)
+            this.cacheResult(reNum, retBoolean);
+        return retBoolean;
+    }
+
+    private DBTemplate readTemplate(String templateHash) throws Exception {
+        try (Connection connection = this.dbConnPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RunStore.SELECT_TEMPLATE)) {
+            statement.setBytes(1, RunStore.fromHex(templateHash));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next())
+                    return null;
+                DBTemplate retDBTemplate = new DBTemplate(-1L);
+                retDBTemplate.pk_template = resultSet.getLong("pk_template");
+                retDBTemplate.hash = resultSet.getBytes("hash");
+                retDBTemplate.enabled = resultSet.getBoolean("enabled");
+                retDBTemplate.steps = resultSet.getString("steps");
+                return retDBTemplate;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param runEntry The columns to write
+     * @return true if written; false if a result was already stored
+     * @throws Exception on any error, including a read only database
+     */
+    private boolean write(RunEntry runEntry) throws Exception {
+        if (this.dbConnPool.getReadOnly()) {
+            log.warn(simpleName + "write() finds readonly status; does not write, for reNum " + runEntry.reNum);
+            throw new Exception("Database write not accomplished");
+        }
+        int count;
+        try (Connection connection = this.dbConnPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RunStore.UPDATE_RUN_ENTRY)) {
+            connection.setAutoCommit(true);
+            RunStore.bind(statement, runEntry);
+            count = statement.executeUpdate();
+        } catch (Exception e) {
+            log.error(simpleName + "write() exception for reNum " + runEntry.reNum + ": " + e);
+            throw e;
+        }
+        if (count == 0) {
+            log.warn(simpleName + "write() does not overwrite a previously stored result, for reNum " + runEntry.reNum);
+            return false;
+        }
+        if (runEntry.result != null)
+            this.cacheResult(runEntry.reNum, runEntry.result);
+        return true;
+    }
+
+    /**
+     * Write all held ready updates, in one batch.
+     */
+    private void flush() {
+        if (this.pendingWrites.isEmpty())
+            return;
+        List<RunEntry> runEntries = new ArrayList<>();
+        for (Long reNum : new ArrayList<>(this.pendingWrites.keySet())) {
+            RunEntry runEntry = this.pendingWrites.remove(reNum);
+            if (runEntry != null)
+                runEntries.add(runEntry);
+        }
+        if (runEntries.isEmpty())
+            return;
+        try (Connection connection = this.dbConnPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RunStore.UPDATE_RUN_ENTRY)) {
+            connection.setAutoCommit(true);
+            for (RunEntry runEntry : runEntries) {
+                RunStore.bind(statement, runEntry);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            for (int i=0; i<counts.length; i++) {
+                if (counts[i] == 0)
+                    log.warn(simpleName + "flush() does not overwrite a previously stored result, for reNum " + runEntries.get(i).reNum);
+            }
+            log.debug(simpleName + "flush() wrote " + runEntries.size() + " ready update(s)");
+        } catch (Exception e) {
+            // the result update of each run entry writes these columns again
+            log.warn(simpleName + "flush() failed to write " + runEntries.size() + " ready update(s): " + e);
+        }
+    }
+
+    private void cacheResult(long reNum, Boolean result) {
+        synchronized (this.storedResults) {
+            this.storedResults.put(reNum, result);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, RunEntry runEntry) throws Exception {
+        statement.setTimestamp(1, runEntry.readyTime != null ? new Timestamp(runEntry.readyTime.getTime()) : null);
+        statement.setTimestamp(2, runEntry.endTime != null ? new Timestamp(runEntry.endTime.getTime()) : null);
+        statement.setString(3, runEntry.owner);
+        if (runEntry.result != null)
+            statement.setBoolean(4, runEntry.result);
+        else
+            statement.setNull(4, Types.BOOLEAN);
+        statement.setBytes(5, runEntry.artifacts);
+        statement.setLong(6, runEntry.reNum);
+    }
+
+    private static Date toDate(Timestamp timestamp) {
+        return (timestamp != null) ? new Date(timestamp.getTime()) : null;
+    }
+
+    /**
+     *
+     * @param hex A hex String, as given by Hash.toString()
+     * @return The bytes it represents
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0)
+            throw new IllegalArgumentException("odd length hash " + hex);
+        byte[] retBytes = new byte[hex.length() / 2];
+        for (int i=0; i<retBytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("non-hex hash " + hex);
+            retBytes[i] = (byte)((high << 4) | low);
+        }
+        return retBytes;
+    }
+
+    /**
+     * A map that drops its least recently used entry when full.
+     */
+    private static class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        private BoundedMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > this.maxEntries;
+        }
+    }
+
+}
@@ -15,12 +15,19 @@
  */
 package com.pslcl.dtf.runner.process;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.pslcl.dtf.core.runner.config.RunnerConfig;
+import com.pslcl.dtf.core.runner.resource.ResourceNames;
+import com.pslcl.dtf.core.util.StrH;
 import com.pslcl.dtf.runner.DBConnPool;
 import com.pslcl.dtf.runner.RunnerService;
 import com.pslcl.dtf.runner.template.TemplateProvider;
@@ -37,7 +44,10 @@ public class RunnerMachine {
     private final AtomicBoolean initialized;
     private volatile TemplateProvider templateProvider;
     private volatile RunnerConfig config;
+    private volatile ExecutorService runExecutor;
+    private volatile CancelWatcher cancelWatcher;
     private final DBConnPool dbConnPool;
+    private final RunStore runStore;
     private final Logger log;
     private final String simpleName;
 
@@ -53,6 +63,7 @@ public class RunnerMachine {
         this.log = LoggerFactory.getLogger(getClass());
         this.simpleName = getClass().getSimpleName() + " ";
         this.dbConnPool = dbConnPool;
+        this.runStore = new RunStore(dbConnPool);
         this.initialized = new AtomicBoolean(false);
     }
 
@@ -60,6 +71,10 @@ public class RunnerMachine {
     	return this.dbConnPool;
     }
     
+    public RunStore getRunStore() {
+    	return this.runStore;
+    }
+    
     public RunnerConfig getConfig()
     {
         return config;
@@ -69,6 +84,21 @@ public class RunnerMachine {
     {
         return templateProvider;
     }
+
+    /**
+     * The executor for work that holds its thread for the life of a test run, or of a nested template.
+     * Such work does not use the blocking executor, whose few threads are needed by the resource providers that the test runs wait on.
+     * @return The run executor
+     */
+    public ExecutorService getRunExecutor()
+    {
+        return runExecutor;
+    }
+
+    CancelWatcher getCancelWatcher()
+    {
+        return cancelWatcher;
+    }
         
     public RunnerService getService()
     {
@@ -89,6 +119,13 @@ public class RunnerMachine {
     public void init(RunnerConfig config) throws Exception
     {
         this.config = config;
+        runExecutor = newRunExecutor();
+        String writeBehind = StrH.trim(config.properties.getProperty(ResourceNames.DtfRunnerDbWriteBehindKey, ResourceNames.DtfRunnerDbWriteBehindDefault));
+        if (writeBehind == null || writeBehind.isEmpty())
+            writeBehind = ResourceNames.DtfRunnerDbWriteBehindDefault;
+        runStore.start(config.scheduledExecutor, Long.parseLong(writeBehind));
+        cancelWatcher = new CancelWatcher(runStore);
+        cancelWatcher.start(config.scheduledExecutor);
         templateProvider = new TemplateProvider();
         config.statusTracker.registerResourceStatusListener(templateProvider);
         templateProvider.init(config);
@@ -98,8 +135,43 @@ public class RunnerMachine {
     public void destroy() throws Exception
     {
         initialized.set(false);
+        cancelWatcher.stop();
+        runStore.stop();
         templateProvider.destroy();
         config.statusTracker.deregisterResourceStatusListener(templateProvider);
+        runExecutor.shutdown();
+    }
+
+    /**
+     * On Java 21 and later, each task gets its own virtual thread, so that thousands of waiting test runs need few OS threads.
+     * Otherwise, each task gets a pooled platform thread; the number of concurrent test runs is limited by configuration.
+     * @return A new run executor
+     */
+    private ExecutorService newRunExecutor()
+    {
+        try
+        {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+            log.debug(simpleName + "runs test runs on virtual threads");
+            return executor;
+        } catch (NoSuchMethodException nsme)
+        {
+            // before Java 21
+        } catch (Exception e)
+        {
+            log.warn(simpleName + "cannot create virtual thread executor, msg: " + e.getMessage());
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger counter = new AtomicInteger(-1);
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r, "RunExecutor-" + counter.incrementAndGet());
+            }
+        });
     }
     
     /**
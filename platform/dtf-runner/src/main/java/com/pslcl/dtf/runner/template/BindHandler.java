@@ -1,9 +1,13 @@
 package com.pslcl.dtf.runner.template;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -15,14 +19,20 @@ import com.pslcl.dtf.core.runner.resource.ResourceCoordinates;
 import com.pslcl.dtf.core.runner.resource.ResourceDescImpl;
 import com.pslcl.dtf.core.runner.resource.ResourceDescription;
 import com.pslcl.dtf.core.runner.resource.ResourceReserveDisposition;
+import com.pslcl.dtf.core.runner.resource.ResourcesManager;
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.executor.CompletionFutureTask;
 import com.pslcl.dtf.runner.Now;
 
 /**
  * Handle Resource Reserve and Resource Bind activities for multiple resources, in parallel.
+ * 
+ * Every resource provider whose name matches a requested resource is asked to reserve it, all at the same time. When more than one provider reserves
+ * the same resource, the ReservePolicy of ResourceProviders chooses one and the other reservations are released. Binds are then harvested as each
+ * completes; every bind step is mandatory, so the first failed bind cancels those still outstanding.
  */
-public class BindHandler {
+public class BindHandler implements StepCompletion.Step<List<ResourceInstance>> {
 	
 	// class instance members, internal use only  
 	
@@ -32,11 +42,9 @@ public class BindHandler {
 	private boolean reserveInProgress;
 	private final ResourceProviders resourceProviders;
 	private List<ResourceProvider> listResourceProviders;
-	private int nextIndexResourceProvider;
-    private ResourceProvider currentRP;
-	private Future<List<ResourceReserveDisposition>> currentRPFutureListOfRRD;
+	private List<PendingReserve> pendingReserves; // one per asked provider, in configuration order; null until reserves are initiated
     private List<ReservedResource> reservedResources;
-    private List<Future<? extends ResourceInstance>> futuresOfResourceInstances;
+    private List<PendingBind> pendingBinds;       // binds not yet harvested
 
 	private final Logger log;
     private final String simpleName;
@@ -64,11 +72,9 @@ public class BindHandler {
 		this.done = false;
 		this.resourceProviders = this.iT.getResourceProviders();
 		this.listResourceProviders = this.resourceProviders.getProviders();
-		this.nextIndexResourceProvider = 0;
-		this.currentRP = null;
-		this.currentRPFutureListOfRRD = null;
+		this.pendingReserves = null;
 		this.reservedResources = new ArrayList<>();
-		this.futuresOfResourceInstances = null;
+		this.pendingBinds = null;
 		this.resourceInstances = new ArrayList<>();
         this.stepSetOffsets = new StepSetOffsets("bind", setSteps, initialSetStepCount);		
 	}
@@ -81,9 +87,32 @@ public class BindHandler {
     	return this.resourceInstances;
     }
 	
-	boolean isDone() {
+	public boolean isDone() {
 		return done;
 	}
+
+	/**
+	 * 
+	 * @param executor
+	 * @return A stage that completes when any outstanding reserve, or any outstanding bind, is done
+	 */
+	@Override
+	public CompletableFuture<Void> whenReady(Executor executor) {
+		List<CompletableFuture<Void>> stages = new ArrayList<>();
+		if (this.reserveInProgress) {
+			if (this.pendingReserves != null) {
+				for (PendingReserve pending : this.pendingReserves)
+					if (pending.dispositions == null)
+						stages.add(pending.whenDone(executor));
+			}
+		} else if (this.pendingBinds != null) {
+			for (PendingBind pending : this.pendingBinds)
+				stages.add(pending.whenDone(executor));
+		}
+		if (stages.isEmpty())
+			return CompletableFuture.completedFuture(null);
+		return CompletableFuture.allOf(CompletableFuture.anyOf(stages.toArray(new CompletableFuture<?>[stages.size()])));
+	}
 	
     /**
      * Parse consecutive bind steps to form a list of ResourceDescription's.
@@ -149,174 +178,316 @@ public class BindHandler {
     /**
      * Proceed to reserve and then bind resources, as far as possible, then return. Set done only when binds complete or error out.
      * 
-     * Note: First, reserve resources by sequentially calling independent ResourceProvider's, with yielding. Last, make a single call to bind all reserved resources, in parallel.  
+     * Note: First, ask every matching ResourceProvider to reserve, in parallel, and choose among their offers. Last, bind all chosen reserved resources, in parallel, harvesting each bind as it completes.  
      * 
+     * @return The list of bound ResourceInstance objects, filled when done
      * @throws Exception
      */
-    void proceed() throws Exception {
+    public List<ResourceInstance> proceed() throws Exception {
     	try {
-    		while (!done) {
-	    		if (this.reserveInProgress) { // once cleared, .reserveInProgress is not set again
+    		if (this.reserveInProgress) { // once cleared, .reserveInProgress is not set again
+    			if (this.reserveResourceRequests.isEmpty()) {
+    				this.reserveInProgress = false;
+    				this.pendingBinds = new ArrayList<>();
+    			} else if (this.pendingReserves == null) {
         			// The pattern is that this first work, accomplished at the first .proceed() call, must not block. We return before performing any blocking work, knowing that .proceed() will be called again.
-	    			//     reserve loop
-	    			if (!this.reserveResourceRequests.isEmpty()) {
-	    				if (this.currentRPFutureListOfRRD == null) {
-		    				// ask next-in-line ResourceProvider to reserve the resources in reserveResourceRequests
-		    				if (this.nextIndexResourceProvider >= this.listResourceProviders.size()) {
-			    		        // Note: As an initial working step, proceed() is coded to a safe algorithm:
-			    		        //       We expect full reserved success and resultant full bind success, and otherwise we back out and release whatever reservations and binds had succeeded along the way.
-		    					log.debug(simpleName + this.listResourceProviders.size() + " resource providers reserved " + this.reservedResources.size() +
-			                            " resources, but cannot reserve " + this.reserveResourceRequests.size() + " resources");
-		    					throw new Exception("resource providers cannot reserve all resources required by template bind steps");
-		    				}
-		    				this.currentRP = this.listResourceProviders.get(this.nextIndexResourceProvider++);
-		    				
-		    				// note: each element of reserveReseourceRequests is a ResourceDescriptionImpl
-		    				// initiate reserving of each resource specified by each ResourceDescription, with 6 minute timeout for each reservation
-		    				this.currentRPFutureListOfRRD = this.currentRP.reserve(this.reserveResourceRequests, 60 * 6);
-                			return;	// Fulfill the pattern that this first work, accomplished at the first .proceed() call, returns before performing any work that blocks. 
-	    				} else {
-	    					try {
-		    					// for currentRP, obtain our resolved future and process its result list
-								List<ResourceReserveDisposition> rrds = this.currentRPFutureListOfRRD.get();
-								this.currentRPFutureListOfRRD = null; // for next resource provider to fill
-								for (ResourceReserveDisposition rrd : rrds) {
-				    				if (rrd.isInvalidResource())
-				    					throw new Exception("invalid resource request");
-				    				// for unavailable: other resource providers will have their chance to reserve rrd's internally held inputResourceDescription (a resource reserve request) 
-				    				if (!rrd.isUnavailableResource()) {
-			    		            	ResourceCoordinates rc = rrd.getInputResourceDescription().getCoordinates();
-			    		            	if (rc==null || rc.getManager()==null || rc.getProvider()==null)
-			    		            		throw new Exception("proceed() finds one reserved resource with no templateCleanup info");
-				    					
-				    					// We have a reserved resource in rrd.getReservedResource(). Before using this reserved resource, check that requested resource type was answered by a resource provider of the same type.
-				    					//   For example, I have seen that, when a person resource is requested to be reserved, AWSMachineProvider wrongly returns a reserved entry (visible in Eclipse as future.outcome.reserved).
-				    					// Note: these next four getters return "machine" or "person" or "network"
-				    					String currentRPName = this.currentRP.getName(); // .currentRP here is the same as .currentRP, just above, that filled this.currentFutureListofRRD in call this.currentRP.reserve()
-				    					String rrRDName =   rrd.getInputResourceDescription().getName();
-				    					String rrName =   rrd.getReservedResource().getName();
-				    					String rrRPName = rrd.getReservedResource().getResourceProvider().getName();
-			    		            	if (!currentRPName.equals(rrRDName) || !currentRPName.equals(rrName) || !currentRPName.equals(rrRPName)) {
-			    		            		log.debug(simpleName + "proceed() finds mismatched rpName " + currentRPName + ", rrRDName " + rrRDName + ", rrName " + rrName + ", rrRPName " + rrRPName);
-			    		            		
-			    		            		// Notify iT that it should inform the Resource Provider system that this template is closing. InstancedTemplate iT may have past templateCleanup info, but just in case, supply it with what we have here.
-			    		            		iT.informResourceProviders(rc);
-		    		            			throw new Exception("proceed() finds mismatched ReservedResource.provider name and ResourceProvider names");
-			    		            	}
-			    		            	
-			    		            	// Successful reserve: set templateCleanup info
-			    		            	// Note: Every successful reserve produces the same templateCleanup info (available in a ResourceCoordinates object).
-			    		            	//       On eventual template destroy, a single call is used to inform the ResourceProvider system that this template no longer needs its reserved and bound resources.
-			    		            	//       This block overwrites past template destroy info, so only the last encountered template destroy info remains visible to InstancedTemplate; it is sufficient to notify the ResourceProvider system.
-			    		            	iT.setTemplateCleanupInfo(rc);
-			    		            	
-			    		            	// record this newly reserved resource to a list of ReservedResource's
-				    					ResourceDescription inputRD = rrd.getInputResourceDescription();
-				    					ReservedResource rr = new ReservedResource(inputRD.getCoordinates(), inputRD.getAttributes(), 1000*60 * 10); // 10 minute timeout; ResourceProvider may return earlier, from its own timeout
-					    				this.reservedResources.add(rr);
-					    				// successful reservation: remove input resource description from this.reserveResourceRequests
-					    				this.reserveResourceRequests.remove(inputRD);
-				    				}									
-								}
-				    			continue; // initiate more reservations or possibly initiate the follow-on parallel binds
-							} catch (Exception e) {
-								log.debug(simpleName + "proceed() fails to reserve with exception " + e);
-								throw e;
-							}
-	    				}
-	    			} else {
-	    				// move from reserving resources to binding them
-	    				this.reserveInProgress = false;
-	    				log.debug(simpleName + "has reserved " + this.reservedResources.size() + " resource(s)");
-	    				
-	    	    		// Initiate multiple parallel binds. Each individual bind is performed by one specific resource provider, the same one that reserved the resource in the first place. 
-	    				this.futuresOfResourceInstances = resourceProviders.bind(this.reservedResources);
-	    				//  Each list element of futuresOfResourceInstances:
-	    				//      can be a null (bind failed while in the act of creating a Future), or
-	    				//      can be a Future, for which future.get():
-	    				//          returns a ResourceInstance on bind success
-	    				//          throws an exception on bind failure
-	    				
-            			return; // allow time for futures to resolve
-	    			}
-	    		} // end if (reserveInProgress)
-	    		
-                // complete work by blocking until all the futures complete
-				this.waitComplete();
-				done = true;
-    		} //end while()
+    				this.initiateReserves();
+    				return this.resourceInstances;
+    			} else {
+    				if (!this.harvestReserves())
+    					return this.resourceInstances; // allow time for more reserve futures to resolve
+    				this.chooseReservations();
+    				this.reserveInProgress = false;
+    				log.debug(simpleName + "has reserved " + this.reservedResources.size() + " resource(s)");
+    				this.initiateBinds();
+    				return this.resourceInstances; // allow time for bind futures to resolve
+    			}
+    		}
+
+    		if (this.harvestBinds())
+    			done = true;
 		} catch (Exception e) {
 			done = true; // as a just in case, set done on exception, even though throwing e is thought to close out the entire test run
+			this.cancelOutstanding();
 
             // We will cleanup our template. The resource providers will then cleanup the resources that this template has successfully requested.
 			throw e;
 		}
+		return this.resourceInstances;
+    }
+
+    /**
+     * Ask every resource provider to reserve the requested resources of its own name, all at once. Does not block.
+     * 
+     * When several providers share a name, each is given its own copy of each description, because a provider records itself in the coordinates of what it reserves.
+     * The copies' coordinates equal the original coordinates, so the step reference marked for each request still applies.
+     */
+    private void initiateReserves() throws Exception {
+    	this.pendingReserves = new ArrayList<>();
+    	List<ResourceDescription> unmatched = new ArrayList<>(this.reserveResourceRequests);
+    	for (ResourceProvider rp : this.listResourceProviders) {
+    		List<ResourceDescription> requests = new ArrayList<>();
+    		for (ResourceDescription rd : this.reserveResourceRequests) {
+    			if (rp.getName().equals(rd.getName())) {
+    				ResourceCoordinates coord = rd.getCoordinates();
+    				requests.add(new ResourceDescImpl(rd.getName(),
+    						                          new ResourceCoordinates(coord.templateId, coord.templateInstanceId, coord.resourceId, coord.getRunId()),
+    						                          new HashMap<String, String>(rd.getAttributes())));
+    				unmatched.remove(rd);
+    			}
+    		}
+    		if (!requests.isEmpty()) {
+    			// initiate reserving of each matching resource, with 6 minute timeout for each reservation
+    			this.pendingReserves.add(new PendingReserve(rp, rp.reserve(requests, 60 * 6)));
+    		}
+    	}
+    	if (!unmatched.isEmpty()) {
+    		log.debug(simpleName + this.listResourceProviders.size() + " resource providers include none named for " + unmatched.size() + " requested resources");
+    		throw new Exception("resource providers cannot reserve all resources required by template bind steps");
+    	}
+    	log.debug(simpleName + "asked " + this.pendingReserves.size() + " resource provider(s) to reserve " + this.reserveResourceRequests.size() + " resource(s)");
+    }
+
+    /**
+     * Collect the results of reserves that have completed. Does not block.
+     * 
+     * @return true when every provider has answered
+     */
+    private boolean harvestReserves() throws Exception {
+    	boolean allAnswered = true;
+    	for (PendingReserve pending : this.pendingReserves) {
+    		if (pending.dispositions != null)
+    			continue;
+    		if (!pending.future.isDone()) {
+    			allAnswered = false;
+    			continue;
+    		}
+    		
+    		List<ResourceReserveDisposition> rrds;
+    		try {
+    			rrds = pending.future.get();
+			} catch (Exception e) {
+				log.debug(simpleName + "proceed() fails to reserve with exception " + e);
+				throw e;
+			}
+    		pending.dispositions = rrds;
+    		for (ResourceReserveDisposition rrd : rrds) {
+				if (rrd.isInvalidResource())
+					throw new Exception("invalid resource request");
+				// for unavailable: other resource providers may have reserved the same request
+				if (rrd.isUnavailableResource())
+					continue;
+            	ResourceCoordinates rc = rrd.getInputResourceDescription().getCoordinates();
+            	if (rc==null || rc.getManager()==null || rc.getProvider()==null)
+            		throw new Exception("proceed() finds one reserved resource with no templateCleanup info");
+				
+				// We have a reserved resource in rrd.getReservedResource(). Before using this reserved resource, check that requested resource type was answered by a resource provider of the same type.
+				//   For example, I have seen that, when a person resource is requested to be reserved, AWSMachineProvider wrongly returns a reserved entry (visible in Eclipse as future.outcome.reserved).
+				// Note: these next four getters return "machine" or "person" or "network"
+				String rpName = pending.provider.getName();
+				String rrRDName =   rrd.getInputResourceDescription().getName();
+				String rrName =   rrd.getReservedResource().getName();
+				String rrRPName = rrd.getReservedResource().getResourceProvider().getName();
+            	if (!rpName.equals(rrRDName) || !rpName.equals(rrName) || !rpName.equals(rrRPName)) {
+            		log.debug(simpleName + "proceed() finds mismatched rpName " + rpName + ", rrRDName " + rrRDName + ", rrName " + rrName + ", rrRPName " + rrRPName);
+            		
+            		// Notify iT that it should inform the Resource Provider system that this template is closing. InstancedTemplate iT may have past templateCleanup info, but just in case, supply it with what we have here.
+            		iT.informResourceProviders(rc);
+        			throw new Exception("proceed() finds mismatched ReservedResource.provider name and ResourceProvider names");
+            	}
+    		}
+    	}
+    	return allAnswered;
+    }
+
+    /**
+     * For each requested resource, choose one of the reservations offered for it, and release the others.
+     */
+    private void chooseReservations() throws Exception {
+    	ReservePolicy policy = this.resourceProviders.getReservePolicy();
+    	int unreserved = 0;
+    	for (ResourceDescription rd : this.reserveResourceRequests) {
+    		// offers are gathered in provider configuration order
+    		List<ResourceProvider> offering = new ArrayList<>();
+    		List<ResourceDescription> offers = new ArrayList<>();
+    		for (PendingReserve pending : this.pendingReserves) {
+    			for (ResourceReserveDisposition rrd : pending.dispositions) {
+    				ResourceDescription inputRD = rrd.getInputResourceDescription();
+    				if (!rrd.isUnavailableResource() && inputRD.getCoordinates().equals(rd.getCoordinates())) {
+    					offering.add(pending.provider);
+    					offers.add(inputRD);
+    				}
+    			}
+    		}
+    		if (offers.isEmpty()) {
+    			++unreserved;
+    			continue;
+    		}
+    		
+    		int chosen = (offers.size() == 1) ? 0 : policy.choose(offering, this.resourceProviders);
+    		ResourceDescription chosenRD = offers.get(chosen);
+    		for (int i=0; i<offers.size(); i++) {
+    			if (i != chosen)
+    				this.release(offers.get(i).getCoordinates());
+    		}
+    		if (offers.size() > 1)
+    			log.debug(simpleName + policy + " reserve policy chooses " + offering.get(chosen).getName() + " provider " + chosen + " of " + offers.size() + " offering resource " + rd.getCoordinates().resourceId);
+
+        	// Successful reserve: set templateCleanup info
+        	// Note: Every successful reserve produces the same templateCleanup info (available in a ResourceCoordinates object).
+        	//       On eventual template destroy, a single call is used to inform the ResourceProvider system that this template no longer needs its reserved and bound resources.
+        	//       This block overwrites past template destroy info, so only the last encountered template destroy info remains visible to InstancedTemplate; it is sufficient to notify the ResourceProvider system.
+    		iT.setTemplateCleanupInfo(chosenRD.getCoordinates());
+    		
+        	// record this newly reserved resource to a list of ReservedResource's
+			ReservedResource rr = new ReservedResource(chosenRD.getCoordinates(), chosenRD.getAttributes(), 1000*60 * 10); // 10 minute timeout; ResourceProvider may return earlier, from its own timeout
+			this.reservedResources.add(rr);
+    	}
+    	if (unreserved > 0) {
+	        // Note: We expect full reserved success and resultant full bind success, and otherwise we back out and release whatever reservations and binds had succeeded along the way.
+			log.debug(simpleName + this.pendingReserves.size() + " resource providers reserved " + this.reservedResources.size() +
+                    " resources, but cannot reserve " + unreserved + " resources");
+			throw new Exception("resource providers cannot reserve all resources required by template bind steps");
+    	}
+    }
+
+    /**
+     * Initiate multiple parallel binds. Each individual bind is performed by one specific resource provider, the same one that reserved the resource in the first place. 
+     */
+    private void initiateBinds() throws Exception {
+    	List<Future<? extends ResourceInstance>> futures = this.resourceProviders.bind(this.reservedResources);
+		//  Each list element of futures:
+		//      can be a null (bind failed while in the act of creating a Future), or
+		//      can be a Future, for which future.get():
+		//          returns a ResourceInstance on bind success
+		//          throws an exception on bind failure
+    	long now = System.currentTimeMillis();
+    	this.pendingBinds = new ArrayList<>();
+    	for (int i=0; i<futures.size(); i++) {
+    		Future<? extends ResourceInstance> future = futures.get(i);
+    		if (future == null)
+    			throw new Exception("bind attempt could not create and return a Future");
+    		this.pendingBinds.add(new PendingBind(i, this.reservedResources.get(i).getResourceProvider(), future, now));
+    	}
     }
 
 	/**
-	 * thread blocks
+	 * Collect each bind that has completed, in whatever order they complete. Does not block.
+	 * 
+	 * @return true when every bind has completed
 	 */
-	private void waitComplete() throws Exception {
-		// At this moment, this.futuresOfResourceInstances is filled. It's Future's each give us a bound ResourceInstance. Our API is to return a list of each of these extracted ResourceInstance's.
-		//     Although this code receives Futures, it does not cancel them or test their characteristics (.isDone(), .isCanceled()).
-		
-		// if we are called, this.futuresOfResourceInstances should have one or more entries
-		if (this.futuresOfResourceInstances.isEmpty())
-			throw new Exception("BindHandler.waitComplete() called with empty ResourceInstance futures list");
+	private boolean harvestBinds() throws Exception {
+		// We do not cleanup individual reserved resources. We do not cleanup individual bound resource instances; on failure, the template cleanup releases them all.
+		Iterator<PendingBind> it = this.pendingBinds.iterator();
+		while (it.hasNext()) {
+			PendingBind pending = it.next();
+			if (!pending.future.isDone())
+				continue;
+			it.remove();
+            try {
+                ResourceInstance resourceInstance = pending.future.get(); // does not block: the future is done
+            	log.debug(this.simpleName + "Bind future[" + pending.index + "] done at " + Now.time());
+            	this.resourceProviders.recordBind(pending.provider, System.currentTimeMillis() - pending.startMillis);
+                this.resourceInstances.add(resourceInstance);
+                // We could, but don't need to, retrieve a ResourceProvider from this new bound resourceInstance. We don't check anything here, - we don't yet know what this ResourceInstance will be used for (we learn that in a follow-on step).
 
-        // Note: As an initial working step, this block is coded to a safe algorithm:
-        //       We expect full bind success, and otherwise we back out and release whatever reservations and binds had succeeded along the way.
-		
-		// Gather all the bound resource instances from futuresOfResourceInstances, a list of Futures. This thread yields, in waiting for each of the multiple asynch bind calls to complete.
-		Exception exception = null;
-        boolean allBindsSucceeded = true;
+                // retrieve this resource's step reference, then use it to mark resourceInstance, in hash map referenceToResourceInstance, held in iT
+                int stepReference = iT.getStepReference(resourceInstance.getCoordinates());
+                iT.markResourceInstance(stepReference, resourceInstance);
+                
+                log.debug(this.simpleName + "bind [" + pending.index + "] completes, with attributes of " + resourceInstance.getAttributes());
+            } catch (ExecutionException ee) {
+                String msg = ee.getLocalizedMessage(); // I have seen FatalServerException
+                Throwable t = ee.getCause();
+                if(t != null)
+                    msg = t.getLocalizedMessage();
+                log.debug(simpleName + "harvestBinds(), bind [" + pending.index + "] failed, cancelling " + this.pendingBinds.size() + " outstanding: " + msg, ee);
+                throw new Exception(ee);
+            } catch (Exception e) {
+                // can happen with things like cancellation or null pointer exception
+                log.debug(simpleName + "harvestBinds(), bind [" + pending.index + "] failed, cancelling " + this.pendingBinds.size() + " outstanding: ", e);
+                throw new Exception(e);
+            }
+		}
+		return this.pendingBinds.isEmpty();
+	}
 
-        int futureInstance = -1;
-        for (Future<? extends ResourceInstance> future : this.futuresOfResourceInstances) {
-        	++futureInstance;
-            if (future != null) { // null: bind failed early so move along; do not add to this.resourceInstances
-                try {
-                	log.debug(this.simpleName + "Bind future.get()[" + futureInstance + "] called at " + Now.time());
-                    ResourceInstance resourceInstance = future.get(); // blocks until asynch answer comes, or exception, at which time the target thread has completed and is gone
-                	log.debug(this.simpleName + "Bind future.get()[" + futureInstance + "] returned at " + Now.time());
-                    this.resourceInstances.add(resourceInstance);
-                    // We could, but don't need to, retrieve a ResourceProvider from this new bound resourceInstance. We don't check anything here, - we don't yet know what this ResourceInstance will be used for (we learn that in a follow-on step).
+	/**
+	 * On failure, stop waiting on whatever is still in flight. Reservations already offered are released, since the template cleanup only knows of those chosen.
+	 */
+	private void cancelOutstanding() {
+		if (this.pendingBinds != null) {
+			for (PendingBind pending : this.pendingBinds)
+				pending.future.cancel(true);
+			this.pendingBinds.clear();
+		} else if (this.pendingReserves != null) {
+			for (PendingReserve pending : this.pendingReserves) {
+				if (pending.dispositions == null) {
+					pending.future.cancel(true);
+					continue;
+				}
+				for (ResourceReserveDisposition rrd : pending.dispositions) {
+					if (!rrd.isInvalidResource() && !rrd.isUnavailableResource())
+						this.release(rrd.getInputResourceDescription().getCoordinates());
+				}
+			}
+		}
+	}
 
-                    // We do not cleanup individual reserved resources. We do not cleanup individual bound resource instances. So, for this successful bind, we don't need to remove an entry from this.reservedResources 
-                    
-                    // retrieve this resource's step reference, then use it to mark resourceInstance, in hash map referenceToResourceInstance, held in iT
-                    int stepReference = iT.getStepReference(resourceInstance.getCoordinates());
-                    iT.markResourceInstance(stepReference, resourceInstance);
-                    
-                    log.debug(this.simpleName + "bind [" + futureInstance + "] completes, with attributes of " + resourceInstance.getAttributes());
-                } catch (InterruptedException ie) {
-                    allBindsSucceeded = false;
-                    exception = ie;
-                    log.debug(simpleName + "waitComplete(), bind failed: ", ie);
-                } catch (ExecutionException ee) {
-                    allBindsSucceeded = false;
-                    exception = ee; // I have seen FatalServerException
-                    String msg = ee.getLocalizedMessage();
-                    Throwable t = ee.getCause();
-                    if(t != null)
-                        msg = t.getLocalizedMessage();
-                    log.debug(simpleName + "waitComplete(), bind failed: " + msg, ee);
-                } catch (Exception e) {
-                    // can happen with things like null pointer exception
-                    exception = e;
-                    allBindsSucceeded = false;
-                }
-            } else {
-                allBindsSucceeded = false;
-            }
-        }
+	private void release(ResourceCoordinates coord) {
+		ResourcesManager rm = coord.getManager();
+		if (rm == null)
+			return;
+		try {
+			rm.release(coord.templateInstanceId, coord.resourceId, false);
+		} catch (Exception e) {
+			log.debug(simpleName + "release() of reserved resource " + coord.resourceId + " failed: " + e);
+		}
+	}
 
-        if (!allBindsSucceeded) {
-            // We will cleanup our template. The resource providers will cleanup the resources that we allocated for this template.
-            if (exception != null)
-                throw new Exception(exception);
-            throw new Exception("bind attempt could not create and return a Future");
-        }
+	/**
+	 * One provider's reserve call, until its dispositions are harvested.
+	 */
+	private static class PendingReserve {
+		private final ResourceProvider provider;
+		private final Future<List<ResourceReserveDisposition>> future;
+		private CompletableFuture<Void> done;                  // created on first wait, so that at most one waiter exists per future
+		private List<ResourceReserveDisposition> dispositions; // null until harvested
+
+		private PendingReserve(ResourceProvider provider, Future<List<ResourceReserveDisposition>> future) {
+			this.provider = provider;
+			this.future = future;
+		}
+
+		private CompletableFuture<Void> whenDone(Executor executor) {
+			if (this.done == null)
+				this.done = CompletionFutureTask.whenDone(Collections.singletonList(this.future), executor);
+			return this.done;
+		}
+	}
+
+	/**
+	 * One bind call, until its ResourceInstance is harvested.
+	 */
+	private static class PendingBind {
+		private final int index;
+		private final ResourceProvider provider;
+		private final Future<? extends ResourceInstance> future;
+		private final long startMillis;
+		private CompletableFuture<Void> done;
+
+		private PendingBind(int index, ResourceProvider provider, Future<? extends ResourceInstance> future, long startMillis) {
+			this.index = index;
+			this.provider = provider;
+			this.future = future;
+			this.startMillis = startMillis;
+		}
+
+		private CompletableFuture<Void> whenDone(Executor executor) {
+			if (this.done == null)
+				this.done = CompletionFutureTask.whenDone(Collections.singletonList(this.future), executor);
+			return this.done;
+		}
 	}
 	
 }
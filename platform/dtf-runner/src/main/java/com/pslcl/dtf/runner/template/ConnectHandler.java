@@ -2,7 +2,9 @@ package com.pslcl.dtf.runner.template;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -13,8 +15,9 @@ import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
 import com.pslcl.dtf.core.runner.resource.instance.NetworkInstance;
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.executor.CompletionFutureTask;
 
-public class ConnectHandler {
+public class ConnectHandler implements StepCompletion.Step<List<CableInstance>> {
 	
 	/**
 	 * 
@@ -80,9 +83,19 @@ public class ConnectHandler {
      * 
      * @return
      */
-    boolean isDone() {
+    public boolean isDone() {
         return done;
     }
+
+    /**
+     * 
+     * @param executor
+     * @return A stage that completes when all connects are done
+     */
+    @Override
+    public CompletableFuture<Void> whenReady(Executor executor) {
+        return CompletionFutureTask.whenDone(this.futuresOfConnects, executor);
+    }
 	
     /**
      * 
@@ -152,7 +165,7 @@ public class ConnectHandler {
      *
      * @throws Exception
      */
-	List<CableInstance> proceed() throws Exception {
+	public List<CableInstance> proceed() throws Exception {
         if (this.connectInfos==null || this.connectInfos.isEmpty()) {
         	this.done = true;
             throw new Exception("ConnectHandler processing has no connectInfo");
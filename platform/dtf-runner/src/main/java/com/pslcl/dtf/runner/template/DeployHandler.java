@@ -2,8 +2,12 @@ package com.pslcl.dtf.runner.template;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -12,8 +16,9 @@ import org.slf4j.LoggerFactory;
 import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.executor.CompletionFutureTask;
 
-public class DeployHandler {
+public class DeployHandler implements StepCompletion.Step<List<DeployInfo>> {
 	
 	/**
 	 * 
@@ -91,6 +96,19 @@ public class DeployHandler {
 	public boolean isDone() {
 		return done;
 	}
+
+	/**
+	 * 
+	 * @param executor
+	 * @return A stage that completes when all deploys are done
+	 */
+	@Override
+	public CompletableFuture<Void> whenReady(Executor executor) {
+		List<Future<Void>> futures = new ArrayList<>();
+		for (DeployInfo deployInfo : this.futuresOfDeploys)
+			futures.add(deployInfo.getFuture());
+		return CompletionFutureTask.whenDone(futures, executor);
+	}
 	
 	/**
 	 * 
@@ -141,9 +159,10 @@ public class DeployHandler {
     /**
      * Proceed to obtain inspect instructions and files to inspect, then issue inspect command(s), as far as possible, then return. Set done only when inspects complete or error out.
      *
+     * @return The list of DeployInfo objects, filled when done
      * @throws Exception
      */
-    void proceed() throws Exception {
+    public List<DeployInfo> proceed() throws Exception {
         if (this.deployInfos==null || this.deployInfos.isEmpty()) {
         	this.done = true;
             throw new Exception("DeployHandler processing has no deployInfo");
@@ -154,6 +173,8 @@ public class DeployHandler {
 				if (this.futuresOfDeploys.isEmpty()) {
 	    			// The pattern is that this first work, accomplished at the first .proceed() call, must not block. We return before performing any blocking work, knowing that .proceed() will be called again.
 					//     initiate multiple asynch deploys, this must add to this.futuresOfDeploys: it will because this.deployInfos is NOT empty
+					// Group the deploys by machine, so that each machine receives all of its artifacts in one request.
+					Map<MachineInstance, List<DeployInfo>> deploysByMachine = new LinkedHashMap<>();
 					for (DeployInfo deployInfo : this.deployInfos) {
 						ResourceInstance resourceInstance = deployInfo.getResourceInstance();
 						// We know resourceInstance is a MachineInstance, because a deploy step must never direct its work to anything except a MachineInstance.
@@ -161,12 +182,27 @@ public class DeployHandler {
 						if (!MachineInstance.class.isAssignableFrom(resourceInstance.getClass()))
 							throw new Exception("Specified deploy target is not a MachineInstance"); // futuresOfDeploys may have entries filled; at this moment they are benign
 						MachineInstance mi = MachineInstance.class.cast(resourceInstance);
-						URL artifactURL = this.iT.getQAPortalAccess().formArtifactHashSpecifiedURL(deployInfo.getArtifactHash());
-						Future<Void> future = mi.deploy(deployInfo.getFilename(), artifactURL.toString());
-						deployInfo.setFuture(future);
-						futuresOfDeploys.add(deployInfo);
+						List<DeployInfo> machineDeploys = deploysByMachine.get(mi);
+						if (machineDeploys == null) {
+							machineDeploys = new ArrayList<>();
+							deploysByMachine.put(mi, machineDeploys);
+						}
+						machineDeploys.add(deployInfo);
+					}
+					for (Map.Entry<MachineInstance, List<DeployInfo>> entry : deploysByMachine.entrySet()) {
+						List<MachineInstance.Artifact> artifacts = new ArrayList<>();
+						for (DeployInfo deployInfo : entry.getValue()) {
+							URL artifactURL = this.iT.getQAPortalAccess().formArtifactDeployURL(deployInfo.getArtifactHash());
+							artifacts.add(new MachineInstance.Artifact(deployInfo.getFilename(), artifactURL.toString(), deployInfo.getArtifactHash()));
+						}
+						List<Future<Void>> futures = entry.getKey().deploy(artifacts); // one Future per artifact, in order
+						for (int i=0; i<futures.size(); i++) {
+							DeployInfo deployInfo = entry.getValue().get(i);
+							deployInfo.setFuture(futures.get(i));
+							futuresOfDeploys.add(deployInfo);
+						}
 					}
-        			return;	// Fulfill the pattern that this first work, accomplished at the first .proceed() call, returns before performing any work that blocks. 
+        			return this.deployInfos;	// Fulfill the pattern that this first work, accomplished at the first .proceed() call, returns before performing any work that blocks. 
 				} else {
 					// For each list element of futuresOfDeploys, .getFuture():
 					//     can be a null (deploy failed while in the act of creating a Future), or
@@ -183,6 +219,7 @@ public class DeployHandler {
 			this.done = true;
 			throw e;
 		}
+        return this.deployInfos;
     }
 	
 	/**
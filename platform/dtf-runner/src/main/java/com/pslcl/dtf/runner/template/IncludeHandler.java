@@ -73,7 +73,7 @@ public class IncludeHandler {
     		try {
 				NestedTemplateTask ntt = new NestedTemplateTask(stepReference, this.iT.getRunEntryCore(), includeInfo.getDBTemplate(), this.runnerMachine);
 				log.debug(this.simpleName + ".instanceTemplates() launches template instantiation for nested template " + includeInfo.getTemplateHash() + ", as reference " + stepReference);
-				Future<ReferencedNestedTemplate> future = this.runnerMachine.getConfig().blockingExecutor.submit(ntt);
+				Future<ReferencedNestedTemplate> future = this.runnerMachine.getRunExecutor().submit(ntt); // holds its thread while the nested template runs its steps
 				futures.add(future);
 				++stepReference;
 			} catch (Exception e) {
@@ -13,7 +13,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
@@ -23,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import com.pslcl.dtf.core.runner.resource.instance.PersonInstance;
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.executor.CompletionFutureTask;
 import com.pslcl.dtf.runner.QAPortalAccess;
 import com.pslcl.dtf.runner.process.RunnerMachine;
 
@@ -31,7 +34,7 @@ import com.pslcl.dtf.runner.process.RunnerMachine;
  * 
  * 
  */
-public class InspectHandler {
+public class InspectHandler implements StepCompletion.Step<List<InspectInfo>> {
     static String inspectWorkDir = new String("inspectTemp");
     static String tempArtifactDir = new String(inspectWorkDir + "/" + "tempArtifactDirectory");
     static String archiveFilename = new String("attachments.tar.gzip"); // hard coded per design docs for PersonInstance
@@ -43,6 +46,7 @@ public class InspectHandler {
 
     private boolean qapaResponseLaunched;
     private QAPaResponse qapaResponse; // as a flag, this starts out instantiated, but empty (with null member qaPortalResponse member)
+    private CompletableFuture<Void> qapaArrival; // completes when a launched QA Portal read sets qapaResponse
     private Iterator<Map.Entry<String, String>> artifactEntriesIterator;
     private Entry<String, String> currArtifact;
     private List<InspectInfo> resultInspectInfos;
@@ -73,6 +77,7 @@ public class InspectHandler {
         this.setSteps = setSteps;
         this.qapaResponseLaunched = false;
         this.qapaResponse = new QAPaResponse();
+        this.qapaArrival = CompletableFuture.completedFuture(null);
         this.artifactEntriesIterator = null;
         this.currArtifact = null;
         this.resultInspectInfos = new ArrayList<InspectInfo>();
@@ -86,6 +91,7 @@ public class InspectHandler {
      */
     public void setQAPaResponse(QAPaResponse qapaResponse) {
         this.qapaResponse = qapaResponse;
+        this.qapaArrival.complete(null);
     }
 
     /**
@@ -114,9 +120,24 @@ public class InspectHandler {
      * 
      * @return
      */
-    boolean isDone() {
+    public boolean isDone() {
         return done;
     }
+
+    /**
+     * 
+     * @param executor
+     * @return A stage that completes when a launched QA Portal read has answered, or when all inspects are done
+     */
+    @Override
+    public CompletableFuture<Void> whenReady(Executor executor) {
+        if (this.qapaResponseLaunched)
+            return this.qapaArrival;
+        List<Future<? extends Void>> futures = new ArrayList<>();
+        for (InspectInfo inspectInfo : this.resultInspectInfos)
+            futures.add(inspectInfo.getInspectFuture());
+        return CompletionFutureTask.whenDone(futures, executor);
+    }
     
     int computeInspectRequests() throws Exception { // setID inspect 0-based-person-ref instructionsHash [strArtifactName strArtifactHash] ...
         this.inspectInfos = new ArrayList<>();
@@ -174,15 +195,16 @@ public class InspectHandler {
     /**
      * Proceed to obtain inspect instructions and files to inspect, then issue inspect command(s), then return. Set done when inspects complete or error out.
      *
+     * @return The list of InspectInfo objects whose inspects were issued, filled when done
      * @throws Exception
      */
-    void proceed() throws Exception {
+    public List<InspectInfo> proceed() throws Exception {
         if (this.inspectInfos==null || this.inspectInfos.isEmpty()) {
         	this.done = true;
             throw new Exception("InspectHandler processing has no inspectInfo");
         }
         if (this.qapaResponse == null)
-            return;
+            return this.resultInspectInfos;
 
         try {
             QAPortalAccess qapa = this.iT.getQAPortalAccess();
@@ -207,9 +229,10 @@ public class InspectHandler {
                                     // request instructions
                                     String instructionsHash = inspectInfo.getInstructionsHash();
                                     this.qapaResponse = null; // arm QA Portal response discovery flag
+                                    this.qapaArrival = new CompletableFuture<Void>();
                                     qapa.launchReadContent(this, instructionsHash);
                                     this.qapaResponseLaunched = true;
-                                    return; // allow http return time; fulfill the pattern that this first work, accomplished at the first .proceed() call, returns before performing any work that blocks
+                                    return this.resultInspectInfos; // allow http return time; fulfill the pattern that this first work, accomplished at the first .proceed() call, returns before performing any work that blocks
                                 } else {
                                     // accept instructions
                                     this.qapaResponseLaunched = false;
@@ -246,9 +269,10 @@ public class InspectHandler {
                                         // request file content of currArtifact
                                         String artifactContentHash = currArtifact.getValue();
                                         this.qapaResponse = null; // arm QA Portal response discovery flag
+                                        this.qapaArrival = new CompletableFuture<Void>();
                                         qapa.launchReadContent(this, artifactContentHash);
                                         this.qapaResponseLaunched = true;
-                                        return; // allow http return time
+                                        return this.resultInspectInfos; // allow http return time
                                     } else {
                                         // accept file content of currArtifact
                                         this.qapaResponseLaunched = false;
@@ -320,7 +344,7 @@ public class InspectHandler {
                         //        returns a Void on inspect success, or
                         //        throws an exception on inspect failure
                         
-                        return; // allow time for futures to resolve
+                        return this.resultInspectInfos; // allow time for futures to resolve
                     }
                 } // end if(resultInspectInfos.isEmpty())
                   else {
@@ -333,6 +357,7 @@ public class InspectHandler {
             this.done = true;
             throw e;
         }
+        return this.resultInspectInfos;
     }
     
     /**
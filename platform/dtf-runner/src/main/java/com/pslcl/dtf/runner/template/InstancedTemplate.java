@@ -19,6 +19,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -83,11 +88,22 @@ public class InstancedTemplate {
      * @throws Exception
      */
     InstancedTemplate(RunEntryCore reCore, DBTemplate dbTemplate, RunnerMachine runnerMachine) throws Exception {
-        this.log = LoggerFactory.getLogger(getClass());
-        this.simpleName = getClass().getSimpleName() + " ";
+        this();
         this.reCore = reCore;
         this.dbTemplate = dbTemplate;
         this.runnerMachine = runnerMachine;
+        this.reusable = this.isTopLevelTemplate() ? false : true; // false is never overwritten to true
+
+        this.templateInstanceID = this.runnerMachine.getTemplateProvider().addToReleaseMap(this);
+        this.runSteps();
+    }
+
+    /**
+     * Constructor of a template that runs no steps. Its resources and cables are marked by the caller, so that step handling, such as value reference resolution, can be measured in isolation.
+     */
+    InstancedTemplate() {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.simpleName = getClass().getSimpleName() + " ";
         this.templateCleanupInfo = null;
         this.stepsParser = null;
         mapStepReferenceToNestedTemplate = new HashMap<Integer, InstancedTemplate>();
@@ -98,10 +114,7 @@ public class InstancedTemplate {
         this.cableInstances = new ArrayList<>();
         this.result = null;
         this.waitForInspect = false;
-        this.reusable = this.isTopLevelTemplate() ? false : true; // false is never overwritten to true
-
-        this.templateInstanceID = this.runnerMachine.getTemplateProvider().addToReleaseMap(this);
-        this.runSteps();
+        this.reusable = false;
     }
 
     /**
@@ -201,6 +214,14 @@ public class InstancedTemplate {
         return retResourceInstance;
     }
 
+    /**
+     *
+     * @param cableInstances The cable instances of completed connect steps
+     */
+    void markCableInstances(List<CableInstance> cableInstances) {
+        this.cableInstances.addAll(cableInstances);
+    }
+
     /**
      *
      * @param stepReference The step reference
@@ -553,180 +574,175 @@ public class InstancedTemplate {
                 } // end for(): initiate all step commands for same setID
 
 
-                // TODO: move things like this to here
-//              List<ProgramInfo> runInfos = null;
-//              List<ProgramInfo> startInfos = null;
-
-
-                // this do/while loop: process all step commands for same setID
-                boolean allStepsCompleteForThisStepSet;
-                do {
-                    allStepsCompleteForThisStepSet = true;
-
-                    // These individual .proceed() calls may potentially each block for a while, then return. At each return, they mark themselves as done, or not.
-                    //     Eventually, by cycling through this loop multiple times, all steps of this step set will be found to have concluded their processing.
-                    //     The loop exits at that time.
-                    if (bindHandler!=null && !bindHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-                        bindHandler.proceed();
-                        if (bindHandler.isDone()) {
-                            List<ResourceInstance> localRI = bindHandler.getResourceInstances();
-                            this.boundResourceInstances.addAll(localRI);
-                            log.debug(simpleName + "bindHandler() completes " + localRI.size() + " bind(s) for setID " + setID);
-                        }
-                    }
-                    if (configureHandler!=null && !configureHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        List<ProgramState> localProgramStates = configureHandler.proceed();
-                        if (configureHandler.isDone()) {
-                            boolean fail = true;
-                            if (localProgramStates.size() == configureHandler.getConsecutiveSameStepCount()) {
-                                boolean configureStepErroredOut= false;
-                                for (ProgramState ps : localProgramStates) {
-                                    RunnableProgram runnableProgram = ps.getRunnableProgram();
-                                    if (runnableProgram == null) {
-                                        configureStepErroredOut = true;
-                                        log.debug(this.simpleName + "A configure program returned null RunnableProgram");
-                                        break;
-                                    }
-
-                                    Integer programRunResult = runnableProgram.getRunResult();
-                                    if (programRunResult==null || programRunResult!=0) {
-                                        configureStepErroredOut = true;
-                                        log.debug(this.simpleName + "A configure program returned non-zero, or failed to run at all");
-                                        break;
-                                    }
-                                }
-                                if (!configureStepErroredOut)
-                                    fail = false;
-                            } else {
-                                log.debug(this.simpleName + "Configure program results are missing");
+                // Each handler now waits for the work it initiated. It is driven to completion by the completion of the Futures it waits on (see StepCompletion), so no thread waits or spins on its behalf.
+                //     This thread waits once for the step set: until all of its steps complete, until one of them errors out, or until the test run is canceled.
+                Executor executor = this.runnerMachine.getConfig().blockingExecutor;
+                List<CompletableFuture<?>> stepCompletions = new ArrayList<>();
+                CompletableFuture<List<ResourceInstance>> bindCompletion = null;
+                CompletableFuture<List<ProgramState>> configureCompletion = null;
+                CompletableFuture<List<CableInstance>> connectCompletion = null;
+                CompletableFuture<List<DeployInfo>> deployCompletion = null;
+                CompletableFuture<List<InspectInfo>> inspectCompletion = null;
+                CompletableFuture<List<ProgramState>> runCompletion = null;
+                CompletableFuture<List<ProgramState>> startCompletion = null;
+                if (bindHandler != null) {
+                    bindCompletion = StepCompletion.complete(bindHandler, executor);
+                    stepCompletions.add(bindCompletion);
+                }
+                if (configureHandler != null) {
+                    configureCompletion = StepCompletion.complete(configureHandler, executor);
+                    stepCompletions.add(configureCompletion);
+                }
+                if (connectHandler != null) {
+                    connectCompletion = StepCompletion.complete(connectHandler, executor);
+                    stepCompletions.add(connectCompletion);
+                }
+                if (deployHandler != null) {
+                    deployCompletion = StepCompletion.complete(deployHandler, executor);
+                    stepCompletions.add(deployCompletion);
+                }
+                if (inspectHandler != null) {
+                    inspectCompletion = StepCompletion.complete(inspectHandler, executor);
+                    stepCompletions.add(inspectCompletion);
+                }
+                if (runHandler != null) {
+                    runCompletion = StepCompletion.complete(runHandler, executor);
+                    stepCompletions.add(runCompletion);
+                }
+                if (startHandler != null) {
+                    startCompletion = StepCompletion.complete(startHandler, executor);
+                    stepCompletions.add(startCompletion);
+                }
+                if (!this.awaitStepSet(stepCompletions))
+                    break; // canceled while steps of this set were in progress
+
+                // all steps of this set have completed: check and record their results
+                if (bindHandler!=null && !this.isTestRunFailed()) {
+                    List<ResourceInstance> localRI = bindCompletion.join();
+                    this.boundResourceInstances.addAll(localRI);
+                    log.debug(simpleName + "bindHandler() completes " + localRI.size() + " bind(s) for setID " + setID);
+                }
+                if (configureHandler!=null && !this.isTestRunFailed()) {
+                    List<ProgramState> localProgramStates = configureCompletion.join();
+                    boolean fail = true;
+                    if (localProgramStates.size() == configureHandler.getConsecutiveSameStepCount()) {
+                        boolean configureStepErroredOut= false;
+                        for (ProgramState ps : localProgramStates) {
+                            RunnableProgram runnableProgram = ps.getRunnableProgram();
+                            if (runnableProgram == null) {
+                                configureStepErroredOut = true;
+                                log.debug(this.simpleName + "A configure program returned null RunnableProgram");
+                                break;
                             }
-                            if (fail)
-                                throw new Exception("Configure step(s) errored out");
-                            log.debug(simpleName + "configureHandler() completes " + configureHandler.getConsecutiveSameStepCount() + " configure program(s) for setID " + setID);
-                        }
-                    }
-                    if (connectHandler!=null && !connectHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        // we track and record CableInstance's of each connect, even though (probably) only needed for cleaning up the case where a parent template causes connects in a nested template
-                        List<CableInstance> localCableInstances = connectHandler.proceed();
-                        if (connectHandler.isDone()) {
-                            this.cableInstances.addAll(localCableInstances);
-                            if (ConnectInfo.getAllConnectedSuccess() && localCableInstances.size()==connectHandler.getConnectRequestCount()) {
-                                log.debug(simpleName + "connectHandler() completes " + connectHandler.getConnectRequestCount() + " connect(s) for setID " + setID);
-                            } else {
-                                // one or more connect steps errored out; this template is errored out
-                                throw new Exception("InstancedTemplate.runSteps() connect handling has incomplete successful connect list, for setID " + setID);
-                                // initiate cleanup/destroy of this template run; this.cableInstances holds all information
+
+                            Integer programRunResult = runnableProgram.getRunResult();
+                            if (programRunResult==null || programRunResult!=0) {
+                                configureStepErroredOut = true;
+                                log.debug(this.simpleName + "A configure program returned non-zero, or failed to run at all");
+                                break;
                             }
                         }
+                        if (!configureStepErroredOut)
+                            fail = false;
+                    } else {
+                        log.debug(this.simpleName + "Configure program results are missing");
                     }
-                    if (deployHandler!=null && !deployHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        // we track and record MachineInstance's of each deploy, even though (probably) only needed for cleaning up the case where a parent template deploys to a nested template
-                        deployHandler.proceed();
-                        if (deployHandler.isDone()) {
-                            List<DeployInfo> localDeployInfos = deployHandler.getDeployInfos();
-                            this.deployedInfos.addAll(localDeployInfos);
-                            if (DeployInfo.getAllDeployedSuccess() && localDeployInfos.size()==deployHandler.getDeployRequestCount()) {
-                                log.debug(simpleName + "deployHandler() completes " + deployHandler.getDeployRequestCount() + " deploys(s) for setID " + setID);
-                            } else {
-                                // one or more deploy steps errored out; this template is errored out
-                                throw new Exception("InstancedTemplate.runSteps() deploy handling has incomplete successful deployed list, for setID " + setID);
-                                // initiate cleanup/destroy of this template run; this.deployedInfos holds all information
-                            }
-                        }
+                    if (fail)
+                        throw new Exception("Configure step(s) errored out");
+                    log.debug(simpleName + "configureHandler() completes " + configureHandler.getConsecutiveSameStepCount() + " configure program(s) for setID " + setID);
+                }
+                if (connectHandler!=null && !this.isTestRunFailed()) {
+                    // we track and record CableInstance's of each connect, even though (probably) only needed for cleaning up the case where a parent template causes connects in a nested template
+                    List<CableInstance> localCableInstances = connectCompletion.join();
+                    this.markCableInstances(localCableInstances);
+                    if (ConnectInfo.getAllConnectedSuccess() && localCableInstances.size()==connectHandler.getConnectRequestCount()) {
+                        log.debug(simpleName + "connectHandler() completes " + connectHandler.getConnectRequestCount() + " connect(s) for setID " + setID);
+                    } else {
+                        // one or more connect steps errored out; this template is errored out
+                        throw new Exception("InstancedTemplate.runSteps() connect handling has incomplete successful connect list, for setID " + setID);
+                        // initiate cleanup/destroy of this template run; this.cableInstances holds all information
                     }
-                    if (inspectHandler!=null && !inspectHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        inspectHandler.proceed();
-                        if (inspectHandler.isDone()) {
-                            this.waitForInspect = true;
-                            log.debug(simpleName + "inspectHandler() completes " + inspectHandler.getInspectRequestCount() + " inspect(s) for setID " + setID);
-                            inspectHandler.cleanup();
-                        }
+                }
+                if (deployHandler!=null && !this.isTestRunFailed()) {
+                    // we track and record MachineInstance's of each deploy, even though (probably) only needed for cleaning up the case where a parent template deploys to a nested template
+                    List<DeployInfo> localDeployInfos = deployCompletion.join();
+                    this.deployedInfos.addAll(localDeployInfos);
+                    if (DeployInfo.getAllDeployedSuccess() && localDeployInfos.size()==deployHandler.getDeployRequestCount()) {
+                        log.debug(simpleName + "deployHandler() completes " + deployHandler.getDeployRequestCount() + " deploys(s) for setID " + setID);
+                    } else {
+                        // one or more deploy steps errored out; this template is errored out
+                        throw new Exception("InstancedTemplate.runSteps() deploy handling has incomplete successful deployed list, for setID " + setID);
+                        // initiate cleanup/destroy of this template run; this.deployedInfos holds all information
                     }
-                    if (runHandler!=null && !runHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        List<ProgramState> localProgramStates = runHandler.proceed();
-                        if (runHandler.isDone()) {
-                            boolean fail = true;
-                            if (localProgramStates.size() == runHandler.getConsecutiveSameStepCount()) {
-                                boolean runStepErroredOut= false;
-                                for (ProgramState ps : localProgramStates) {
-                                    RunnableProgram runnableProgram = ps.getRunnableProgram();
-                                    if (runnableProgram == null) {
-                                        runStepErroredOut = true;
-                                        log.debug(this.simpleName + "A run program returned null RunnableProgram");
-                                        break;
-                                    }
-
-                                    logProgramResults(runnableProgram, getRunID());
-                                    Integer programRunResult = runnableProgram.getRunResult();
-                                    if (programRunResult==null) {
-                                        runStepErroredOut = true;
-                                        log.debug(this.simpleName + "A program run returned null result");
-                                        break;
-                                    }else if (programRunResult != 0){
-                                        result = false;
-                                        break;
-                                    }
-                                }
-                                if (!runStepErroredOut)
-                                    fail = false;
-                            } else {
-                                log.debug(this.simpleName + "Run program results are missing");
+                }
+                if (inspectHandler!=null && !this.isTestRunFailed()) {
+                    inspectCompletion.join();
+                    this.waitForInspect = true;
+                    log.debug(simpleName + "inspectHandler() completes " + inspectHandler.getInspectRequestCount() + " inspect(s) for setID " + setID);
+                    inspectHandler.cleanup();
+                }
+                if (runHandler!=null && !this.isTestRunFailed()) {
+                    List<ProgramState> localProgramStates = runCompletion.join();
+                    boolean fail = true;
+                    if (localProgramStates.size() == runHandler.getConsecutiveSameStepCount()) {
+                        boolean runStepErroredOut= false;
+                        for (ProgramState ps : localProgramStates) {
+                            RunnableProgram runnableProgram = ps.getRunnableProgram();
+                            if (runnableProgram == null) {
+                                runStepErroredOut = true;
+                                log.debug(this.simpleName + "A run program returned null RunnableProgram");
+                                break;
+                            }
+
+                            logProgramResults(runnableProgram, getRunID());
+                            Integer programRunResult = runnableProgram.getRunResult();
+                            if (programRunResult==null) {
+                                runStepErroredOut = true;
+                                log.debug(this.simpleName + "A program run returned null result");
+                                break;
+                            }else if (programRunResult != 0){
+                                result = false;
+                                break;
                             }
-                            if (fail)
-                                throw new Exception("Run step(s) errored out");
-                            log.debug(simpleName + "runHandler() completes " + runHandler.getConsecutiveSameStepCount() + " run program(s) for setID " + setID);
                         }
+                        if (!runStepErroredOut)
+                            fail = false;
+                    } else {
+                        log.debug(this.simpleName + "Run program results are missing");
                     }
+                    if (fail)
+                        throw new Exception("Run step(s) errored out");
+                    log.debug(simpleName + "runHandler() completes " + runHandler.getConsecutiveSameStepCount() + " run program(s) for setID " + setID);
+                }
+                if (startHandler!=null && !this.isTestRunFailed()) {
+                    List<ProgramState> localProgramStates = startCompletion.join();
+                    boolean fail = true;
+                    if (localProgramStates.size() == startHandler.getConsecutiveSameStepCount()) {
+                        boolean startStepErroredOut= false;
+                        for (ProgramState ps : localProgramStates) {
+                            RunnableProgram runnableProgram = ps.getRunnableProgram();
+                            if (runnableProgram == null) {
+                                startStepErroredOut = true;
+                                log.debug(this.simpleName + "A program start returned null RunnableProgram");
+                                break;
+                            }
 
-                    if (startHandler!=null && !startHandler.isDone() && !this.isTestRunCanceled() && !this.isTestRunFailed()) {
-                        allStepsCompleteForThisStepSet = false;
-
-                        List<ProgramState> localProgramStates = startHandler.proceed();
-                        if (startHandler.isDone()) {
-                            boolean fail = true;
-                            if (localProgramStates.size() == startHandler.getConsecutiveSameStepCount()) {
-                                boolean startStepErroredOut= false;
-                                for (ProgramState ps : localProgramStates) {
-                                    RunnableProgram runnableProgram = ps.getRunnableProgram();
-                                    if (runnableProgram == null) {
-                                        startStepErroredOut = true;
-                                        log.debug(this.simpleName + "A program start returned null RunnableProgram");
-                                        break;
-                                    }
-
-                                    Integer programStartResult = runnableProgram.getRunResult();
-                                    if (programStartResult != null && programStartResult!=0) {
-                                        startStepErroredOut = true;
-                                        log.debug(this.simpleName + "A program start returned non-zero. Result: " + programStartResult);
-                                        break;
-                                    }
-                                }
-                                if (!startStepErroredOut)
-                                    fail = false;
-                            } else {
-                                log.debug(this.simpleName + "Start program results are missing");
+                            Integer programStartResult = runnableProgram.getRunResult();
+                            if (programStartResult != null && programStartResult!=0) {
+                                startStepErroredOut = true;
+                                log.debug(this.simpleName + "A program start returned non-zero. Result: " + programStartResult);
+                                break;
                             }
-                            if (fail)
-                                throw new Exception("Start step(s) errored out");
-                            log.debug(simpleName + "startHandler() completes " + startHandler.getConsecutiveSameStepCount() + " start program(s) for setID " + setID);
                         }
+                        if (!startStepErroredOut)
+                            fail = false;
+                    } else {
+                        log.debug(this.simpleName + "Start program results are missing");
                     }
-
-//                  // temporarily: uncomment these 2 lines to forcibly stay in the loop until test run is canceled
-//                  if (!this.isTestRunCanceled())
-//                      allStepsCompleteForThisStepSet = false;
-                } while (!allStepsCompleteForThisStepSet && !this.isTestRunCanceled() && !this.isTestRunFailed()); // end do/while loop: process all step commands for same setID
+                    if (fail)
+                        throw new Exception("Start step(s) errored out");
+                    log.debug(simpleName + "startHandler() completes " + startHandler.getConsecutiveSameStepCount() + " start program(s) for setID " + setID);
+                }
             } // end for(): process each step set, in sequence
         } catch (Exception e) {
             this.result = false;
@@ -750,6 +766,34 @@ public class InstancedTemplate {
             log.debug(this.simpleName + "runSteps() completes without error, for reNum " + this.getRunID() + ", templateID " + templateID);
     }
 
+    /**
+     * Wait for the steps of one step set to complete. Checks for a canceled test run once per second, while steps are in progress.
+     *
+     * @param stepCompletions The completion stages of the step handlers of the set
+     * @return true when all steps completed; false when the test run was canceled, in which case the steps are abandoned
+     * @throws Exception The exception of the first step to error out; the other steps are abandoned
+     */
+    private boolean awaitStepSet(List<CompletableFuture<?>> stepCompletions) throws Exception {
+        CompletableFuture<Object> stepSet = StepCompletion.allOrFirstFailure(stepCompletions);
+        try {
+            while (!this.isTestRunCanceled()) {
+                try {
+                    stepSet.get(1, TimeUnit.SECONDS);
+                    return true;
+                } catch (TimeoutException te) {
+                    // steps still in progress
+                } catch (ExecutionException ee) {
+                    throw StepCompletion.unwrap(ee);
+                }
+            }
+            return false;
+        } finally {
+            // stop driving any handler that is still in progress; a no-op for completed handlers
+            for (CompletableFuture<?> stepCompletion : stepCompletions)
+                stepCompletion.cancel(false);
+        }
+    }
+
     private void logProgramResults(RunnableProgram runnableProgram, long runID){
         String syserr = null;
         String sysout = null;
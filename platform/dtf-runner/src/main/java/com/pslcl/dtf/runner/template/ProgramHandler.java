@@ -3,7 +3,9 @@ package com.pslcl.dtf.runner.template;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -13,8 +15,9 @@ import com.pslcl.dtf.core.runner.resource.instance.MachineInstance;
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.instance.RunnableProgram;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+import com.pslcl.dtf.core.util.executor.CompletionFutureTask;
 
-public class ProgramHandler {
+public class ProgramHandler implements StepCompletion.Step<List<ProgramState>> {
 	private enum RunType {
 		CONFIGURE(0), RUN(1), START(2);
 		
@@ -82,6 +85,21 @@ public class ProgramHandler {
 	public boolean isDone() {
 		return done;
 	}
+
+    /**
+     * 
+     * @param executor
+     * @return A stage that completes when all programs are done
+     */
+    @Override
+    public CompletableFuture<Void> whenReady(Executor executor) {
+        List<Future<RunnableProgram>> futures = new ArrayList<>();
+        for (ProgramState programState : this.futuresOfProgramState) {
+            if (programState != null)
+                futures.add(programState.getFutureRunnableProgram());
+        }
+        return CompletionFutureTask.whenDone(futures, executor);
+    }
 	
     /**
      * 
@@ -151,7 +169,7 @@ public class ProgramHandler {
      * @return The list of completed ProgramState objects
      * @throws Exception
      */
-    List<ProgramState> proceed() throws Exception {
+    public List<ProgramState> proceed() throws Exception {
         if (this.programInfos==null || this.programInfos.isEmpty()) {
         	this.done = true;
             throw new Exception("ProgramHandler processing has no programInfo");
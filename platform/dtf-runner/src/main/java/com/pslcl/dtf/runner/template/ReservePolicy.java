@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.template;
+
+import java.util.List;
+
+import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
+
+/**
+ * How BindHandler chooses among resource providers that each reserved the same resource.
+ *
+ * Providers report neither cost nor whether a reservation reuses an existing resource, so the choice rests on what dtf-runner can see: configuration order, and how long each provider's binds have taken.
+ */
+enum ReservePolicy {
+    /** The provider configured first; the same choice as when providers were asked one at a time. */
+    ORDER {
+        @Override
+        int choose(List<ResourceProvider> offering, ResourceProviders resourceProviders) {
+            return 0;
+        }
+    },
+
+    /** The provider whose recent binds have been fastest. A provider with no binds yet is chosen first, so that it gets measured. */
+    LATENCY {
+        @Override
+        int choose(List<ResourceProvider> offering, ResourceProviders resourceProviders) {
+            int chosen = 0;
+            long chosenMillis = Long.MAX_VALUE;
+            for (int i=0; i<offering.size(); i++) {
+                long bindMillis = resourceProviders.getBindMillis(offering.get(i));
+                if (bindMillis < 0)
+                    return i;
+                if (bindMillis < chosenMillis) {
+                    chosen = i;
+                    chosenMillis = bindMillis;
+                }
+            }
+            return chosen;
+        }
+    };
+
+    /**
+     * @param offering The providers that reserved one resource, in configuration order; at least one
+     * @param resourceProviders Holds the recent bind times of each provider
+     * @return The index in offering of the chosen provider
+     */
+    abstract int choose(List<ResourceProvider> offering, ResourceProviders resourceProviders);
+
+    /**
+     * @param name A configured policy name, in any case
+     * @return The policy
+     * @throws IllegalArgumentException for an unknown name
+     */
+    static ReservePolicy parse(String name) {
+        return ReservePolicy.valueOf(name.trim().toUpperCase());
+    }
+}
@@ -18,6 +18,7 @@ package com.pslcl.dtf.runner.template;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -31,6 +32,7 @@ import com.pslcl.dtf.core.runner.resource.exception.ResourceNotReservedException
 import com.pslcl.dtf.core.runner.resource.instance.ResourceInstance;
 import com.pslcl.dtf.core.runner.resource.provider.ResourceProvider;
 import com.pslcl.dtf.core.util.PropertiesFile;
+import com.pslcl.dtf.core.util.StrH;
 import com.pslcl.dtf.core.util.StrH.StringPair;
 
 /**
@@ -40,6 +42,8 @@ public class ResourceProviders
 {
     private final List<ResourcesManager> resourceManagers;
     private final List<ResourceProvider> resourceProviders;
+    private final ConcurrentHashMap<ResourceProvider, Long> bindMillis; // smoothed recent bind time of each provider
+    private volatile ReservePolicy reservePolicy;
     private final Logger log;
     private final String simpleName;
 
@@ -51,6 +55,8 @@ public class ResourceProviders
         this.simpleName = getClass().getSimpleName() + " ";
         resourceManagers = new ArrayList<ResourcesManager>();
         resourceProviders = new ArrayList<ResourceProvider>();
+        bindMillis = new ConcurrentHashMap<ResourceProvider, Long>();
+        reservePolicy = ReservePolicy.ORDER;
     }
     
     public List<ResourcesManager> getManagers()
@@ -63,6 +69,36 @@ public class ResourceProviders
         return new ArrayList<ResourceProvider>(resourceProviders);
     }
 
+    /**
+     * @return How to choose among providers that reserve the same resource
+     */
+    ReservePolicy getReservePolicy()
+    {
+        return reservePolicy;
+    }
+
+    /**
+     * Note the time taken by one successful bind.
+     * @param provider The provider that bound the resource
+     * @param millis The time from the bind call until the bound resource was seen
+     */
+    void recordBind(ResourceProvider provider, long millis)
+    {
+        // each new bind counts for a quarter, so the figure follows a provider that slows down or recovers
+        Long previous = bindMillis.get(provider);
+        bindMillis.put(provider, (previous == null) ? millis : (3 * previous + millis) / 4);
+    }
+
+    /**
+     * @param provider A provider
+     * @return The smoothed recent bind time of provider, in milliseconds, or -1 if it has bound nothing yet
+     */
+    long getBindMillis(ResourceProvider provider)
+    {
+        Long millis = bindMillis.get(provider);
+        return (millis == null) ? -1 : millis;
+    }
+
     /**
      * Note: Pair init() with a destroy() call
      * @param config The RunnerConfig
@@ -78,6 +114,12 @@ public class ResourceProviders
         config.initsb.level.incrementAndGet();
         configToManagers(config, ResourceNames.ResourceManagerClassKey, ResourceNames.ResourceManagerClassDefault);
         config.initsb.level.decrementAndGet();
+
+        String policy = StrH.trim(config.properties.getProperty(ResourceNames.DtfRunnerReservePolicyKey, ResourceNames.DtfRunnerReservePolicyDefault));
+        if (policy == null || policy.isEmpty())
+            policy = ResourceNames.DtfRunnerReservePolicyDefault;
+        config.initsb.ttl(ResourceNames.DtfRunnerReservePolicyKey, " = ", policy);
+        reservePolicy = ReservePolicy.parse(policy);
     }
     
     private void configToManagers(RunnerConfig config, String key, String defaultValue) throws Exception
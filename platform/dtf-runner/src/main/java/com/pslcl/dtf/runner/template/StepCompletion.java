@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2015, Panasonic Corporation.
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.pslcl.dtf.runner.template;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Drives step handlers to completion from the completion of the Futures they wait on, so that no thread is held while a step waits for its resources.
+ *
+ * Each handler keeps its .proceed() pattern: the first call initiates work without blocking; each later call completes whatever that work is waiting on, and may initiate more.
+ *     Here, each later call is made only when everything the handler waits on is done, so it does not block.
+ */
+final class StepCompletion {
+
+    /**
+     * A step handler, driven by repeated calls to proceed() until isDone().
+     *
+     * @param <T> The type returned by proceed() when the handler is done
+     */
+    interface Step<T> {
+        T proceed() throws Exception;
+        boolean isDone();
+
+        /**
+         * @param executor Used to wait on any Future that cannot signal its own completion
+         * @return A stage that completes when the next call to proceed() will not block
+         */
+        CompletableFuture<Void> whenReady(Executor executor);
+    }
+
+    private StepCompletion() {
+    }
+
+    /**
+     * Follow a step handler, whose first proceed() call has already been made, to completion.
+     *
+     * @param step The step handler
+     * @param executor Used to wait on any Future that cannot signal its own completion
+     * @return A stage that completes with the final result of step.proceed(), or exceptionally with whatever it throws. Cancel it to stop driving the handler.
+     */
+    static <T> CompletableFuture<T> complete(Step<T> step, Executor executor) {
+        CompletableFuture<T> completion = new CompletableFuture<T>();
+        advance(step, executor, completion);
+        return completion;
+    }
+
+    private static <T> void advance(final Step<T> step, final Executor executor, final CompletableFuture<T> completion) {
+        step.whenReady(executor).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignore, Throwable readyFailure) {
+                if (completion.isDone())
+                    return; // canceled
+                try {
+                    T result = step.proceed(); // does not block; any failure of what it waited on is seen here
+                    if (step.isDone())
+                        completion.complete(result);
+                    else
+                        advance(step, executor, completion);
+                } catch (Throwable t) {
+                    completion.completeExceptionally(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return a stage that completes when all of the given stages complete normally, or exceptionally as soon as any one of them fails.
+     *
+     * @param stages The stages of one step set
+     * @return The combined stage
+     */
+    static CompletableFuture<Object> allOrFirstFailure(List<CompletableFuture<?>> stages) {
+        final CompletableFuture<Object> firstFailure = new CompletableFuture<Object>();
+        BiConsumer<Object, Throwable> failFast = new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object ignore, Throwable t) {
+                if (t != null)
+                    firstFailure.completeExceptionally(t);
+            }
+        };
+        for (CompletableFuture<?> stage : stages)
+            stage.whenComplete(failFast);
+        CompletableFuture<Void> all = CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()]));
+        return CompletableFuture.anyOf(all, firstFailure);
+    }
+
+    /**
+     * Recover the exception thrown by a step handler from the wrapping added by CompletableFuture.
+     *
+     * @param t A failure seen through a CompletableFuture
+     * @return The original exception
+     */
+    static Exception unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null)
+            t = t.getCause();
+        if (t instanceof Exception)
+            return (Exception)t;
+        return new Exception(t);
+    }
+
+}
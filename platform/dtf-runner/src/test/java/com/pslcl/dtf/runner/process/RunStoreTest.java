@@ -0,0 +1,304 @@
+package com.pslcl.dtf.runner.process;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.pslcl.dtf.runner.DBConnPool;
+
+/**
+ * Exercises RunStore against an embedded H2 database in MySQL mode, holding tables template and run as qa_portal defines them.
+ * Run as a program, with H2 on the classpath; it exits with status 1 on the first failed check.
+ */
+public class RunStoreTest {
+    private static final String URL = "jdbc:h2:mem:runstore;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    private static final String HASH = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+    private static final String[] SCHEMA = {
+        "CREATE TABLE template (" +
+        "  pk_template INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  hash BINARY(32) NOT NULL UNIQUE," +
+        "  steps MEDIUMTEXT NOT NULL," +
+        "  enabled TINYINT(1) NULL)",
+        "CREATE TABLE run (" +
+        "  pk_run INT NOT NULL AUTO_INCREMENT PRIMARY KEY," +
+        "  fk_template INT NOT NULL REFERENCES template (pk_template) ON DELETE CASCADE," +
+        "  artifacts LONGBLOB NULL DEFAULT NULL," +
+        "  start_time DATETIME NOT NULL," +
+        "  ready_time DATETIME NULL DEFAULT NULL," +
+        "  end_time DATETIME NULL DEFAULT NULL," +
+        "  result TINYINT(1) NULL DEFAULT NULL," +
+        "  owner VARCHAR(128) NULL DEFAULT NULL)"
+    };
+
+    /**
+     * Hands out connections to the embedded database, in place of the MySQL connection pool.
+     */
+    private static class EmbeddedConnPool extends DBConnPool {
+        @Override
+        public Connection getConnection() throws SQLException {
+            return DriverManager.getConnection(URL, "sa", "");
+        }
+
+        @Override
+        public boolean getReadOnly() {
+            return false;
+        }
+    }
+
+    private static Connection connection; // also keeps the in-memory database open
+    private static long pkTemplate;
+
+    public static void main(String args[]) {
+        int exitStatus = 1;
+        try {
+            connection = DriverManager.getConnection(URL, "sa", "");
+            try (Statement statement = connection.createStatement()) {
+                for (String table : SCHEMA)
+                    statement.execute(table);
+            }
+            pkTemplate = addTemplate(HASH, "include 0123");
+
+            testLoadRunEntry();
+            testGetTemplate();
+            testStoreReady();
+            testStoreResultOnce();
+            testGetResult();
+            testGetCanceledRuns();
+            testWriteBehind();
+            System.out.println("RunStoreTest passed");
+            exitStatus = 0;
+        } catch (Throwable t) {
+            System.err.println("RunStoreTest failed: " + t);
+            t.printStackTrace();
+        }
+        System.exit(exitStatus);
+    }
+
+    private static void testLoadRunEntry() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        long reNum = addRun(null);
+        DBTemplate dbTemplate = new DBTemplate(reNum);
+        runStore.loadRunEntry(dbTemplate);
+        check(dbTemplate.pk_template == pkTemplate, "loadRunEntry() reads pk_template");
+        check(HASH.equals(toHex(dbTemplate.hash)), "loadRunEntry() reads hash");
+        check(dbTemplate.enabled, "loadRunEntry() reads enabled");
+        check("include 0123".equals(dbTemplate.steps), "loadRunEntry() reads steps");
+        check(dbTemplate.start_time != null, "loadRunEntry() reads start_time");
+        check(dbTemplate.result == null, "loadRunEntry() reads a null result as null");
+
+        try {
+            runStore.loadRunEntry(new DBTemplate(-5L));
+            check(false, "loadRunEntry() throws for a missing run");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    private static void testGetTemplate() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        DBTemplate found = runStore.getTemplate(HASH);
+        check(found.pk_template == pkTemplate, "getTemplate() finds a template by its hex hash");
+        check(found.checkValidTemplateInfo(), "getTemplate() returns a valid template");
+
+        // a cached template is still returned after its row is gone
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE template SET steps = 'changed' WHERE pk_template = " + pkTemplate);
+        }
+        check("include 0123".equals(runStore.getTemplate(HASH).steps), "getTemplate() caches found templates");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE template SET steps = 'include 0123' WHERE pk_template = " + pkTemplate);
+        }
+
+        DBTemplate missing = runStore.getTemplate(HASH.replace('0', 'f'));
+        check(missing.pk_template == -1 && !missing.checkValidTemplateInfo(), "getTemplate() returns an invalid template for an unknown hash");
+    }
+
+    private static void testStoreReady() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        long reNum = addRun(null);
+        DBTemplate dbTemplate = new DBTemplate(reNum);
+        runStore.loadRunEntry(dbTemplate);
+        dbTemplate.ready_time = new Date();
+        dbTemplate.owner = "runner-a";
+        runStore.storeReady(dbTemplate);
+        check("runner-a".equals(readOwner(reNum)), "storeReady() writes owner");
+        check(readResult(reNum) == null, "storeReady() leaves result null");
+
+        setResult(reNum, Boolean.TRUE);
+        try {
+            runStore.storeReady(dbTemplate);
+            check(false, "storeReady() throws once a result is stored");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    private static void testStoreResultOnce() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        long reNum = addRun(null);
+        DBTemplate dbTemplate = new DBTemplate(reNum);
+        runStore.loadRunEntry(dbTemplate);
+        dbTemplate.end_time = new Date();
+        dbTemplate.result = Boolean.TRUE;
+        dbTemplate.artifacts = new byte[] {1, 2, 3};
+        check(runStore.storeResult(dbTemplate), "storeResult() stores the first result");
+        check(Boolean.TRUE.equals(readResult(reNum)), "storeResult() writes result");
+
+        dbTemplate.result = Boolean.FALSE;
+        check(!runStore.storeResult(dbTemplate), "storeResult() reports an already stored result");
+        check(Boolean.TRUE.equals(readResult(reNum)), "storeResult() does not overwrite a stored result");
+    }
+
+    private static void testGetResult() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        long reNum = addRun(null);
+        check(runStore.getResult(reNum) == null, "getResult() returns null for no stored result");
+        setResult(reNum, Boolean.FALSE);
+        check(Boolean.FALSE.equals(runStore.getResult(reNum)), "getResult() reads a stored result");
+
+        // stored results are final, so the cached one is returned
+        setResult(reNum, Boolean.TRUE);
+        check(Boolean.FALSE.equals(runStore.getResult(reNum)), "getResult() caches stored results");
+    }
+
+    private static void testGetCanceledRuns() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        List<Long> reNums = new ArrayList<>();
+        List<Long> canceled = new ArrayList<>();
+        // more than one query's worth of runs
+        for (int i=0; i<1200; i++) {
+            Boolean result = (i % 3 == 0) ? Boolean.FALSE : ((i % 3 == 1) ? Boolean.TRUE : null);
+            long reNum = addRun(result);
+            reNums.add(reNum);
+            if (Boolean.FALSE.equals(result))
+                canceled.add(reNum);
+        }
+        List<Long> found = runStore.getCanceledRuns(reNums);
+        check(found.size() == canceled.size() && found.containsAll(canceled), "getCanceledRuns() finds exactly the runs with a false result");
+        check(runStore.getCanceledRuns(new ArrayList<Long>()).isEmpty(), "getCanceledRuns() accepts no runs");
+        // a short list is padded by repeating its last run, which must not be reported twice
+        List<Long> shortList = new ArrayList<>();
+        shortList.add(reNums.get(1));
+        shortList.add(canceled.get(0));
+        check(runStore.getCanceledRuns(shortList).size() == 1, "getCanceledRuns() reports a padded run once");
+    }
+
+    private static void testWriteBehind() throws Exception {
+        RunStore runStore = new RunStore(new EmbeddedConnPool());
+        ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            runStore.start(scheduledExecutor, 60000);
+            long readyReNum = addRun(null);
+            long doneReNum = addRun(null);
+
+            DBTemplate ready = new DBTemplate(readyReNum);
+            runStore.loadRunEntry(ready);
+            ready.ready_time = new Date();
+            ready.owner = "runner-b";
+            runStore.storeReady(ready);
+            check(readOwner(readyReNum) == null, "storeReady() holds the ready update");
+
+            DBTemplate done = new DBTemplate(doneReNum);
+            runStore.loadRunEntry(done);
+            done.ready_time = new Date();
+            done.owner = "runner-b";
+            runStore.storeReady(done);
+            done.end_time = new Date();
+            done.result = Boolean.TRUE;
+            check(runStore.storeResult(done), "storeResult() stores past a held ready update");
+
+            // the held ready update of doneReNum is dropped, so it cannot null the stored result
+            runStore.stop();
+            check("runner-b".equals(readOwner(readyReNum)), "stop() writes held ready updates");
+            check(Boolean.TRUE.equals(readResult(doneReNum)), "storeResult() supersedes the held ready update");
+        } finally {
+            scheduledExecutor.shutdownNow();
+        }
+    }
+
+    // private methods
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+        System.out.println("ok: " + what);
+    }
+
+    private static long addTemplate(String hash, String steps) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO template (hash, steps, enabled) VALUES (?, ?, 1)", Statement.RETURN_GENERATED_KEYS)) {
+            statement.setBytes(1, fromHex(hash));
+            statement.setString(2, steps);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    private static long addRun(Boolean result) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO run (fk_template, start_time, result) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            statement.setLong(1, pkTemplate);
+            statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            statement.setObject(3, result);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    private static void setResult(long reNum, Boolean result) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE run SET result = ? WHERE pk_run = ?")) {
+            statement.setObject(1, result);
+            statement.setLong(2, reNum);
+            statement.executeUpdate();
+        }
+    }
+
+    private static Boolean readResult(long reNum) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT result FROM run WHERE pk_run = ?")) {
+            statement.setLong(1, reNum);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                boolean result = resultSet.getBoolean(1);
+                return resultSet.wasNull() ? null : result;
+            }
+        }
+    }
+
+    private static String readOwner(long reNum) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT owner FROM run WHERE pk_run = ?")) {
+            statement.setLong(1, reNum);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i=0; i<bytes.length; i++)
+            bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+}